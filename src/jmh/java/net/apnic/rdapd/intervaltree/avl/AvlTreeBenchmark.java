@@ -0,0 +1,96 @@
+package net.apnic.rdapd.intervaltree.avl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building and probing an AvlTree against the implementation it
+ * replaced.
+ *
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AvlTreeBenchmark {
+    @Param({"10000", "100000"})
+    int size;
+
+    IntInterval[] intervals;
+    AvlTree<Integer, Integer, IntInterval> tree;
+    LegacyAvlTree<Integer, Integer, IntInterval> legacyTree;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        intervals = new IntInterval[size];
+        for (int i = 0; i < size; i++) {
+            int low = random.nextInt(Integer.MAX_VALUE / 2);
+            intervals[i] = new IntInterval(low, low + random.nextInt(65536));
+        }
+        tree = buildCurrent();
+        legacyTree = buildLegacy();
+    }
+
+    private AvlTree<Integer, Integer, IntInterval> buildCurrent() {
+        AvlTree<Integer, Integer, IntInterval> t = new AvlTree<>();
+        for (int i = 0; i < intervals.length; i++) {
+            t = t.update(intervals[i], i, (a, b) -> a, b -> b);
+        }
+        return t;
+    }
+
+    private LegacyAvlTree<Integer, Integer, IntInterval> buildLegacy() {
+        LegacyAvlTree<Integer, Integer, IntInterval> t = new LegacyAvlTree<>();
+        for (int i = 0; i < intervals.length; i++) {
+            t = t.update(intervals[i], i, (a, b) -> a, b -> b);
+        }
+        return t;
+    }
+
+    @Benchmark
+    public Object insertCurrent() {
+        return buildCurrent();
+    }
+
+    @Benchmark
+    public Object insertLegacy() {
+        return buildLegacy();
+    }
+
+    @Benchmark
+    public int exactCurrent() {
+        int found = 0;
+        for (IntInterval interval : intervals) {
+            Optional<Integer> value = tree.exact(interval);
+            found += value.isPresent() ? 1 : 0;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int exactLegacy() {
+        int found = 0;
+        for (IntInterval interval : intervals) {
+            Optional<Integer> value = legacyTree.exact(interval);
+            found += value.isPresent() ? 1 : 0;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,121 @@
+package net.apnic.rdapd.intervaltree.avl;
+
+import net.apnic.rdapd.intervaltree.Interval;
+
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The mutation path of AvlTree as it stood before the allocation-free
+ * rewrite, kept only as a baseline for {@link AvlTreeBenchmark}.
+ */
+final class LegacyAvlTree<K extends Comparable<K>, V, I extends Interval<K>> {
+    private final Node<K,V,I> root;
+
+    LegacyAvlTree() {
+        this(null);
+    }
+
+    private LegacyAvlTree(Node<K,V,I> root) {
+        this.root = root;
+    }
+
+    Optional<V> exact(I range) {
+        return exact(root, range).map(n -> n.value);
+    }
+
+    private Optional<Node<K,V,I>> exact(Node<K, V, I> node, I range) {
+        return Optional.ofNullable(node).flatMap(n -> {
+            switch (Integer.signum(range.compareTo(n.key))) {
+                case -1: return exact(n.left, range);
+                case  1: return exact(n.right, range);
+            }
+            return Optional.of(n);
+        });
+    }
+
+    <U> LegacyAvlTree<K, V, I> update(I range, U value, BiFunction<V, U, V> append, Function<U, V> create) {
+        return new LegacyAvlTree<>(insert(root, range, value, append, create));
+    }
+
+    private int heightOf(Node<K, V, I> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private int balanceOf(Node<K,V,I> n) {
+        return Integer.signum(heightOf(n.left) - heightOf(n.right));
+    }
+
+    private Node<K,V,I> rotateLeft(Node<K,V,I> node) {
+        Node<K,V,I> right = node.right;
+        Node<K,V,I> newLeft = new Node<>(node.key, node.value, node.left, right.left);
+        return new Node<>(right.key, right.value, newLeft, right.right);
+    }
+
+    private Node<K,V,I> rotateRight(Node<K,V,I> node) {
+        Node<K,V,I> left = node.left;
+        Node<K,V,I> newRight = new Node<>(node.key, node.value, left.right, node.right);
+        return new Node<>(left.key, left.value, left.left, newRight);
+    }
+
+    private <U> Node<K,V,I> insert(Node<K,V,I> n, I r, U v, BiFunction<V, U, V> append, Function<U, V> create) {
+        return Optional.ofNullable(n).map(node -> {
+            Node<K,V,I> newLeft = node.left;
+            Node<K,V,I> newRight = node.right;
+            switch (Integer.signum(r.compareTo(node.key))) {
+                case -1: newLeft = insert(node.left, r, v, append, create); break;
+                case  1: newRight = insert(node.right, r, v, append, create); break;
+                default: return node.map(e -> append.apply(e, v));
+            }
+
+            node = new Node<>(node.key, node.value, newLeft, newRight);
+            int balance = Integer.signum(heightOf(node.left) - heightOf(node.right));
+
+            switch (balance) {
+                case -1:
+                    node = new Node<>(node.key, node.value, node.left,
+                        node.right == null || balanceOf(node.right) <= 0 ? node.right : rotateRight(node.right));
+                    node = rotateLeft(node);
+                    break;
+                case  1:
+                    node = new Node<>(node.key, node.value,
+                            node.left == null || balanceOf(node.left) >= 0 ? node.left : rotateLeft(node.left),
+                            node.right);
+                    node = rotateRight(node);
+            }
+
+            return node;
+        }).orElse(new Node<>(r, create.apply(v), null, null));
+    }
+
+    private static final class Node<K extends Comparable<K>, V, I extends Interval<K>> {
+        final int height;
+        final K max;
+        final I key;
+        final V value;
+        final Node<K,V,I> left;
+        final Node<K,V,I> right;
+
+        Node(I key, V value, Node<K,V,I> left, Node<K,V,I> right) {
+            this.left = left;
+            this.right = right;
+            this.key = key;
+            this.value = value;
+            Optional<Node<K, V, I>> optLeft = Optional.ofNullable(left);
+            Optional<Node<K, V, I>> optRight = Optional.ofNullable(right);
+            this.height = Integer.max(
+                    optLeft.map(n -> n.height).orElse(0),
+                    optRight.map(n -> n.height).orElse(0)) + 1;
+            this.max = Stream.of(Optional.of(key.high()), optLeft.map(n -> n.max), optRight.map(n -> n.max))
+                    .flatMap(o -> o.map(Stream::of).orElse(Stream.empty()))
+                    .max(Comparator.naturalOrder()).orElse(key.high());
+        }
+
+        Node<K,V,I> map(Function<V, V> map) {
+            return new Node<>(key, map.apply(value), left, right);
+        }
+    }
+}
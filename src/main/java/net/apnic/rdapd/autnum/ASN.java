@@ -13,7 +13,7 @@ public class ASN
 
     public ASN(long asn)
     {
-        if(asn < MIN_ASN || asn > MAX_ASN)
+        if(!isValid(asn))
         {
             throw new IllegalArgumentException(
                 String.format("invalid ASN value must be in the range %d - %d",
@@ -47,6 +47,10 @@ public class ASN
         return Long.valueOf(getASN()).hashCode();
     }
 
+    public static boolean isValid(long asn) {
+        return asn >= MIN_ASN && asn <= MAX_ASN;
+    }
+
     public static ASN valueOf(long asn) {
         return new ASN(asn);
     }
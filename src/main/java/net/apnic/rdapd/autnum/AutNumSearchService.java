@@ -6,7 +6,16 @@ import net.apnic.rdapd.rdap.AutNum;
 import java.util.Optional;
 
 public interface AutNumSearchService {
-    Optional<AutNum> findCurrent(ASN asn);
+    Optional<AutNum> findCurrent(long asn);
 
-    Optional<ObjectHistory> findHistory(ASN asn);
+    /**
+     * Find the most specific autnum holding an ASN at a given time.
+     *
+     * @param asn the ASN to look up
+     * @param when the time of interest, in seconds since the epoch
+     * @return The autnum as it was at that time, if any
+     */
+    Optional<AutNum> findAt(long asn, long when);
+
+    Optional<ObjectHistory> findHistory(long asn);
 }
@@ -2,13 +2,10 @@ package net.apnic.rdapd.autnum.controller;
 
 import javax.servlet.http.HttpServletRequest;
 
-import net.apnic.rdapd.autnum.ASN;
 import net.apnic.rdapd.autnum.AutNumSearchService;
-import net.apnic.rdapd.error.MalformedRequestException;
 import net.apnic.rdapd.rdap.controller.RDAPControllerUtil;
 import net.apnic.rdapd.rdap.controller.RDAPResponseMaker;
 import net.apnic.rdapd.rdap.TopLevelObject;
-import net.apnic.rdapd.types.Parsing;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,13 +49,9 @@ public class AutnumHistoryRouteController
     {
         LOGGER.debug("autnum history GET path query for {}", handle);
 
-        try {
-            handle = Parsing.parseAutnum(handle);
-        } catch(Exception ex) {
-            throw new MalformedRequestException(ex);
-        }
+        long asn = RDAPControllerUtil.parseAutnum(handle);
 
         return rdapControllerUtil.historyResponse(request,
-            autnumSearchService.findHistory(ASN.valueOf(Long.parseLong(handle))).orElse(null));
+            autnumSearchService.findHistory(asn).orElse(null));
     }
 }
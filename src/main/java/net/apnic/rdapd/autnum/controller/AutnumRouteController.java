@@ -2,13 +2,10 @@ package net.apnic.rdapd.autnum.controller;
 
 import javax.servlet.http.HttpServletRequest;
 
-import net.apnic.rdapd.autnum.ASN;
 import net.apnic.rdapd.autnum.AutNumSearchService;
-import net.apnic.rdapd.error.MalformedRequestException;
 import net.apnic.rdapd.rdap.controller.RDAPControllerUtil;
 import net.apnic.rdapd.rdap.controller.RDAPResponseMaker;
 import net.apnic.rdapd.rdap.TopLevelObject;
-import net.apnic.rdapd.types.Parsing;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +15,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -48,18 +46,17 @@ public class AutnumRouteController
     @RequestMapping(value="/{handle}", method=RequestMethod.GET)
     public ResponseEntity<TopLevelObject> autnumPathGet(
         HttpServletRequest request,
-        @PathVariable("handle") String handle)
+        @PathVariable("handle") String handle,
+        @RequestParam(value="asOf", required=false) String asOf)
     {
         LOGGER.debug("autnum GET path query for {}", handle);
 
-        try {
-            handle = Parsing.parseAutnum(handle);
-        } catch(Exception ex) {
-            throw new MalformedRequestException(ex);
-        }
+        long asn = RDAPControllerUtil.parseAutnum(handle);
 
+        Long when = RDAPControllerUtil.parseAsOf(asOf);
         return rdapControllerUtil.singleObjectResponse(request,
-            autnumSearchService.findCurrent(ASN.valueOf(Long.parseLong(handle))).orElse(null));
+            (when == null ? autnumSearchService.findCurrent(asn)
+                          : autnumSearchService.findAt(asn, when)).orElse(null));
     }
 
     /**
@@ -68,17 +65,16 @@ public class AutnumRouteController
     @RequestMapping(value="/{handle}", method=RequestMethod.HEAD)
     public ResponseEntity<TopLevelObject> autnumPathHead(
         HttpServletRequest request,
-        @PathVariable("handle") String handle)
+        @PathVariable("handle") String handle,
+        @RequestParam(value="asOf", required=false) String asOf)
     {
         LOGGER.debug("autnum HEAD path query for {}", handle);
 
-        try {
-            handle = Parsing.parseAutnum(handle);
-        } catch(Exception ex) {
-            throw new MalformedRequestException(ex);
-        }
+        long asn = RDAPControllerUtil.parseAutnum(handle);
 
+        Long when = RDAPControllerUtil.parseAsOf(asOf);
         return rdapControllerUtil.singleObjectResponse(request,
-            autnumSearchService.findCurrent(ASN.valueOf(Long.parseLong(handle))).orElse(null));
+            (when == null ? autnumSearchService.findCurrent(asn)
+                          : autnumSearchService.findAt(asn, when)).orElse(null));
     }
 }
@@ -18,7 +18,7 @@ public class DomainConfiguration
         return new WildCardSearchIndex(ObjectClass.DOMAIN, "name",
             (rev, objectKey) ->
             {
-                return Stream.of(((Domain)rev.getContents()).getLdhName());
+                return Stream.of(((Domain)rev.getSummary()).getLdhName());
             });
     }
 }
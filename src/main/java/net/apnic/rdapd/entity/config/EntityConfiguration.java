@@ -25,7 +25,7 @@ public class EntityConfiguration
         return new WildCardSearchIndex(ObjectClass.ENTITY, "fn",
             (rev, objectKey) ->
             {
-                return ((Entity)rev.getContents())
+                return ((Entity)rev.getSummary())
                     .getVCard()
                     .findVCardAttribute("fn")
                     .map(vcard ->
@@ -3,10 +3,8 @@ package net.apnic.rdapd.entity.controller;
 import javax.servlet.http.HttpServletRequest;
 
 import net.apnic.rdapd.history.ObjectClass;
-import net.apnic.rdapd.history.ObjectHistory;
 import net.apnic.rdapd.history.ObjectIndex;
 import net.apnic.rdapd.history.ObjectKey;
-import net.apnic.rdapd.history.Revision;
 import net.apnic.rdapd.rdap.controller.RDAPControllerUtil;
 import net.apnic.rdapd.rdap.controller.RDAPResponseMaker;
 import net.apnic.rdapd.rdap.TopLevelObject;
@@ -19,6 +17,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -49,14 +48,16 @@ public class EntityRouteController
     @RequestMapping(value="/{handle}", method=RequestMethod.GET)
     public ResponseEntity<TopLevelObject> entityPathGet(
         HttpServletRequest request,
-        @PathVariable("handle") String handle)
+        @PathVariable("handle") String handle,
+        @RequestParam(value="asOf", required=false) String asOf)
     {
         LOGGER.debug("entity GET path query for {}", handle);
 
+        ObjectKey objectKey = new ObjectKey(ObjectClass.ENTITY, handle);
+        Long when = RDAPControllerUtil.parseAsOf(asOf);
         return rdapControllerUtil.singleObjectResponse(request,
-            objectIndex.historyForObject(new ObjectKey(ObjectClass.ENTITY, handle))
-            .flatMap(ObjectHistory::mostCurrent)
-            .map(Revision::getContents).orElse(null));
+            (when == null ? objectIndex.currentObject(objectKey)
+                          : objectIndex.objectAt(objectKey, when)).orElse(null));
     }
 
     /**
@@ -65,13 +66,15 @@ public class EntityRouteController
     @RequestMapping(value="/{handle}", method=RequestMethod.HEAD)
     public ResponseEntity<TopLevelObject> entityPathHead(
         HttpServletRequest request,
-        @PathVariable("handle") String handle)
+        @PathVariable("handle") String handle,
+        @RequestParam(value="asOf", required=false) String asOf)
     {
         LOGGER.debug("entity HEAD path query for {}", handle);
 
+        ObjectKey objectKey = new ObjectKey(ObjectClass.ENTITY, handle);
+        Long when = RDAPControllerUtil.parseAsOf(asOf);
         return rdapControllerUtil.singleObjectResponse(request,
-            objectIndex.historyForObject(new ObjectKey(ObjectClass.ENTITY, handle))
-            .flatMap(ObjectHistory::mostCurrent)
-            .map(Revision::getContents).orElse(null));
+            (when == null ? objectIndex.currentObject(objectKey)
+                          : objectIndex.objectAt(objectKey, when)).orElse(null));
     }
 }
@@ -0,0 +1,113 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.RdapObject;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.function.Supplier;
+
+/**
+ * A revision whose contents are produced only when asked for.
+ *
+ * The revision holds a summary of its contents, from which indices are
+ * built, and a supplier of the full contents.  Suppliers are free to cache
+ * what they produce, or not.  A revision may also hold its contents already
+ * produced, for as long as it is open; superseding it leaves only the
+ * supplier.
+ */
+public final class DeferredRevision extends Revision {
+    private static final long serialVersionUID = -1709207328960245381L;
+
+    private final RdapObject summary;
+    private final Supplier<RdapObject> contents;
+
+    /* The contents already produced, kept until the revision is superseded */
+    private final RdapObject produced;
+
+    /**
+     * Construct a new revision for an object.
+     *
+     * @param validFrom  When this revision came into effect, in seconds since
+     *                   the epoch
+     * @param validUntil When this revision was superseded, in seconds since
+     *                   the epoch, or {@link #OPEN} if it has not been
+     * @param summary    A summary of the object's revision
+     * @param contents   The source of the object's revision, as RDAP data
+     */
+    public DeferredRevision(long validFrom, long validUntil, RdapObject summary,
+                            Supplier<RdapObject> contents) {
+        this(validFrom, validUntil, summary, contents, null);
+    }
+
+    /**
+     * Construct a new revision for an object, whose contents are deferred
+     * only once it is superseded.
+     *
+     * @param validFrom  When this revision came into effect, in seconds since
+     *                   the epoch
+     * @param validUntil When this revision was superseded, in seconds since
+     *                   the epoch, or {@link #OPEN} if it has not been
+     * @param summary    A summary of the object's revision
+     * @param contents   The source of the object's revision, as RDAP data
+     * @param produced   The object's revision as the source would produce
+     *                   it, kept while the revision is open, or null
+     */
+    public DeferredRevision(long validFrom, long validUntil, RdapObject summary,
+                            Supplier<RdapObject> contents, RdapObject produced) {
+        super(validFrom, validUntil, null);
+        this.summary = summary;
+        this.contents = contents;
+        this.produced = validUntil == OPEN ? produced : null;
+    }
+
+    @Override
+    public RdapObject getContents() {
+        return produced != null ? produced : contents.get();
+    }
+
+    @Override
+    public RdapObject getSummary() {
+        return summary;
+    }
+
+    /* The source of the contents, for writing the revision as it is */
+    Supplier<RdapObject> getSupplier() {
+        return contents;
+    }
+
+    @Override
+    public Revision supersede(long validUntil) {
+        return new DeferredRevision(getValidFromEpochSecond(), validUntil, summary, contents);
+    }
+
+    /**** Serialization code below ****/
+
+    /* A serializable supplier is written as it is, so that it stays deferred */
+    @Override
+    Object writeReplace() throws ObjectStreamException {
+        if (contents instanceof Serializable) {
+            return new Wrapper(getValidFromEpochSecond(), getValidUntilEpochSecond(), summary, contents);
+        }
+        return super.writeReplace();
+    }
+
+    private static class Wrapper implements Serializable {
+        private static final long serialVersionUID = 2650915227617924826L;
+
+        private long validFrom;
+        private long validUntil;
+        private RdapObject summary;
+        private Supplier<RdapObject> contents;
+
+        private Wrapper(long validFrom, long validUntil, RdapObject summary, Supplier<RdapObject> contents) {
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+            this.summary = summary;
+            this.contents = contents;
+        }
+
+        private Object readResolve() {
+            return new DeferredRevision(validFrom, validUntil, summary, contents);
+        }
+    }
+}
@@ -2,16 +2,19 @@ package net.apnic.rdapd.history;
 
 import com.github.andrewoma.dexx.collection.*;
 
-import net.apnic.rdapd.autnum.ASN;
 import net.apnic.rdapd.autnum.ASNInterval;
-import net.apnic.rdapd.intervaltree.Interval;
 import net.apnic.rdapd.intervaltree.IntervalTree;
+import net.apnic.rdapd.intervaltree.asn.AsnIndex;
 import net.apnic.rdapd.intervaltree.avl.AvlTree;
+import net.apnic.rdapd.intervaltree.ip.IpIntervalTree;
+import net.apnic.rdapd.intervaltree.ip.PrefixTrie;
+import net.apnic.rdapd.intervaltree.ip.SegmentMap;
 import net.apnic.rdapd.rdap.AutNum;
 import net.apnic.rdapd.rdap.RdapObject;
 import net.apnic.rdapd.rdap.IpNetwork;
 import net.apnic.rdapd.types.IP;
 import net.apnic.rdapd.types.IpInterval;
+import net.apnic.rdapd.types.Tuple;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,10 +23,11 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 /**
@@ -37,25 +41,59 @@ public final class History implements Externalizable, ObjectIndex {
     private static final long serialVersionUID = 5063296486972345480L;
     private static final Logger LOGGER = LoggerFactory.getLogger(History.class);
 
-    private volatile AvlTree<ASN, ObjectKey, ASNInterval> autnumTree;
+    /* Everything the History knows, published as a whole */
+    private volatile HistoryState state;
 
-    /* The history of every object */
-    private volatile Map<ObjectKey, ObjectHistory> histories;
+    /* Where superseded revisions' contents are moved, if anywhere */
+    private final transient RevisionStore store;
 
-    /* IP interval index */
-    private volatile AvlTree<IP, ObjectKey, IpInterval> ipNetworkTree;
-
-    /* Related object index */
-    private volatile Map<ObjectKey, Set<ObjectKey>> relatedIndex;
+    /* Which revisions are kept */
+    private final transient RetentionPolicy retention;
 
     /**
      * Construct a new History in which nothing has ever happened.
      */
     public History() {
-        autnumTree = new AvlTree<ASN, ObjectKey, ASNInterval>();
-        histories = HashMap.empty();
-        ipNetworkTree = new AvlTree<IP, ObjectKey, IpInterval>();
-        relatedIndex = HashMap.empty();
+        this((RevisionStore)null);
+    }
+
+    /**
+     * Construct a new History in which nothing has ever happened, moving the
+     * contents of superseded revisions off the heap.
+     *
+     * @param store the store to hold superseded revisions' contents, or null
+     *              to keep them on the heap
+     */
+    public History(RevisionStore store) {
+        this(store, RetentionPolicy.full());
+    }
+
+    /**
+     * Construct a new History in which nothing has ever happened, keeping
+     * only the revisions a retention policy allows.
+     *
+     * @param store the store to hold superseded revisions' contents, or null
+     *              to keep them on the heap
+     * @param retention the revisions to keep
+     */
+    public History(RevisionStore store, RetentionPolicy retention) {
+        this.state = HistoryState.empty();
+        this.store = store;
+        this.retention = retention;
+    }
+
+    /**
+     * Construct a History holding the given state.
+     *
+     * Writing such a History writes exactly that state, whatever has since
+     * been published by the History it came from.
+     *
+     * @param state the state to hold
+     */
+    public History(HistoryState state) {
+        this.state = state;
+        this.store = null;
+        this.retention = RetentionPolicy.full();
     }
 
     /**
@@ -66,9 +104,53 @@ public final class History implements Externalizable, ObjectIndex {
      * @param history the shameful history of past of software design choices
      */
     public synchronized void deserialize(History history) {
-        this.histories = history.histories;
-        this.ipNetworkTree = history.ipNetworkTree;
-        this.relatedIndex = history.relatedIndex;
+        this.state = prepared(history.state);
+    }
+
+    /**
+     * Deserialize a History, recording the registry serial it reflects.
+     *
+     * @param history the restored History
+     * @param serial the serial stored alongside it
+     */
+    public synchronized void deserialize(History history, long serial) {
+        this.state = prepared(history.state).withSerial(serial);
+    }
+
+    /**
+     * Restore the History to a state read from a snapshot file.
+     *
+     * @param restored the restored state, with the serial it reflects
+     */
+    public synchronized void restore(HistoryState restored) {
+        this.state = prepared(restored);
+    }
+
+    /*
+     * A restored state with the revisions outside the retention policy
+     * dropped, and its superseded revisions moved to the store
+     */
+    private HistoryState prepared(HistoryState restored) {
+        if (store == null && retention.isFull()) {
+            return restored;
+        }
+        Builder<Pair<ObjectKey, ObjectHistory>, Map<ObjectKey, ObjectHistory>> builder = Maps.builder();
+        for (Pair<ObjectKey, ObjectHistory> p : restored.getHistories()) {
+            builder.add(new Pair<>(p.component1(), prepared(p.component2())));
+        }
+        return restored.withHistories(builder.build());
+    }
+
+    /**
+     * The current state of the History.
+     *
+     * A request should obtain the state once and make all of its lookups
+     * against it, so that they see the same registry.
+     *
+     * @return the latest published state
+     */
+    public HistoryState getState() {
+        return state;
     }
 
     /**
@@ -78,183 +160,219 @@ public final class History implements Externalizable, ObjectIndex {
      * each revision is always later than or simultaneous to the last revision
      * added.
      *
-     * This method mutates the History. Be careful not to serialize the History
-     * while this operation is in progress, as consistency is only guaranteed
-     * at the end of the method.
-     *
-     * Read consistency of the tree and object histories will remain valid
-     * during operation.  Any tree or history obtained previously will not see
-     * the updates, as both structures are replaced in this method.
+     * The History is not changed in place: a new state holding the revision
+     * is published when the method completes.  Any state obtained previously
+     * will not see the update.
      *
      * @param objectKey The object to append the new revision onto
      * @param revision The new revision of the object
      */
     public synchronized void addRevision(ObjectKey objectKey, Revision revision) {
-        // The trick is to do this operation without messing with in-progress
-        // queries, without incurring the cost of @synchronised locking
-        // everywhere, and without quadratic performance during initial loads.
-        AvlTree<IP, ObjectKey, IpInterval> nextIPNetworkTree = ipNetworkTree;
-        AvlTree<ASN, ObjectKey, ASNInterval> nextAutNumTree = autnumTree;
-
-        // Obtain a new object history with this revision included
-        ObjectHistory objectHistory = Optional.ofNullable(histories.get(objectKey))
-            .orElse(new ObjectHistory(objectKey));
-        boolean isNewHistory = objectHistory.isEmpty();
-
-        try {
-            if(objectKey.getObjectClass() == ObjectClass.IP_NETWORK && isNewHistory) {
-                nextIPNetworkTree = updateIntervalTree(objectKey, ((IpNetwork)revision.getContents()).getIpInterval(), nextIPNetworkTree);
-            }
-            else if(objectKey.getObjectClass() == ObjectClass.AUT_NUM && isNewHistory)
-            {
-                nextAutNumTree = updateIntervalTree(objectKey, ((AutNum)revision.getContents()).getASNInterval(), nextAutNumTree);
-            }
-
-        } catch(Exception ex) {
-            LOGGER.warn("Object {} no added to tree: parse exception {}", objectKey, ex.getMessage());
-            LOGGER.debug("Full exception", ex);
-        }
-
-        // Handy information about this object's history and latest revision
-        Optional<Revision> mostRecent = objectHistory.mostRecent();
-        Collection<ObjectKey> entityKeys = revision.getContents().getEntityKeys();
-
-        // Add any related entities to the revision's content
-        revision = addRelatedObjects(revision);
-
-        // Ensure that the revision has actually changed: some WHOIS attributes
-        // have no bearing on the RDAP object structure, and spurious changes
-        // should be suppressed.
-        // TODO do
+        addRevisions(Collections.singletonList(new Tuple<>(objectKey, revision)));
+    }
 
-        // The related index is owned exclusively by this method (and its
-        // private method components).  Because this method is synchronized,
-        // the index can be updated safely without regard to ordering of updates
-        // to the tree or object history set.
+    /**
+     * Update many objects in the History with new revisions.
+     *
+     * As with {@link #addRevision}, revisions MUST be given in chronological
+     * order.  The batch is applied to private working copies of the object
+     * histories and the indices, which are published as one
+     * new state once the whole batch has been applied.  Readers see the
+     * History as it was before the batch until then, and large batches are
+     * cheaper than the same revisions added one at a time.
+     *
+     * @param revisions The objects and their new revisions, in order
+     */
+    public synchronized void addRevisions(List<Tuple<ObjectKey, Revision>> revisions) {
+        addRevisions(revisions, state.getSerial());
+    }
 
-        // Update the related index to track objects referencing entities
-        updateRelatedIndex(objectKey, entityKeys, mostRecent.orElse(null));
+    /**
+     * Update many objects in the History with new revisions, and record the
+     * registry serial the History now reflects.
+     *
+     * @param revisions The objects and their new revisions, in order
+     * @param serial The serial reflected once the revisions are included
+     * @see #addRevisions(List)
+     */
+    public synchronized void addRevisions(List<Tuple<ObjectKey, Revision>> revisions, long serial) {
+        if (revisions.isEmpty()) {
+            state = state.withSerial(serial);
+            return;
+        }
+        Batch batch = new Batch(state, this::prepared);
+        for (Tuple<ObjectKey, Revision> revision : revisions) {
+            batch.add(revision.first(), revision.second());
+        }
+        state = batch.toState(serial);
+    }
 
-        // Link it on in
-        objectHistory = objectHistory.appendRevision(revision);
+    /* A history with the revisions outside the retention policy dropped, and superseded ones stored */
+    private ObjectHistory prepared(ObjectHistory objectHistory) {
+        ObjectHistory retained = retention.apply(objectHistory);
+        return store == null ? retained : retained.storeSuperseded(store);
+    }
 
-        // Because we have only ever added information, it is safe to update
-        // the histories map first; either this will merely provide the new
-        // revision to an in-progress query, or the object will not yet be in
-        // the indices and so not visible to in-progress queries.
-        histories = histories.put(objectKey, objectHistory);
+    /**
+     * Working copies of a state's structures for a batch of revisions.
+     *
+     * Changes to the histories are staged in a mutable map, shadowing the base
+     * state's, and folded into it only when the batch is complete.  An object
+     * revised many times in one batch is therefore copied into the persistent
+     * map only once.
+     */
+    private static final class Batch {
+        private final HistoryState base;
+        private final UnaryOperator<ObjectHistory> prepare;
+        private final java.util.Map<ObjectKey, ObjectHistory> changedHistories = new java.util.HashMap<>();
+        private final List<Tuple<IpInterval, ObjectKey>> newNetworks = new ArrayList<>();
+
+        private AsnIndex<ObjectKey> nextAutNumIndex;
+        private PrefixTrie<ObjectKey> nextIPNetworkTrie;
+        private SegmentMap<ObjectKey> nextIPNetworkSegments;
+
+        Batch(HistoryState base, UnaryOperator<ObjectHistory> prepare) {
+            this.base = base;
+            this.prepare = prepare;
+            this.nextAutNumIndex = base.getAutNumIndex();
+            this.nextIPNetworkTrie = base.getIPNetworkTrie();
+            this.nextIPNetworkSegments = base.getIPNetworkSegments();
+        }
 
-        // Check the related index to see if this object is related to anything
-        updateRelatingObjects(objectKey, revision);
+        private ObjectHistory history(ObjectKey objectKey) {
+            ObjectHistory changed = changedHistories.get(objectKey);
+            return changed != null ? changed : base.getHistories().get(objectKey);
+        }
 
-        // Now that the new history is in place, the tree index may be safely
-        // updated if a new object was created.
-        autnumTree = nextAutNumTree;
-        ipNetworkTree = nextIPNetworkTree;
-    }
+        void add(ObjectKey objectKey, Revision revision) {
+            // Obtain a new object history with this revision included.  Some
+            // WHOIS attributes have no bearing on the RDAP object structure,
+            // and a revision changing only those is suppressed.
+            ObjectHistory objectHistory = Optional.ofNullable(history(objectKey))
+                .orElse(new ObjectHistory(objectKey));
+            ObjectHistory nextHistory = objectHistory.appendChange(revision);
+            if (nextHistory == objectHistory) {
+                return;
+            }
+            boolean isNewHistory = objectHistory.isEmpty();
+
+            try {
+                if(objectKey.getObjectClass() == ObjectClass.IP_NETWORK) {
+                    IpInterval interval = ((IpNetwork)revision.getSummary()).getIpInterval();
+                    if(isNewHistory) {
+                        newNetworks.add(new Tuple<>(interval, objectKey));
+                    }
+                    // The trie tracks whether each network is current, so every
+                    // revision updates it
+                    boolean current = !revision.getSummary().isDeleted();
+                    nextIPNetworkTrie = nextIPNetworkTrie.put(interval, objectKey, current);
+                    nextIPNetworkSegments = nextIPNetworkSegments.update(interval, objectKey, current,
+                        nextIPNetworkTrie);
+                }
+                else if(objectKey.getObjectClass() == ObjectClass.AUT_NUM && isNewHistory)
+                {
+                    ASNInterval interval = ((AutNum)revision.getSummary()).getASNInterval();
+                    nextAutNumIndex = nextAutNumIndex.update(interval, objectKey);
+                }
+
+            } catch(Exception ex) {
+                LOGGER.warn("Object {} no added to tree: parse exception {}", objectKey, ex.getMessage());
+                LOGGER.debug("Full exception", ex);
+            }
 
-    /* Find any objects which relate to this object, and add a new revision */
-    private void updateRelatingObjects(ObjectKey objectKey, Revision revision) {
-        Set<ObjectKey> relations = Optional.ofNullable(relatedIndex.get(objectKey))
-                .orElse(HashSet.empty());
-        for (ObjectKey key : relations) {
-            ObjectHistory relatedHistory = histories.get(key);
-            final Revision lambdasAreNotClosures = revision;
-            Optional.ofNullable(relatedHistory)
-                    .flatMap(ObjectHistory::mostRecent)
-                    .map(r -> new Revision(
-                            lambdasAreNotClosures.getValidFrom(),
-                            null,
-                            r.getContents()))
-                    .map(this::addRelatedObjects)
-                    .ifPresent(r -> {
-                        assert relatedHistory != null;
-                        histories = histories.put(key, relatedHistory.appendRevision(r));
-                    });
+            // Link it on in.  Related entities are left unresolved; they are
+            // resolved against the state a reader obtains, so a change to an
+            // entity need not touch the objects referencing it.  Revisions
+            // outside the retention policy are dropped, and the revision this
+            // one superseded is moved off the heap, if that is wanted.
+            changedHistories.put(objectKey, prepare.apply(nextHistory));
         }
-    }
 
-    private <K extends Comparable<K>, I extends Interval<K>> AvlTree<K, ObjectKey, I>
-        updateIntervalTree(ObjectKey objectKey, I interval, AvlTree<K, ObjectKey, I> tree)
-        throws Exception
-    {
-        return tree.update(interval, objectKey,
-            (a,b) ->
-            {
-                assert a.equals(b);
-                return a;
-            },
-            o -> o);
+        HistoryState toState(long serial) {
+            return new HistoryState(
+                serial,
+                withChanges(base.getHistories(), changedHistories),
+                nextAutNumIndex,
+                base.getIpIntervalTree().updateAll(newNetworks, (a, b) -> {
+                    assert a.equals(b);
+                    return a;
+                }),
+                nextIPNetworkTrie,
+                nextIPNetworkSegments);
+        }
     }
 
-    /* Maintain the index of related objects */
-    private void updateRelatedIndex(ObjectKey objectKey, Collection<ObjectKey> entityKeys, Revision mostRecent) {
-        Set<ObjectKey> relatedKeys = Sets.copyOf(Optional.ofNullable(mostRecent)
-                .map(Revision::getContents)
-                .map(RdapObject::getEntityKeys)
-                .map(Collection::iterator)
-                .orElse(Collections.emptyIterator()));
-
-        // Remove any links no longer required
-        Set<ObjectKey> removeKeys = relatedKeys;
-        for (ObjectKey key : entityKeys) {
-            removeKeys = removeKeys.remove(key);
-        }
-        for (ObjectKey key : removeKeys) {
-            Set<ObjectKey> keys = Optional.ofNullable(relatedIndex.get(key))
-                    .orElse(HashSet.empty())
-                    .remove(objectKey);
-            if (keys.isEmpty()) {
-                relatedIndex = relatedIndex.remove(key);
-            } else {
-                relatedIndex = relatedIndex.put(key, keys);
+    /*
+     * Apply staged changes to a persistent map.  A few changes are applied one
+     * at a time; many are folded in by rebuilding the map through a builder,
+     * rather than copying a path of the map for each change.
+     */
+    private static <V> Map<ObjectKey, V> withChanges(Map<ObjectKey, V> map, java.util.Map<ObjectKey, V> changes) {
+        if (changes.size() * 4L < map.size()) {
+            for (java.util.Map.Entry<ObjectKey, V> change : changes.entrySet()) {
+                map = map.put(change.getKey(), change.getValue());
             }
+            return map;
         }
-
-        // Add any new links
-        Set<ObjectKey> newKeys = Sets.copyOf(entityKeys);
-        for (ObjectKey key : relatedKeys) {
-            newKeys = newKeys.remove(key);
+        Builder<Pair<ObjectKey, V>, Map<ObjectKey, V>> builder = Maps.builder();
+        for (Pair<ObjectKey, V> p : map) {
+            if (!changes.containsKey(p.component1())) {
+                builder.add(p);
+            }
         }
-        for (ObjectKey key : newKeys) {
-            Set<ObjectKey> keys = Optional.ofNullable(relatedIndex.get(key))
-                    .orElse(HashSet.empty())
-                    .add(objectKey);
-            relatedIndex = relatedIndex.put(key, keys);
+        for (java.util.Map.Entry<ObjectKey, V> change : changes.entrySet()) {
+            builder.add(new Pair<>(change.getKey(), change.getValue()));
         }
+        return builder.build();
     }
 
-    /* Add related objects from the history to the given revision */
-    private Revision addRelatedObjects(Revision revision) {
-        return new Revision(revision.getValidFrom(), revision.getValidUntil(),
-            revision.getContents().withRelatedEntities(
-                revision.getContents().getRelatedEntities().stream()
-                    .map(relatedEntity ->
-                        relatedEntity.withObject(
-                            historyForObject(relatedEntity.getObjectKey())
-                            .flatMap(ObjectHistory::mostRecent)
-                            .map(Revision::getContents)))
-                    .collect(Collectors.toList())));
+    /**
+     * Fold recent changes to the read-optimised indices into their main
+     * layout.
+     *
+     * Queries see the same results before and after; this only restores
+     * lookup speed after a burst of updates.  It is cheap to call when
+     * nothing has changed.
+     */
+    public synchronized void compactIndices() {
+        state = state.compacted();
     }
 
-    public IntervalTree<ASN, ObjectKey, ASNInterval> getAutNumTree() {
-        return autnumTree;
+    public AsnIndex<ObjectKey> getAutNumIndex() {
+        return state.getAutNumIndex();
     }
 
     public IntervalTree<IP, ObjectKey, IpInterval> getIPNetworkTree() {
-        return ipNetworkTree;
+        return state.getIPNetworkTree();
+    }
+
+    public PrefixTrie<ObjectKey> getIPNetworkTrie() {
+        return state.getIPNetworkTrie();
+    }
+
+    public SegmentMap<ObjectKey> getIPNetworkSegments() {
+        return state.getIPNetworkSegments();
     }
 
     @Override
     public Optional<ObjectHistory> historyForObject(ObjectKey objectKey) {
-        return Optional.ofNullable(histories.get(objectKey));
+        return state.historyForObject(objectKey);
     }
 
     @Override
     public Stream<ObjectHistory> historyForObject(Stream<ObjectKey> objectKeys)
     {
-        return objectKeys.map(histories::get)
-            .filter(x -> x != null);
+        return state.historyForObject(objectKeys);
+    }
+
+    @Override
+    public Optional<RdapObject> currentObject(ObjectKey objectKey) {
+        return state.currentObject(objectKey);
+    }
+
+    @Override
+    public Optional<RdapObject> objectAt(ObjectKey objectKey, long when) {
+        return state.objectAt(objectKey, when);
     }
 
     /* ---------------------------------------------------------------------- */
@@ -263,7 +381,9 @@ public final class History implements Externalizable, ObjectIndex {
 
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
-        Object[] thePast = histories.toArray();
+        // Everything written comes from one state, however long writing takes
+        HistoryState written = state;
+        Object[] thePast = written.getHistories().toArray();
         out.writeInt(thePast.length);
         for (Object obj : thePast) {
             @SuppressWarnings("unchecked")
@@ -271,16 +391,9 @@ public final class History implements Externalizable, ObjectIndex {
             out.writeObject(p.component1());
             out.writeObject(p.component2());
         }
-        Object[] links = relatedIndex.toArray();
-        ObjectKey[] keys = {};
-        out.writeInt(links.length);
-        for (Object obj : links) {
-            @SuppressWarnings("unchecked")
-            Pair<ObjectKey, Set<ObjectKey>> p = (Pair<ObjectKey, Set<ObjectKey>>)obj;
-            out.writeObject(p.component1());
-            out.writeObject(p.component2().toArray(keys));
-        }
-        out.writeObject(ipNetworkTree);
+        // The related index is no longer kept; an empty one keeps the format
+        out.writeInt(0);
+        out.writeObject(written.getIpIntervalTree());
     }
 
     @Override
@@ -291,15 +404,109 @@ public final class History implements Externalizable, ObjectIndex {
         for (int i = 0; i < l; i++) {
             builder.add(new Pair<>((ObjectKey)in.readObject(), (ObjectHistory)in.readObject()));
         }
-        histories = builder.build();
-        Builder<Pair<ObjectKey, Set<ObjectKey>>,Map<ObjectKey, Set<ObjectKey>>> rBuilder = Maps.builder();
+        Map<ObjectKey, ObjectHistory> histories = builder.build();
+        // Older snapshots hold a related index, which is no longer needed
         l = in.readInt();
         for (int i = 0; i < l; i++) {
-            rBuilder.add(new Pair<>(
-                    (ObjectKey)in.readObject(),
-                    Sets.copyOf((ObjectKey[])in.readObject())));
+            in.readObject();
+            in.readObject();
+        }
+        // Snapshots taken before the IP index was specialised hold an AvlTree
+        Object ipTree = in.readObject();
+        IpIntervalTree<ObjectKey> ipNetworkTree;
+        if (ipTree instanceof AvlTree) {
+            ipNetworkTree = IpIntervalTree.copyOf((AvlTree<IP, ObjectKey, IpInterval>)ipTree);
+        } else {
+            ipNetworkTree = (IpIntervalTree<ObjectKey>)ipTree;
+        }
+        // The serial is kept alongside the snapshot, not within it
+        state = indexed(-1L, histories, ipNetworkTree);
+    }
+
+    /**
+     * A state over restored histories, with the indices not held in a
+     * snapshot rebuilt, the autnums' among them.
+     *
+     * @param serial the serial the histories reflect
+     * @param histories the history of every object
+     * @param ipNetworkTree the index of every IP network ever known
+     * @return the restored state
+     */
+    static HistoryState indexed(long serial, Map<ObjectKey, ObjectHistory> histories,
+                                IpIntervalTree<ObjectKey> ipNetworkTree) {
+        return indexed(serial, histories, ipNetworkTree, sortedAutNums(histories));
+    }
+
+    /**
+     * A state over restored histories, with the indices not held in a
+     * snapshot rebuilt.
+     *
+     * @param serial the serial the histories reflect
+     * @param histories the history of every object
+     * @param ipNetworkTree the index of every IP network ever known
+     * @param autnums each autnum's interval, in order of interval
+     * @return the restored state
+     */
+    static HistoryState indexed(long serial, Map<ObjectKey, ObjectHistory> histories,
+                                IpIntervalTree<ObjectKey> ipNetworkTree,
+                                List<Tuple<ASNInterval, ObjectKey>> autnums) {
+        PrefixTrie<ObjectKey> ipNetworkTrie = buildIPNetworkTrie(histories);
+        return new HistoryState(
+            serial,
+            histories,
+            AsnIndex.fromSorted(autnums),
+            ipNetworkTree,
+            ipNetworkTrie,
+            buildIPNetworkSegments(histories, ipNetworkTrie));
+    }
+
+    /*
+     * The autnum index is not part of a snapshot; it is bulk built from
+     * these entries.  As with AsnIndex.update, the first object filed under
+     * an interval keeps it.
+     */
+    private static List<Tuple<ASNInterval, ObjectKey>> sortedAutNums(Map<ObjectKey, ObjectHistory> histories) {
+        List<Tuple<ASNInterval, ObjectKey>> entries = new ArrayList<>();
+        for (Pair<ObjectKey, ObjectHistory> p : histories) {
+            if (p.component1().getObjectClass() == ObjectClass.AUT_NUM) {
+                Optional<RdapObject> contents = p.component2().mostRecent().map(Revision::getSummary);
+                if (contents.isPresent() && contents.get() instanceof AutNum) {
+                    entries.add(new Tuple<>(((AutNum)contents.get()).getASNInterval(), p.component1()));
+                }
+            }
+        }
+        entries.sort((a, b) -> a.first().compareTo(b.first()));
+        return entries;
+    }
+
+    /* The trie is not part of a snapshot; rebuild it from the latest revisions */
+    private static PrefixTrie<ObjectKey> buildIPNetworkTrie(Map<ObjectKey, ObjectHistory> histories) {
+        PrefixTrie<ObjectKey> trie = new PrefixTrie<>();
+        for (Pair<ObjectKey, ObjectHistory> p : histories) {
+            if (p.component1().getObjectClass() == ObjectClass.IP_NETWORK) {
+                Optional<RdapObject> contents = p.component2().mostRecent().map(Revision::getSummary);
+                if (contents.isPresent() && contents.get() instanceof IpNetwork) {
+                    trie = trie.put(((IpNetwork)contents.get()).getIpInterval(), p.component1(),
+                        !contents.get().isDeleted());
+                }
+            }
+        }
+        return trie;
+    }
+
+    /* The segments are not part of a snapshot; derive them from the rebuilt trie */
+    private static SegmentMap<ObjectKey> buildIPNetworkSegments(Map<ObjectKey, ObjectHistory> histories,
+                                                                PrefixTrie<ObjectKey> trie) {
+        SegmentMap<ObjectKey> segments = new SegmentMap<>();
+        for (Pair<ObjectKey, ObjectHistory> p : histories) {
+            if (p.component1().getObjectClass() == ObjectClass.IP_NETWORK) {
+                Optional<RdapObject> contents = p.component2().mostRecent().map(Revision::getSummary);
+                if (contents.isPresent() && contents.get() instanceof IpNetwork) {
+                    segments = segments.update(((IpNetwork)contents.get()).getIpInterval(), p.component1(),
+                        !contents.get().isDeleted(), trie);
+                }
+            }
         }
-        relatedIndex = rBuilder.build();
-        ipNetworkTree = (AvlTree<IP, ObjectKey, IpInterval>)in.readObject();
+        return segments.compact();
     }
 }
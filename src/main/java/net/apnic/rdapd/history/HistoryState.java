@@ -0,0 +1,307 @@
+package net.apnic.rdapd.history;
+
+import com.github.andrewoma.dexx.collection.HashMap;
+import com.github.andrewoma.dexx.collection.Map;
+import com.github.andrewoma.dexx.collection.Pair;
+
+import net.apnic.rdapd.intervaltree.IntervalTree;
+import net.apnic.rdapd.intervaltree.asn.AsnIndex;
+import net.apnic.rdapd.intervaltree.ip.IpIntervalTree;
+import net.apnic.rdapd.intervaltree.ip.PrefixTrie;
+import net.apnic.rdapd.intervaltree.ip.SegmentMap;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The History of a registry at one moment.
+ *
+ * A state bundles the history of every object with the indices over them,
+ * and the registry serial they reflect.  States are never modified: the
+ * History publishes a new state for each batch of revisions.  A request
+ * that reads everything it needs from one state sees a consistent registry,
+ * whatever is published while it runs.  Objects' related entities are
+ * resolved against the state as their histories are read.
+ *
+ * The serial is that of the last complete load or refresh.  A state may
+ * already hold some revisions from a load still in progress.
+ */
+public final class HistoryState implements ObjectIndex {
+    private static final HistoryState EMPTY = new HistoryState(
+            -1L,
+            HashMap.empty(),
+            new AsnIndex<>(),
+            new IpIntervalTree<>(),
+            new PrefixTrie<>(),
+            new SegmentMap<>());
+
+    private final long serial;
+
+    /* The history of every object */
+    private final Map<ObjectKey, ObjectHistory> histories;
+
+    /* Primitive ASN index for single ASN lookups */
+    private final AsnIndex<ObjectKey> autnumIndex;
+
+    /* IP interval index */
+    private final IpIntervalTree<ObjectKey> ipNetworkTree;
+
+    /* Longest-prefix index of current IP networks */
+    private final PrefixTrie<ObjectKey> ipNetworkTrie;
+
+    /* Owner of each address segment, derived from the trie */
+    private final SegmentMap<ObjectKey> ipNetworkSegments;
+
+    HistoryState(long serial,
+                 Map<ObjectKey, ObjectHistory> histories,
+                 AsnIndex<ObjectKey> autnumIndex,
+                 IpIntervalTree<ObjectKey> ipNetworkTree,
+                 PrefixTrie<ObjectKey> ipNetworkTrie,
+                 SegmentMap<ObjectKey> ipNetworkSegments) {
+        this.serial = serial;
+        this.histories = histories;
+        this.autnumIndex = autnumIndex;
+        this.ipNetworkTree = ipNetworkTree;
+        this.ipNetworkTrie = ipNetworkTrie;
+        this.ipNetworkSegments = ipNetworkSegments;
+    }
+
+    /**
+     * The state of a registry in which nothing has ever happened.
+     */
+    public static HistoryState empty() {
+        return EMPTY;
+    }
+
+    /**
+     * A state with the same contents, reflecting another serial.
+     *
+     * @param nextSerial the serial the contents reflect
+     * @return the state at the given serial
+     */
+    HistoryState withSerial(long nextSerial) {
+        return nextSerial == serial ? this : new HistoryState(nextSerial, histories,
+                autnumIndex, ipNetworkTree, ipNetworkTrie, ipNetworkSegments);
+    }
+
+    /**
+     * A state with the same indices over the given histories.
+     *
+     * @param nextHistories histories of exactly the same objects, with the
+     *                      same latest revisions
+     * @return the state holding the given histories
+     */
+    HistoryState withHistories(Map<ObjectKey, ObjectHistory> nextHistories) {
+        return new HistoryState(serial, nextHistories, autnumIndex, ipNetworkTree,
+                ipNetworkTrie, ipNetworkSegments);
+    }
+
+    /**
+     * A state with the same contents and the read-optimised indices compacted.
+     */
+    HistoryState compacted() {
+        AsnIndex<ObjectKey> nextAutNumIndex = autnumIndex.compact();
+        SegmentMap<ObjectKey> nextIPNetworkSegments = ipNetworkSegments.compact();
+        if (nextAutNumIndex == autnumIndex
+                && nextIPNetworkSegments == ipNetworkSegments) {
+            return this;
+        }
+        return new HistoryState(serial, histories, nextAutNumIndex,
+                ipNetworkTree, ipNetworkTrie, nextIPNetworkSegments);
+    }
+
+    /**
+     * The registry serial this state reflects, or -1 if it reflects none.
+     */
+    public long getSerial() {
+        return serial;
+    }
+
+    Map<ObjectKey, ObjectHistory> getHistories() {
+        return histories;
+    }
+
+    IpIntervalTree<ObjectKey> getIpIntervalTree() {
+        return ipNetworkTree;
+    }
+
+    public AsnIndex<ObjectKey> getAutNumIndex() {
+        return autnumIndex;
+    }
+
+    public IntervalTree<IP, ObjectKey, IpInterval> getIPNetworkTree() {
+        return ipNetworkTree;
+    }
+
+    public PrefixTrie<ObjectKey> getIPNetworkTrie() {
+        return ipNetworkTrie;
+    }
+
+    public SegmentMap<ObjectKey> getIPNetworkSegments() {
+        return ipNetworkSegments;
+    }
+
+    /**
+     * Whether an object is known, without resolving its history.
+     */
+    public boolean contains(ObjectKey objectKey) {
+        return histories.get(objectKey) != null;
+    }
+
+    /**
+     * Whether an object is known and not deleted, without resolving its
+     * history.
+     */
+    public boolean isCurrent(ObjectKey objectKey) {
+        ObjectHistory stored = histories.get(objectKey);
+        return stored != null && stored.mostCurrent().isPresent();
+    }
+
+    /**
+     * Whether an object was known and not deleted at a given time, without
+     * resolving its history.
+     *
+     * @param objectKey the object
+     * @param when the time of interest, in seconds since the epoch
+     */
+    public boolean isCurrentAt(ObjectKey objectKey, long when) {
+        ObjectHistory stored = histories.get(objectKey);
+        return stored != null && stored.currentAt(when).isPresent();
+    }
+
+    /**
+     * The object as it is now, with each related entity as it now is.  Only
+     * the current revision is resolved; the object's history is not laid out
+     * as {@link #historyForObject} does.
+     */
+    @Override
+    public Optional<RdapObject> currentObject(ObjectKey objectKey) {
+        return Optional.ofNullable(histories.get(objectKey))
+            .flatMap(ObjectHistory::mostCurrent)
+            .map(revision -> withEntitiesAt(revision.getContents(), Revision.OPEN));
+    }
+
+    /**
+     * The object as it was at a given time, found by a search of its own
+     * revisions.  Only that revision is resolved, with each related entity
+     * as it was at the time.
+     */
+    @Override
+    public Optional<RdapObject> objectAt(ObjectKey objectKey, long when) {
+        return Optional.ofNullable(histories.get(objectKey))
+            .flatMap(stored -> stored.currentAt(when))
+            .map(revision -> withEntitiesAt(revision.getContents(), when));
+    }
+
+    @Override
+    public Optional<ObjectHistory> historyForObject(ObjectKey objectKey) {
+        return Optional.ofNullable(histories.get(objectKey)).map(this::resolve);
+    }
+
+    @Override
+    public Stream<ObjectHistory> historyForObject(Stream<ObjectKey> objectKeys)
+    {
+        return objectKeys.map(histories::get)
+            .filter(x -> x != null)
+            .map(this::resolve);
+    }
+
+    /**
+     * Pass every stored revision of every object to an action, each object's
+     * in the order they were valid.  Revisions are passed as stored, with
+     * their related entities unresolved.
+     */
+    public void forEachRevision(BiConsumer<ObjectKey, Revision> action) {
+        for (Pair<ObjectKey, ObjectHistory> p : histories) {
+            for (Revision revision : p.component2()) {
+                action.accept(p.component1(), revision);
+            }
+        }
+    }
+
+    /*
+     * Revisions are stored with their related entities unresolved.  An
+     * object's history is its own revisions, each showing the entities as
+     * they were at the time, and a further revision for each change to a
+     * referenced entity.  These are replayed through an ObjectHistory so that
+     * short-lived revisions are squelched as if appended as they happened.
+     *
+     * Only summaries are read to lay out the history.  Each revision's
+     * contents are resolved when asked for, so reading the current revision
+     * does not resolve every revision before it.
+     */
+    private ObjectHistory resolve(ObjectHistory stored) {
+        ObjectHistory resolved = new ObjectHistory(stored.getObjectKey(), stored.getTruncatedBefore());
+        Revision[] own = StreamSupport.stream(stored.spliterator(), false).toArray(Revision[]::new);
+        for (int i = 0; i < own.length; i++) {
+            Revision revision = own[i];
+            RdapObject summary = revision.getSummary();
+            long from = revision.getValidFromEpochSecond();
+            resolved = resolved.appendRevision(resolvedAt(revision, summary, from));
+            if (summary.getEntityKeys().isEmpty()) {
+                continue;
+            }
+
+            // Step through the entities' changes while this revision stood, earliest first
+            long until = i + 1 < own.length ? own[i + 1].getValidFromEpochSecond() : Revision.OPEN;
+            List<ObjectHistory> entities = new ArrayList<>();
+            for (ObjectKey entityKey : summary.getEntityKeys()) {
+                ObjectHistory entity = histories.get(entityKey);
+                if (entity != null) {
+                    entities.add(entity);
+                }
+            }
+            long[] next = new long[entities.size()];
+            for (int e = 0; e < next.length; e++) {
+                next[e] = entities.get(e).nextRevisionAfter(from);
+            }
+            for (long when = earliest(next); when < until; when = earliest(next)) {
+                resolved = resolved.appendRevision(resolvedAt(revision, summary, when));
+                for (int e = 0; e < next.length; e++) {
+                    if (next[e] == when) {
+                        next[e] = entities.get(e).nextRevisionAfter(when);
+                    }
+                }
+            }
+        }
+        return resolved;
+    }
+
+    private static long earliest(long[] times) {
+        long earliest = Revision.OPEN;
+        for (long time : times) {
+            earliest = Math.min(earliest, time);
+        }
+        return earliest;
+    }
+
+    /* A revision showing an object's own revision with its entities as at a time */
+    private Revision resolvedAt(Revision revision, RdapObject summary, long when) {
+        if (summary.getRelatedEntities().isEmpty()) {
+            return new DeferredRevision(when, Revision.OPEN, summary, revision::getContents);
+        }
+        return new DeferredRevision(when, Revision.OPEN, summary,
+            () -> withEntitiesAt(revision.getContents(), when));
+    }
+
+    /* The object with each related entity as it was at the given time */
+    private RdapObject withEntitiesAt(RdapObject contents, long when) {
+        if (contents.getRelatedEntities().isEmpty()) {
+            return contents;
+        }
+        return contents.withRelatedEntities(contents.getRelatedEntities().stream()
+            .map(relatedEntity -> relatedEntity.withObject(
+                Optional.ofNullable(histories.get(relatedEntity.getObjectKey()))
+                    .flatMap(entity -> entity.revisionAt(when))
+                    .map(Revision::getContents)))
+            .collect(Collectors.toList()));
+    }
+}
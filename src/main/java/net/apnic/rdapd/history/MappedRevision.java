@@ -0,0 +1,106 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.RdapObject;
+
+import java.io.ObjectStreamException;
+import java.util.function.Supplier;
+
+/**
+ * A revision restored from a {@link SnapshotFile}, whose contents stay in the
+ * mapped file.
+ *
+ * Only the validity, a summary and the location of the contents are held on
+ * the heap.  The contents are decoded when first asked for.  Those of an
+ * open revision are then kept, as current revisions make up most lookups;
+ * those of a superseded revision are decoded afresh each time.  Deferred
+ * contents are kept as their supplier, which converts through whatever cache
+ * it has.
+ */
+final class MappedRevision extends Revision {
+    private static final long serialVersionUID = -3317458710384470963L;
+
+    private final RdapObject summary;
+    private final transient SnapshotFile.Contents contents;
+    private final long offset;
+    private final int length;
+
+    /* Whether the contents are a supplier of the contents, as for a DeferredRevision */
+    private final boolean deferred;
+
+    /* The contents of an open revision, once decoded */
+    private transient volatile RdapObject decoded;
+
+    /* The supplier of an open deferred revision's contents, once decoded */
+    private transient volatile Supplier<RdapObject> supplier;
+
+    MappedRevision(long validFrom, long validUntil, RdapObject summary, SnapshotFile.Contents contents,
+                   long offset, int length, boolean deferred) {
+        super(validFrom, validUntil, null);
+        this.summary = summary;
+        this.contents = contents;
+        this.offset = offset;
+        this.length = length;
+        this.deferred = deferred;
+    }
+
+    @Override
+    public RdapObject getContents() {
+        RdapObject known = decoded;
+        if (known != null) {
+            return known;
+        }
+        if (deferred) {
+            return getSupplier().get();
+        }
+        RdapObject read = (RdapObject)RevisionStore.CODER.asObject(getEncoded());
+        if (isOpen()) {
+            decoded = read;
+        }
+        return read;
+    }
+
+    @Override
+    public RdapObject getSummary() {
+        return summary;
+    }
+
+    @Override
+    public Revision supersede(long validUntil) {
+        return new MappedRevision(getValidFromEpochSecond(), validUntil, summary, contents,
+                offset, length, deferred);
+    }
+
+    /* The contents as the snapshot encodes them, without decoding them */
+    byte[] getEncoded() {
+        return contents.read(offset, length);
+    }
+
+    boolean isDeferred() {
+        return deferred;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Supplier<RdapObject> getSupplier() {
+        Supplier<RdapObject> known = supplier;
+        if (known != null) {
+            return known;
+        }
+        Supplier<RdapObject> read = (Supplier<RdapObject>)RevisionStore.CODER.asObject(getEncoded());
+        if (isOpen()) {
+            supplier = read;
+        }
+        return read;
+    }
+
+    /**** Serialization code below ****/
+
+    /* A deferred revision is written as one, so that it stays deferred */
+    @Override
+    Object writeReplace() throws ObjectStreamException {
+        if (deferred) {
+            return new DeferredRevision(getValidFromEpochSecond(), getValidUntilEpochSecond(), summary,
+                    getSupplier()).writeReplace();
+        }
+        return super.writeReplace();
+    }
+}
@@ -7,7 +7,7 @@ import com.github.andrewoma.dexx.collection.Vector;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.time.Duration;
-import java.time.temporal.TemporalAmount;
+import java.time.ZonedDateTime;
 import java.util.Iterator;
 import java.util.Optional;
 import java.util.Spliterator;
@@ -21,34 +21,145 @@ import java.util.Spliterator;
 public final class ObjectHistory implements Serializable, Iterable<Revision> {
     private static final long serialVersionUID = 8840997336665340581L;
 
-    // The minimum lifetime of a revision.
-    private static final TemporalAmount SQUELCH_TIME = Duration.ofMinutes(300);
+    // The minimum lifetime of a revision, in seconds.
+    private static final long SQUELCH_TIME = Duration.ofMinutes(300).getSeconds();
+
+    /**
+     * The truncation time of a history from which nothing has been dropped.
+     */
+    public static final long NOT_TRUNCATED = Long.MIN_VALUE;
 
     private final ObjectKey objectKey;
     private final transient List<Revision> revisions;
 
-    private ObjectHistory(ObjectKey objectKey, List<Revision> revisions) {
+    /* Revisions superseded before this time have been dropped */
+    private final long truncatedBefore;
+
+    private ObjectHistory(ObjectKey objectKey, List<Revision> revisions, long truncatedBefore) {
         this.objectKey = objectKey;
         this.revisions = revisions;
+        this.truncatedBefore = truncatedBefore;
     }
 
     public ObjectHistory(ObjectKey objectKey) {
-        this(objectKey, Vector.empty());
+        this(objectKey, Vector.empty(), NOT_TRUNCATED);
+    }
+
+    /* An empty history carrying another's truncation, for rebuilding it */
+    ObjectHistory(ObjectKey objectKey, long truncatedBefore) {
+        this(objectKey, Vector.empty(), truncatedBefore);
+    }
+
+    /* A history of revisions already in order, as restored from a snapshot */
+    ObjectHistory(ObjectKey objectKey, Revision[] revisions, long truncatedBefore) {
+        this(objectKey, IndexedLists.copyOf(revisions), truncatedBefore);
     }
 
     public ObjectHistory appendRevision(Revision revision) {
+        long validFrom = revision.getValidFromEpochSecond();
         List<Revision> newRevisions = Optional.ofNullable(revisions.last())
-                .filter(r -> r.getValidUntil() == null || r.getValidUntil().isAfter(revision.getValidFrom()))
+                .filter(r -> r.getValidUntilEpochSecond() > validFrom)
                 .map(r -> {
                     List<Revision> revs = revisions.take(revisions.size() - 1);
                     // Squelch short-lived revisions
-                    if (r.getValidFrom().plus(SQUELCH_TIME).isBefore(revision.getValidFrom())) {
-                        return revs.append(r.supersede(revision.getValidFrom()));
+                    if (r.getValidFromEpochSecond() + SQUELCH_TIME < validFrom) {
+                        return revs.append(r.supersede(validFrom));
                     }
                     return revs;
                 })
                 .orElse(revisions);
-        return new ObjectHistory(objectKey, newRevisions.append(revision));
+        return new ObjectHistory(objectKey, newRevisions.append(revision), truncatedBefore);
+    }
+
+    /**
+     * Append a revision, unless it changes nothing.
+     *
+     * A revision whose contents have the same fingerprint as the most recent
+     * revision's is dropped, and the most recent revision simply remains in
+     * effect.
+     *
+     * @param revision the new revision of the object
+     * @return this history if the revision changes nothing, otherwise a
+     *         history with the revision appended
+     */
+    public ObjectHistory appendChange(Revision revision) {
+        long fingerprint = revision.getSummary().getFingerprint();
+        Revision last = revisions.last();
+        if (fingerprint != 0L && last != null && last.isOpen()
+                && last.getSummary().getFingerprint() == fingerprint) {
+            return this;
+        }
+        return appendRevision(revision);
+    }
+
+    /**
+     * Move the contents of superseded revisions into a store.
+     *
+     * Revisions are superseded in order, so only those after the last one
+     * already stored are examined.  Deferred revisions hold no contents to
+     * move, and revisions restored from a snapshot file already hold theirs
+     * off the heap, so both are treated as stored.
+     *
+     * @param store the store to hold the contents
+     * @return a history reading superseded revisions' contents from the store
+     */
+    public ObjectHistory storeSuperseded(RevisionStore store) {
+        List<Revision> stored = revisions;
+        for (int i = revisions.size() - 1; i >= 0; i--) {
+            Revision revision = revisions.get(i);
+            if (revision instanceof StoredRevision || revision instanceof DeferredRevision
+                    || revision instanceof MappedRevision) {
+                break;
+            }
+            if (!revision.isOpen()) {
+                stored = stored.set(i, StoredRevision.of(revision, store));
+            }
+        }
+        return stored == revisions ? this : new ObjectHistory(objectKey, stored, truncatedBefore);
+    }
+
+    /**
+     * Drop the revisions superseded before a given time.
+     *
+     * Revisions are superseded in order, so they are dropped from the front
+     * of the history.  The most recent revision is never dropped.
+     *
+     * @param before the time before which superseded revisions are dropped,
+     *               in seconds since the epoch
+     * @return this history if nothing was dropped, otherwise a history
+     *         without the dropped revisions, truncated at the given time
+     */
+    public ObjectHistory truncate(long before) {
+        int dropped = 0;
+        while (dropped < revisions.size() - 1
+                && revisions.get(dropped).getValidUntilEpochSecond() <= before) {
+            dropped++;
+        }
+        if (dropped == 0) {
+            return this;
+        }
+        return new ObjectHistory(objectKey, revisions.drop(dropped), Math.max(before, truncatedBefore));
+    }
+
+    /**
+     * When revisions were last dropped from this history.
+     *
+     * @return The time before which superseded revisions have been dropped,
+     *         in seconds since the epoch, or {@link #NOT_TRUNCATED}
+     */
+    public long getTruncatedBefore() {
+        return truncatedBefore;
+    }
+
+    /**
+     * Whether revisions have been dropped from this history.
+     */
+    public boolean isTruncated() {
+        return truncatedBefore != NOT_TRUNCATED;
+    }
+
+    public ObjectKey getObjectKey() {
+        return objectKey;
     }
 
     public boolean isEmpty() {
@@ -61,7 +172,7 @@ public final class ObjectHistory implements Serializable, Iterable<Revision> {
      * @return The most recent current Revision, if any.
      */
     public Optional<Revision> mostCurrent() {
-        return mostRecent().map(r -> r.getContents().isDeleted() ? null : r);
+        return mostRecent().map(r -> r.getSummary().isDeleted() ? null : r);
     }
 
     /**
@@ -73,6 +184,67 @@ public final class ObjectHistory implements Serializable, Iterable<Revision> {
         return Optional.ofNullable(revisions.last());
     }
 
+    /**
+     * Retrieve the Revision in effect at a given time.
+     *
+     * @param when the time of interest
+     * @return The latest Revision made at or before that time, if any.
+     */
+    public Optional<Revision> revisionAt(ZonedDateTime when) {
+        return revisionAt(when.toEpochSecond());
+    }
+
+    /**
+     * Retrieve the Revision in effect at a given time.
+     *
+     * @param when the time of interest, in seconds since the epoch
+     * @return The latest Revision made at or before that time, if any.
+     */
+    public Optional<Revision> revisionAt(long when) {
+        int index = indexAt(when);
+        return index < 0 ? Optional.empty() : Optional.of(revisions.get(index));
+    }
+
+    /**
+     * The time of the first revision made after a given time.
+     *
+     * @param when the time of interest, in seconds since the epoch
+     * @return the time the next revision came into effect, in seconds since
+     *         the epoch, or {@link Revision#OPEN} if none has
+     */
+    public long nextRevisionAfter(long when) {
+        int next = indexAt(when) + 1;
+        return next < revisions.size() ? revisions.get(next).getValidFromEpochSecond() : Revision.OPEN;
+    }
+
+    /* The index of the latest revision made at or before a time, or -1 */
+    private int indexAt(long when) {
+        int low = 0, high = revisions.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (revisions.get(mid).getValidFromEpochSecond() > when) {
+                high = mid - 1;
+            } else {
+                found = mid;
+                low = mid + 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Retrieve the Revision current at a given time.
+     *
+     * @param when the time of interest, in seconds since the epoch
+     * @return The Revision in effect at that time, unless it had been
+     *         superseded or the object was deleted.
+     */
+    public Optional<Revision> currentAt(long when) {
+        return revisionAt(when)
+                .filter(r -> r.getValidUntilEpochSecond() > when && !r.getSummary().isDeleted());
+    }
+
     /* Iteration and spliteration are provided by the revisions */
     @Override
     public Iterator<Revision> iterator() {
@@ -86,8 +258,15 @@ public final class ObjectHistory implements Serializable, Iterable<Revision> {
 
     /**** Serialization code below ****/
 
-    /* Serialization via a replacement wrapper to preserve immutability */
+    /*
+     * Serialization via a replacement wrapper to preserve immutability.  Only
+     * a truncated history needs the wrapper recording its truncation, so
+     * others are written as they always have been.
+     */
     private Object writeReplace() throws ObjectStreamException {
+        if (isTruncated()) {
+            return new TruncatedWrapper(objectKey, revisions, truncatedBefore);
+        }
         return new Wrapper(objectKey, revisions);
     }
 
@@ -101,7 +280,25 @@ public final class ObjectHistory implements Serializable, Iterable<Revision> {
         }
 
         private Object readResolve() {
-            return new ObjectHistory(objectKey, IndexedLists.copyOf(revisions));
+            return new ObjectHistory(objectKey, IndexedLists.copyOf(revisions), NOT_TRUNCATED);
+        }
+    }
+
+    private static class TruncatedWrapper implements Serializable {
+        private static final long serialVersionUID = -5290563420195857734L;
+
+        private ObjectKey objectKey;
+        private Revision[] revisions;
+        private long truncatedBefore;
+
+        private TruncatedWrapper(ObjectKey objectKey, List<Revision> revisions, long truncatedBefore) {
+            this.objectKey = objectKey;
+            this.revisions = revisions.toArray(new Revision[0]);
+            this.truncatedBefore = truncatedBefore;
+        }
+
+        private Object readResolve() {
+            return new ObjectHistory(objectKey, IndexedLists.copyOf(revisions), truncatedBefore);
         }
     }
 }
@@ -1,5 +1,7 @@
 package net.apnic.rdapd.history;
 
+import net.apnic.rdapd.rdap.RdapObject;
+
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -17,4 +19,33 @@ public interface ObjectIndex
     Optional<ObjectHistory> historyForObject(ObjectKey objectKey);
 
     Stream<ObjectHistory> historyForObject(Stream<ObjectKey> objectKeys);
+
+    /**
+     * Provides a single object as it is now.
+     *
+     * @param objectKey ObjectKey of the object
+     * @return The object's current contents, unless it does not exist or has
+     *         been deleted.
+     */
+    default Optional<RdapObject> currentObject(ObjectKey objectKey)
+    {
+        return historyForObject(objectKey)
+            .flatMap(ObjectHistory::mostCurrent)
+            .map(Revision::getContents);
+    }
+
+    /**
+     * Provides a single object as it was at a given time.
+     *
+     * @param objectKey ObjectKey of the object
+     * @param when the time of interest, in seconds since the epoch
+     * @return The object's contents at that time, unless it did not exist or
+     *         had been deleted.
+     */
+    default Optional<RdapObject> objectAt(ObjectKey objectKey, long when)
+    {
+        return historyForObject(objectKey)
+            .flatMap(history -> history.currentAt(when))
+            .map(Revision::getContents);
+    }
 }
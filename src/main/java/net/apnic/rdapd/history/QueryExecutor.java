@@ -0,0 +1,123 @@
+package net.apnic.rdapd.history;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Runs queries against the History indices under a fixed execution policy.
+ *
+ * Point and most-specific lookups run sequentially on the calling thread; they
+ * touch a handful of nodes and gain nothing from parallelism.  Range scans,
+ * which may enumerate a large part of an index, run in parallel on a
+ * dedicated fork/join pool, so that they never contend for the common pool and
+ * never occupy more than a fixed number of threads however many requests
+ * arrive at once.
+ *
+ * Each kind of query is counted and timed, and the range scan pool reports
+ * its activity through the metrics endpoint.
+ */
+public class QueryExecutor implements PublicMetrics {
+    private final ForkJoinPool rangeScanPool;
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+
+    /**
+     * @param parallelism the number of threads scanning ranges, or zero to
+     *                    run range scans sequentially on the calling thread
+     * @param counterService the counter to count queries with
+     * @param gaugeService the gauge to time queries with
+     */
+    public QueryExecutor(int parallelism, CounterService counterService, GaugeService gaugeService) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("parallelism must not be negative");
+        }
+        this.rangeScanPool = parallelism == 0 ? null : new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("range-scan-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+    }
+
+    /**
+     * Run a point or most-specific query on the calling thread.
+     *
+     * @param query the query to run
+     * @param <R> the result type
+     * @return the result of the query
+     */
+    public <R> R point(Supplier<R> query) {
+        long start = System.nanoTime();
+        try {
+            return query.get();
+        } finally {
+            record("point", start);
+        }
+    }
+
+    /**
+     * Run a range scan to completion.
+     *
+     * The terminal operation is applied to a parallel stream on the range
+     * scan pool, or to a sequential stream on the calling thread when no
+     * pool is configured.
+     *
+     * @param results the stream of query results, not yet consumed
+     * @param terminal the operation consuming the stream
+     * @param <T> the type of result in the stream
+     * @param <R> the result type of the terminal operation
+     * @return the result of the terminal operation
+     */
+    public <T, R> R rangeScan(Stream<T> results, Function<Stream<T>, R> terminal) {
+        long start = System.nanoTime();
+        try {
+            if (rangeScanPool == null) {
+                return terminal.apply(results.sequential());
+            }
+            return rangeScanPool.submit(() -> terminal.apply(results.parallel())).join();
+        } finally {
+            record("range", start);
+        }
+    }
+
+    private void record(String kind, long start) {
+        counterService.increment("query." + kind);
+        gaugeService.submit("timer.query." + kind,
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000.0);
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        if (rangeScanPool != null) {
+            metrics.add(new Metric<>("query.range.pool.parallelism", rangeScanPool.getParallelism()));
+            metrics.add(new Metric<>("query.range.pool.active", rangeScanPool.getActiveThreadCount()));
+            metrics.add(new Metric<>("query.range.pool.queued", rangeScanPool.getQueuedSubmissionCount()));
+            metrics.add(new Metric<>("query.range.pool.steals", rangeScanPool.getStealCount()));
+        }
+        return metrics;
+    }
+
+    /**
+     * Stop the range scan pool, letting scans in progress finish.
+     */
+    public void shutdown() {
+        if (rangeScanPool != null) {
+            rangeScanPool.shutdown();
+        }
+    }
+}
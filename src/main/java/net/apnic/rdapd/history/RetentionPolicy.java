@@ -0,0 +1,140 @@
+package net.apnic.rdapd.history;
+
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * How much of each object's history the History keeps.
+ *
+ * By default every revision of every object is kept.  An object class may
+ * instead keep only each object's most recent revision, or only the
+ * revisions in effect within a window of years reaching back from the
+ * present.  Revisions outside the policy are dropped as revisions are added
+ * and as a snapshot is restored, and each history records when it was last
+ * truncated.
+ *
+ * Policies are immutable; each change gives a new policy.
+ */
+public final class RetentionPolicy {
+    /* The window of a class keeping only its most recent revisions */
+    private static final int CURRENT_ONLY = -1;
+
+    private static final RetentionPolicy FULL = new RetentionPolicy(
+            Collections.emptyMap(), Clock.systemUTC());
+
+    /* The window of each class not kept in full, in years */
+    private final Map<ObjectClass, Integer> windows;
+    private final Clock clock;
+
+    private RetentionPolicy(Map<ObjectClass, Integer> windows, Clock clock) {
+        this.windows = windows;
+        this.clock = clock;
+    }
+
+    /**
+     * The policy keeping every revision of every object.
+     */
+    public static RetentionPolicy full() {
+        return FULL;
+    }
+
+    /**
+     * A policy like this one, with the retention of one object class given
+     * as configured.
+     *
+     * @param objectClass the object class
+     * @param setting {@code full}, {@code current-only}, or {@code window:N}
+     *                to keep revisions in effect within the last N years
+     * @return the policy with the class's retention set
+     * @throws IllegalArgumentException if the setting is not recognised
+     */
+    public RetentionPolicy with(ObjectClass objectClass, String setting) {
+        String value = setting.trim().toLowerCase();
+        if (value.equals("full")) {
+            return withWindow(objectClass, null);
+        }
+        if (value.equals("current-only")) {
+            return currentOnly(objectClass);
+        }
+        if (value.startsWith("window:")) {
+            try {
+                return window(objectClass, Integer.parseInt(value.substring(7).trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Retention window for " + objectClass
+                        + " is not a number of years: " + setting, ex);
+            }
+        }
+        throw new IllegalArgumentException("Unknown retention for " + objectClass + ": " + setting);
+    }
+
+    /**
+     * A policy like this one, keeping only the most recent revision of each
+     * object of a class.
+     *
+     * @param objectClass the object class
+     * @return the policy with the class's retention set
+     */
+    public RetentionPolicy currentOnly(ObjectClass objectClass) {
+        return withWindow(objectClass, CURRENT_ONLY);
+    }
+
+    /**
+     * A policy like this one, keeping the revisions of a class in effect
+     * within a number of years before the present.
+     *
+     * @param objectClass the object class
+     * @param years the length of the window, in years
+     * @return the policy with the class's retention set
+     */
+    public RetentionPolicy window(ObjectClass objectClass, int years) {
+        if (years < 0) {
+            throw new IllegalArgumentException("Retention window must not be negative");
+        }
+        return withWindow(objectClass, years);
+    }
+
+    /* The same policy, measuring windows back from the given clock */
+    RetentionPolicy withClock(Clock clock) {
+        return new RetentionPolicy(windows, clock);
+    }
+
+    private RetentionPolicy withWindow(ObjectClass objectClass, Integer window) {
+        Map<ObjectClass, Integer> nextWindows = new EnumMap<>(ObjectClass.class);
+        nextWindows.putAll(windows);
+        if (window == null) {
+            nextWindows.remove(objectClass);
+        } else {
+            nextWindows.put(objectClass, window);
+        }
+        return new RetentionPolicy(Collections.unmodifiableMap(nextWindows), clock);
+    }
+
+    /**
+     * Whether every revision of every object is kept.
+     */
+    public boolean isFull() {
+        return windows.isEmpty();
+    }
+
+    /**
+     * Drop the revisions of an object's history outside this policy.
+     *
+     * @param history the object's history
+     * @return the history, or a truncated copy of it
+     */
+    public ObjectHistory apply(ObjectHistory history) {
+        Integer window = windows.get(history.getObjectKey().getObjectClass());
+        if (window == null) {
+            return history;
+        }
+        if (window == CURRENT_ONLY) {
+            return history.mostRecent()
+                    .map(revision -> history.truncate(revision.getValidFromEpochSecond()))
+                    .orElse(history);
+        }
+        return history.truncate(ZonedDateTime.now(clock).minusYears(window).toEpochSecond());
+    }
+}
@@ -4,27 +4,56 @@ import net.apnic.rdapd.rdap.RdapObject;
 
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 
 /**
  * A Revision is one version of one object in a registry's history.
+ *
+ * Validity is held as seconds since the epoch, and only rendered as a UTC
+ * date-time when asked for.
  */
 public class Revision implements Serializable {
     private static final long serialVersionUID = -8401990997863142475L;
 
-    private final ZonedDateTime validFrom;
-    private final ZonedDateTime validUntil;
+    /**
+     * The validUntil of a revision that has not been superseded.
+     */
+    public static final long OPEN = Long.MAX_VALUE;
+
+    /* The validFrom of a revision with no known start */
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private final long validFrom;
+    private final long validUntil;
     private final RdapObject contents;
 
     /**
      * Construct a new revision for an object.
      *
      * @param validFrom  When this revision came into effect
-     * @param validUntil When this revision was superseded
+     * @param validUntil When this revision was superseded, or null if it has
+     *                   not been
      * @param contents   The object's revision, as RDAP data
      */
     public Revision(ZonedDateTime validFrom, ZonedDateTime validUntil,
                     RdapObject contents) {
+        this(validFrom == null ? UNKNOWN : validFrom.toEpochSecond(),
+                validUntil == null ? OPEN : validUntil.toEpochSecond(),
+                contents);
+    }
+
+    /**
+     * Construct a new revision for an object.
+     *
+     * @param validFrom  When this revision came into effect, in seconds since
+     *                   the epoch
+     * @param validUntil When this revision was superseded, in seconds since
+     *                   the epoch, or {@link #OPEN} if it has not been
+     * @param contents   The object's revision, as RDAP data
+     */
+    public Revision(long validFrom, long validUntil, RdapObject contents) {
         this.validFrom = validFrom;
         this.validUntil = validUntil;
         this.contents = contents;
@@ -37,6 +66,17 @@ public class Revision implements Serializable {
      * @return A new Revision with an updated validity range
      */
     public Revision supersede(ZonedDateTime validUntil) {
+        return supersede(validUntil.toEpochSecond());
+    }
+
+    /**
+     * Supersede this Revision at the given time.
+     *
+     * @param validUntil the time at which the object was superseded, in
+     *                   seconds since the epoch
+     * @return A new Revision with an updated validity range
+     */
+    public Revision supersede(long validUntil) {
         return new Revision(validFrom, validUntil, contents);
     }
 
@@ -44,29 +84,71 @@ public class Revision implements Serializable {
         return contents;
     }
 
+    /**
+     * The parts of this revision's contents that indices are built from.
+     *
+     * The summary has the contents' type, key, deletion state, fingerprint
+     * and related entity keys, and whatever else the History or its search
+     * indices look up.  For most revisions it is the contents themselves.
+     *
+     * @return the contents, or a summary of them
+     */
+    public RdapObject getSummary() {
+        return getContents();
+    }
+
     public ZonedDateTime getValidFrom() {
-        return validFrom;
+        return validFrom == UNKNOWN ? null : toDateTime(validFrom);
     }
 
     public ZonedDateTime getValidUntil() {
+        return validUntil == OPEN ? null : toDateTime(validUntil);
+    }
+
+    /**
+     * When this revision came into effect, in seconds since the epoch.
+     */
+    public long getValidFromEpochSecond() {
+        return validFrom;
+    }
+
+    /**
+     * When this revision was superseded, in seconds since the epoch, or
+     * {@link #OPEN} if it has not been.
+     */
+    public long getValidUntilEpochSecond() {
         return validUntil;
     }
 
+    /**
+     * Whether this revision has not been superseded.
+     */
+    public boolean isOpen() {
+        return validUntil == OPEN;
+    }
+
+    private static ZonedDateTime toDateTime(long epochSecond) {
+        return Instant.ofEpochSecond(epochSecond).atZone(ZoneOffset.UTC);
+    }
+
     /**** Serialization code below ****/
 
-    /* Serialization via a replacement wrapper to preserve immutability */
-    private Object writeReplace() throws ObjectStreamException {
-        return new Wrapper(validFrom, validUntil, contents);
+    /*
+     * Serialization via a replacement wrapper to preserve immutability.  The
+     * wrapper always carries the contents, wherever the revision holds them.
+     */
+    Object writeReplace() throws ObjectStreamException {
+        return new EpochWrapper(validFrom, validUntil, getContents());
     }
 
-    private static class Wrapper implements Serializable {
-        private static final long serialVersionUID = 4063426002249141977L;
+    private static class EpochWrapper implements Serializable {
+        private static final long serialVersionUID = -2384757925069185312L;
 
-        private ZonedDateTime validFrom;
-        private ZonedDateTime validUntil;
+        private long validFrom;
+        private long validUntil;
         private RdapObject contents;
 
-        private Wrapper(ZonedDateTime validFrom, ZonedDateTime validUntil, RdapObject contents) {
+        private EpochWrapper(long validFrom, long validUntil, RdapObject contents) {
             this.validFrom = validFrom;
             this.validUntil = validUntil;
             this.contents = contents;
@@ -76,4 +158,17 @@ public class Revision implements Serializable {
             return new Revision(validFrom, validUntil, contents);
         }
     }
+
+    /* Revisions as written before validity was held in epoch seconds */
+    private static class Wrapper implements Serializable {
+        private static final long serialVersionUID = 4063426002249141977L;
+
+        private ZonedDateTime validFrom;
+        private ZonedDateTime validUntil;
+        private RdapObject contents;
+
+        private Object readResolve() {
+            return new Revision(validFrom, validUntil, contents);
+        }
+    }
 }
@@ -0,0 +1,302 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.types.Tuple;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A journal of the revisions added to a History since its last snapshot.
+ *
+ * A snapshot is costly to write, so one is written only now and then, as a
+ * base.  Each refresh after it is appended to the journal as one entry: the
+ * serials before and after the refresh, and the revisions it added, in the
+ * order they were added.  A History is restored by reading the base and
+ * replaying the journal over it, so that only the changes since the last
+ * refresh are loaded from the registry again.
+ *
+ * Each entry is checksummed.  Replay stops at the first entry that is torn,
+ * corrupt, or does not follow on from the serial reached, and the journal
+ * is cut there: whatever it held from that point is loaded from the
+ * registry instead, and journalled afresh.  Once a new base has been
+ * written, {@link #compact} drops the entries it includes.
+ */
+public final class RevisionJournal implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RevisionJournal.class);
+
+    /* "RDAPJRNL" */
+    private static final long MAGIC = 0x524441504A524E4CL;
+    private static final int VERSION = 1;
+
+    /* Magic and version */
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    /* Length and checksum of the body */
+    private static final int ENTRY_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+    /* Serials and revision count */
+    private static final int MINIMUM_BODY_SIZE = 2 * Long.BYTES + Integer.BYTES;
+
+    /**
+     * Receives the revisions of each replayed entry.
+     */
+    @FunctionalInterface
+    public interface Replay {
+        /**
+         * Apply the revisions of a refresh.
+         *
+         * @param revisions the revisions, in the order they were added
+         * @param serial the serial reflected once they are applied
+         */
+        void apply(List<Tuple<ObjectKey, Revision>> revisions, long serial);
+    }
+
+    private final Path file;
+    private FileChannel channel;
+
+    private RevisionJournal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Open a journal, beginning one if the file holds none.
+     *
+     * @param file the journal file
+     * @return the journal
+     * @throws IOException if the file cannot be opened
+     */
+    public static RevisionJournal open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (!hasHeader(channel)) {
+                if (channel.size() > 0) {
+                    LOGGER.warn("{} is not a journal in a known format, discarding it", file);
+                }
+                channel.truncate(0);
+                writeFully(channel, header(), 0);
+            }
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        return new RevisionJournal(file, channel);
+    }
+
+    /**
+     * Replay the entries following on from a serial.
+     *
+     * Entries the serial already includes are passed over.  The journal is
+     * cut at the first entry that cannot be replayed, so that entries
+     * appended later follow on from the last one replayed.  A journal should
+     * be replayed before anything is appended to it.
+     *
+     * @param serial the serial of the restored base
+     * @param replay what to do with each entry's revisions
+     * @return the serial reached
+     * @throws IOException if the journal cannot be read or cut
+     */
+    public synchronized long replay(long serial, Replay replay) throws IOException {
+        long position = HEADER_SIZE;
+        int replayed = 0;
+        for (byte[] body = readEntry(position); body != null; body = readEntry(position)) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+            long fromSerial = in.readLong();
+            long toSerial = in.readLong();
+            if (toSerial > serial) {
+                if (fromSerial != serial) {
+                    LOGGER.warn("Journal {} entry from #{} does not follow on from #{}", file, fromSerial, serial);
+                    break;
+                }
+                List<Tuple<ObjectKey, Revision>> revisions;
+                try {
+                    revisions = readRevisions(in);
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.warn("Journal {} entry from #{} cannot be read", file, fromSerial, ex);
+                    break;
+                }
+                replay.apply(revisions, toSerial);
+                serial = toSerial;
+                replayed++;
+            }
+            position += ENTRY_HEADER_SIZE + body.length;
+        }
+        if (position < channel.size()) {
+            LOGGER.warn("Cutting journal {} at {} of {} bytes", file, position, channel.size());
+            channel.truncate(position);
+        }
+        LOGGER.info("Replayed {} journal entries, reaching #{}", replayed, serial);
+        return serial;
+    }
+
+    /**
+     * Append the revisions of a refresh.
+     *
+     * @param fromSerial the serial before the refresh
+     * @param toSerial the serial after it
+     * @param revisions the revisions it added, in the order they were added
+     * @throws IOException if the entry cannot be written
+     */
+    public synchronized void append(long fromSerial, long toSerial, List<Tuple<ObjectKey, Revision>> revisions)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeLong(fromSerial);
+        body.writeLong(toSerial);
+        body.writeInt(revisions.size());
+        for (Tuple<ObjectKey, Revision> revision : revisions) {
+            byte[] name = revision.first().getObjectName().getBytes(StandardCharsets.UTF_8);
+            byte[] encoded = RevisionStore.CODER.asByteArray(revision.second());
+            body.writeByte(revision.first().getObjectClass().ordinal());
+            body.writeInt(name.length);
+            body.write(name);
+            body.writeInt(encoded.length);
+            body.write(encoded);
+        }
+        body.flush();
+
+        writeFully(channel, entry(bytes.toByteArray()), channel.size());
+        channel.force(false);
+    }
+
+    /**
+     * Drop the entries a new base includes.
+     *
+     * The entries still needed are copied to a new journal, which then
+     * replaces this one.
+     *
+     * @param baseSerial the serial of the new base
+     * @throws IOException if the journal cannot be rewritten
+     */
+    public synchronized void compact(long baseSerial) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        int kept = 0;
+        try (FileChannel compacted = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(compacted, header(), 0);
+            long position = HEADER_SIZE;
+            for (byte[] body = readEntry(position); body != null; body = readEntry(position)) {
+                // Keep entries reaching beyond the base
+                if (ByteBuffer.wrap(body).getLong(Long.BYTES) > baseSerial) {
+                    writeFully(compacted, entry(body), compacted.size());
+                    kept++;
+                }
+                position += ENTRY_HEADER_SIZE + body.length;
+            }
+            compacted.force(false);
+        } catch (IOException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LOGGER.info("Compacted journal {} onto base #{}, keeping {} entries", file, baseSerial, kept);
+    }
+
+    /**
+     * The size of the journal, in bytes.
+     */
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /* The body of the entry at a position, or null if there is no intact entry there */
+    private byte[] readEntry(long position) throws IOException {
+        if (position + ENTRY_HEADER_SIZE > channel.size()) {
+            return null;
+        }
+        ByteBuffer entryHeader = readFully(position, ENTRY_HEADER_SIZE);
+        int length = entryHeader.getInt();
+        long crc = entryHeader.getLong();
+        if (length < MINIMUM_BODY_SIZE || position + ENTRY_HEADER_SIZE + length > channel.size()) {
+            return null;
+        }
+        byte[] body = readFully(position + ENTRY_HEADER_SIZE, length).array();
+        CRC32 check = new CRC32();
+        check.update(body);
+        return check.getValue() == crc ? body : null;
+    }
+
+    /* An entry holding the given body */
+    private static ByteBuffer entry(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + body.length);
+        entry.putInt(body.length).putLong(crc.getValue()).put(body);
+        entry.flip();
+        return entry;
+    }
+
+    private static List<Tuple<ObjectKey, Revision>> readRevisions(DataInputStream in) throws IOException {
+        ObjectClass[] classes = ObjectClass.values();
+        int count = in.readInt();
+        List<Tuple<ObjectKey, Revision>> revisions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ObjectClass objectClass = classes[in.readByte()];
+            byte[] name = new byte[in.readInt()];
+            in.readFully(name);
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            revisions.add(new Tuple<>(new ObjectKey(objectClass, new String(name, StandardCharsets.UTF_8)),
+                    (Revision)RevisionStore.CODER.asObject(encoded)));
+        }
+        return revisions;
+    }
+
+    private ByteBuffer readFully(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Journal " + file + " ended unexpectedly");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean hasHeader(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // Keep reading until the header is in
+        }
+        return header.getLong(0) == MAGIC && header.getInt(Long.BYTES) == VERSION;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(MAGIC).putInt(VERSION);
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
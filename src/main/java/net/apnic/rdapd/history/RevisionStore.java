@@ -0,0 +1,158 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.RdapObject;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An append-only store of revision contents, held outside the heap in a
+ * memory-mapped file.
+ *
+ * Superseded revisions are rarely read, so the History moves their contents
+ * here and keeps only an offset on the heap.  Contents are written once, in a
+ * compact binary encoding, and decoded afresh each time they are read.
+ * Current revisions are not stored; they stay on the heap for the lookups
+ * that make up most traffic.
+ *
+ * The file is mapped in fixed-size segments, and no record spans two.  It is
+ * scratch space for one run: it is truncated when opened and holds nothing a
+ * snapshot does not.
+ */
+public final class RevisionStore implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RevisionStore.class);
+
+    /* The size of each mapped segment */
+    static final int SEGMENT_SIZE = 1 << 26;
+
+    /* The offset given to contents the store could not take */
+    static final long NOT_STORED = -1L;
+
+    /* Contents hold Jackson nodes, which are not Serializable */
+    static final FSTConfiguration CODER = FSTConfiguration.createDefaultConfiguration()
+            .setForceSerializable(true);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final int segmentSize;
+
+    /* Mapped segments, replaced whole when one is added */
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /* The position of the next record in the last segment */
+    private int position;
+
+    private RevisionStore(Path file, int segmentSize) throws IOException {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Open a store backed by the given file, discarding anything in it.
+     *
+     * @param file the file to map
+     * @return an empty store
+     * @throws IOException if the file cannot be opened
+     */
+    public static RevisionStore open(Path file) throws IOException {
+        return new RevisionStore(file, SEGMENT_SIZE);
+    }
+
+    static RevisionStore open(Path file, int segmentSize) throws IOException {
+        return new RevisionStore(file, segmentSize);
+    }
+
+    /**
+     * Store a revision's contents.
+     *
+     * @param contents the contents to store
+     * @return the offset of the stored contents, or {@link #NOT_STORED} if
+     *         they are too large for a segment or the file cannot grow
+     */
+    public synchronized long put(RdapObject contents) {
+        byte[] encoded = CODER.asByteArray(contents);
+        int length = Integer.BYTES + encoded.length;
+        if (length > segmentSize) {
+            return NOT_STORED;
+        }
+        MappedByteBuffer[] mapped = segments;
+        if (mapped.length == 0 || position + length > segmentSize) {
+            mapped = addSegment(mapped);
+            if (mapped == null) {
+                return NOT_STORED;
+            }
+            position = 0;
+        }
+        ByteBuffer segment = mapped[mapped.length - 1].duplicate();
+        segment.position(position);
+        segment.putInt(encoded.length);
+        segment.put(encoded);
+        long offset = (long)(mapped.length - 1) * segmentSize + position;
+        position += length;
+        return offset;
+    }
+
+    /**
+     * Read a revision's contents back.
+     *
+     * @param offset the offset returned when the contents were stored
+     * @return the decoded contents
+     */
+    public RdapObject get(long offset) {
+        return (RdapObject)CODER.asObject(getEncoded(offset));
+    }
+
+    /* A revision's contents as stored, without decoding them */
+    byte[] getEncoded(long offset) {
+        ByteBuffer segment = segments[(int)(offset / segmentSize)].duplicate();
+        segment.position((int)(offset % segmentSize));
+        byte[] encoded = new byte[segment.getInt()];
+        segment.get(encoded);
+        return encoded;
+    }
+
+    /**
+     * The number of bytes of the file in use.
+     */
+    public synchronized long size() {
+        return segments.length == 0 ? 0 : (long)(segments.length - 1) * segmentSize + position;
+    }
+
+    /* Map one more segment, returning null if the file cannot grow */
+    private MappedByteBuffer[] addSegment(MappedByteBuffer[] mapped) {
+        try {
+            MappedByteBuffer[] next = Arrays.copyOf(mapped, mapped.length + 1);
+            next[mapped.length] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long)mapped.length * segmentSize, segmentSize);
+            segments = next;
+            return next;
+        } catch (IOException ex) {
+            LOGGER.warn("Could not extend revision store {}, keeping revisions on the heap", file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Close and remove the backing file.
+     *
+     * Contents must no longer be read once the store is closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,86 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.autnum.ASNInterval;
+import net.apnic.rdapd.rdap.AutNum;
+import net.apnic.rdapd.rdap.Domain;
+import net.apnic.rdapd.rdap.Entity;
+import net.apnic.rdapd.rdap.GenericObject;
+import net.apnic.rdapd.rdap.IpNetwork;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rdap.VCard;
+import net.apnic.rdapd.rdap.VCardAttribute;
+import net.apnic.rdapd.types.IpInterval;
+
+import java.util.Optional;
+
+/**
+ * The summary of a revision that is kept on the heap when its contents are
+ * not.
+ *
+ * A summary holds what indexing and history resolution use: the key, type,
+ * name, number or address range, related entities, deletion state and
+ * fingerprint.
+ */
+final class RevisionSummary {
+    private RevisionSummary() {
+    }
+
+    /* As RpslToRdap summarises an object, from what the snapshot tables hold */
+    static GenericObject summary(ObjectKey objectKey, String name, ASNInterval asnInterval,
+                                 IpInterval ipInterval) {
+        switch (objectKey.getObjectClass()) {
+            case AUT_NUM:
+                AutNum autnum = new AutNum(objectKey);
+                if (asnInterval != null) {
+                    autnum.setASNInterval(asnInterval.low().getASN(), asnInterval.high().getASN());
+                }
+                return autnum;
+
+            case DOMAIN:
+                return new Domain(objectKey);
+
+            case ENTITY:
+                VCard vCard = new VCard();
+                if (name != null) {
+                    vCard.addAttribute(new VCardAttribute("fn", "text", name));
+                }
+                Entity entity = new Entity(objectKey);
+                entity.setVCard(vCard);
+                return entity;
+
+            case IP_NETWORK:
+                return new IpNetwork(objectKey, ipInterval);
+
+            default:
+                throw new IllegalStateException("Unsupported object class " + objectKey.getObjectClass());
+        }
+    }
+
+    /**
+     * Summarise some contents.
+     *
+     * @param contents the contents to summarise
+     * @return the contents' key, type, name, number or address range,
+     *         related entities, deletion state and fingerprint
+     */
+    static GenericObject summarise(RdapObject contents) {
+        ASNInterval asnInterval = contents instanceof AutNum ? ((AutNum)contents).getASNInterval() : null;
+        IpInterval ipInterval = contents instanceof IpNetwork ? ((IpNetwork)contents).getIpInterval() : null;
+        GenericObject summary = summary(contents.getObjectKey(), formattedName(contents).orElse(null),
+                asnInterval, ipInterval);
+        summary.setRelatedEntities(contents.getRelatedEntities());
+        summary.setDeleted(contents.isDeleted());
+        summary.setFingerprint(contents.getFingerprint());
+        return summary;
+    }
+
+    /* An entity's formatted name, the only part of its vCard searches use */
+    static Optional<String> formattedName(RdapObject contents) {
+        if (!(contents instanceof Entity)) {
+            return Optional.empty();
+        }
+        return ((Entity)contents).getVCard().findVCardAttribute("fn")
+                .findFirst()
+                .map(attribute -> String.valueOf(attribute.getValue()));
+    }
+}
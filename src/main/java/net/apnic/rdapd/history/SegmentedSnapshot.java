@@ -0,0 +1,338 @@
+package net.apnic.rdapd.history;
+
+import com.github.andrewoma.dexx.collection.Builder;
+import com.github.andrewoma.dexx.collection.Map;
+import com.github.andrewoma.dexx.collection.Maps;
+import com.github.andrewoma.dexx.collection.Pair;
+
+import net.apnic.rdapd.intervaltree.ip.IpIntervalTree;
+
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A snapshot of a History serialized as with FST, in independently
+ * compressed segments.
+ *
+ * The histories are partitioned by object class and by a hash of their key,
+ * and the IP network index is kept in a segment of its own.  Segments are
+ * compressed and decompressed concurrently on a pool, so that writing and
+ * reading a snapshot is not bound to one core; the histories read are then
+ * gathered into one map with its builder, and the other indices are
+ * rebuilt from them.
+ *
+ * A snapshot file begins with a header naming the format and its version,
+ * the serial of the snapshotted state and the number of segments.  Each
+ * segment follows, in the order it was completed, as its kind, its
+ * partition, its length and its Deflate-compressed bytes.
+ */
+public final class SegmentedSnapshot {
+    /* "RDAPSEGS" */
+    private static final long MAGIC = 0x5244415053454753L;
+    private static final int VERSION = 1;
+
+    /* The number of partitions of each object class */
+    private static final int BUCKETS = 16;
+
+    /* Segment kinds */
+    private static final int HISTORIES = 1;
+    private static final int IP_TREE = 2;
+
+    /* Magic, version, serial and segment count */
+    private static final int HEADER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    /* Kind, partition and length */
+    private static final int SEGMENT_HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+
+    private SegmentedSnapshot() {
+    }
+
+    /**
+     * Whether a file holds a snapshot in this format.
+     *
+     * @param file the file to examine
+     * @return true if the file begins as a snapshot in this format does
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSegmentedSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Long.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until the magic is in or the file ends
+            }
+            return !magic.hasRemaining() && magic.getLong(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Write a state as a snapshot.
+     *
+     * @param state the state to write
+     * @param target the file to write, replaced once the snapshot is complete
+     * @param pool the pool to compress segments on
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(HistoryState state, Path target, ExecutorService pool) throws IOException {
+        write(state, target, pool, WriteThrottle.unlimited());
+    }
+
+    /**
+     * Write a state as a snapshot, at a limited rate.
+     *
+     * Only writing the file is throttled.  Segments are compressed on the
+     * pool, and once as many wait to be written as the pool has threads,
+     * another is begun only as one is written.
+     *
+     * @param state the state to write
+     * @param target the file to write, replaced once the snapshot is complete
+     * @param pool the pool to compress segments on
+     * @param throttle limits the rate written at, and counts what is written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(HistoryState state, Path target, ExecutorService pool, WriteThrottle throttle)
+        throws IOException
+    {
+        int classes = ObjectClass.values().length;
+        List<List<Pair<ObjectKey, ObjectHistory>>> partitions = new ArrayList<>(classes * BUCKETS);
+        for (int i = 0; i < classes * BUCKETS; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Pair<ObjectKey, ObjectHistory> p : state.getHistories()) {
+            partitions.get(partition(p.component1())).add(p);
+        }
+
+        List<Callable<Segment>> segments = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            List<Pair<ObjectKey, ObjectHistory>> members = partitions.get(i);
+            if (!members.isEmpty()) {
+                int index = i;
+                segments.add(() -> new Segment(HISTORIES, index, compress(out -> {
+                    out.writeInt(members.size());
+                    for (Pair<ObjectKey, ObjectHistory> p : members) {
+                        out.writeObject(p.component1());
+                        out.writeObject(p.component2());
+                    }
+                })));
+            }
+        }
+        segments.add(() -> new Segment(IP_TREE, 0, compress(out -> out.writeObject(state.getIpIntervalTree()))));
+
+        // Segments are written as they are completed, and no more are compressed
+        // at once than the pool has threads, so that few are held on the heap
+        // while a throttled write waits
+        int limit = parallelism(pool);
+        CompletionService<Segment> completed = new ExecutorCompletionService<>(pool);
+        List<Future<Segment>> pending = new ArrayList<>();
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                throttle.wrap(Files.newOutputStream(partial)), 1 << 16))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(state.getSerial());
+            out.writeInt(segments.size());
+            int written = 0;
+            for (Callable<Segment> segment : segments) {
+                if (pending.size() - written >= limit) {
+                    writeSegment(out, await(completed.take()));
+                    written++;
+                }
+                pending.add(completed.submit(segment));
+            }
+            while (written < pending.size()) {
+                writeSegment(out, await(completed.take()));
+                written++;
+            }
+        } catch (IOException | RuntimeException ex) {
+            pending.forEach(f -> f.cancel(true));
+            Files.deleteIfExists(partial);
+            throw ex;
+        } catch (InterruptedException ex) {
+            pending.forEach(f -> f.cancel(true));
+            Files.deleteIfExists(partial);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted writing snapshot " + target);
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restore a state from a snapshot.
+     *
+     * @param file the snapshot to restore
+     * @param pool the pool to decompress segments on
+     * @return the state, with the serial it reflects
+     * @throws IOException if the file cannot be read, or is not an intact
+     *                     snapshot in a version of this format
+     */
+    public static HistoryState read(Path file, ExecutorService pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getLong() != MAGIC) {
+                throw new IOException(file + " is not a segmented snapshot");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " snapshot, not version " + VERSION);
+            }
+            long serial = header.getLong();
+            int count = header.getInt();
+
+            // Segments are read and decoded concurrently, each from its own part of the file
+            List<Future<Object>> histories = new ArrayList<>();
+            Future<Object> ipTree = null;
+            long position = HEADER_SIZE;
+            try {
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer segmentHeader = readFully(channel, position, SEGMENT_HEADER_SIZE);
+                    int kind = segmentHeader.getInt();
+                    segmentHeader.getInt();
+                    long length = segmentHeader.getLong();
+                    long offset = position + SEGMENT_HEADER_SIZE;
+                    if (length < 0 || length > Integer.MAX_VALUE || offset + length > channel.size()) {
+                        throw new IOException(file + " has a segment beyond its end");
+                    }
+                    Future<Object> decoded = pool.submit(decode(channel, offset, (int)length, kind));
+                    if (kind == HISTORIES) {
+                        histories.add(decoded);
+                    } else if (kind == IP_TREE) {
+                        ipTree = decoded;
+                    }
+                    position = offset + length;
+                }
+                if (ipTree == null) {
+                    throw new IOException(file + " has no IP network index");
+                }
+
+                Builder<Pair<ObjectKey, ObjectHistory>, Map<ObjectKey, ObjectHistory>> builder = Maps.builder();
+                for (Future<Object> segment : histories) {
+                    @SuppressWarnings("unchecked")
+                    List<Pair<ObjectKey, ObjectHistory>> pairs = (List<Pair<ObjectKey, ObjectHistory>>)await(segment);
+                    pairs.forEach(builder::add);
+                }
+                @SuppressWarnings("unchecked")
+                IpIntervalTree<ObjectKey> ipNetworkTree = (IpIntervalTree<ObjectKey>)await(ipTree);
+                return History.indexed(serial, builder.build(), ipNetworkTree);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading snapshot " + file);
+            } finally {
+                histories.forEach(f -> f.cancel(true));
+                if (ipTree != null) {
+                    ipTree.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static void writeSegment(DataOutputStream out, Segment segment) throws IOException {
+        out.writeInt(segment.kind);
+        out.writeInt(segment.partition);
+        out.writeLong(segment.bytes.length);
+        out.write(segment.bytes);
+    }
+
+    /* The number of tasks a pool runs at once */
+    private static int parallelism(ExecutorService pool) {
+        if (pool instanceof ThreadPoolExecutor) {
+            return Math.max(1, ((ThreadPoolExecutor)pool).getMaximumPoolSize());
+        }
+        if (pool instanceof ForkJoinPool) {
+            return ((ForkJoinPool)pool).getParallelism();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /* The partition of an object: its class, and a bucket of its key's hash */
+    private static int partition(ObjectKey objectKey) {
+        return objectKey.getObjectClass().ordinal() * BUCKETS + Math.floorMod(objectKey.hashCode(), BUCKETS);
+    }
+
+    /* Decode one segment, reading it from the file itself */
+    private static Callable<Object> decode(FileChannel channel, long offset, int length, int kind) {
+        return () -> {
+            byte[] bytes = readFully(channel, offset, length).array();
+            try (FSTObjectInput in = new FSTObjectInput(new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+                if (kind != HISTORIES) {
+                    return in.readObject();
+                }
+                int size = in.readInt();
+                List<Pair<ObjectKey, ObjectHistory>> pairs = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    pairs.add(new Pair<>((ObjectKey)in.readObject(), (ObjectHistory)in.readObject()));
+                }
+                return pairs;
+            }
+        };
+    }
+
+    private static byte[] compress(SegmentWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FSTObjectOutput out = new FSTObjectOutput(new DeflaterOutputStream(bytes))) {
+            writer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException("Snapshot segment failed", ex.getCause());
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Snapshot ended unexpectedly");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @FunctionalInterface
+    private interface SegmentWriter {
+        void write(FSTObjectOutput out) throws IOException;
+    }
+
+    private static final class Segment {
+        private final int kind;
+        private final int partition;
+        private final byte[] bytes;
+
+        Segment(int kind, int partition, byte[] bytes) {
+            this.kind = kind;
+            this.partition = partition;
+            this.bytes = bytes;
+        }
+    }
+}
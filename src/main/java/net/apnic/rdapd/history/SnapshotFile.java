@@ -0,0 +1,743 @@
+package net.apnic.rdapd.history;
+
+import com.github.andrewoma.dexx.collection.Builder;
+import com.github.andrewoma.dexx.collection.Map;
+import com.github.andrewoma.dexx.collection.Maps;
+import com.github.andrewoma.dexx.collection.Pair;
+
+import net.apnic.rdapd.autnum.ASNInterval;
+import net.apnic.rdapd.intervaltree.ip.IpIntervalTree;
+import net.apnic.rdapd.rdap.AutNum;
+import net.apnic.rdapd.rdap.GenericObject;
+import net.apnic.rdapd.rdap.IpNetwork;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rdap.RelatedEntity;
+import net.apnic.rdapd.rdap.Role;
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+import net.apnic.rdapd.types.Tuple;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of a History in a binary layout that is mapped, not parsed.
+ *
+ * A snapshot file begins with a header naming the format and its version,
+ * the serial of the snapshotted state, the size of the contents' segments,
+ * and a table giving the offset, length and CRC-32 of each section.  Each
+ * section is a count followed by fixed-size records, all big-endian:
+ *
+ * <ul>
+ *   <li>KEYS: each object key's class, and the location of its UTF-8 name
+ *       in the strings following the records</li>
+ *   <li>NAMES: the formatted names of entity revisions, laid out as keys'
+ *       names are</li>
+ *   <li>HISTORIES: each object's key, truncation, and run of revisions</li>
+ *   <li>REVISIONS: each revision's validity, fingerprint, flags, name, run
+ *       of related entities, and the location of its contents</li>
+ *   <li>RELATED: the related entities of each revision, as key and roles</li>
+ *   <li>IP_NETWORKS: the interval of each IP network</li>
+ *   <li>IP_TREE: the entries of the index of every IP network ever known</li>
+ *   <li>AUT_NUMS: the interval of each autnum, in order of interval</li>
+ *   <li>CONTENTS: each revision's contents in the encoding of the
+ *       {@link RevisionStore}, in segments no record spans</li>
+ * </ul>
+ *
+ * Keys, names and revisions are referred to by their position in their
+ * section.  A snapshot is restored from the tables alone: each revision
+ * holds a summary of its contents, from which the indices are rebuilt, and
+ * its contents are decoded from the mapped file when first read.  Every
+ * section's checksum is verified as the snapshot is restored.
+ *
+ * A snapshot is written beside its target and moved over it once complete,
+ * so that a running History can go on reading the file it was restored from.
+ */
+public final class SnapshotFile {
+    /* "RDAPSNAP" */
+    private static final long MAGIC = 0x52444150534E4150L;
+    private static final int VERSION = 1;
+
+    /* The size of each contents segment */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private static final int KEYS = 1;
+    private static final int NAMES = 2;
+    private static final int HISTORIES = 3;
+    private static final int REVISIONS = 4;
+    private static final int RELATED = 5;
+    private static final int IP_NETWORKS = 6;
+    private static final int IP_TREE = 7;
+    private static final int AUT_NUMS = 8;
+    private static final int CONTENTS = 9;
+
+    /* The sections of a snapshot, in the order they are written */
+    private static final int[] SECTIONS = {
+        CONTENTS, KEYS, NAMES, HISTORIES, REVISIONS, RELATED, IP_NETWORKS, IP_TREE, AUT_NUMS
+    };
+
+    /* Magic, version, serial, segment size and section count */
+    private static final int PREAMBLE_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES
+            + Integer.BYTES;
+    /* Id, offset, length and checksum */
+    private static final int SECTION_ENTRY_SIZE = Integer.BYTES + 3 * Long.BYTES;
+
+    /* Record sizes of each section */
+    private static final int KEY_SIZE = 1 + 2 * Integer.BYTES;
+    private static final int NAME_SIZE = 2 * Integer.BYTES;
+    private static final int HISTORY_SIZE = Integer.BYTES + Long.BYTES + 2 * Integer.BYTES;
+    private static final int REVISION_SIZE = 3 * Long.BYTES + 1 + 3 * Integer.BYTES + Long.BYTES
+            + Integer.BYTES;
+    private static final int RELATED_SIZE = 2 * Integer.BYTES;
+
+    /* The number of histories read as one task */
+    private static final int HISTORY_RUN = 1 << 16;
+
+    /* Revision flags */
+    private static final byte DELETED = 1;
+    private static final byte DEFERRED = 2;
+
+    /* The name of a revision without one */
+    private static final int NO_NAME = -1;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Whether a file holds a snapshot in this format.
+     *
+     * @param file the file to examine
+     * @return true if the file begins as a snapshot in this format does
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshotFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Long.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until the magic is in or the file ends
+            }
+            return !magic.hasRemaining() && magic.getLong(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Write a state as a snapshot.
+     *
+     * @param state the state to write
+     * @param target the file to write, replaced once the snapshot is complete
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(HistoryState state, Path target) throws IOException {
+        write(state, target, WriteThrottle.unlimited());
+    }
+
+    /**
+     * Write a state as a snapshot, at a limited rate.
+     *
+     * @param state the state to write
+     * @param target the file to write, replaced once the snapshot is complete
+     * @param throttle limits the rate written at, and counts what is written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(HistoryState state, Path target, WriteThrottle throttle) throws IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            new Writer(channel, SEGMENT_SIZE, throttle).write(state);
+            channel.force(false);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(partial);
+            throw ex;
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restore a state from a snapshot.
+     *
+     * @param file the snapshot to restore
+     * @return the state, with the serial it reflects
+     * @throws IOException if the file cannot be read, or is not an intact
+     *                     snapshot in a version of this format
+     */
+    public static HistoryState read(Path file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Restore a state from a snapshot, reading histories concurrently.
+     *
+     * @param file the snapshot to restore
+     * @param pool the pool to read runs of histories on, or null to read
+     *             them on this thread
+     * @return the state, with the serial it reflects
+     * @throws IOException if the file cannot be read, or is not an intact
+     *                     snapshot in a version of this format
+     */
+    public static HistoryState read(Path file, ExecutorService pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Reader(file, channel).read(pool);
+        }
+    }
+
+    /**
+     * The mapped contents section of a snapshot.
+     */
+    static final class Contents {
+        private final ByteBuffer[] segments;
+        private final int segmentSize;
+
+        private Contents(ByteBuffer[] segments, int segmentSize) {
+            this.segments = segments;
+            this.segmentSize = segmentSize;
+        }
+
+        byte[] read(long offset, int length) {
+            ByteBuffer segment = segments[(int)(offset / segmentSize)].duplicate();
+            segment.position((int)(offset % segmentSize));
+            byte[] encoded = new byte[length];
+            segment.get(encoded);
+            return encoded;
+        }
+    }
+
+    /* A table section, built on the heap before it is written */
+    private static final class Table {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count;
+    }
+
+    /* A section's bytes on their way to the file, counted and checksummed */
+    private static final class SectionOutput extends FilterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private long length;
+
+        SectionOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            length += len;
+        }
+    }
+
+    private static final class Writer {
+        private final FileChannel channel;
+        private final int segmentSize;
+        private final OutputStream body;
+        private final WriteThrottle throttle;
+        private final ByteBuffer header = ByteBuffer.allocate(
+                PREAMBLE_SIZE + SECTIONS.length * SECTION_ENTRY_SIZE);
+
+        /* Where the next section starts */
+        private long position = header.capacity();
+
+        private final java.util.Map<ObjectKey, Integer> keys = new LinkedHashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Table histories = new Table();
+        private final Table revisions = new Table();
+        private final Table related = new Table();
+        private final Table ipNetworks = new Table();
+        private final Table ipTree = new Table();
+        private final List<Tuple<ASNInterval, ObjectKey>> autnums = new ArrayList<>();
+
+        Writer(FileChannel channel, int segmentSize, WriteThrottle throttle) throws IOException {
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+            this.throttle = throttle;
+            channel.position(header.capacity());
+            this.body = new BufferedOutputStream(throttle.wrap(Channels.newOutputStream(channel)), 1 << 16);
+        }
+
+        void write(HistoryState state) throws IOException {
+            header.putLong(MAGIC)
+                .putInt(VERSION)
+                .putLong(state.getSerial())
+                .putInt(segmentSize)
+                .putInt(SECTIONS.length);
+
+            // Contents are streamed to the file as the tables are built
+            SectionOutput contents = new SectionOutput(body);
+            for (Pair<ObjectKey, ObjectHistory> p : state.getHistories()) {
+                writeHistory(p.component1(), p.component2(), contents);
+            }
+            endSection(CONTENTS, contents);
+
+            for (Tuple<IpInterval, ObjectKey> entry : state.getIpIntervalTree()) {
+                writeInterval(ipTree, entry.second(), entry.first());
+            }
+            autnums.sort((a, b) -> a.first().compareTo(b.first()));
+
+            writeStrings(KEYS, keys.keySet(), ObjectKey::getObjectName);
+            writeStrings(NAMES, names, name -> name);
+            writeTable(HISTORIES, histories);
+            writeTable(REVISIONS, revisions);
+            writeTable(RELATED, related);
+            writeTable(IP_NETWORKS, ipNetworks);
+            writeTable(IP_TREE, ipTree);
+            SectionOutput section = new SectionOutput(body);
+            DataOutputStream out = new DataOutputStream(section);
+            out.writeInt(autnums.size());
+            for (Tuple<ASNInterval, ObjectKey> autnum : autnums) {
+                out.writeInt(key(autnum.second()));
+                out.writeLong(autnum.first().low().getASN());
+                out.writeLong(autnum.first().high().getASN());
+            }
+            endSection(AUT_NUMS, section);
+
+            body.flush();
+            header.flip();
+            long at = 0;
+            while (header.hasRemaining()) {
+                at += channel.write(header, at);
+            }
+            throttle.account(at);
+        }
+
+        private void writeHistory(ObjectKey objectKey, ObjectHistory objectHistory, SectionOutput contents)
+            throws IOException
+        {
+            int firstRevision = revisions.count;
+            for (Revision revision : objectHistory) {
+                writeRevision(revision, contents);
+            }
+            histories.out.writeInt(key(objectKey));
+            histories.out.writeLong(objectHistory.getTruncatedBefore());
+            histories.out.writeInt(firstRevision);
+            histories.out.writeInt(revisions.count - firstRevision);
+            histories.count++;
+
+            // As for the indices rebuilt from a snapshot, the interval is that of the latest revision
+            Optional<RdapObject> latest = objectHistory.mostRecent().map(Revision::getSummary);
+            if (latest.isPresent() && latest.get() instanceof IpNetwork) {
+                IpInterval interval = ((IpNetwork)latest.get()).getIpInterval();
+                if (interval != null) {
+                    writeInterval(ipNetworks, objectKey, interval);
+                }
+            } else if (latest.isPresent() && latest.get() instanceof AutNum) {
+                ASNInterval interval = ((AutNum)latest.get()).getASNInterval();
+                if (interval != null) {
+                    autnums.add(new Tuple<>(interval, objectKey));
+                }
+            }
+        }
+
+        private void writeRevision(Revision revision, SectionOutput contents) throws IOException {
+            byte flags = 0;
+            byte[] encoded;
+            if (revision instanceof MappedRevision) {
+                encoded = ((MappedRevision)revision).getEncoded();
+                flags |= ((MappedRevision)revision).isDeferred() ? DEFERRED : 0;
+            } else if (revision instanceof StoredRevision) {
+                encoded = ((StoredRevision)revision).getEncoded();
+            } else if (revision instanceof DeferredRevision
+                    && ((DeferredRevision)revision).getSupplier() instanceof Serializable) {
+                encoded = RevisionStore.CODER.asByteArray(((DeferredRevision)revision).getSupplier());
+                flags |= DEFERRED;
+            } else {
+                encoded = RevisionStore.CODER.asByteArray(revision.getContents());
+            }
+            if (encoded.length > segmentSize) {
+                throw new IOException("Revision contents of " + encoded.length
+                        + " bytes do not fit a snapshot segment");
+            }
+            // No record spans two segments
+            long inSegment = contents.length % segmentSize;
+            if (inSegment + encoded.length > segmentSize) {
+                contents.write(new byte[(int)(segmentSize - inSegment)]);
+            }
+            long offset = contents.length;
+            contents.write(encoded);
+
+            RdapObject summary = revision.getSummary();
+            flags |= summary.isDeleted() ? DELETED : 0;
+            int firstRelated = related.count;
+            for (RelatedEntity relatedEntity : summary.getRelatedEntities()) {
+                int roles = 0;
+                for (Role role : relatedEntity.getRoles()) {
+                    roles |= 1 << role.ordinal();
+                }
+                related.out.writeInt(key(relatedEntity.getObjectKey()));
+                related.out.writeInt(roles);
+                related.count++;
+            }
+            int name = NO_NAME;
+            Optional<String> formattedName = RevisionSummary.formattedName(summary);
+            if (formattedName.isPresent()) {
+                name = names.size();
+                names.add(formattedName.get());
+            }
+
+            revisions.out.writeLong(revision.getValidFromEpochSecond());
+            revisions.out.writeLong(revision.getValidUntilEpochSecond());
+            revisions.out.writeLong(summary.getFingerprint());
+            revisions.out.writeByte(flags);
+            revisions.out.writeInt(name);
+            revisions.out.writeInt(firstRelated);
+            revisions.out.writeInt(related.count - firstRelated);
+            revisions.out.writeLong(offset);
+            revisions.out.writeInt(encoded.length);
+            revisions.count++;
+        }
+
+        private void writeInterval(Table table, ObjectKey objectKey, IpInterval interval) throws IOException {
+            byte[] low = interval.low().getAddress().getAddress();
+            byte[] high = interval.high().getAddress().getAddress();
+            table.out.writeInt(key(objectKey));
+            table.out.writeByte(low.length);
+            table.out.write(Arrays.copyOf(low, 16));
+            table.out.write(Arrays.copyOf(high, 16));
+            table.count++;
+        }
+
+        private int key(ObjectKey objectKey) {
+            return keys.computeIfAbsent(objectKey, k -> keys.size());
+        }
+
+        private <T> void writeStrings(int id, Collection<T> values, Function<T, String> name)
+            throws IOException
+        {
+            SectionOutput section = new SectionOutput(body);
+            DataOutputStream out = new DataOutputStream(section);
+            ByteArrayOutputStream strings = new ByteArrayOutputStream();
+            out.writeInt(values.size());
+            for (T value : values) {
+                byte[] encoded = name.apply(value).getBytes(StandardCharsets.UTF_8);
+                if (value instanceof ObjectKey) {
+                    out.writeByte(((ObjectKey)value).getObjectClass().ordinal());
+                }
+                out.writeInt(strings.size());
+                out.writeInt(encoded.length);
+                strings.write(encoded);
+            }
+            strings.writeTo(out);
+            endSection(id, section);
+        }
+
+        private void writeTable(int id, Table table) throws IOException {
+            SectionOutput section = new SectionOutput(body);
+            DataOutputStream out = new DataOutputStream(section);
+            out.writeInt(table.count);
+            table.bytes.writeTo(out);
+            endSection(id, section);
+        }
+
+        private void endSection(int id, SectionOutput section) {
+            header.putInt(id)
+                .putLong(position)
+                .putLong(section.length)
+                .putLong(section.crc.getValue());
+            position += section.length;
+        }
+    }
+
+    private static final class Reader {
+        private final Path file;
+        private final FileChannel channel;
+        private final java.util.Map<Integer, long[]> sections = new HashMap<>();
+
+        private ObjectKey[] keys;
+        private String[] names;
+        private IpInterval[] ipIntervals;
+        private ByteBuffer revisions;
+        private ByteBuffer related;
+        private Contents contents;
+
+        Reader(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        HistoryState read(ExecutorService pool) throws IOException {
+            if (channel.size() < PREAMBLE_SIZE) {
+                throw new IOException(file + " is too short to be a snapshot");
+            }
+            ByteBuffer preamble = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREAMBLE_SIZE);
+            if (preamble.getLong() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int version = preamble.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " is a version " + version + " snapshot, not version " + VERSION);
+            }
+            long serial = preamble.getLong();
+            int segmentSize = preamble.getInt();
+            int sectionCount = preamble.getInt();
+            if (segmentSize <= 0 || sectionCount < 0
+                    || PREAMBLE_SIZE + (long)sectionCount * SECTION_ENTRY_SIZE > channel.size()) {
+                throw new IOException(file + " has a corrupt header");
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, PREAMBLE_SIZE,
+                    (long)sectionCount * SECTION_ENTRY_SIZE);
+            for (int i = 0; i < sectionCount; i++) {
+                int id = table.getInt();
+                long offset = table.getLong();
+                long length = table.getLong();
+                long crc = table.getLong();
+                if (offset < 0 || length < 0 || offset + length > channel.size()) {
+                    throw new IOException(file + " has section " + id + " beyond its end");
+                }
+                sections.put(id, new long[] { offset, length, crc });
+            }
+
+            keys = readKeys(section(KEYS));
+            names = readNames(section(NAMES));
+            revisions = section(REVISIONS);
+            related = section(RELATED);
+            contents = readContents(segmentSize);
+
+            ipIntervals = new IpInterval[keys.length];
+            ByteBuffer ipNetworks = section(IP_NETWORKS);
+            for (int i = 0, n = ipNetworks.getInt(); i < n; i++) {
+                int key = ipNetworks.getInt();
+                ipIntervals[key] = readInterval(ipNetworks);
+            }
+            List<Tuple<IpInterval, ObjectKey>> ipTreeEntries = new ArrayList<>();
+            ByteBuffer ipTree = section(IP_TREE);
+            for (int i = 0, n = ipTree.getInt(); i < n; i++) {
+                ObjectKey objectKey = keys[ipTree.getInt()];
+                ipTreeEntries.add(new Tuple<>(readInterval(ipTree), objectKey));
+            }
+            List<Tuple<ASNInterval, ObjectKey>> autnums = new ArrayList<>();
+            ASNInterval[] asnIntervals = new ASNInterval[keys.length];
+            ByteBuffer autnumTable = section(AUT_NUMS);
+            for (int i = 0, n = autnumTable.getInt(); i < n; i++) {
+                int key = autnumTable.getInt();
+                ASNInterval interval = new ASNInterval(autnumTable.getLong(), autnumTable.getLong());
+                asnIntervals[key] = interval;
+                autnums.add(new Tuple<>(interval, keys[key]));
+            }
+
+            // Runs of histories are read independently, and gathered in order
+            ByteBuffer histories = section(HISTORIES);
+            int count = histories.getInt();
+            List<Callable<List<Pair<ObjectKey, ObjectHistory>>>> runs = new ArrayList<>();
+            for (int start = 0; start < count; start += HISTORY_RUN) {
+                int first = start;
+                int end = Math.min(count, start + HISTORY_RUN);
+                runs.add(() -> readHistories(histories, first, end, asnIntervals));
+            }
+            Builder<Pair<ObjectKey, ObjectHistory>, Map<ObjectKey, ObjectHistory>> builder = Maps.builder();
+            for (List<Pair<ObjectKey, ObjectHistory>> run : runAll(runs, pool)) {
+                run.forEach(builder::add);
+            }
+
+            return History.indexed(serial, builder.build(), IpIntervalTree.copyOf(ipTreeEntries), autnums);
+        }
+
+        private List<Pair<ObjectKey, ObjectHistory>> readHistories(ByteBuffer section, int start, int end,
+                                                                   ASNInterval[] asnIntervals) {
+            ByteBuffer histories = section.duplicate();
+            histories.position(Integer.BYTES + start * HISTORY_SIZE);
+            List<Pair<ObjectKey, ObjectHistory>> read = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                int key = histories.getInt();
+                long truncatedBefore = histories.getLong();
+                int firstRevision = histories.getInt();
+                Revision[] own = new Revision[histories.getInt()];
+                for (int j = 0; j < own.length; j++) {
+                    own[j] = readRevision(firstRevision + j, key, asnIntervals[key]);
+                }
+                read.add(new Pair<>(keys[key], new ObjectHistory(keys[key], own, truncatedBefore)));
+            }
+            return read;
+        }
+
+        /* The results of some tasks, in order, run on a pool if there is one */
+        private <T> List<T> runAll(List<Callable<T>> tasks, ExecutorService pool) throws IOException {
+            List<T> results = new ArrayList<>(tasks.size());
+            try {
+                if (pool == null) {
+                    for (Callable<T> task : tasks) {
+                        results.add(task.call());
+                    }
+                    return results;
+                }
+                for (Future<T> result : pool.invokeAll(tasks)) {
+                    results.add(result.get());
+                }
+                return results;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading snapshot " + file);
+            } catch (ExecutionException ex) {
+                throw new IOException("Could not read histories from " + file, ex.getCause());
+            } catch (IOException | RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new IOException("Could not read histories from " + file, ex);
+            }
+        }
+
+        /* A section, mapped and checked against its checksum */
+        private ByteBuffer section(int id) throws IOException {
+            long[] section = sections.get(id);
+            if (section == null) {
+                throw new IOException(file + " has no section " + id);
+            }
+            if (section[1] > Integer.MAX_VALUE) {
+                throw new IOException(file + " has section " + id + " too large to map");
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, section[0], section[1]);
+            CRC32 crc = new CRC32();
+            crc.update(mapped.duplicate());
+            if (crc.getValue() != section[2]) {
+                throw new IOException(file + " fails the checksum of section " + id);
+            }
+            return mapped;
+        }
+
+        /* The contents section, mapped a segment at a time and checked as a whole */
+        private Contents readContents(int segmentSize) throws IOException {
+            long[] section = sections.get(CONTENTS);
+            if (section == null) {
+                throw new IOException(file + " has no section " + CONTENTS);
+            }
+            int count = (int)((section[1] + segmentSize - 1) / segmentSize);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < count; i++) {
+                long start = (long)i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, section[0] + start,
+                        Math.min(segmentSize, section[1] - start));
+                crc.update(segments[i].duplicate());
+            }
+            if (crc.getValue() != section[2]) {
+                throw new IOException(file + " fails the checksum of section " + CONTENTS);
+            }
+            return new Contents(segments, segmentSize);
+        }
+
+        private ObjectKey[] readKeys(ByteBuffer section) throws IOException {
+            ObjectClass[] classes = ObjectClass.values();
+            ObjectKey[] read = new ObjectKey[section.getInt()];
+            int strings = Integer.BYTES + read.length * KEY_SIZE;
+            for (int i = 0; i < read.length; i++) {
+                int objectClass = section.get();
+                if (objectClass < 0 || objectClass >= classes.length) {
+                    throw new IOException(file + " has a key of unknown class " + objectClass);
+                }
+                int offset = section.getInt();
+                int length = section.getInt();
+                read[i] = new ObjectKey(classes[objectClass], readString(section, strings + offset, length));
+            }
+            return read;
+        }
+
+        private String[] readNames(ByteBuffer section) {
+            String[] read = new String[section.getInt()];
+            int strings = Integer.BYTES + read.length * NAME_SIZE;
+            for (int i = 0; i < read.length; i++) {
+                int offset = section.getInt();
+                int length = section.getInt();
+                read[i] = readString(section, strings + offset, length);
+            }
+            return read;
+        }
+
+        private static String readString(ByteBuffer section, int offset, int length) {
+            ByteBuffer string = section.duplicate();
+            string.position(offset);
+            byte[] encoded = new byte[length];
+            string.get(encoded);
+            return new String(encoded, StandardCharsets.UTF_8);
+        }
+
+        private static IpInterval readInterval(ByteBuffer section) throws IOException {
+            int length = section.get();
+            byte[] low = new byte[16];
+            byte[] high = new byte[16];
+            section.get(low);
+            section.get(high);
+            return new IpInterval(
+                    new IP(InetAddress.getByAddress(Arrays.copyOf(low, length))),
+                    new IP(InetAddress.getByAddress(Arrays.copyOf(high, length))));
+        }
+
+        private Revision readRevision(int index, int key, ASNInterval asnInterval) {
+            ByteBuffer revision = revisions.duplicate();
+            revision.position(Integer.BYTES + index * REVISION_SIZE);
+            long validFrom = revision.getLong();
+            long validUntil = revision.getLong();
+            long fingerprint = revision.getLong();
+            byte flags = revision.get();
+            int name = revision.getInt();
+            int firstRelated = revision.getInt();
+            int relatedCount = revision.getInt();
+            long offset = revision.getLong();
+            int length = revision.getInt();
+
+            GenericObject summary = RevisionSummary.summary(keys[key], name == NO_NAME ? null : names[name],
+                    asnInterval, ipIntervals[key]);
+            summary.setRelatedEntities(readRelated(firstRelated, relatedCount));
+            summary.setDeleted((flags & DELETED) != 0);
+            summary.setFingerprint(fingerprint);
+            return new MappedRevision(validFrom, validUntil, summary, contents, offset, length,
+                    (flags & DEFERRED) != 0);
+        }
+
+        private Collection<RelatedEntity> readRelated(int first, int count) {
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            Role[] allRoles = Role.values();
+            List<RelatedEntity> read = new ArrayList<>(count);
+            ByteBuffer entries = related.duplicate();
+            entries.position(Integer.BYTES + first * RELATED_SIZE);
+            for (int i = 0; i < count; i++) {
+                ObjectKey objectKey = keys[entries.getInt()];
+                int mask = entries.getInt();
+                Set<Role> roles = EnumSet.noneOf(Role.class);
+                for (Role role : allRoles) {
+                    if ((mask & (1 << role.ordinal())) != 0) {
+                        roles.add(role);
+                    }
+                }
+                read.add(new RelatedEntity(objectKey, roles));
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.RdapObject;
+
+/**
+ * A revision whose contents are held in a {@link RevisionStore}.
+ *
+ * Only the validity, a summary and the offset of the contents stay on the
+ * heap; the contents are decoded from the store each time they are asked
+ * for.
+ */
+final class StoredRevision extends Revision {
+    private static final long serialVersionUID = 6319446024566710139L;
+
+    private final RdapObject summary;
+    private final transient RevisionStore store;
+    private final long offset;
+
+    StoredRevision(long validFrom, long validUntil, RdapObject summary, RevisionStore store, long offset) {
+        super(validFrom, validUntil, null);
+        this.summary = summary;
+        this.store = store;
+        this.offset = offset;
+    }
+
+    /**
+     * Move a revision's contents into a store.
+     *
+     * @param revision the revision to move
+     * @param store the store to hold its contents
+     * @return a revision reading its contents from the store, or the revision
+     *         itself if the store could not take them
+     */
+    static Revision of(Revision revision, RevisionStore store) {
+        RdapObject contents = revision.getContents();
+        long offset = store.put(contents);
+        if (offset == RevisionStore.NOT_STORED) {
+            return revision;
+        }
+        RdapObject summary = revision.getSummary();
+        if (summary == contents) {
+            summary = RevisionSummary.summarise(contents);
+        }
+        return new StoredRevision(revision.getValidFromEpochSecond(), revision.getValidUntilEpochSecond(),
+                summary, store, offset);
+    }
+
+    @Override
+    public RdapObject getContents() {
+        return store.get(offset);
+    }
+
+    @Override
+    public RdapObject getSummary() {
+        return summary;
+    }
+
+    /* The contents as the store encodes them */
+    byte[] getEncoded() {
+        return store.getEncoded(offset);
+    }
+
+    @Override
+    public Revision supersede(long validUntil) {
+        return new StoredRevision(getValidFromEpochSecond(), validUntil, summary, store, offset);
+    }
+}
@@ -0,0 +1,97 @@
+package net.apnic.rdapd.history;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate a snapshot is written at, and counts what has been
+ * written.
+ *
+ * A snapshot is written alongside a server answering queries; writing it as
+ * fast as the disk allows can starve the server of I/O.  Output written
+ * through a throttle is held back, by pausing the writing thread, so that on
+ * average it does not exceed the rate allowed.  The count of bytes written
+ * can be read from other threads as the snapshot's progress.
+ *
+ * A throttle is for one snapshot, written from one thread at a time.
+ */
+public final class WriteThrottle {
+    private final long bytesPerSecond;
+    private final long started = System.nanoTime();
+    private volatile long written = 0;
+
+    /**
+     * A throttle allowing some rate of writes.
+     *
+     * @param bytesPerSecond the average rate allowed, or 0 for no limit
+     */
+    public WriteThrottle(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Write rate cannot be negative");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * A throttle that only counts what is written.
+     */
+    public static WriteThrottle unlimited() {
+        return new WriteThrottle(0);
+    }
+
+    /**
+     * The bytes written through this throttle so far.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * An output stream writing through this throttle.
+     *
+     * @param out the stream to write to
+     * @return the throttled stream
+     */
+    public OutputStream wrap(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                account(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                account(len);
+            }
+        };
+    }
+
+    /**
+     * Record bytes written, pausing until the average rate is back within
+     * the limit.
+     *
+     * @param bytes the bytes just written
+     * @throws InterruptedIOException if interrupted while paused
+     */
+    public void account(long bytes) throws InterruptedIOException {
+        written += bytes;
+        if (bytesPerSecond == 0) {
+            return;
+        }
+        long due = started + (long)((double)written / bytesPerSecond * TimeUnit.SECONDS.toNanos(1));
+        long ahead = due - System.nanoTime();
+        if (ahead > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(ahead);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted writing snapshot");
+            }
+        }
+    }
+}
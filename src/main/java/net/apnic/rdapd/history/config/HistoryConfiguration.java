@@ -1,18 +1,23 @@
 package net.apnic.rdapd.history.config;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Optional;
-import java.util.function.BinaryOperator;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
-import net.apnic.rdapd.autnum.ASN;
-import net.apnic.rdapd.autnum.ASNInterval;
 import net.apnic.rdapd.autnum.AutNumSearchService;
 import net.apnic.rdapd.history.History;
+import net.apnic.rdapd.history.HistoryState;
+import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectHistory;
 import net.apnic.rdapd.history.ObjectIndex;
-import net.apnic.rdapd.history.Revision;
+import net.apnic.rdapd.history.QueryExecutor;
+import net.apnic.rdapd.history.RetentionPolicy;
+import net.apnic.rdapd.history.RevisionStore;
 import net.apnic.rdapd.intervaltree.Interval;
 import net.apnic.rdapd.intervaltree.IntervalTree;
 import net.apnic.rdapd.ip.IpService;
@@ -23,57 +28,119 @@ import net.apnic.rdapd.types.IpInterval;
 import net.apnic.rdapd.types.Tuple;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class HistoryConfiguration
 {
+    /**
+     * The History of the registry.
+     *
+     * If history.revision-store.file is set, the contents of superseded
+     * revisions are moved off the heap into that file.
+     */
     @Bean
-    public History history()
+    public History history(Optional<RevisionStore> revisionStore, RetentionPolicy retentionPolicy)
     {
-        return new History();
+        return new History(revisionStore.orElse(null), retentionPolicy);
     }
 
+    /**
+     * The revisions kept of each object class.
+     *
+     * Each of history.retention.ip-network, .domain, .aut-num and .entity is
+     * full, current-only, or window:N to keep the last N years.
+     */
+    @Bean
+    public RetentionPolicy retentionPolicy(
+        @Value("${history.retention.ip-network:full}") String ipNetwork,
+        @Value("${history.retention.domain:full}") String domain,
+        @Value("${history.retention.aut-num:full}") String autNum,
+        @Value("${history.retention.entity:full}") String entity)
+    {
+        return RetentionPolicy.full()
+            .with(ObjectClass.IP_NETWORK, ipNetwork)
+            .with(ObjectClass.DOMAIN, domain)
+            .with(ObjectClass.AUT_NUM, autNum)
+            .with(ObjectClass.ENTITY, entity);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(value="history.revision-store.file")
+    public RevisionStore revisionStore(@Value("${history.revision-store.file}") String file)
+        throws IOException
+    {
+        return RevisionStore.open(Paths.get(file));
+    }
+
+    /**
+     * The execution policy for index queries.
+     *
+     * Range scans run on a pool of query.range-scan.parallelism threads,
+     * defaulting to one per processor; zero runs them on the request thread.
+     */
     @Autowired
     @Bean
-    public AutNumSearchService autnumSearchService(History history) {
-        final IntervalTree<ASN, ObjectHistory, ASNInterval> tree = lazyMap(
-            history::getAutNumTree,
-            objectKey -> history.historyForObject(objectKey).orElse(null)
-        );
+    public QueryExecutor queryExecutor(
+        @Value("${query.range-scan.parallelism:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+        int parallelism,
+        CounterService counterService,
+        GaugeService gaugeService)
+    {
+        return new QueryExecutor(parallelism, counterService, gaugeService);
+    }
 
-        final BinaryOperator<Tuple<ASNInterval, ObjectHistory>> mostSpecific =
-                (a, b) -> a.first().compareTo(b.first()) <= 0 ? b : a;
+    /*
+     * Each query below obtains the History's state once and makes all of its
+     * lookups against it, so that indices and object histories agree.
+     */
 
+    @Autowired
+    @Bean
+    public AutNumSearchService autnumSearchService(History history, QueryExecutor queryExecutor) {
         return new AutNumSearchService()
         {
             @Override
-            public Optional<AutNum> findCurrent(ASN asn)
+            public Optional<AutNum> findCurrent(long asn)
             {
-                return tree.equalToAndLeastSpecific(new ASNInterval(asn, asn))
-                    .filter(t -> t.second().mostCurrent().isPresent())
-                    .reduce(mostSpecific)
-                    .flatMap(t -> t.second().mostCurrent())
-                    .map(Revision::getContents)
+                HistoryState state = history.getState();
+                return queryExecutor.point(() -> state.getAutNumIndex().mostSpecific(asn, state::isCurrent))
+                    .flatMap(state::currentObject)
                     .map(rdapObject -> (AutNum)rdapObject);
             }
 
             @Override
-            public Optional<ObjectHistory> findHistory(ASN asn)
+            public Optional<AutNum> findAt(long asn, long when)
             {
-                return tree.equalToAndLeastSpecific(new ASNInterval(asn, asn))
-                    .reduce(mostSpecific)
-                    .flatMap(t -> Optional.ofNullable(t.second()));
+                HistoryState state = history.getState();
+                return queryExecutor.point(() -> state.getAutNumIndex().mostSpecific(asn,
+                        objectKey -> state.isCurrentAt(objectKey, when)))
+                    .flatMap(objectKey -> state.objectAt(objectKey, when))
+                    .map(rdapObject -> (AutNum)rdapObject);
+            }
+
+            @Override
+            public Optional<ObjectHistory> findHistory(long asn)
+            {
+                HistoryState state = history.getState();
+                return queryExecutor.point(() -> state.getAutNumIndex().mostSpecific(asn, state::contains))
+                    .flatMap(state::historyForObject);
             }
         };
     }
 
+    /* Serves the history endpoint, where each network's resolved history is the answer */
     @Autowired
     @Bean
     public IntervalTree<IP, ObjectHistory, IpInterval> ipListIntervalTree(History history)
     {
-        return lazyMap(history::getIPNetworkTree, objectKey -> history().historyForObject(objectKey).orElse(null));
+        return lazyMap(history::getState, HistoryState::getIPNetworkTree,
+            (state, objectKey) -> state.historyForObject(objectKey).orElse(null));
     }
 
     @Autowired
@@ -85,54 +152,100 @@ public class HistoryConfiguration
 
     @Autowired
     @Bean
-    public IpService ipService(History history) {
-        final IntervalTree<IP, ObjectHistory, IpInterval> tree = lazyMap(
-                history::getIPNetworkTree,
-                objectKey -> history.historyForObject(objectKey).orElse(null)
-        );
-
-        final BinaryOperator<Tuple<IpInterval, ObjectHistory>> mostSpecific =
-                (a, b) -> a.first().compareTo(b.first()) <= 0 ? b : a;
-
-        return ipInterval -> tree.equalToAndLeastSpecific(ipInterval)
-                .filter(t -> t.second().mostCurrent().isPresent())
-                .reduce(mostSpecific)
-                .flatMap(t -> t.second().mostCurrent())
-                .map(Revision::getContents)
-                .map(rdapObject -> (IpNetwork) rdapObject);
+    public IpService ipService(History history, QueryExecutor queryExecutor) {
+        return new IpService()
+        {
+            // Single addresses resolve against the segment map; wider ranges need the trie
+            @Override
+            public Optional<IpNetwork> find(IpInterval ipInterval)
+            {
+                HistoryState state = history.getState();
+                return queryExecutor.point(() -> ipInterval.low().equals(ipInterval.high())
+                            ? state.getIPNetworkSegments().mostSpecificCurrent(ipInterval.low())
+                            : state.getIPNetworkTrie().mostSpecificCurrent(ipInterval))
+                        .flatMap(state::currentObject)
+                        .map(rdapObject -> (IpNetwork) rdapObject);
+            }
+
+            // The current-state indices know nothing of the past, so the tree of every network is searched
+            @Override
+            public Optional<IpNetwork> findAt(IpInterval ipInterval, long when)
+            {
+                HistoryState state = history.getState();
+                return queryExecutor.point(() -> state.getIPNetworkTree().mostSpecificEncompassing(ipInterval,
+                            objectKey -> state.isCurrentAt(objectKey, when)))
+                        .flatMap(objectKey -> state.objectAt(objectKey, when))
+                        .map(rdapObject -> (IpNetwork) rdapObject);
+            }
+        };
     }
 
-    private <K extends Comparable<K>, V, V2, I extends Interval<K>> IntervalTree<K, V2, I> lazyMap(
-            Supplier<IntervalTree<K, V, I>> treeSupplier, Function<V, V2> mapper) {
+    /*
+     * View a state's tree with its values mapped.  Each query is answered
+     * from a single state, from the tree through to the mapped values.
+     */
+    private <S, K extends Comparable<K>, V, V2, I extends Interval<K>> IntervalTree<K, V2, I> lazyMap(
+            Supplier<S> stateSupplier, Function<S, IntervalTree<K, V, I>> treeOf, BiFunction<S, V, V2> mapper) {
         return new IntervalTree<K, V2, I>()
         {
-            @Override
-            public Stream<Tuple<I, V2>>
-            equalToAndLeastSpecific(I range) {
-                return treeSupplier.get().equalToAndLeastSpecific(range)
-                        .flatMap(tuple -> Optional.ofNullable(mapper.apply(tuple.second()))
+            private Stream<Tuple<I, V2>> mapAll(S state, Stream<Tuple<I, V>> tuples) {
+                return tuples
+                        .flatMap(tuple -> Optional.ofNullable(mapper.apply(state, tuple.second()))
                                 .map(Stream::of)
                                 .orElse(Stream.empty())
                                 .map(v2 -> new Tuple<>(tuple.first(), v2)));
             }
 
+            @Override
+            public Stream<Tuple<I, V2>>
+            equalToAndLeastSpecific(I range) {
+                S state = stateSupplier.get();
+                return mapAll(state, treeOf.apply(state).equalToAndLeastSpecific(range));
+            }
+
             @Override
             public Optional<V2> exact(I range) {
-                return treeSupplier.get().exact(range).map(mapper);
+                S state = stateSupplier.get();
+                return treeOf.apply(state).exact(range).map(v -> mapper.apply(state, v));
             }
 
             @Override
             public Stream<Tuple<I, V2>> intersecting(I range) {
-                return treeSupplier.get().intersecting(range)
-                        .flatMap(tuple -> Optional.ofNullable(mapper.apply(tuple.second()))
-                                .map(Stream::of)
-                                .orElse(Stream.empty())
-                                .map(v2 -> new Tuple<>(tuple.first(), v2)));
+                S state = stateSupplier.get();
+                return mapAll(state, treeOf.apply(state).intersecting(range));
+            }
+
+            @Override
+            public Stream<Tuple<I, V2>> intersecting(I range, long offset, int limit) {
+                S state = stateSupplier.get();
+                return mapAll(state, treeOf.apply(state).intersecting(range, offset, limit));
+            }
+
+            @Override
+            public Stream<Tuple<I, V2>> intersecting(I range, Predicate<I> filter, long offset, int limit) {
+                S state = stateSupplier.get();
+                return mapAll(state, treeOf.apply(state).intersecting(range, filter, offset, limit));
+            }
+
+            // The tree stops at the first value passing the filter, so the last mapped to pass is the answer
+            @Override
+            @SuppressWarnings("unchecked")
+            public Optional<V2> mostSpecificEncompassing(I range, Predicate<V2> filter) {
+                S state = stateSupplier.get();
+                final Object found[] = { null };
+                return treeOf.apply(state).mostSpecificEncompassing(range, v -> {
+                    V2 v2 = mapper.apply(state, v);
+                    if (v2 == null || !filter.test(v2)) {
+                        return false;
+                    }
+                    found[0] = v2;
+                    return true;
+                }).map(v -> (V2)found[0]);
             }
 
             @Override
             public int size() {
-                return treeSupplier.get().size();
+                return treeOf.apply(stateSupplier.get()).size();
             }
         };
     }
@@ -2,12 +2,74 @@ package net.apnic.rdapd.intervaltree;
 
 import net.apnic.rdapd.types.Tuple;
 
+import java.util.Comparator;
 import java.util.Optional;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+/**
+ * An index of values by interval.
+ *
+ * Streams returned by queries are sequential.  Callers scanning a large range
+ * may ask for a parallel stream; the spliterators split by sub-tree.
+ */
 public interface IntervalTree<K extends Comparable<K>, V, I extends Interval<K>> {
     Stream<Tuple<I, V>> equalToAndLeastSpecific(I range);
     Optional<V> exact(I range);
     Stream<Tuple<I,V>> intersecting(I range);
+
+    /**
+     * A page of the intervals intersecting the range, in ascending order of
+     * interval.
+     *
+     * Trees able to find the start of the page directly should override this
+     * default, which sorts every match.
+     *
+     * @param range the range to intersect
+     * @param offset the number of matches to skip
+     * @param limit the most matches to return
+     */
+    default Stream<Tuple<I,V>> intersecting(I range, long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        return intersecting(range)
+                .sorted(Comparator.comparing(Tuple::first))
+                .skip(offset)
+                .limit(limit);
+    }
+
+    /**
+     * A page of the intervals intersecting the range that pass a filter, in
+     * ascending order of interval.
+     *
+     * Intervals the filter rejects count towards neither the offset nor the
+     * limit, so a page holds fewer than limit matches only if it is the last.
+     *
+     * @param range the range to intersect
+     * @param filter the intervals to include
+     * @param offset the number of matches passing the filter to skip
+     * @param limit the most matches to return
+     */
+    default Stream<Tuple<I,V>> intersecting(I range, Predicate<I> filter, long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        return intersecting(range)
+                .filter(t -> filter.test(t.first()))
+                .sorted(Comparator.comparing(Tuple::first))
+                .skip(offset)
+                .limit(limit);
+    }
+
+    /**
+     * Find the most specific interval encompassing the range whose value
+     * passes the filter.
+     *
+     * This is equivalent to taking the greatest interval from
+     * {@link #equalToAndLeastSpecific} after filtering, without building the
+     * stream.
+     */
+    Optional<V> mostSpecificEncompassing(I range, Predicate<V> filter);
     int size();
 }
@@ -0,0 +1,304 @@
+package net.apnic.rdapd.intervaltree.asn;
+
+import net.apnic.rdapd.autnum.ASN;
+import net.apnic.rdapd.autnum.ASNInterval;
+import net.apnic.rdapd.intervaltree.avl.AvlTree;
+import net.apnic.rdapd.types.Tuple;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * An index of ASN intervals answering "the most specific interval holding
+ * this ASN", using only primitive ASNs.
+ *
+ * The ASN space is cut into disjoint segments at the bounds of every
+ * interval, and each segment holds the intervals covering it, most specific
+ * first.  Segments of 16 bit ASNs are found through a direct-mapped table;
+ * the rest by binary search over the segment starts.  A lookup reads a few
+ * array slots and allocates nothing.
+ *
+ * The arrays are never modified.  Updates go to a small {@link AvlTree}
+ * overlay until {@link #compact()} rebuilds the arrays with them included.
+ *
+ * Intervals are only ever added; the first value filed under an interval
+ * keeps it.
+ */
+public final class AsnIndex<V> {
+    private static final int DIRECT = 1 << 16;
+    private static final int[] NO_INTERVALS = new int[0];
+
+    /* Intervals in ascending order, so that a later one is more specific */
+    private final long[] lows;
+    private final long[] highs;
+    private final Object[] values;
+
+    /* Segment starts in ascending order; the first is always zero */
+    private final long[] starts;
+    /* Indices of the intervals covering each segment, most specific first */
+    private final int[][] covering;
+    /* The segment holding each 16 bit ASN */
+    private final int[] direct;
+
+    private final AvlTree<ASN, V, ASNInterval> overlay;
+    private final int overlaySize;
+
+    /**
+     * Construct an empty index.
+     */
+    public AsnIndex() {
+        this(new long[0], new long[0], new Object[0]);
+    }
+
+    /* Lay out the segments of sorted, distinct intervals */
+    private AsnIndex(long[] lows, long[] highs, Object[] values) {
+        this.lows = lows;
+        this.highs = highs;
+        this.values = values;
+        this.overlay = new AvlTree<>();
+        this.overlaySize = 0;
+
+        // Every bound opens or closes a segment
+        long[] bounds = new long[lows.length * 2 + 1];
+        int b = 1;
+        for (int i = 0; i < lows.length; i++) {
+            bounds[b++] = lows[i];
+            bounds[b++] = highs[i] + 1;
+        }
+        Arrays.sort(bounds);
+        int n = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            if (i == 0 || bounds[i] != bounds[i - 1]) {
+                bounds[n++] = bounds[i];
+            }
+        }
+        this.starts = Arrays.copyOf(bounds, n);
+
+        // Sweep the segments in order, keeping the intervals open over each
+        this.covering = new int[n][];
+        List<Integer> open = new ArrayList<>();
+        int next = 0;
+        for (int s = 0; s < n; s++) {
+            long start = starts[s];
+            for (Iterator<Integer> it = open.iterator(); it.hasNext(); ) {
+                if (highs[it.next()] < start) {
+                    it.remove();
+                }
+            }
+            while (next < lows.length && lows[next] == start) {
+                open.add(next++);
+            }
+            if (open.isEmpty()) {
+                covering[s] = NO_INTERVALS;
+            } else {
+                int[] c = new int[open.size()];
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = open.get(c.length - 1 - i);
+                }
+                covering[s] = c;
+            }
+        }
+
+        this.direct = new int[DIRECT];
+        for (int s = 0, asn = 0; asn < DIRECT; asn++) {
+            while (s + 1 < n && starts[s + 1] <= asn) {
+                s++;
+            }
+            direct[asn] = s;
+        }
+    }
+
+    private AsnIndex(AsnIndex<V> base, AvlTree<ASN, V, ASNInterval> overlay, int overlaySize) {
+        this.lows = base.lows;
+        this.highs = base.highs;
+        this.values = base.values;
+        this.starts = base.starts;
+        this.covering = base.covering;
+        this.direct = base.direct;
+        this.overlay = overlay;
+        this.overlaySize = overlaySize;
+    }
+
+    /**
+     * Build an index from entries already in ascending interval order.
+     *
+     * Of adjacent entries with equal intervals, the first is kept.
+     *
+     * @param sorted the entries, in ascending order of interval
+     * @return a compacted index holding the entries
+     * @throws IllegalArgumentException if the entries are out of order
+     */
+    public static <V> AsnIndex<V> fromSorted(List<Tuple<ASNInterval, V>> sorted) {
+        long[] lows = new long[sorted.size()];
+        long[] highs = new long[sorted.size()];
+        Object[] values = new Object[sorted.size()];
+        int n = 0;
+        for (Tuple<ASNInterval, V> entry : sorted) {
+            long low = entry.first().low().getASN();
+            long high = entry.first().high().getASN();
+            if (n > 0) {
+                int cmp = compare(low, high, lows[n - 1], highs[n - 1]);
+                if (cmp < 0) {
+                    throw new IllegalArgumentException("entries out of order at " + entry.first());
+                }
+                if (cmp == 0) {
+                    continue;
+                }
+            }
+            lows[n] = low;
+            highs[n] = high;
+            values[n++] = entry.second();
+        }
+        return new AsnIndex<>(Arrays.copyOf(lows, n), Arrays.copyOf(highs, n), Arrays.copyOf(values, n));
+    }
+
+    /**
+     * Add an interval to the index, unless it is already present.
+     *
+     * @param interval the interval to add
+     * @param value the value to associate with the interval
+     * @return an index holding the interval
+     */
+    public AsnIndex<V> update(ASNInterval interval, V value) {
+        if (find(interval.low().getASN(), interval.high().getASN()) >= 0) {
+            return this;
+        }
+        boolean[] added = { false };
+        AvlTree<ASN, V, ASNInterval> nextOverlay = overlay.update(interval, value, (a, b) -> a, v -> {
+            added[0] = true;
+            return v;
+        });
+        return added[0] ? new AsnIndex<>(this, nextOverlay, overlaySize + 1) : this;
+    }
+
+    /**
+     * Find the most specific interval holding an ASN whose value passes the
+     * filter.
+     *
+     * @param asn the ASN to look up
+     * @param filter the test a value must pass
+     * @return the value of the most specific such interval, if any
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<V> mostSpecific(long asn, Predicate<V> filter) {
+        int best = -1;
+        if (asn >= 0) {
+            for (int i : covering[asn < DIRECT ? direct[(int)asn] : segmentOf(asn)]) {
+                if (filter.test((V)values[i])) {
+                    best = i;
+                    break;
+                }
+            }
+        }
+        if (overlaySize == 0 || asn < ASN.MIN_ASN || asn > ASN.MAX_ASN) {
+            return best < 0 ? Optional.empty() : Optional.of((V)values[best]);
+        }
+
+        Optional<Tuple<ASNInterval, V>> recent = overlay.equalToAndLeastSpecific(new ASNInterval(asn, asn))
+                .filter(t -> filter.test(t.second()))
+                .reduce((a, b) -> a.first().compareTo(b.first()) < 0 ? b : a);
+        if (!recent.isPresent()) {
+            return best < 0 ? Optional.empty() : Optional.of((V)values[best]);
+        }
+        if (best >= 0 && compare(lows[best], highs[best],
+                recent.get().first().low().getASN(), recent.get().first().high().getASN()) > 0) {
+            return Optional.of((V)values[best]);
+        }
+        return Optional.of(recent.get().second());
+    }
+
+    /**
+     * The number of intervals in the index.
+     */
+    public int size() {
+        return lows.length + overlaySize;
+    }
+
+    /**
+     * The number of intervals held in the overlay rather than the arrays.
+     */
+    public int overlaySize() {
+        return overlaySize;
+    }
+
+    /**
+     * Rebuild the arrays with the overlay folded in.
+     *
+     * @return an index with the same intervals and an empty overlay
+     */
+    public AsnIndex<V> compact() {
+        if (overlaySize == 0) {
+            return this;
+        }
+        int n = lows.length + overlaySize;
+        long[] nextLows = new long[n];
+        long[] nextHighs = new long[n];
+        Object[] nextValues = new Object[n];
+        int i = 0, k = 0;
+        List<Tuple<ASNInterval, V>> pending = new ArrayList<>(overlaySize);
+        for (Tuple<ASNInterval, V> entry : overlay) {
+            pending.add(entry);
+        }
+        pending.sort((a, b) -> a.first().compareTo(b.first()));
+        for (Tuple<ASNInterval, V> entry : pending) {
+            long low = entry.first().low().getASN();
+            long high = entry.first().high().getASN();
+            while (i < lows.length && compare(lows[i], highs[i], low, high) < 0) {
+                nextLows[k] = lows[i];
+                nextHighs[k] = highs[i];
+                nextValues[k++] = values[i++];
+            }
+            nextLows[k] = low;
+            nextHighs[k] = high;
+            nextValues[k++] = entry.second();
+        }
+        for (; i < lows.length; i++, k++) {
+            nextLows[k] = lows[i];
+            nextHighs[k] = highs[i];
+            nextValues[k] = values[i];
+        }
+        return new AsnIndex<>(nextLows, nextHighs, nextValues);
+    }
+
+    /* The segment holding an ASN beyond the direct-mapped table */
+    private int segmentOf(long asn) {
+        int low = 0, high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= asn) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /* The index of an interval in the arrays, or -1 */
+    private int find(long low, long high) {
+        int from = 0, to = lows.length - 1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            int cmp = compare(lows[mid], highs[mid], low, high);
+            if (cmp == 0) {
+                return mid;
+            }
+            if (cmp < 0) {
+                from = mid + 1;
+            } else {
+                to = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /* The natural order of intervals: by low bound, then wider first */
+    private static int compare(long aLow, long aHigh, long bLow, long bHigh) {
+        int c = Long.compare(aLow, bLow);
+        return c != 0 ? c : Long.compare(bHigh, aHigh);
+    }
+}
@@ -4,15 +4,13 @@ import net.apnic.rdapd.intervaltree.Interval;
 
 import java.io.ObjectStreamException;
 import java.io.Serializable;
-import java.util.Comparator;
-import java.util.Optional;
-import java.util.function.Function;
-import java.util.stream.Stream;
 
 class AvlNode<K extends Comparable<K>, V, I extends Interval<K>> implements Serializable {
     private static final long serialVersionUID = -4120140616423393902L;
 
     final int height;
+    /* The number of nodes in this sub-tree, this one included */
+    final transient int size;
     final K max;
     final I key;
     final V value;
@@ -24,6 +22,7 @@ class AvlNode<K extends Comparable<K>, V, I extends Interval<K>> implements Seri
 
     AvlNode(I key, V value) {
         this.height = 1;
+        this.size = 1;
         this.key = key;
         this.max = key.high();
         this.value = value;
@@ -36,14 +35,16 @@ class AvlNode<K extends Comparable<K>, V, I extends Interval<K>> implements Seri
         this.right = right;
         this.key = key;
         this.value = value;
-        Optional<AvlNode<K, V, I>> optLeft = Optional.ofNullable(left);
-        Optional<AvlNode<K, V, I>> optRight = Optional.ofNullable(right);
-        this.height = Integer.max(
-                optLeft.map(n -> n.height).orElse(0),
-                optRight.map(n -> n.height).orElse(0)) + 1;
-        this.max = Stream.of(Optional.of(key.high()), optLeft.map(n -> n.max), optRight.map(n -> n.max))
-                .flatMap(o -> o.map(Stream::of).orElse(Stream.empty()))
-                .max(Comparator.naturalOrder()).orElse(key.high());
+        this.height = Integer.max(left == null ? 0 : left.height, right == null ? 0 : right.height) + 1;
+        this.size = sizeOf(left) + sizeOf(right) + 1;
+        K m = key.high();
+        if (left != null && left.max.compareTo(m) > 0) {
+            m = left.max;
+        }
+        if (right != null && right.max.compareTo(m) > 0) {
+            m = right.max;
+        }
+        this.max = m;
     }
 
     @SuppressWarnings("unchecked")
@@ -54,10 +55,11 @@ class AvlNode<K extends Comparable<K>, V, I extends Interval<K>> implements Seri
         this.value = wrapper.value;
         this.left = wrapper.left;
         this.right = wrapper.right;
+        this.size = sizeOf(left) + sizeOf(right) + 1;
     }
 
-    AvlNode<K,V,I> map(Function<V, V> map) {
-        return new AvlNode<>(key, map.apply(value), left, right);
+    static int sizeOf(AvlNode<?, ?, ?> node) {
+        return node == null ? 0 : node.size;
     }
 
     boolean encompases(I range) {
@@ -27,39 +27,263 @@ public class AvlTree<K extends Comparable<K>, V, I extends Interval<K>>
         this.root = root;
     }
 
-    private Optional<AvlNode<K,V,I>> exact(AvlNode<K, V, I> node, I range) {
-        return Optional.ofNullable(node).flatMap(n -> {
-            switch (Integer.signum(range.compareTo(n.key))) {
-                case -1: return exact(n.left, range);
-                case  1: return exact(n.right, range);
+    /**
+     * Build a perfectly balanced tree from entries already in ascending
+     * interval order, in time linear in the number of entries.
+     *
+     * @param sorted the entries, in ascending order of interval
+     * @param append combines the values of adjacent entries with equal intervals
+     * @return a new tree holding the entries
+     * @throws IllegalArgumentException if the entries are out of order
+     */
+    public static <K extends Comparable<K>, V, I extends Interval<K>> AvlTree<K, V, I>
+            fromSorted(List<Tuple<I, V>> sorted, BiFunction<V, V, V> append) {
+        List<I> keys = new ArrayList<>(sorted.size());
+        List<V> values = new ArrayList<>(sorted.size());
+        for (Tuple<I, V> entry : sorted) {
+            appendSorted(keys, values, entry.first(), entry.second(), append);
+        }
+        return new AvlTree<>(build(keys, values, 0, keys.size()));
+    }
+
+    /**
+     * Merge entries already in ascending interval order into this tree,
+     * producing a perfectly balanced tree in time linear in the size of the
+     * tree and the batch.
+     *
+     * This tree is unchanged.  For small batches a sequence of
+     * {@link #update} calls is cheaper; this suits batches comparable in size
+     * to the tree.
+     *
+     * @param sorted the entries, in ascending order of interval
+     * @param append combines the value of an interval already present (or
+     *               repeated in the batch) with the new value
+     * @return a new tree holding the entries of both
+     * @throws IllegalArgumentException if the entries are out of order
+     */
+    public AvlTree<K, V, I> mergeSorted(List<Tuple<I, V>> sorted, BiFunction<V, V, V> append) {
+        List<I> keys = new ArrayList<>(sorted.size());
+        List<V> values = new ArrayList<>(sorted.size());
+        Iterator<Tuple<I, V>> batch = sorted.iterator();
+        Tuple<I, V> next = batch.hasNext() ? batch.next() : null;
+
+        // Walk the existing tree in order, interleaving the batch
+        Deque<AvlNode<K,V,I>> stack = new ArrayDeque<>();
+        AvlNode<K,V,I> node = root;
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
             }
-            return Optional.of(n);
-        });
+            node = stack.pop();
+            while (next != null && next.first().compareTo(node.key) < 0) {
+                appendSorted(keys, values, next.first(), next.second(), append);
+                next = batch.hasNext() ? batch.next() : null;
+            }
+            appendSorted(keys, values, node.key, node.value, append);
+            node = node.right;
+        }
+        while (next != null) {
+            appendSorted(keys, values, next.first(), next.second(), append);
+            next = batch.hasNext() ? batch.next() : null;
+        }
+        return new AvlTree<>(build(keys, values, 0, keys.size()));
+    }
+
+    /* Add an entry to the end of the sorted keys, combining it with an equal last key */
+    private static <K extends Comparable<K>, V, I extends Interval<K>> void
+            appendSorted(List<I> keys, List<V> values, I key, V value, BiFunction<V, V, V> append) {
+        int last = keys.size() - 1;
+        if (last >= 0) {
+            int cmp = key.compareTo(keys.get(last));
+            if (cmp < 0) {
+                throw new IllegalArgumentException("entries out of order at " + key);
+            }
+            if (cmp == 0) {
+                values.set(last, append.apply(values.get(last), value));
+                return;
+            }
+        }
+        keys.add(key);
+        values.add(value);
+    }
+
+    /* Build a perfectly balanced sub-tree from the half-open range [from, to) */
+    private static <K extends Comparable<K>, V, I extends Interval<K>> AvlNode<K,V,I>
+            build(List<I> keys, List<V> values, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new AvlNode<>(keys.get(mid), values.get(mid),
+                build(keys, values, from, mid), build(keys, values, mid + 1, to));
+    }
+
+    private AvlNode<K,V,I> exact(AvlNode<K, V, I> node, I range) {
+        while (node != null) {
+            int cmp = range.compareTo(node.key);
+            if (cmp == 0) {
+                return node;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
     }
 
     @Override
     public Stream<Tuple<I, V>> equalToAndLeastSpecific(I range)
     {
-        return StreamSupport.stream(new EqualOrGreaterSpliterator(root, range), true);
+        return StreamSupport.stream(new QuerySpliterator(root, range, true), false);
     }
 
     @Override
     public Optional<V> exact(I range) {
-        return exact(root, range).map(n -> n.value);
+        AvlNode<K,V,I> node = exact(root, range);
+        return node == null ? Optional.empty() : Optional.ofNullable(node.value);
     }
 
     @Override
     public Stream<Tuple<I, V>> intersecting(I range) {
-        return StreamSupport.stream(new IntersectionSpliterator(root, range), true);
+        return StreamSupport.stream(new QuerySpliterator(root, range, false), false);
     }
 
     @Override
-    public int size() {
-        return size(root);
+    public Optional<V> mostSpecificEncompassing(I range, Predicate<V> filter) {
+        AvlNode<K,V,I> node = mostSpecificEncompassing(root, range, filter);
+        return node == null ? Optional.empty() : Optional.ofNullable(node.value);
+    }
+
+    /*
+     * Any interval encompassing the range is ordered at or before it, so walk
+     * the nodes not greater than the range from greatest to least; the first
+     * one that encompasses the range and passes the filter is the answer.
+     * Sub-trees ending before the end of the range cannot hold a match.
+     */
+    private AvlNode<K,V,I> mostSpecificEncompassing(AvlNode<K,V,I> node, I range, Predicate<V> filter) {
+        if (node == null || node.max.compareTo(range.high()) < 0) {
+            return null;
+        }
+        if (node.key.compareTo(range) <= 0) {
+            AvlNode<K,V,I> found = mostSpecificEncompassing(node.right, range, filter);
+            if (found != null) {
+                return found;
+            }
+            if (node.encompases(range) && filter.test(node.value)) {
+                return node;
+            }
+        }
+        return mostSpecificEncompassing(node.left, range, filter);
+    }
+
+    /**
+     * A page of the intervals intersecting the range, in ascending interval
+     * order.
+     *
+     * The intervals starting within the range are a contiguous run of the
+     * tree's order, so the start of the page is found by rank rather than by
+     * walking the matches before it.  Only the intervals starting before the
+     * range, each of which must span its start, are enumerated.
+     */
+    @Override
+    public Stream<Tuple<I, V>> intersecting(I range, long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        List<Tuple<I, V>> page = new ArrayList<>(Math.min(limit, 64));
+        List<AvlNode<K,V,I>> spanning = new ArrayList<>();
+        spanningStart(root, range, spanning);
+        long skip = offset;
+        for (AvlNode<K,V,I> node : spanning) {
+            if (page.size() == limit) {
+                return page.stream();
+            }
+            if (skip > 0) {
+                skip--;
+            } else {
+                page.add(new Tuple<>(node.key, node.value));
+            }
+        }
+
+        // The run of intervals starting within the range is [from, to) by rank
+        int from = rankOfLow(range.low(), false);
+        int to = rankOfLow(range.high(), true);
+        if (page.size() < limit && from + skip < to) {
+            Iterator<AvlNode<K,V,I>> run = inOrderFrom((int)(from + skip));
+            for (long i = from + skip; i < to && page.size() < limit; i++) {
+                AvlNode<K,V,I> node = run.next();
+                page.add(new Tuple<>(node.key, node.value));
+            }
+        }
+        return page.stream();
+    }
+
+    /* In order, the intervals starting before the range that reach its start */
+    private void spanningStart(AvlNode<K,V,I> node, I range, List<AvlNode<K,V,I>> into) {
+        if (node == null || node.max.compareTo(range.low()) < 0) {
+            return;
+        }
+        spanningStart(node.left, range, into);
+        if (node.key.low().compareTo(range.low()) < 0) {
+            if (node.key.high().compareTo(range.low()) >= 0) {
+                into.add(node);
+            }
+            spanningStart(node.right, range, into);
+        }
+    }
+
+    /* The number of intervals whose low bound is below, or with inclusive at or below, the bound */
+    private int rankOfLow(K bound, boolean inclusive) {
+        int rank = 0;
+        AvlNode<K,V,I> node = root;
+        while (node != null) {
+            int cmp = node.key.low().compareTo(bound);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                rank += AvlNode.sizeOf(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    /* In-order iteration starting from the node of the given rank */
+    private Iterator<AvlNode<K,V,I>> inOrderFrom(int rank) {
+        Deque<AvlNode<K,V,I>> stack = new ArrayDeque<>();
+        AvlNode<K,V,I> node = root;
+        while (node != null) {
+            int leftSize = AvlNode.sizeOf(node.left);
+            if (rank <= leftSize) {
+                stack.push(node);
+                if (rank == leftSize) {
+                    break;
+                }
+                node = node.left;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new Iterator<AvlNode<K,V,I>>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public AvlNode<K,V,I> next() {
+                AvlNode<K,V,I> next = stack.pop();
+                for (AvlNode<K,V,I> n = next.right; n != null; n = n.left) {
+                    stack.push(n);
+                }
+                return next;
+            }
+        };
     }
 
-    private int size(AvlNode<K, V, I> node) {
-        return node == null ? 0 : 1 + size(node.left) + size(node.right);
+    @Override
+    public int size() {
+        return AvlNode.sizeOf(root);
     }
 
     @Override
@@ -75,7 +299,7 @@ public class AvlTree<K extends Comparable<K>, V, I extends Interval<K>>
     AvlTree<K, V, I> insert(I range, V value) {
         return update(range, value, (a, b) -> {
             throw new IllegalArgumentException("cannot insert duplicate key " + range);
-        }, a -> a);
+        }, Function.identity());
     }
 
     public <U> AvlTree<K, V, I> update(I range, U value, BiFunction<V, U, V> append, Function<U, V> create) {
@@ -86,10 +310,6 @@ public class AvlTree<K extends Comparable<K>, V, I extends Interval<K>>
         return n == null ? 0 : n.height;
     }
 
-    private int balanceOf(AvlNode<K,V,I> n) {
-        return Integer.signum(heightOf(n.left) - heightOf(n.right));
-    }
-
     private AvlNode<K,V,I> rotateLeft(AvlNode<K,V,I> node) {
         AvlNode<K,V,I> right = node.right;
         AvlNode<K,V,I> newLeft = new AvlNode<>(node.key, node.value, node.left, right.left);
@@ -102,91 +322,137 @@ public class AvlTree<K extends Comparable<K>, V, I extends Interval<K>>
         return new AvlNode<>(left.key, left.value, left.left, newRight);
     }
 
-    private <U> AvlNode<K,V,I> insert(AvlNode<K,V,I> n, I r, U v, BiFunction<V, U, V> append, Function<U, V> create) {
-        return Optional.ofNullable(n).map(node -> {
-            // BST insert, recursively
-            AvlNode<K,V,I> newLeft = node.left;
-            AvlNode<K,V,I> newRight = node.right;
-            switch (Integer.signum(r.compareTo(node.key))) {
-                case -1: newLeft = insert(node.left, r, v, append, create); break;
-                case  1: newRight = insert(node.right, r, v, append, create); break;
-                default: return node.map(e -> append.apply(e, v));    // update!
+    /* Restore the AVL invariant at a node whose sub-trees differ in height by at most two */
+    private AvlNode<K,V,I> balance(AvlNode<K,V,I> node) {
+        int factor = heightOf(node.left) - heightOf(node.right);
+        if (factor > 1) {
+            AvlNode<K,V,I> left = node.left;
+            if (heightOf(left.left) < heightOf(left.right)) {
+                node = new AvlNode<>(node.key, node.value, rotateLeft(left), node.right);
             }
-
-            node = new AvlNode<>(node.key, node.value, newLeft, newRight);
-            int balance = Integer.signum(heightOf(node.left) - heightOf(node.right));
-
-            switch (balance) {
-                case -1:        // left rotate
-                    node = new AvlNode<>(node.key, node.value, node.left,
-                        node.right == null || balanceOf(node.right) <= 0 ? node.right : rotateRight(node.right));
-                    node = rotateLeft(node);
-                    break;
-                case  1:        // right rotate
-                    node = new AvlNode<>(node.key, node.value,
-                            node.left == null || balanceOf(node.left) >= 0 ? node.left : rotateLeft(node.left),
-                            node.right);
-                    node = rotateRight(node);
+            return rotateRight(node);
+        }
+        if (factor < -1) {
+            AvlNode<K,V,I> right = node.right;
+            if (heightOf(right.right) < heightOf(right.left)) {
+                node = new AvlNode<>(node.key, node.value, node.left, rotateRight(right));
             }
+            return rotateLeft(node);
+        }
+        return node;
+    }
 
-            return node;
-        }).orElse(new AvlNode<>(r, create.apply(v)));
+    private <U> AvlNode<K,V,I> insert(AvlNode<K,V,I> node, I r, U v, BiFunction<V, U, V> append, Function<U, V> create) {
+        if (node == null) {
+            return new AvlNode<>(r, create.apply(v));
+        }
+
+        // BST insert, recursively
+        int cmp = r.compareTo(node.key);
+        if (cmp == 0) {
+            return new AvlNode<>(node.key, append.apply(node.value, v), node.left, node.right);    // update!
+        }
+        AvlNode<K,V,I> oldChild = cmp < 0 ? node.left : node.right;
+        AvlNode<K,V,I> newChild = insert(oldChild, r, v, append, create);
+        node = cmp < 0
+                ? new AvlNode<>(node.key, node.value, newChild, node.right)
+                : new AvlNode<>(node.key, node.value, node.left, newChild);
+
+        // A sub-tree that did not grow cannot have unbalanced this node
+        return heightOf(newChild) == heightOf(oldChild) ? node : balance(node);
     }
 
     AvlNode<K, V, I> getRoot() {
         return root;
     }
 
+    /* Sub-trees shorter than this are not worth handing to another thread */
+    private static final int MIN_SPLIT_HEIGHT = 4;
+
+    /**
+     * Spliterator over every node in a sub-tree, in no particular order.
+     */
     private class AvlSpliterator implements Spliterator<Tuple<I, V>> {
-        private final Deque<AvlNode<K,V,I>> pipe = new LinkedList<>();
+        final Deque<AvlNode<K,V,I>> pipe = new ArrayDeque<>();
+
+        /* A node whose children are in the pipe, but which has not been visited itself */
+        private AvlNode<K,V,I> opened;
 
         AvlSpliterator(AvlNode<K,V,I> root) {
             add(root);
         }
 
-        private void add(AvlNode<K, V, I> node) {
+        final void add(AvlNode<K, V, I> node) {
             if (node != null) {
                 pipe.add(node);
             }
         }
 
+        /* Whether the node is one the spliterator reports */
+        boolean matches(AvlNode<K,V,I> node) {
+            return true;
+        }
+
+        /* Push the children of the node worth visiting */
+        void descend(AvlNode<K,V,I> node) {
+            add(node.left);
+            add(node.right);
+        }
+
+        AvlSpliterator split(AvlNode<K,V,I> node) {
+            return new AvlSpliterator(node);
+        }
+
         @Override
         public boolean tryAdvance(Consumer<? super Tuple<I, V>> action) {
-            if (!pipe.isEmpty()) {
+            if (opened != null) {
+                AvlNode<K,V,I> node = opened;
+                opened = null;
+                if (matches(node)) {
+                    action.accept(new Tuple<>(node.key, node.value));
+                    return true;
+                }
+            }
+            while (!pipe.isEmpty()) {
                 AvlNode<K,V,I> head = pipe.pop();
 
-                add(head.left);
-                add(head.right);
-                action.accept(new Tuple<>(head.key, head.value));
-                return true;
+                descend(head);
+                if (matches(head)) {
+                    action.accept(new Tuple<>(head.key, head.value));
+                    return true;
+                }
             }
             return false;
         }
 
         @Override
         public Spliterator<Tuple<I, V>> trySplit() {
-            AvlNode<K,V,I> head = pipe.poll();
-
-            if (head != null) {
-                if (pipe.isEmpty() || head.height < 4) {
-                    pipe.push(head);
-                    return null;
-                } else {
-                    return new AvlSpliterator(head);
-                }
-            } else {
+            // A lone sub-tree is opened up so that its children can be shared out
+            if (pipe.size() == 1 && opened == null) {
+                opened = pipe.pop();
+                descend(opened);
+            }
+
+            AvlNode<K,V,I> head = pipe.peek();
+            if (pipe.size() < 2 || head.height < MIN_SPLIT_HEIGHT) {
                 return null;
             }
+            return split(pipe.pop());
         }
 
+        /* The nodes in the remaining sub-trees; exact unless a query prunes them */
         @Override
         public long estimateSize() {
-            return Long.MAX_VALUE;
+            long estimate = opened == null ? 0 : 1;
+            for (AvlNode<K,V,I> node : pipe) {
+                estimate += node.size;
+            }
+            return estimate;
         }
 
         @Override
         public int characteristics() {
-            return Spliterator.IMMUTABLE;
+            return Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
         }
     }
 
@@ -200,140 +466,101 @@ public class AvlTree<K extends Comparable<K>, V, I extends Interval<K>>
         }
     }
 
-    private class EqualOrGreaterSpliterator implements Spliterator<Tuple<I, V>>
-    {
-        private final Deque<AvlNode<K,V,I>> pipe = new LinkedList<>();
+    /**
+     * Spliterator over the nodes intersecting, or encompassing, a range.
+     */
+    private class QuerySpliterator extends AvlSpliterator {
         private final I range;
+        private final boolean encompassing;
 
-        EqualOrGreaterSpliterator(AvlNode<K,V,I> node, I range) {
-            add(node);
+        QuerySpliterator(AvlNode<K,V,I> node, I range, boolean encompassing) {
+            super(node);
             this.range = range;
-        }
-
-        private void add(AvlNode<K, V, I> node) {
-            if (node != null) {
-                pipe.add(node);
-            }
+            this.encompassing = encompassing;
         }
 
         @Override
-        public boolean tryAdvance(Consumer<? super Tuple<I, V>> action) {
-            while (!pipe.isEmpty()) {
-                AvlNode<K,V,I> head = pipe.pop();
-
-                // Push the kids onto the pipe
-                // Always skip a sub-tree whose max is lower than the start of the range
-                Optional.ofNullable(head.left).filter(n -> n.max.compareTo(range.low()) >= 0).ifPresent(pipe::add);
-                // If the low value of this node is greater than the end of the range, skip the right sub-tree
-                if (head.key.low().compareTo(range.high()) <= 0) {
-                    Optional.ofNullable(head.right).filter(n -> n.max.compareTo(range.low()) >= 0).ifPresent(pipe::add);
-                }
-
-                // This node is relevant iff it intersects the range
-                if (head.encompases(range)) {
-                    action.accept(new Tuple<>(head.key, head.value));
-                    return true;
-                }
-            }
-            return false;
+        boolean matches(AvlNode<K,V,I> node) {
+            return encompassing ? node.encompases(range) : node.intersects(range);
         }
 
         @Override
-        public Spliterator<Tuple<I, V>> trySplit() {
-            AvlNode<K,V,I> head = pipe.poll();
-
-            if (head != null) {
-                if (pipe.isEmpty() || head.height < 4) {
-                    pipe.push(head);
-                    return null;
-                } else {
-                    return new IntersectionSpliterator(head, range);
-                }
-            } else {
-                return null;
+        void descend(AvlNode<K,V,I> node) {
+            // Always skip a sub-tree whose max is lower than the start of the range
+            if (node.left != null && node.left.max.compareTo(range.low()) >= 0) {
+                pipe.add(node.left);
+            }
+            // If the low value of this node is greater than the end of the range, skip the right sub-tree
+            if (node.key.low().compareTo(range.high()) <= 0
+                    && node.right != null && node.right.max.compareTo(range.low()) >= 0) {
+                pipe.add(node.right);
             }
         }
 
         @Override
-        public long estimateSize() {
-            return Long.MAX_VALUE;
+        AvlSpliterator split(AvlNode<K,V,I> node) {
+            return new QuerySpliterator(node, range, encompassing);
         }
 
         @Override
         public int characteristics() {
-            return Spliterator.IMMUTABLE;
+            return Spliterator.IMMUTABLE | Spliterator.NONNULL;
         }
     }
 
-    private class IntersectionSpliterator implements Spliterator<Tuple<I, V>> {
-        private final Deque<AvlNode<K,V,I>> pipe = new LinkedList<>();
-        private final I range;
-
-        IntersectionSpliterator(AvlNode<K,V,I> node, I range) {
-            add(node);
-            this.range = range;
+    /* Serialization via a replacement to get around immutability */
+    private Object writeReplace() throws ObjectStreamException {
+        List<Object> keys = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (Tuple<I, V> entry : (Iterable<Tuple<I, V>>)this::inOrder) {
+            keys.add(entry.first());
+            values.add(entry.second());
         }
+        return new SortedWrapper(keys.toArray(), values.toArray());
+    }
 
-        private void add(AvlNode<K, V, I> node) {
-            if (node != null) {
-                pipe.add(node);
-            }
+    /* In-order iteration, for serialization; the spliterator visits nodes breadth first */
+    private Iterator<Tuple<I, V>> inOrder() {
+        Deque<AvlNode<K,V,I>> stack = new ArrayDeque<>();
+        for (AvlNode<K,V,I> n = root; n != null; n = n.left) {
+            stack.push(n);
         }
-
-        @Override
-        public boolean tryAdvance(Consumer<? super Tuple<I, V>> action) {
-            while (!pipe.isEmpty()) {
-                AvlNode<K,V,I> head = pipe.pop();
-
-                // Push the kids onto the pipe
-                // Always skip a sub-tree whose max is lower than the start of the range
-                Optional.ofNullable(head.left).filter(n -> n.max.compareTo(range.low()) >= 0).ifPresent(pipe::add);
-                // If the low value of this node is greater than the end of the range, skip the right sub-tree
-                if (head.key.low().compareTo(range.high()) <= 0) {
-                    Optional.ofNullable(head.right).filter(n -> n.max.compareTo(range.low()) >= 0).ifPresent(pipe::add);
-                }
-
-                // This node is relevant iff it intersects the range
-                if (head.intersects(range)) {
-                    action.accept(new Tuple<>(head.key, head.value));
-                    return true;
-                }
+        return new Iterator<Tuple<I, V>>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
             }
-            return false;
-        }
 
-        @Override
-        public Spliterator<Tuple<I, V>> trySplit() {
-            AvlNode<K,V,I> head = pipe.poll();
-
-            if (head != null) {
-                if (pipe.isEmpty() || head.height < 4) {
-                    pipe.push(head);
-                    return null;
-                } else {
-                    return new IntersectionSpliterator(head, range);
+            @Override
+            public Tuple<I, V> next() {
+                AvlNode<K,V,I> node = stack.pop();
+                for (AvlNode<K,V,I> n = node.right; n != null; n = n.left) {
+                    stack.push(n);
                 }
-            } else {
-                return null;
+                return new Tuple<>(node.key, node.value);
             }
-        }
+        };
+    }
 
-        @Override
-        public long estimateSize() {
-            return Long.MAX_VALUE;
-        }
+    /* The entries in order, from which the tree is rebuilt balanced in linear time */
+    private static class SortedWrapper implements Serializable {
+        private static final long serialVersionUID = 4514379170390618283L;
 
-        @Override
-        public int characteristics() {
-            return Spliterator.IMMUTABLE;
+        final Object[] keys;
+        final Object[] values;
+
+        SortedWrapper(Object[] keys, Object[] values) {
+            this.keys = keys;
+            this.values = values;
         }
-    }
 
-    /* Serialization via a replacement to get around immutability */
-    private Object writeReplace() throws ObjectStreamException {
-        return new Wrapper<>(root);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readResolve() {
+            return new AvlTree(build((List)Arrays.asList(keys), Arrays.asList(values), 0, keys.length));
+        }
     }
 
+    /* The form written by earlier versions, holding the node structure itself */
     private static class Wrapper<K extends Comparable<K>, V, I extends Interval<K>> implements Serializable {
         final AvlNode<K,V,I> root;
 
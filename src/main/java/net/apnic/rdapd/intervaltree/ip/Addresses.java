@@ -0,0 +1,48 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IP;
+
+/**
+ * Conversions from IP addresses to the primitives the IP indices work with.
+ */
+final class Addresses {
+    private Addresses() {}
+
+    static int toInt(IP ip) {
+        byte[] b = ip.getAddress().getAddress();
+        return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+    }
+
+    static long toLong(byte[] b, int offset) {
+        long v = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            v = v << 8 | (b[i] & 0xff);
+        }
+        return v;
+    }
+
+    /**
+     * The high 64 bits of an address left-aligned in 128 bits, so that IPv4
+     * addresses occupy the top 32 bits.
+     */
+    static long alignedHi(IP ip) {
+        byte[] b = ip.getAddress().getAddress();
+        return b.length == 4 ? (toInt(ip) & 0xffffffffL) << 32 : toLong(b, 0);
+    }
+
+    /**
+     * The low 64 bits of an address left-aligned in 128 bits.
+     */
+    static long alignedLo(IP ip) {
+        byte[] b = ip.getAddress().getAddress();
+        return b.length == 4 ? 0 : toLong(b, 8);
+    }
+
+    /**
+     * Compare two 128 bit unsigned values, each given as high and low halves.
+     */
+    static int compare(long aHi, long aLo, long bHi, long bLo) {
+        int c = Long.compareUnsigned(aHi, bHi);
+        return c != 0 ? c : Long.compareUnsigned(aLo, bLo);
+    }
+}
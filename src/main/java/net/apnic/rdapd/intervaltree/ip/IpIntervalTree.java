@@ -0,0 +1,626 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.intervaltree.IntervalTree;
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+import net.apnic.rdapd.types.Tuple;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A persistent AVL interval tree specialised for IP intervals.
+ *
+ * The tree behaves as an {@link net.apnic.rdapd.intervaltree.avl.AvlTree} of
+ * IP intervals would, but holds IPv4 bounds as ints and IPv6 bounds as pairs
+ * of longs, in two separate trees, so that searching and inserting compares
+ * primitives only.  The address bytes of a range are extracted once per query
+ * or insert, rather than twice per comparison.
+ *
+ * Like AvlTree, the tree is immutable: updates return a new tree sharing all
+ * unchanged nodes with the old one.
+ */
+public final class IpIntervalTree<V>
+        implements IntervalTree<IP, V, IpInterval>, Iterable<Tuple<IpInterval, V>>, Serializable {
+    private static final long serialVersionUID = 2860921496390361512L;
+
+    private final IpNode<V> v4Root;
+    private final IpNode<V> v6Root;
+
+    public IpIntervalTree() {
+        this(null, null);
+    }
+
+    private IpIntervalTree(IpNode<V> v4Root, IpNode<V> v6Root) {
+        this.v4Root = v4Root;
+        this.v6Root = v6Root;
+    }
+
+    /**
+     * Build a balanced tree holding the given entries.
+     *
+     * @param entries the intervals and values to hold, which need not be sorted
+     * @param <V> the value type
+     * @return a new tree holding each entry
+     * @throws IllegalArgumentException if an interval appears more than once
+     */
+    public static <V> IpIntervalTree<V> copyOf(Iterable<Tuple<IpInterval, V>> entries) {
+        List<Tuple<IpInterval, V>> v4 = new ArrayList<>();
+        List<Tuple<IpInterval, V>> v6 = new ArrayList<>();
+        for (Tuple<IpInterval, V> entry : entries) {
+            (entry.first().low().getAddressFamily() == IP.AddressFamily.IPv4 ? v4 : v6).add(entry);
+        }
+        return new IpIntervalTree<>(build(sorted(v4)), build(sorted(v6)));
+    }
+
+    /**
+     * Add many values, as a sequence of {@link #update} calls would.
+     *
+     * A batch that is large against the size of the tree is merged with it in
+     * one pass, building a balanced tree rather than copying a path of the
+     * tree for each entry.
+     *
+     * @param entries the intervals and values to add, which need not be sorted
+     * @param append combines the value already held for an interval (or added
+     *               earlier in the batch) with a new value
+     * @return a new tree holding the entries
+     */
+    public IpIntervalTree<V> updateAll(List<Tuple<IpInterval, V>> entries, BiFunction<V, V, V> append) {
+        if (entries.size() * 8L < size()) {
+            IpIntervalTree<V> tree = this;
+            for (Tuple<IpInterval, V> entry : entries) {
+                tree = tree.update(entry.first(), entry.second(), append, Function.identity());
+            }
+            return tree;
+        }
+        List<IpNode<V>> v4 = new ArrayList<>();
+        List<IpNode<V>> v6 = new ArrayList<>();
+        for (Tuple<IpInterval, V> entry : entries) {
+            IpNode<V> node = IpNode.of(entry.first(), entry.second(), null, null);
+            (node.isIpv4() ? v4 : v6).add(node);
+        }
+        return new IpIntervalTree<>(merge(v4Root, v4, append), merge(v6Root, v6, append));
+    }
+
+    /* Merge unsorted nodes into a tree, building a balanced tree of the result */
+    private IpNode<V> merge(IpNode<V> root, List<IpNode<V>> batch, BiFunction<V, V, V> append) {
+        if (batch.isEmpty()) {
+            return root;
+        }
+        // A stable sort keeps repeated intervals in the order they were given
+        batch.sort(IpNode::compareKey);
+        List<IpNode<V>> existing = new ArrayList<>(IpNode.sizeOf(root));
+        inOrder(root, existing::add);
+
+        List<IpNode<V>> merged = new ArrayList<>(existing.size() + batch.size());
+        int i = 0;
+        for (IpNode<V> node : batch) {
+            while (i < existing.size() && existing.get(i).compareKey(node) < 0) {
+                merged.add(existing.get(i++));
+            }
+            if (i < existing.size() && existing.get(i).compareKey(node) == 0) {
+                merged.add(existing.get(i).with(append.apply(existing.get(i).value, node.value), null, null));
+                i++;
+                continue;
+            }
+            int last = merged.size() - 1;
+            if (last >= 0 && merged.get(last).compareKey(node) == 0) {
+                merged.set(last, merged.get(last).with(append.apply(merged.get(last).value, node.value), null, null));
+            } else {
+                merged.add(node);
+            }
+        }
+        while (i < existing.size()) {
+            merged.add(existing.get(i++));
+        }
+        return build(merged);
+    }
+
+    private static <V> List<IpNode<V>> sorted(List<Tuple<IpInterval, V>> entries) {
+        List<IpNode<V>> nodes = new ArrayList<>(entries.size());
+        for (Tuple<IpInterval, V> entry : entries) {
+            nodes.add(IpNode.of(entry.first(), entry.second(), null, null));
+        }
+        nodes.sort(IpNode::compareKey);
+        for (int i = 1; i < nodes.size(); i++) {
+            if (nodes.get(i - 1).compareKey(nodes.get(i)) == 0) {
+                throw new IllegalArgumentException("cannot insert duplicate key " + nodes.get(i).key);
+            }
+        }
+        return nodes;
+    }
+
+    private static <V> IpNode<V> build(List<IpNode<V>> sorted) {
+        return build(sorted, 0, sorted.size());
+    }
+
+    /* Build a perfectly balanced sub-tree from the half-open range [from, to) */
+    private static <V> IpNode<V> build(List<IpNode<V>> sorted, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        IpNode<V> node = sorted.get(mid);
+        return node.with(node.value, build(sorted, from, mid), build(sorted, mid + 1, to));
+    }
+
+    private IpNode<V> rootFor(IpNode<V> probe) {
+        return probe.isIpv4() ? v4Root : v6Root;
+    }
+
+    @Override
+    public Stream<Tuple<IpInterval, V>> equalToAndLeastSpecific(IpInterval range) {
+        IpNode<V> probe = IpNode.probe(range);
+        return StreamSupport.stream(new QuerySpliterator(rootFor(probe), probe, true), false);
+    }
+
+    @Override
+    public Optional<V> exact(IpInterval range) {
+        IpNode<V> probe = IpNode.probe(range);
+        IpNode<V> node = rootFor(probe);
+        while (node != null) {
+            int cmp = probe.compareKey(node);
+            if (cmp == 0) {
+                return Optional.ofNullable(node.value);
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Stream<Tuple<IpInterval, V>> intersecting(IpInterval range) {
+        IpNode<V> probe = IpNode.probe(range);
+        return StreamSupport.stream(new QuerySpliterator(rootFor(probe), probe, false), false);
+    }
+
+    @Override
+    public Optional<V> mostSpecificEncompassing(IpInterval range, Predicate<V> filter) {
+        IpNode<V> probe = IpNode.probe(range);
+        IpNode<V> found = mostSpecificEncompassing(rootFor(probe), probe, filter);
+        return found == null ? Optional.empty() : Optional.ofNullable(found.value);
+    }
+
+    /* Walk the nodes not greater than the probe from greatest to least, as AvlTree does */
+    private IpNode<V> mostSpecificEncompassing(IpNode<V> node, IpNode<V> probe, Predicate<V> filter) {
+        if (node == null || node.maxBelowEnd(probe)) {
+            return null;
+        }
+        if (node.compareKey(probe) <= 0) {
+            IpNode<V> found = mostSpecificEncompassing(node.right, probe, filter);
+            if (found != null) {
+                return found;
+            }
+            if (node.encompasses(probe) && filter.test(node.value)) {
+                return node;
+            }
+        }
+        return mostSpecificEncompassing(node.left, probe, filter);
+    }
+
+    /**
+     * A page of the intervals intersecting the range, in ascending interval
+     * order, found by rank as {@link net.apnic.rdapd.intervaltree.avl.AvlTree}
+     * does.
+     */
+    @Override
+    public Stream<Tuple<IpInterval, V>> intersecting(IpInterval range, long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        IpNode<V> probe = IpNode.probe(range);
+        IpNode<V> root = rootFor(probe);
+        List<Tuple<IpInterval, V>> page = new ArrayList<>(Math.min(limit, 64));
+        List<IpNode<V>> spanning = new ArrayList<>();
+        spanningStart(root, probe, spanning);
+        long skip = offset;
+        for (IpNode<V> node : spanning) {
+            if (page.size() == limit) {
+                return page.stream();
+            }
+            if (skip > 0) {
+                skip--;
+            } else {
+                page.add(new Tuple<>(node.key, node.value));
+            }
+        }
+
+        // The run of intervals starting within the range is [from, to) by rank
+        int from = startRank(root, probe), to = endRank(root, probe);
+        if (page.size() < limit && from + skip < to) {
+            Iterator<IpNode<V>> run = inOrderFrom(root, (int)(from + skip));
+            for (long i = from + skip; i < to && page.size() < limit; i++) {
+                IpNode<V> node = run.next();
+                page.add(new Tuple<>(node.key, node.value));
+            }
+        }
+        return page.stream();
+    }
+
+    /**
+     * A page of the intervals intersecting the range that pass a filter, in
+     * ascending interval order.
+     *
+     * The page's run is still found by rank, but each interval in it up to
+     * the end of the page is tested, as the filter decides which count
+     * towards the offset.
+     */
+    @Override
+    public Stream<Tuple<IpInterval, V>> intersecting(IpInterval range, Predicate<IpInterval> filter,
+                                                     long offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        IpNode<V> probe = IpNode.probe(range);
+        IpNode<V> root = rootFor(probe);
+        List<Tuple<IpInterval, V>> page = new ArrayList<>(Math.min(limit, 64));
+        List<IpNode<V>> spanning = new ArrayList<>();
+        spanningStart(root, probe, spanning);
+        long skip = offset;
+        for (IpNode<V> node : spanning) {
+            if (page.size() == limit) {
+                return page.stream();
+            }
+            if (!filter.test(node.key)) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+            } else {
+                page.add(new Tuple<>(node.key, node.value));
+            }
+        }
+
+        int from = startRank(root, probe), to = endRank(root, probe);
+        if (page.size() < limit && from < to) {
+            Iterator<IpNode<V>> run = inOrderFrom(root, from);
+            for (int i = from; i < to && page.size() < limit; i++) {
+                IpNode<V> node = run.next();
+                if (!filter.test(node.key)) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(new Tuple<>(node.key, node.value));
+                }
+            }
+        }
+        return page.stream();
+    }
+
+    /* The rank of the first interval not starting before the probe */
+    private static <V> int startRank(IpNode<V> root, IpNode<V> probe) {
+        int rank = 0;
+        for (IpNode<V> node = root; node != null; ) {
+            if (node.startsBefore(probe)) {
+                rank += IpNode.sizeOf(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    /* The rank of the first interval starting after the probe */
+    private static <V> int endRank(IpNode<V> root, IpNode<V> probe) {
+        int rank = 0;
+        for (IpNode<V> node = root; node != null; ) {
+            if (!node.startsAfter(probe)) {
+                rank += IpNode.sizeOf(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    /* In order, the intervals starting before the probe that reach its start */
+    private void spanningStart(IpNode<V> node, IpNode<V> probe, List<IpNode<V>> into) {
+        if (node == null || node.maxBelow(probe)) {
+            return;
+        }
+        spanningStart(node.left, probe, into);
+        if (node.startsBefore(probe)) {
+            if (node.intersects(probe)) {
+                into.add(node);
+            }
+            spanningStart(node.right, probe, into);
+        }
+    }
+
+    /* In-order iteration of a tree starting from the node of the given rank */
+    private Iterator<IpNode<V>> inOrderFrom(IpNode<V> root, int rank) {
+        Deque<IpNode<V>> stack = new ArrayDeque<>();
+        IpNode<V> node = root;
+        while (node != null) {
+            int leftSize = IpNode.sizeOf(node.left);
+            if (rank <= leftSize) {
+                stack.push(node);
+                if (rank == leftSize) {
+                    break;
+                }
+                node = node.left;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return new Iterator<IpNode<V>>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public IpNode<V> next() {
+                IpNode<V> next = stack.pop();
+                for (IpNode<V> n = next.right; n != null; n = n.left) {
+                    stack.push(n);
+                }
+                return next;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return IpNode.sizeOf(v4Root) + IpNode.sizeOf(v6Root);
+    }
+
+    @Override
+    public Iterator<Tuple<IpInterval, V>> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    @Override
+    public Spliterator<Tuple<IpInterval, V>> spliterator() {
+        return new NodeSpliterator(v4Root, v6Root);
+    }
+
+    public <U> IpIntervalTree<V> update(IpInterval range, U value, BiFunction<V, U, V> append, Function<U, V> create) {
+        IpNode<V> probe = IpNode.probe(range);
+        return probe.isIpv4()
+                ? new IpIntervalTree<>(insert(v4Root, probe, value, append, create), v6Root)
+                : new IpIntervalTree<>(v4Root, insert(v6Root, probe, value, append, create));
+    }
+
+    private <U> IpNode<V> insert(IpNode<V> node, IpNode<V> probe, U value,
+                                 BiFunction<V, U, V> append, Function<U, V> create) {
+        if (node == null) {
+            return probe.with(create.apply(value), null, null);
+        }
+        int cmp = probe.compareKey(node);
+        if (cmp == 0) {
+            return node.with(append.apply(node.value, value), node.left, node.right);
+        }
+        return cmp < 0
+                ? balance(node.with(node.value, insert(node.left, probe, value, append, create), node.right))
+                : balance(node.with(node.value, node.left, insert(node.right, probe, value, append, create)));
+    }
+
+    private IpNode<V> balance(IpNode<V> node) {
+        int factor = IpNode.heightOf(node.left) - IpNode.heightOf(node.right);
+        if (factor > 1) {
+            IpNode<V> left = node.left;
+            if (IpNode.heightOf(left.left) < IpNode.heightOf(left.right)) {
+                left = rotateLeft(left);
+            }
+            return rotateRight(node.with(node.value, left, node.right));
+        }
+        if (factor < -1) {
+            IpNode<V> right = node.right;
+            if (IpNode.heightOf(right.right) < IpNode.heightOf(right.left)) {
+                right = rotateRight(right);
+            }
+            return rotateLeft(node.with(node.value, node.left, right));
+        }
+        return node;
+    }
+
+    private IpNode<V> rotateLeft(IpNode<V> node) {
+        IpNode<V> right = node.right;
+        return right.with(right.value, node.with(node.value, node.left, right.left), right.right);
+    }
+
+    private IpNode<V> rotateRight(IpNode<V> node) {
+        IpNode<V> left = node.left;
+        return left.with(left.value, left.left, node.with(node.value, left.right, node.right));
+    }
+
+    /* In-order traversal of one tree, in order of interval */
+    private void inOrder(IpNode<V> node, Consumer<IpNode<V>> action) {
+        if (node != null) {
+            inOrder(node.left, action);
+            action.accept(node);
+            inOrder(node.right, action);
+        }
+    }
+
+    /* Sub-trees shorter than this are not worth handing to another thread */
+    private static final int MIN_SPLIT_HEIGHT = 4;
+
+    /**
+     * Spliterator over every node in one or more sub-trees, in no particular order.
+     */
+    private class NodeSpliterator implements Spliterator<Tuple<IpInterval, V>> {
+        final Deque<IpNode<V>> pipe = new ArrayDeque<>();
+
+        /* A node whose children are in the pipe, but which has not been visited itself */
+        private IpNode<V> opened;
+
+        @SafeVarargs
+        NodeSpliterator(IpNode<V>... roots) {
+            for (IpNode<V> root : roots) {
+                add(root);
+            }
+        }
+
+        void add(IpNode<V> node) {
+            if (node != null) {
+                pipe.add(node);
+            }
+        }
+
+        /* Whether the node is one the spliterator reports */
+        boolean matches(IpNode<V> node) {
+            return true;
+        }
+
+        /* Push the children of the node worth visiting */
+        void descend(IpNode<V> node) {
+            add(node.left);
+            add(node.right);
+        }
+
+        NodeSpliterator split(IpNode<V> node) {
+            return new NodeSpliterator(node);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Tuple<IpInterval, V>> action) {
+            if (opened != null) {
+                IpNode<V> node = opened;
+                opened = null;
+                if (matches(node)) {
+                    action.accept(new Tuple<>(node.key, node.value));
+                    return true;
+                }
+            }
+            while (!pipe.isEmpty()) {
+                IpNode<V> head = pipe.pop();
+                descend(head);
+                if (matches(head)) {
+                    action.accept(new Tuple<>(head.key, head.value));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Tuple<IpInterval, V>> trySplit() {
+            // A lone sub-tree is opened up so that its children can be shared out
+            if (pipe.size() == 1 && opened == null) {
+                opened = pipe.pop();
+                descend(opened);
+            }
+
+            IpNode<V> head = pipe.peek();
+            if (pipe.size() < 2 || head.height < MIN_SPLIT_HEIGHT) {
+                return null;
+            }
+            return split(pipe.pop());
+        }
+
+        /* The nodes in the remaining sub-trees; exact unless a query prunes them */
+        @Override
+        public long estimateSize() {
+            long estimate = opened == null ? 0 : 1;
+            for (IpNode<V> node : pipe) {
+                estimate += node.size;
+            }
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.IMMUTABLE | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
+
+    /**
+     * Spliterator over the nodes intersecting, or encompassing, a probe.
+     */
+    private class QuerySpliterator extends NodeSpliterator {
+        private final IpNode<V> probe;
+        private final boolean encompassing;
+
+        QuerySpliterator(IpNode<V> root, IpNode<V> probe, boolean encompassing) {
+            super(root);
+            this.probe = probe;
+            this.encompassing = encompassing;
+        }
+
+        @Override
+        boolean matches(IpNode<V> node) {
+            return encompassing ? node.encompasses(probe) : node.intersects(probe);
+        }
+
+        @Override
+        void descend(IpNode<V> node) {
+            // Always skip a sub-tree whose max is lower than the start of the range
+            if (node.left != null && !node.left.maxBelow(probe)) {
+                pipe.add(node.left);
+            }
+            // If the low value of this node is greater than the end of the range, skip the right sub-tree
+            if (!node.startsAfter(probe) && node.right != null && !node.right.maxBelow(probe)) {
+                pipe.add(node.right);
+            }
+        }
+
+        @Override
+        NodeSpliterator split(IpNode<V> node) {
+            return new QuerySpliterator(node, probe, encompassing);
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.IMMUTABLE | Spliterator.NONNULL;
+        }
+    }
+
+    /* Serialization via a replacement to get around immutability */
+    private Object writeReplace() throws ObjectStreamException {
+        List<IpInterval> keys = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        Consumer<IpNode<V>> collect = n -> {
+            keys.add(n.key);
+            values.add(n.value);
+        };
+        inOrder(v4Root, collect);
+        int v4Count = keys.size();
+        inOrder(v6Root, collect);
+        return new Wrapper(v4Count, keys.toArray(new IpInterval[0]), values.toArray());
+    }
+
+    private static class Wrapper implements Serializable {
+        private static final long serialVersionUID = -1405719566787587092L;
+
+        final int v4Count;
+        final IpInterval[] keys;
+        final Object[] values;
+
+        Wrapper(int v4Count, IpInterval[] keys, Object[] values) {
+            this.v4Count = v4Count;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        /* The entries were written in order, so the trees can be rebuilt directly */
+        private Object readResolve() {
+            List<IpNode<Object>> v4 = new ArrayList<>(v4Count);
+            List<IpNode<Object>> v6 = new ArrayList<>(keys.length - v4Count);
+            for (int i = 0; i < keys.length; i++) {
+                (i < v4Count ? v4 : v6).add(IpNode.of(keys[i], values[i], null, null));
+            }
+            return new IpIntervalTree<>(build(v4), build(v6));
+        }
+    }
+}
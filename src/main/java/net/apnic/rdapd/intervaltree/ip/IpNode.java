@@ -0,0 +1,104 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+
+/**
+ * A node in an {@link IpIntervalTree}.
+ *
+ * Each node keeps the bounds of its interval, and the maximum upper bound of
+ * its sub-tree, as primitives so that comparisons never need to touch the
+ * {@link IP} objects (and the byte array clones they hand out).  Nodes of
+ * different address families are never compared against one another.
+ */
+abstract class IpNode<V> {
+    final IpInterval key;
+    final V value;
+    final IpNode<V> left;
+    final IpNode<V> right;
+    final int height;
+    /* The number of nodes in this sub-tree, this one included */
+    final int size;
+
+    IpNode(IpInterval key, V value, IpNode<V> left, IpNode<V> right) {
+        this.key = key;
+        this.value = value;
+        this.left = left;
+        this.right = right;
+        this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+        this.size = sizeOf(left) + sizeOf(right) + 1;
+    }
+
+    static int heightOf(IpNode<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    static int sizeOf(IpNode<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Make a node for the given interval.
+     *
+     * This is the only place the address bytes are extracted from the
+     * interval; every other node for the same key is derived via {@link #with}.
+     */
+    static <V> IpNode<V> of(IpInterval key, V value, IpNode<V> left, IpNode<V> right) {
+        if (key.low().getAddressFamily() == IP.AddressFamily.IPv4) {
+            return new Ipv4Node<>(key, value, left, right);
+        }
+        return new Ipv6Node<>(key, value, left, right);
+    }
+
+    /**
+     * A childless node used as the search key of a query or insert.
+     */
+    static <V> IpNode<V> probe(IpInterval range) {
+        return of(range, null, null, null);
+    }
+
+    /**
+     * Whether this node belongs in the IPv4 tree.
+     */
+    abstract boolean isIpv4();
+
+    /**
+     * A node with this node's key and the given value and children.
+     */
+    abstract IpNode<V> with(V value, IpNode<V> left, IpNode<V> right);
+
+    /**
+     * Order this node's interval against another, following
+     * {@link net.apnic.rdapd.intervaltree.Interval#compareTo}.
+     */
+    abstract int compareKey(IpNode<V> other);
+
+    /**
+     * True if every interval in this sub-tree ends before the probe begins.
+     */
+    abstract boolean maxBelow(IpNode<V> probe);
+
+    /**
+     * True if every interval in this sub-tree ends before the probe ends.
+     */
+    abstract boolean maxBelowEnd(IpNode<V> probe);
+
+    /**
+     * True if this node's interval begins before the probe begins.
+     */
+    abstract boolean startsBefore(IpNode<V> probe);
+
+    /**
+     * True if this node's interval begins after the probe ends.
+     */
+    abstract boolean startsAfter(IpNode<V> probe);
+
+    abstract boolean encompasses(IpNode<V> probe);
+
+    abstract boolean intersects(IpNode<V> probe);
+
+    @Override
+    public String toString() {
+        return "Node[" + key + "; " + value + "]";
+    }
+}
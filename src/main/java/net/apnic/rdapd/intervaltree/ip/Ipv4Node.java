@@ -0,0 +1,79 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IpInterval;
+
+/**
+ * An IPv4 interval node, with its bounds held as unsigned ints.
+ */
+final class Ipv4Node<V> extends IpNode<V> {
+    final int low;
+    final int high;
+    final int max;
+
+    Ipv4Node(IpInterval key, V value, IpNode<V> left, IpNode<V> right) {
+        this(key, value, left, right, Addresses.toInt(key.low()), Addresses.toInt(key.high()));
+    }
+
+    private Ipv4Node(IpInterval key, V value, IpNode<V> left, IpNode<V> right, int low, int high) {
+        super(key, value, left, right);
+        this.low = low;
+        this.high = high;
+        int m = high;
+        if (left != null && Integer.compareUnsigned(((Ipv4Node<V>)left).max, m) > 0) {
+            m = ((Ipv4Node<V>)left).max;
+        }
+        if (right != null && Integer.compareUnsigned(((Ipv4Node<V>)right).max, m) > 0) {
+            m = ((Ipv4Node<V>)right).max;
+        }
+        this.max = m;
+    }
+
+    @Override
+    boolean isIpv4() {
+        return true;
+    }
+
+    @Override
+    IpNode<V> with(V value, IpNode<V> left, IpNode<V> right) {
+        return new Ipv4Node<>(key, value, left, right, low, high);
+    }
+
+    @Override
+    int compareKey(IpNode<V> other) {
+        Ipv4Node<V> o = (Ipv4Node<V>)other;
+        int c = Integer.compareUnsigned(low, o.low);
+        return c != 0 ? c : Integer.compareUnsigned(o.high, high);
+    }
+
+    @Override
+    boolean maxBelow(IpNode<V> probe) {
+        return Integer.compareUnsigned(max, ((Ipv4Node<V>)probe).low) < 0;
+    }
+
+    @Override
+    boolean maxBelowEnd(IpNode<V> probe) {
+        return Integer.compareUnsigned(max, ((Ipv4Node<V>)probe).high) < 0;
+    }
+
+    @Override
+    boolean startsBefore(IpNode<V> probe) {
+        return Integer.compareUnsigned(low, ((Ipv4Node<V>)probe).low) < 0;
+    }
+
+    @Override
+    boolean startsAfter(IpNode<V> probe) {
+        return Integer.compareUnsigned(low, ((Ipv4Node<V>)probe).high) > 0;
+    }
+
+    @Override
+    boolean encompasses(IpNode<V> probe) {
+        Ipv4Node<V> p = (Ipv4Node<V>)probe;
+        return Integer.compareUnsigned(low, p.low) <= 0 && Integer.compareUnsigned(high, p.high) >= 0;
+    }
+
+    @Override
+    boolean intersects(IpNode<V> probe) {
+        Ipv4Node<V> p = (Ipv4Node<V>)probe;
+        return Integer.compareUnsigned(p.high, low) >= 0 && Integer.compareUnsigned(p.low, high) <= 0;
+    }
+}
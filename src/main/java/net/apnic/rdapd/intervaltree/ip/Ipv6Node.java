@@ -0,0 +1,102 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IpInterval;
+
+import static net.apnic.rdapd.intervaltree.ip.Addresses.compare;
+
+/**
+ * An IPv6 interval node, with each bound held as a pair of unsigned longs.
+ */
+final class Ipv6Node<V> extends IpNode<V> {
+    final long lowHi, lowLo;
+    final long highHi, highLo;
+    final long maxHi, maxLo;
+
+    Ipv6Node(IpInterval key, V value, IpNode<V> left, IpNode<V> right) {
+        this(key, value, left, right, key.low().getAddress().getAddress(), key.high().getAddress().getAddress());
+    }
+
+    private Ipv6Node(IpInterval key, V value, IpNode<V> left, IpNode<V> right, byte[] low, byte[] high) {
+        this(key, value, left, right,
+                Addresses.toLong(low, 0), Addresses.toLong(low, 8), Addresses.toLong(high, 0), Addresses.toLong(high, 8));
+    }
+
+    private Ipv6Node(IpInterval key, V value, IpNode<V> left, IpNode<V> right,
+                     long lowHi, long lowLo, long highHi, long highLo) {
+        super(key, value, left, right);
+        this.lowHi = lowHi;
+        this.lowLo = lowLo;
+        this.highHi = highHi;
+        this.highLo = highLo;
+        long mHi = highHi, mLo = highLo;
+        if (left != null) {
+            Ipv6Node<V> l = (Ipv6Node<V>)left;
+            if (compare(l.maxHi, l.maxLo, mHi, mLo) > 0) {
+                mHi = l.maxHi;
+                mLo = l.maxLo;
+            }
+        }
+        if (right != null) {
+            Ipv6Node<V> r = (Ipv6Node<V>)right;
+            if (compare(r.maxHi, r.maxLo, mHi, mLo) > 0) {
+                mHi = r.maxHi;
+                mLo = r.maxLo;
+            }
+        }
+        this.maxHi = mHi;
+        this.maxLo = mLo;
+    }
+
+    @Override
+    boolean isIpv4() {
+        return false;
+    }
+
+    @Override
+    IpNode<V> with(V value, IpNode<V> left, IpNode<V> right) {
+        return new Ipv6Node<>(key, value, left, right, lowHi, lowLo, highHi, highLo);
+    }
+
+    @Override
+    int compareKey(IpNode<V> other) {
+        Ipv6Node<V> o = (Ipv6Node<V>)other;
+        int c = compare(lowHi, lowLo, o.lowHi, o.lowLo);
+        return c != 0 ? c : compare(o.highHi, o.highLo, highHi, highLo);
+    }
+
+    @Override
+    boolean maxBelow(IpNode<V> probe) {
+        Ipv6Node<V> p = (Ipv6Node<V>)probe;
+        return compare(maxHi, maxLo, p.lowHi, p.lowLo) < 0;
+    }
+
+    @Override
+    boolean maxBelowEnd(IpNode<V> probe) {
+        Ipv6Node<V> p = (Ipv6Node<V>)probe;
+        return compare(maxHi, maxLo, p.highHi, p.highLo) < 0;
+    }
+
+    @Override
+    boolean startsBefore(IpNode<V> probe) {
+        Ipv6Node<V> p = (Ipv6Node<V>)probe;
+        return compare(lowHi, lowLo, p.lowHi, p.lowLo) < 0;
+    }
+
+    @Override
+    boolean startsAfter(IpNode<V> probe) {
+        Ipv6Node<V> p = (Ipv6Node<V>)probe;
+        return compare(lowHi, lowLo, p.highHi, p.highLo) > 0;
+    }
+
+    @Override
+    boolean encompasses(IpNode<V> probe) {
+        Ipv6Node<V> p = (Ipv6Node<V>)probe;
+        return compare(lowHi, lowLo, p.lowHi, p.lowLo) <= 0 && compare(highHi, highLo, p.highHi, p.highLo) >= 0;
+    }
+
+    @Override
+    boolean intersects(IpNode<V> probe) {
+        Ipv6Node<V> p = (Ipv6Node<V>)probe;
+        return compare(p.highHi, p.highLo, lowHi, lowLo) >= 0 && compare(p.lowHi, p.lowLo, highHi, highLo) <= 0;
+    }
+}
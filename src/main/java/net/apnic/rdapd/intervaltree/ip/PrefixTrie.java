@@ -0,0 +1,249 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static net.apnic.rdapd.intervaltree.ip.Addresses.compare;
+
+/**
+ * A persistent, path-compressed binary radix (Patricia) trie of IP intervals
+ * answering "the most specific current interval covering this range".
+ *
+ * Each interval is filed under the longest prefix common to both its bounds,
+ * which is the interval itself for CIDR blocks.  Any interval encompassing a
+ * query range is therefore filed at a prefix of the query's own covering
+ * prefix, and a lookup need only descend along the query's bits, so its cost
+ * is bounded by the prefix length rather than by the size of the trie or the
+ * depth of overlapping assignments.
+ *
+ * Every interval carries a flag marking whether it is current; non-current
+ * intervals stay in the trie, but are passed over by lookups.
+ *
+ * Like the interval trees, the trie is immutable: updates return a new trie
+ * sharing all unchanged nodes with the old one.
+ */
+public final class PrefixTrie<V> {
+    private final Node<V> v4Root;
+    private final Node<V> v6Root;
+    private final int size;
+
+    public PrefixTrie() {
+        this(null, null, 0);
+    }
+
+    private PrefixTrie(Node<V> v4Root, Node<V> v6Root, int size) {
+        this.v4Root = v4Root;
+        this.v6Root = v6Root;
+        this.size = size;
+    }
+
+    /**
+     * The number of intervals in the trie, current or not.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add an interval to the trie, or replace the value and current state of
+     * an interval already present.
+     *
+     * @param interval the interval to file
+     * @param value the value associated with the interval
+     * @param current whether lookups should consider the interval
+     * @return a new trie holding the interval
+     */
+    public PrefixTrie<V> put(IpInterval interval, V value, boolean current) {
+        Entry<V> entry = new Entry<>(interval, value, current);
+        boolean[] added = { false };
+        if (entry.ipv4) {
+            return new PrefixTrie<>(insert(v4Root, entry, added), v6Root, added[0] ? size + 1 : size);
+        }
+        return new PrefixTrie<>(v4Root, insert(v6Root, entry, added), added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Find the most specific current interval encompassing the range.
+     *
+     * Specificity follows the natural order of intervals, which for CIDR
+     * blocks is the longest matching prefix.
+     *
+     * @param range the range to look up
+     * @return the value of the most specific current interval, if any
+     */
+    public Optional<V> mostSpecificCurrent(IpInterval range) {
+        Entry<V> best = mostSpecificCurrent(new Entry<>(range, null, false));
+        return best == null ? Optional.empty() : Optional.ofNullable(best.value);
+    }
+
+    /* The most specific current entry encompassing the probe, or null */
+    Entry<V> mostSpecificCurrent(Entry<V> probe) {
+        Entry<V> best = null;
+        Node<V> node = probe.ipv4 ? v4Root : v6Root;
+
+        while (node != null && node.length <= probe.length
+                && commonPrefix(node.hi, node.lo, probe.lowHi, probe.lowLo) >= node.length) {
+            for (Entry<V> entry : node.entries) {
+                if (entry.current && entry.encompasses(probe) && (best == null || entry.compareTo(best) > 0)) {
+                    best = entry;
+                }
+            }
+            if (node.length == probe.length) {
+                break;
+            }
+            node = bitAt(probe.lowHi, probe.lowLo, node.length) == 0 ? node.zero : node.one;
+        }
+        return best;
+    }
+
+    private static <V> Node<V> insert(Node<V> node, Entry<V> entry, boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return leaf(entry);
+        }
+
+        int common = Math.min(commonPrefix(node.hi, node.lo, entry.lowHi, entry.lowLo),
+                Math.min(node.length, entry.length));
+
+        if (common == node.length) {
+            if (entry.length == node.length) {
+                return node.withEntry(entry, added);
+            }
+            if (bitAt(entry.lowHi, entry.lowLo, node.length) == 0) {
+                return new Node<>(node.hi, node.lo, node.length, insert(node.zero, entry, added), node.one, node.entries);
+            }
+            return new Node<>(node.hi, node.lo, node.length, node.zero, insert(node.one, entry, added), node.entries);
+        }
+
+        added[0] = true;
+        boolean nodeIsOne = bitAt(node.hi, node.lo, common) == 1;
+        if (common == entry.length) {
+            // The new interval's prefix sits above the existing node
+            return new Node<>(maskHi(entry.lowHi, entry.length), maskLo(entry.lowLo, entry.length), entry.length,
+                    nodeIsOne ? null : node, nodeIsOne ? node : null, single(entry));
+        }
+
+        // The two prefixes diverge; join them under a new branch
+        Node<V> leaf = leaf(entry);
+        return new Node<>(maskHi(entry.lowHi, common), maskLo(entry.lowLo, common), common,
+                nodeIsOne ? leaf : node, nodeIsOne ? node : leaf, Node.noEntries());
+    }
+
+    private static <V> Node<V> leaf(Entry<V> entry) {
+        return new Node<>(maskHi(entry.lowHi, entry.length), maskLo(entry.lowLo, entry.length), entry.length,
+                null, null, single(entry));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Entry<V>[] single(Entry<V> entry) {
+        return new Entry[] { entry };
+    }
+
+    /* The number of leading bits two 128 bit values share */
+    static int commonPrefix(long aHi, long aLo, long bHi, long bLo) {
+        long x = aHi ^ bHi;
+        return x != 0 ? Long.numberOfLeadingZeros(x) : 64 + Long.numberOfLeadingZeros(aLo ^ bLo);
+    }
+
+    static int bitAt(long hi, long lo, int index) {
+        return (int)(index < 64 ? hi >>> (63 - index) : lo >>> (127 - index)) & 1;
+    }
+
+    static long maskHi(long hi, int length) {
+        return length >= 64 ? hi : length == 0 ? 0 : hi & (-1L << (64 - length));
+    }
+
+    static long maskLo(long lo, int length) {
+        return length <= 64 ? 0 : length == 128 ? lo : lo & (-1L << (128 - length));
+    }
+
+    /**
+     * One interval, with its bounds left-aligned in 128 bits regardless of
+     * address family.
+     */
+    static final class Entry<V> {
+        final boolean ipv4;
+        final long lowHi, lowLo;
+        final long highHi, highLo;
+        final int length;
+        final V value;
+        final boolean current;
+
+        Entry(IpInterval interval, V value, boolean current) {
+            this(interval.low().getAddressFamily() == IP.AddressFamily.IPv4,
+                    Addresses.alignedHi(interval.low()), Addresses.alignedLo(interval.low()),
+                    Addresses.alignedHi(interval.high()), Addresses.alignedLo(interval.high()),
+                    value, current);
+        }
+
+        Entry(boolean ipv4, long lowHi, long lowLo, long highHi, long highLo, V value, boolean current) {
+            this.ipv4 = ipv4;
+            this.lowHi = lowHi;
+            this.lowLo = lowLo;
+            this.highHi = highHi;
+            this.highLo = highLo;
+            this.length = Math.min(commonPrefix(lowHi, lowLo, highHi, highLo), ipv4 ? 32 : 128);
+            this.value = value;
+            this.current = current;
+        }
+
+        boolean sameInterval(Entry<V> other) {
+            return lowHi == other.lowHi && lowLo == other.lowLo && highHi == other.highHi && highLo == other.highLo;
+        }
+
+        boolean encompasses(Entry<V> other) {
+            return compare(lowHi, lowLo, other.lowHi, other.lowLo) <= 0
+                    && compare(highHi, highLo, other.highHi, other.highLo) >= 0;
+        }
+
+        /* Follows the natural order of intervals: greater is more specific */
+        int compareTo(Entry<V> other) {
+            int c = compare(lowHi, lowLo, other.lowHi, other.lowLo);
+            return c != 0 ? c : compare(other.highHi, other.highLo, highHi, highLo);
+        }
+    }
+
+    private static final class Node<V> {
+        @SuppressWarnings("rawtypes")
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+
+        final long hi, lo;
+        final int length;
+        final Node<V> zero, one;
+        final Entry<V>[] entries;
+
+        Node(long hi, long lo, int length, Node<V> zero, Node<V> one, Entry<V>[] entries) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+            this.zero = zero;
+            this.one = one;
+            this.entries = entries;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Entry<V>[] noEntries() {
+            return NO_ENTRIES;
+        }
+
+        /* A copy of this node with the entry added, or replacing the entry for the same interval */
+        Node<V> withEntry(Entry<V> entry, boolean[] added) {
+            Entry<V>[] next;
+            int i = 0;
+            while (i < entries.length && !entries[i].sameInterval(entry)) {
+                i++;
+            }
+            if (i < entries.length) {
+                next = entries.clone();
+            } else {
+                added[0] = true;
+                next = Arrays.copyOf(entries, entries.length + 1);
+            }
+            next[i] = entry;
+            return new Node<>(hi, lo, length, zero, one, next);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static net.apnic.rdapd.intervaltree.ip.Addresses.compare;
+
+/**
+ * The address space of each family cut into disjoint segments, each labelled
+ * with the most specific current interval covering it.
+ *
+ * A segment boundary lies at the start of, and just past the end of, every
+ * interval the map has been told about, so every interval either covers a
+ * segment entirely or not at all.  Finding the owner of a single address is
+ * then one binary search over the segment starts.
+ *
+ * Segment starts and labels are held in flat arrays.  Updates do not copy the
+ * arrays; new boundaries and relabelled segments go to a small persistent AVL
+ * overlay instead, which shadows the arrays until {@link #compact()} folds it
+ * back in.
+ *
+ * Like the interval trees, the map is immutable: updates return a new map.
+ */
+public final class SegmentMap<V> {
+    private final Segments<V> v4;
+    private final Segments<V> v6;
+
+    public SegmentMap() {
+        this(Segments.empty(true), Segments.empty(false));
+    }
+
+    private SegmentMap(Segments<V> v4, Segments<V> v6) {
+        this.v4 = v4;
+        this.v6 = v6;
+    }
+
+    /**
+     * Find the most specific current interval covering an address.
+     *
+     * @param address the address to look up
+     * @return the value of the most specific current interval, if any
+     */
+    public Optional<V> mostSpecificCurrent(IP address) {
+        Segments<V> segments = address.getAddressFamily() == IP.AddressFamily.IPv4 ? v4 : v6;
+        PrefixTrie.Entry<V> label = segments.labelAt(Addresses.alignedHi(address), Addresses.alignedLo(address));
+        return label == null ? Optional.empty() : Optional.ofNullable(label.value);
+    }
+
+    /**
+     * Relabel the segments covered by an interval after its value or current
+     * state has changed.
+     *
+     * The trie must already hold the change; it is consulted to find the next
+     * most specific interval wherever this one stops being current.
+     *
+     * @param interval the interval that changed
+     * @param value the value now associated with the interval
+     * @param current whether the interval is now current
+     * @param trie the trie of all intervals, including this change
+     * @return a new map reflecting the change
+     */
+    public SegmentMap<V> update(IpInterval interval, V value, boolean current, PrefixTrie<V> trie) {
+        PrefixTrie.Entry<V> entry = new PrefixTrie.Entry<>(interval, value, current);
+        if (entry.ipv4) {
+            return new SegmentMap<>(v4.update(entry, trie), v6);
+        }
+        return new SegmentMap<>(v4, v6.update(entry, trie));
+    }
+
+    /**
+     * The number of segments held in the overlay rather than the arrays.
+     */
+    public int overlaySize() {
+        return v4.overlaySize + v6.overlaySize;
+    }
+
+    /**
+     * Fold the overlay into the arrays.
+     *
+     * @return a map with the same segments and an empty overlay
+     */
+    public SegmentMap<V> compact() {
+        if (overlaySize() == 0) {
+            return this;
+        }
+        return new SegmentMap<>(v4.compact(), v6.compact());
+    }
+
+    /* A 128 bit address, left-aligned */
+    private static final class Point {
+        final long hi, lo;
+
+        Point(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+    }
+
+    /* A node of the overlay, an AVL tree of segment starts */
+    private static final class Shadow<V> {
+        final long hi, lo;
+        final PrefixTrie.Entry<V> label;
+        final Shadow<V> left, right;
+        final int height;
+
+        Shadow(long hi, long lo, PrefixTrie.Entry<V> label, Shadow<V> left, Shadow<V> right) {
+            this.hi = hi;
+            this.lo = lo;
+            this.label = label;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+
+        static int height(Shadow<?> node) {
+            return node == null ? 0 : node.height;
+        }
+
+        /* A tree with the label set for the start, counting new starts in added[0] */
+        static <V> Shadow<V> put(Shadow<V> node, long hi, long lo, PrefixTrie.Entry<V> label, int[] added) {
+            if (node == null) {
+                added[0]++;
+                return new Shadow<>(hi, lo, label, null, null);
+            }
+            int c = compare(hi, lo, node.hi, node.lo);
+            if (c == 0) {
+                return new Shadow<>(hi, lo, label, node.left, node.right);
+            }
+            if (c < 0) {
+                return balance(node.hi, node.lo, node.label, put(node.left, hi, lo, label, added), node.right);
+            }
+            return balance(node.hi, node.lo, node.label, node.left, put(node.right, hi, lo, label, added));
+        }
+
+        static <V> Shadow<V> balance(long hi, long lo, PrefixTrie.Entry<V> label, Shadow<V> left, Shadow<V> right) {
+            int skew = height(left) - height(right);
+            if (skew > 1) {
+                if (height(left.left) < height(left.right)) {
+                    left = rotateLeft(left);
+                }
+                return rotateRight(new Shadow<>(hi, lo, label, left, right));
+            }
+            if (skew < -1) {
+                if (height(right.right) < height(right.left)) {
+                    right = rotateRight(right);
+                }
+                return rotateLeft(new Shadow<>(hi, lo, label, left, right));
+            }
+            return new Shadow<>(hi, lo, label, left, right);
+        }
+
+        static <V> Shadow<V> rotateLeft(Shadow<V> node) {
+            Shadow<V> r = node.right;
+            return new Shadow<>(r.hi, r.lo, r.label, new Shadow<>(node.hi, node.lo, node.label, node.left, r.left), r.right);
+        }
+
+        static <V> Shadow<V> rotateRight(Shadow<V> node) {
+            Shadow<V> l = node.left;
+            return new Shadow<>(l.hi, l.lo, l.label, l.left, new Shadow<>(node.hi, node.lo, node.label, l.right, node.right));
+        }
+
+        /* The last node starting at or before the address, or null */
+        static <V> Shadow<V> floor(Shadow<V> node, long hi, long lo) {
+            Shadow<V> best = null;
+            while (node != null) {
+                int c = compare(node.hi, node.lo, hi, lo);
+                if (c == 0) {
+                    return node;
+                }
+                if (c < 0) {
+                    best = node;
+                    node = node.right;
+                } else {
+                    node = node.left;
+                }
+            }
+            return best;
+        }
+
+        /* Append, in order, every node starting within [low, end] */
+        static <V> void collect(Shadow<V> node, Point low, Point end, List<Shadow<V>> into) {
+            if (node == null) {
+                return;
+            }
+            boolean aboveLow = compare(node.hi, node.lo, low.hi, low.lo) >= 0;
+            boolean belowEnd = compare(node.hi, node.lo, end.hi, end.lo) <= 0;
+            if (aboveLow) {
+                collect(node.left, low, end, into);
+            }
+            if (aboveLow && belowEnd) {
+                into.add(node);
+            }
+            if (belowEnd) {
+                collect(node.right, low, end, into);
+            }
+        }
+
+        /* Append every node in order */
+        static <V> void collect(Shadow<V> node, List<Shadow<V>> into) {
+            if (node != null) {
+                collect(node.left, into);
+                into.add(node);
+                collect(node.right, into);
+            }
+        }
+    }
+
+    /* The segments of one address family */
+    private static final class Segments<V> {
+        final boolean ipv4;
+
+        /* Segment starts in ascending order; the first is always address zero */
+        final long[] startHi;
+        final long[] startLo;
+
+        /* The label of each segment, null where no current interval covers it */
+        final PrefixTrie.Entry<V>[] labels;
+
+        /* New boundaries and relabelled segments, keyed by segment start */
+        final Shadow<V> overlay;
+        final int overlaySize;
+
+        Segments(boolean ipv4, long[] startHi, long[] startLo, PrefixTrie.Entry<V>[] labels,
+                 Shadow<V> overlay, int overlaySize) {
+            this.ipv4 = ipv4;
+            this.startHi = startHi;
+            this.startLo = startLo;
+            this.labels = labels;
+            this.overlay = overlay;
+            this.overlaySize = overlaySize;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Segments<V> empty(boolean ipv4) {
+            return new Segments<>(ipv4, new long[1], new long[1], new PrefixTrie.Entry[1], null, 0);
+        }
+
+        /* The index of the last array segment starting at or before the address */
+        int floorIndex(long hi, long lo) {
+            int low = 0, high = startHi.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (compare(startHi[mid], startLo[mid], hi, lo) <= 0) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        PrefixTrie.Entry<V> labelAt(long hi, long lo) {
+            int i = floorIndex(hi, lo);
+            Shadow<V> shadow = Shadow.floor(overlay, hi, lo);
+            if (shadow != null && compare(shadow.hi, shadow.lo, startHi[i], startLo[i]) >= 0) {
+                return shadow.label;
+            }
+            return labels[i];
+        }
+
+        boolean isBoundary(Point point) {
+            int i = floorIndex(point.hi, point.lo);
+            if (startHi[i] == point.hi && startLo[i] == point.lo) {
+                return true;
+            }
+            Shadow<V> shadow = Shadow.floor(overlay, point.hi, point.lo);
+            return shadow != null && shadow.hi == point.hi && shadow.lo == point.lo;
+        }
+
+        Segments<V> update(PrefixTrie.Entry<V> entry, PrefixTrie<V> trie) {
+            Shadow<V> next = overlay;
+            int[] added = { 0 };
+
+            // Make sure segments start at each end of the interval
+            Point low = new Point(entry.lowHi, entry.lowLo);
+            Point end = new Point(entry.highHi, entry.highLo);
+            Point past = successor(end);
+            for (Point boundary : new Point[] { low, past }) {
+                if (boundary != null && !isBoundary(boundary)) {
+                    next = Shadow.put(next, boundary.hi, boundary.lo, labelAt(boundary.hi, boundary.lo), added);
+                }
+            }
+
+            // Gather the segments the interval covers, the overlay shadowing the arrays
+            List<Point> starts = new ArrayList<>();
+            List<PrefixTrie.Entry<V>> current = new ArrayList<>();
+            int i = floorIndex(low.hi, low.lo);
+            if (compare(startHi[i], startLo[i], low.hi, low.lo) < 0) {
+                i++;
+            }
+            List<Shadow<V>> shadows = new ArrayList<>();
+            Shadow.collect(next, low, end, shadows);
+            int j = 0;
+            while (true) {
+                boolean inArray = i < startHi.length && compare(startHi[i], startLo[i], end.hi, end.lo) <= 0;
+                if (!inArray && j == shadows.size()) {
+                    break;
+                }
+                Shadow<V> shadow = j < shadows.size() ? shadows.get(j) : null;
+                int c = !inArray ? 1 : shadow == null ? -1
+                        : compare(startHi[i], startLo[i], shadow.hi, shadow.lo);
+                if (c < 0) {
+                    starts.add(new Point(startHi[i], startLo[i]));
+                    current.add(labels[i]);
+                    i++;
+                } else {
+                    starts.add(new Point(shadow.hi, shadow.lo));
+                    current.add(shadow.label);
+                    j++;
+                    if (c == 0) {
+                        i++;
+                    }
+                }
+            }
+
+            // Relabel each segment for the interval's new state
+            for (int s = 0; s < starts.size(); s++) {
+                PrefixTrie.Entry<V> label = current.get(s);
+                PrefixTrie.Entry<V> relabel = label;
+                if (entry.current) {
+                    // A new revision of the same object leaves its segments' labels as they are
+                    if (label == null || entry.compareTo(label) > 0
+                            || label.sameInterval(entry) && !Objects.equals(label.value, entry.value)) {
+                        relabel = entry;
+                    }
+                } else if (label != null && label.sameInterval(entry)) {
+                    Point start = starts.get(s);
+                    Point last = s + 1 < starts.size() ? predecessor(starts.get(s + 1)) : end;
+                    relabel = trie.mostSpecificCurrent(new PrefixTrie.Entry<>(ipv4,
+                            start.hi, start.lo, last.hi, last.lo, null, false));
+                }
+                if (relabel != label) {
+                    Point start = starts.get(s);
+                    next = Shadow.put(next, start.hi, start.lo, relabel, added);
+                }
+            }
+            return new Segments<>(ipv4, startHi, startLo, labels, next, overlaySize + added[0]);
+        }
+
+        @SuppressWarnings("unchecked")
+        Segments<V> compact() {
+            if (overlaySize == 0) {
+                return this;
+            }
+            int capacity = startHi.length + overlaySize;
+            long[] hi = new long[capacity];
+            long[] lo = new long[capacity];
+            PrefixTrie.Entry<V>[] merged = new PrefixTrie.Entry[capacity];
+            int n = 0, i = 0;
+            List<Shadow<V>> shadows = new ArrayList<>(overlaySize);
+            Shadow.collect(overlay, shadows);
+            for (Shadow<V> shadow : shadows) {
+                int c;
+                while (i < startHi.length && (c = compare(startHi[i], startLo[i], shadow.hi, shadow.lo)) <= 0) {
+                    if (c < 0) {
+                        hi[n] = startHi[i];
+                        lo[n] = startLo[i];
+                        merged[n++] = labels[i];
+                    }
+                    i++;
+                }
+                hi[n] = shadow.hi;
+                lo[n] = shadow.lo;
+                merged[n++] = shadow.label;
+            }
+            for (; i < startHi.length; i++) {
+                hi[n] = startHi[i];
+                lo[n] = startLo[i];
+                merged[n++] = labels[i];
+            }
+            return new Segments<>(ipv4, Arrays.copyOf(hi, n), Arrays.copyOf(lo, n), Arrays.copyOf(merged, n),
+                    null, 0);
+        }
+
+        /* The address after this one, or null at the top of the address space */
+        Point successor(Point point) {
+            if (ipv4) {
+                return point.hi == 0xffffffff00000000L ? null : new Point(point.hi + (1L << 32), 0);
+            }
+            if (point.lo != -1L) {
+                return new Point(point.hi, point.lo + 1);
+            }
+            return point.hi == -1L ? null : new Point(point.hi + 1, 0);
+        }
+
+        /* The address before this one, which must not be zero */
+        Point predecessor(Point point) {
+            if (ipv4) {
+                return new Point(point.hi - (1L << 32), 0);
+            }
+            return point.lo != 0 ? new Point(point.hi, point.lo - 1) : new Point(point.hi - 1, -1L);
+        }
+    }
+}
@@ -7,4 +7,13 @@ import java.util.Optional;
 
 public interface IpService {
     Optional<IpNetwork> find(IpInterval range);
+
+    /**
+     * Find the most specific network encompassing a range at a given time.
+     *
+     * @param range the range to look up
+     * @param when the time of interest, in seconds since the epoch
+     * @return The network as it was at that time, if any
+     */
+    Optional<IpNetwork> findAt(IpInterval range, long when);
 }
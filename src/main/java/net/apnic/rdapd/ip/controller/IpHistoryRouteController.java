@@ -7,6 +7,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import net.apnic.rdapd.error.MalformedRequestException;
 import net.apnic.rdapd.history.ObjectHistory;
+import net.apnic.rdapd.history.QueryExecutor;
 import net.apnic.rdapd.intervaltree.IntervalTree;
 import net.apnic.rdapd.rdap.controller.RDAPControllerUtil;
 import net.apnic.rdapd.rdap.controller.RDAPResponseMaker;
@@ -23,6 +24,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.HandlerMapping;
 
@@ -38,23 +40,32 @@ public class IpHistoryRouteController
     private final static Logger LOGGER = LoggerFactory.getLogger(IpHistoryRouteController.class);
 
     private final IntervalTree<IP, ObjectHistory, IpInterval> historyTree;
+    private final QueryExecutor queryExecutor;
     private final RDAPControllerUtil rdapControllerUtil;
 
     @Autowired
     public IpHistoryRouteController(
         IntervalTree<IP, ObjectHistory, IpInterval> historyTree,
+        QueryExecutor queryExecutor,
         RDAPResponseMaker rdapResponseMaker)
     {
         this.historyTree = historyTree;
+        this.queryExecutor = queryExecutor;
         this.rdapControllerUtil = new RDAPControllerUtil(rdapResponseMaker);
     }
 
     /**
+     * GET request handler for the history of networks within a range.
      *
+     * Large ranges may be paged through with the offset and limit parameters.
+     * Networks too specific to report are dropped before a page is taken, so
+     * a page holds fewer than limit histories only if it is the last.
      */
     @RequestMapping(value="/**", method=RequestMethod.GET)
     public ResponseEntity<TopLevelObject> ipPathGet(
-        HttpServletRequest request)
+        HttpServletRequest request,
+        @RequestParam(value="offset", required=false) Long offset,
+        @RequestParam(value="limit", required=false) Integer limit)
     {
         String param = (String)request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
         LOGGER.debug("ip history GET path query for {}", param);
@@ -69,16 +80,36 @@ public class IpHistoryRouteController
             throw new MalformedRequestException(ex);
         }
 
+        if((offset != null && offset < 0) || (limit != null && limit < 0))
+        {
+            throw new MalformedRequestException(
+                new IllegalArgumentException("offset and limit must not be negative"));
+        }
+
         int pfxCap = range.prefixSize() +
             (range.low().getAddressFamily() == IP.AddressFamily.IPv4 ? 8 : 16);
 
-        List<ObjectHistory> ipHistory =
-            historyTree
-                .intersecting(range)
-                .filter(t -> t.first().prefixSize() <= pfxCap)
-                .sorted(Comparator.comparing(Tuple::first))
+        List<ObjectHistory> ipHistory;
+        if(offset == null && limit == null)
+        {
+            ipHistory = queryExecutor.rangeScan(
+                historyTree.intersecting(range),
+                results -> results
+                    .filter(t -> t.first().prefixSize() <= pfxCap)
+                    .sorted(Comparator.comparing(Tuple::first))
+                    .map(Tuple::second)
+                    .collect(Collectors.toList()));
+        }
+        else
+        {
+            // A page is already in order, and small enough to finish here
+            final IpInterval pageRange = range;
+            ipHistory = queryExecutor.point(() -> historyTree.intersecting(pageRange,
+                    network -> network.prefixSize() <= pfxCap,
+                    offset == null ? 0 : offset, limit == null ? Integer.MAX_VALUE : limit)
                 .map(Tuple::second)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
+        }
 
         return rdapControllerUtil.historyResponse(request, ipHistory);
     }
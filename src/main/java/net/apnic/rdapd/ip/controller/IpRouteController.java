@@ -17,6 +17,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.HandlerMapping;
 
@@ -38,7 +39,9 @@ public class IpRouteController
     }
 
     @RequestMapping(value="/**", method=RequestMethod.GET)
-    public ResponseEntity<TopLevelObject> ipPathGet(HttpServletRequest request)
+    public ResponseEntity<TopLevelObject> ipPathGet(
+        HttpServletRequest request,
+        @RequestParam(value="asOf", required=false) String asOf)
     {
         String param = (String)request.getAttribute(
             HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
@@ -55,12 +58,15 @@ public class IpRouteController
             throw new MalformedRequestException(ex);
         }
 
+        Long when = RDAPControllerUtil.parseAsOf(asOf);
         return rdapControllerUtil.singleObjectResponse(request,
-            ipService.find(range).orElse(null));
+            (when == null ? ipService.find(range) : ipService.findAt(range, when)).orElse(null));
     }
 
     @RequestMapping(value="/**", method=RequestMethod.HEAD)
-    public ResponseEntity<TopLevelObject> ipPathHead(HttpServletRequest request)
+    public ResponseEntity<TopLevelObject> ipPathHead(
+        HttpServletRequest request,
+        @RequestParam(value="asOf", required=false) String asOf)
     {
         String param = (String)request.getAttribute(
             HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
@@ -77,7 +83,8 @@ public class IpRouteController
             throw new MalformedRequestException(ex);
         }
 
+        Long when = RDAPControllerUtil.parseAsOf(asOf);
         return rdapControllerUtil.singleObjectResponse(request,
-            ipService.find(range).orElse(null));
+            (when == null ? ipService.find(range) : ipService.findAt(range, when)).orElse(null));
     }
 }
@@ -3,16 +3,17 @@ package net.apnic.rdapd.loaders;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import net.apnic.rdapd.history.DeferredRevision;
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectKey;
 import net.apnic.rdapd.history.Revision;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rpsl.rdap.InternPool;
+import net.apnic.rdapd.rpsl.rdap.RpslContents;
 import net.apnic.rdapd.rpsl.rdap.RpslToRdap;
 import net.apnic.rdapd.types.Tuple;
 
@@ -28,10 +29,30 @@ public class RipeDbLoader implements Loader {
 
     private long lastSerial;
     private final transient JdbcOperations operations;
+    private final transient InternPool pool;
+    private final boolean deferConversion;
 
     public RipeDbLoader(JdbcOperations jdbcOperations, long serial) {
+        this(jdbcOperations, serial, InternPool.disabled());
+    }
+
+    public RipeDbLoader(JdbcOperations jdbcOperations, long serial, InternPool pool) {
+        this(jdbcOperations, serial, pool, false);
+    }
+
+    /**
+     * @param deferConversion whether to keep each superseded revision as
+     *                        compressed RPSL, with only a summary for
+     *                        indexing, and convert it to RDAP when it is
+     *                        read; revisions are still converted as they are
+     *                        loaded, and kept converted while current
+     */
+    public RipeDbLoader(JdbcOperations jdbcOperations, long serial, InternPool pool,
+                        boolean deferConversion) {
         this.lastSerial = serial;
         this.operations = jdbcOperations;
+        this.pool = pool;
+        this.deferConversion = deferConversion;
     }
 
     private static ObjectKey objectKeyForResultKey(ObjectClass type, String pkey)
@@ -46,7 +67,7 @@ public class RipeDbLoader implements Loader {
         }
     }
 
-    private static void resultSetToRdap(ResultSet rs, RevisionConsumer consumer)
+    private void resultSetToRdap(ResultSet rs, RevisionConsumer consumer)
         throws SQLException
     {
         try
@@ -60,9 +81,13 @@ public class RipeDbLoader implements Loader {
                 ObjectKey objectKey = objectKeyForResultKey(objectClass,
                     rs.getString("pkey"));
 
-                consumer.accept(objectKey, new Revision(
-                    fromStamp(rs.getLong("timestamp")), null,
-                    RpslToRdap.rpslToRdap(objectKey, contents)));
+                long timestamp = rs.getLong("timestamp");
+                RdapObject converted = RpslToRdap.rpslToRdap(objectKey, contents, pool);
+                consumer.accept(objectKey, deferConversion
+                    ? new DeferredRevision(timestamp, Revision.OPEN,
+                        RpslToRdap.summarise(objectKey, contents, pool),
+                        new RpslContents(objectKey, contents), converted)
+                    : new Revision(timestamp, Revision.OPEN, converted));
             }
             else
             {
@@ -117,10 +142,6 @@ public class RipeDbLoader implements Loader {
         this.lastSerial = lastSerial;
     }
 
-    private static ZonedDateTime fromStamp(long stamp) {
-        return Instant.ofEpochSecond(stamp).atZone(ZoneId.systemDefault());
-    }
-
     // Presence in the map serves as a proxy for relevance to this application
     private static final Map<Integer, ObjectClass> OBJECT_CLASSES = Stream.of(
             new Tuple<>(0, ObjectClass.AUT_NUM),
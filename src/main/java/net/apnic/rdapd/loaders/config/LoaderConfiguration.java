@@ -1,25 +1,49 @@
 package net.apnic.rdapd.loaders.config;
 
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.temporal.ChronoUnit;
 import java.time.ZonedDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 import javax.annotation.PostConstruct;
 
 import net.apnic.rdapd.history.History;
+import net.apnic.rdapd.history.HistoryState;
+import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.history.Revision;
+import net.apnic.rdapd.history.RevisionJournal;
+import net.apnic.rdapd.history.SegmentedSnapshot;
+import net.apnic.rdapd.history.SnapshotFile;
+import net.apnic.rdapd.history.WriteThrottle;
 import net.apnic.rdapd.loaders.health.LoaderHealthIndicator;
 import net.apnic.rdapd.loaders.RipeDbLoader;
 import net.apnic.rdapd.progress.Bar;
+import net.apnic.rdapd.rpsl.rdap.ConversionCache;
+import net.apnic.rdapd.rpsl.rdap.InternPool;
 import net.apnic.rdapd.search.SearchEngine;
+import net.apnic.rdapd.types.Tuple;
 
 import org.nustaq.serialization.FSTObjectInput;
 import org.nustaq.serialization.FSTObjectOutput;
@@ -29,6 +53,8 @@ import org.slf4j.LoggerFactory;
 
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.actuate.endpoint.Endpoint;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -43,18 +69,86 @@ import org.springframework.scheduling.annotation.Scheduled;
 public class LoaderConfiguration
 {
     private final static Logger LOGGER = LoggerFactory.getLogger(LoaderConfiguration.class);
+    /* The number of revisions published to the History at a time during the initial load */
+    private final static int LOAD_BATCH_SIZE = 10000;
     private final ExecutorService executorService = Executors.newSingleThreadExecutor();
+    /* Writes snapshots at low priority, so that refreshes and queries carry on while one is written */
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
 
     private Future<Long> asyncLoader = CompletableFuture.completedFuture(-1L);
+    /* Set while a snapshot is requested or being written, so that only one is written at a time */
+    private final AtomicBoolean snapshotPending = new AtomicBoolean(false);
+    /* Counts what the snapshot being written has written, if one is */
+    private volatile WriteThrottle snapshotProgress;
+    private volatile long lastSnapshotSerial = -1L;
+    private volatile long lastSnapshotSize = -1L;
+    private volatile long lastSnapshotMillis = -1L;
+    private final AtomicLong snapshotFailures = new AtomicLong();
 
     @Autowired
     private ApplicationContext context;
     private RipeDbLoader dbLoader;
+    /* Lives as long as the loader, so that refreshes share the initial load's instances */
+    private InternPool internPool = InternPool.disabled();
     private LoaderHealthIndicator loaderHealthIndicator = new LoaderHealthIndicator();
 
     @Value("${snapshot.file:#{null}}")
     private String snapshotFile;
 
+    /* The format snapshots are written in: binary, segmented, or fst as written before either */
+    @Value("${snapshot.format:binary}")
+    private String snapshotFormat;
+
+    /* The threads snapshots are written and read on, or 0 for one per core */
+    @Value("${snapshot.threads:0}")
+    private int snapshotThreads;
+
+    /* Runs the segments of a snapshot concurrently, at low priority as the writer does; idle threads are let go */
+    private ThreadPoolExecutor snapshotPool;
+
+    /* Whether snapshots are written every snapshot.schedule.interval milliseconds, as well as on request */
+    @Value("${snapshot.schedule.enabled:false}")
+    private boolean snapshotScheduled;
+
+    /* The rate snapshots are written at, in bytes per second, or 0 for no limit */
+    @Value("${snapshot.write-rate:0}")
+    private long snapshotWriteRate;
+
+    /*
+     * The snapshots kept: the latest, and those it replaced as <snapshot.file>.1, .2
+     * and so on.  Each keeps the search indexes written with it, as <its file>.search.
+     * The journal is kept for the latest only; an earlier generation is restored by
+     * naming it as snapshot.file, and catches up from the database.
+     */
+    @Value("${snapshot.generations:1}")
+    private int snapshotGenerations;
+
+    /* Whether each refresh is journalled beside the snapshot, to be replayed over it */
+    @Value("${snapshot.journal.enabled:false}")
+    private boolean journalEnabled;
+
+    /* The size in bytes past which the journal is folded into a new snapshot */
+    @Value("${snapshot.journal.compact-size:67108864}")
+    private long journalCompactSize;
+
+    /* The journal of refreshes since the snapshot, if one is kept */
+    private volatile RevisionJournal journal;
+
+    @Value("${loader.intern-pool.capacity:1000000}")
+    private int internPoolCapacity;
+
+    /* Whether superseded revisions are kept as RPSL and converted when read */
+    @Value("${loader.deferred-conversion.enabled:false}")
+    private boolean deferConversion;
+
+    @Value("${loader.deferred-conversion.cache-size:100000}")
+    private int conversionCacheCapacity;
+
     @Autowired
     History history;
 
@@ -68,48 +162,178 @@ public class LoaderConfiguration
     {
         if (snapshotFile != null) {
             LOGGER.info("Attempting to deserialise from {}", snapshotFile);
-            try (InputStream resourceStream = context.getResource("file:///" + snapshotFile).getInputStream();
-                InflaterInputStream zipStream = new InflaterInputStream(resourceStream);
-                FSTObjectInput objStream = new FSTObjectInput(zipStream)) {
-                long serial = objStream.readLong();
-                history.deserialize((History)objStream.readObject());
-                dbLoader.setLastSerial(serial);
-            } catch (FileNotFoundException ex) {
+            try {
+                dbLoader.setLastSerial(readSnapshot(Paths.get(snapshotFile)));
+                restoreSearchIndexes(searchIndexes(Paths.get(snapshotFile)));
+            } catch (FileNotFoundException | NoSuchFileException ex) {
                 LOGGER.warn("snapshot file \"{}\" does not exist", snapshotFile);
             } catch (IOException | ClassNotFoundException ex) {
                 LOGGER.error("Exception during load", ex);
             }
+            if (journalEnabled) {
+                replayJournal(Paths.get(snapshotFile + ".journal"));
+            }
         }
 
+        long restoredSerial = dbLoader.getLastSerial();
         LOGGER.info("Loading history from database, starting at #{}",
                     dbLoader.getLastSerial());
+        List<Tuple<ObjectKey, Revision>> batch = new ArrayList<>(LOAD_BATCH_SIZE);
         try {
             Bar bar = new Bar(107, LOGGER::info);
-            final ZonedDateTime lastDate[] = { ZonedDateTime.of(2008, 1, 1, 1, 1, 1,1, ZoneId.systemDefault()) };
-            lastDate[0] = lastDate[0].truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            // The start of the month after the latest revision seen, in epoch seconds
+            final long nextMonth[] = { ZonedDateTime.of(2008, 2, 1, 0, 0, 0, 0, ZoneId.systemDefault()).toEpochSecond() };
             dbLoader.loadWith((k, r) -> {
-                ZonedDateTime x = r.getValidFrom().truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
-                if (x.isAfter(lastDate[0])) {
-                    lastDate[0] = x;
+                if (r.getValidFromEpochSecond() >= nextMonth[0]) {
+                    nextMonth[0] = r.getValidFrom().withZoneSameInstant(ZoneId.systemDefault())
+                        .truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1).toEpochSecond();
                     bar.inc();
                 }
-                history.addRevision(k, r);
+                batch.add(new Tuple<>(k, r));
                 searchEngine.putIndexEntry(r, k);
+                if (batch.size() >= LOAD_BATCH_SIZE) {
+                    history.addRevisions(batch);
+                    batch.clear();
+                }
             });
         } catch (Exception ex) {
             LOGGER.error("Failed to load data: {}", ex.getLocalizedMessage(), ex);
         }
         finally
         {
-            searchEngine.commit();
+            // The indexes are committed first, so that a snapshot of them
+            // always reaches as far as the History's
+            searchEngine.commit(dbLoader.getLastSerial());
+            history.addRevisions(batch, dbLoader.getLastSerial());
+            history.compactIndices();
             loaderHealthIndicator.setFinishedLoading();
         }
+
+        // The initial load is not journalled; a new base saves loading it again
+        if (journal != null && dbLoader.getLastSerial() != restoredSerial) {
+            requestSnapshot();
+        }
+    }
+
+    /* Restore the search indexes written with the snapshot, or rebuild them from the History */
+    private void restoreSearchIndexes(Path directory)
+    {
+        long serial = dbLoader.getLastSerial();
+        try {
+            if (searchEngine.readIndexes(directory, serial)) {
+                LOGGER.info("Restored search indexes from {}", directory);
+                return;
+            }
+            LOGGER.warn("Search indexes in {} do not reach #{}, rebuilding them", directory, serial);
+        } catch (IOException ex) {
+            LOGGER.error("Could not restore search indexes from {}, rebuilding them", directory, ex);
+        }
+        history.getState().forEachRevision((key, revision) -> searchEngine.putIndexEntry(revision, key));
+        searchEngine.commit(serial);
+    }
+
+    /* Replay the journal of refreshes over the restored snapshot, and keep it for later refreshes */
+    private void replayJournal(Path file)
+    {
+        try {
+            RevisionJournal opened = RevisionJournal.open(file);
+            dbLoader.setLastSerial(opened.replay(dbLoader.getLastSerial(), (revisions, serial) -> {
+                history.addRevisions(revisions, serial);
+                revisions.forEach(r -> searchEngine.putIndexEntry(r.second(), r.first()));
+            }));
+            journal = opened;
+        } catch (IOException ex) {
+            LOGGER.error("Could not replay journal {}, refreshes will not be journalled", file, ex);
+        }
+    }
+
+    /* Journal a refresh, and fold the journal into a new snapshot once it has grown */
+    private void journalRefresh(long fromSerial, List<Tuple<ObjectKey, Revision>> revisions)
+    {
+        RevisionJournal current = journal;
+        long toSerial = dbLoader.getLastSerial();
+        if (current == null || toSerial == fromSerial) {
+            return;
+        }
+        try {
+            current.append(fromSerial, toSerial, revisions);
+            if (current.size() > journalCompactSize) {
+                requestSnapshot();
+            }
+        } catch (IOException ex) {
+            // Replay stops at the gap this leaves, and loads the rest from the database
+            LOGGER.error("Could not journal refresh to #{}", toSerial, ex);
+        }
+    }
+
+    /* Write a new snapshot in the background, unless one is already being written */
+    private boolean requestSnapshot()
+    {
+        if (snapshotFile == null || !snapshotPending.compareAndSet(false, true)) {
+            return false;
+        }
+        snapshotWriter.execute(() -> {
+            try {
+                writeSnapshot(Paths.get(snapshotFile));
+            } catch (IOException | RuntimeException ex) {
+                snapshotFailures.incrementAndGet();
+                LOGGER.error("Could not write snapshot to {}", snapshotFile, ex);
+            } finally {
+                snapshotPending.set(false);
+            }
+        });
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${snapshot.schedule.interval:3600000}",
+               initialDelayString = "${snapshot.schedule.interval:3600000}")
+    public void scheduledSnapshot()
+    {
+        // A snapshot of a History still being loaded would soon be stale
+        if (snapshotScheduled && loaderHealthIndicator.isFinishedLoading()) {
+            requestSnapshot();
+        }
+    }
+
+    /* Restore the History from a snapshot in either format, returning the serial it reflects */
+    private long readSnapshot(Path file) throws IOException, ClassNotFoundException
+    {
+        if (SnapshotFile.isSnapshotFile(file)) {
+            HistoryState restored = SnapshotFile.read(file, snapshotPool);
+            history.restore(restored);
+            return restored.getSerial();
+        }
+        if (SegmentedSnapshot.isSegmentedSnapshot(file)) {
+            HistoryState restored = SegmentedSnapshot.read(file, snapshotPool);
+            history.restore(restored);
+            return restored.getSerial();
+        }
+        // Snapshots written before the binary format, or with it switched off
+        try (InputStream resourceStream = context.getResource("file:///" + snapshotFile).getInputStream();
+            InflaterInputStream zipStream = new InflaterInputStream(resourceStream);
+            FSTObjectInput objStream = new FSTObjectInput(zipStream)) {
+            long serial = objStream.readLong();
+            history.deserialize((History)objStream.readObject(), serial);
+            return serial;
+        }
     }
 
     @PostConstruct
     public void initialise()
     {
-        dbLoader = new RipeDbLoader(jdbcOperations, -1L);
+        internPool = new InternPool(internPoolCapacity);
+        ConversionCache.shared().setCapacity(conversionCacheCapacity);
+        int threads = snapshotThreads > 0 ? snapshotThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        snapshotPool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "snapshot-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        snapshotPool.allowCoreThreadTimeOut(true);
+        dbLoader = new RipeDbLoader(jdbcOperations, -1L, internPool, deferConversion);
         executorService.execute(this::buildTree);
     }
 
@@ -119,16 +343,56 @@ public class LoaderConfiguration
         return loaderHealthIndicator;
     }
 
+    /* The pool is made in initialise, which runs before this configuration makes any bean */
+    @Bean
+    public PublicMetrics internPoolMetrics()
+    {
+        return internPool;
+    }
+
+    @Bean
+    public PublicMetrics conversionCacheMetrics()
+    {
+        return ConversionCache.shared();
+    }
+
+    @Bean
+    public PublicMetrics snapshotMetrics()
+    {
+        return this::snapshotMetricValues;
+    }
+
+    private Collection<Metric<?>> snapshotMetricValues()
+    {
+        List<Metric<?>> metrics = new ArrayList<>();
+        WriteThrottle running = snapshotProgress;
+        long written = running == null ? 0L : running.getWritten();
+        metrics.add(new Metric<>("snapshot.running", running == null ? 0 : 1));
+        metrics.add(new Metric<>("snapshot.written", written));
+        // Progress is estimated against the size of the last snapshot
+        if (running != null && lastSnapshotSize > 0) {
+            metrics.add(new Metric<>("snapshot.progress", Math.min(100L, written * 100 / lastSnapshotSize)));
+        }
+        metrics.add(new Metric<>("snapshot.last.serial", lastSnapshotSerial));
+        metrics.add(new Metric<>("snapshot.last.size", lastSnapshotSize));
+        metrics.add(new Metric<>("snapshot.last.duration", lastSnapshotMillis));
+        metrics.add(new Metric<>("snapshot.failures", snapshotFailures.get()));
+        return metrics;
+    }
+
     @Scheduled(fixedRate = 15000L)
     public void refreshData()
     {
         if (asyncLoader.isDone()) {
             LOGGER.info("CRON triggered refresh begun");
             asyncLoader = executorService.submit(() -> {
+                // A refresh is published to the History as a whole
+                List<Tuple<ObjectKey, Revision>> batch = new ArrayList<>();
+                long fromSerial = dbLoader.getLastSerial();
                 try {
                     dbLoader.loadWith((key, revision) ->
                     {
-                        history.addRevision(key, revision);
+                        batch.add(new Tuple<>(key, revision));
                         searchEngine.putIndexEntry(revision, key);
                     });
                 } catch (Exception ex) {
@@ -136,7 +400,10 @@ public class LoaderConfiguration
                 }
                 finally
                 {
-                    searchEngine.commit();
+                    searchEngine.commit(dbLoader.getLastSerial());
+                    history.addRevisions(batch, dbLoader.getLastSerial());
+                    journalRefresh(fromSerial, batch);
+                    history.compactIndices();
                 }
                 return dbLoader.getLastSerial();
             });
@@ -145,7 +412,7 @@ public class LoaderConfiguration
 
     @Bean
     @ConditionalOnProperty(value="snapshot.file")
-    Endpoint<Boolean> snapshotEndpoint(@Value("${snapshot.file}") String snapshotFile) {
+    Endpoint<Boolean> snapshotEndpoint() {
         return new Endpoint<Boolean>() {
             @Override
             public String getId() {
@@ -162,27 +429,126 @@ public class LoaderConfiguration
                 return true;
             }
 
+            /* Begin a snapshot in the background; false if one is already being written */
             @Override
             public Boolean invoke() {
-                try {
-                    writeSnapshot(snapshotFile);
-                } catch (IOException ioex) {
-                    LOGGER.error("Could not write snapshot file", ioex);
-                    return false;
-                }
-                return true;
+                return requestSnapshot();
             }
         };
     }
 
-    private void writeSnapshot(String target) throws IOException
+    /*
+     * Write a snapshot, as the base the journal is replayed over.  Only the
+     * snapshot writer calls this, so one snapshot is written at a time.
+     */
+    private void writeSnapshot(Path target) throws IOException
+    {
+        long started = System.nanoTime();
+        WriteThrottle throttle = new WriteThrottle(snapshotWriteRate);
+        snapshotProgress = throttle;
+        try {
+            // One state holds every index and the serial they reflect, however long writing takes
+            HistoryState state = history.getState();
+            Path replaced = linkReplaced(target);
+            try {
+                if ("fst".equalsIgnoreCase(snapshotFormat)) {
+                    writeFstSnapshot(state, target, throttle);
+                } else if ("segmented".equalsIgnoreCase(snapshotFormat)) {
+                    SegmentedSnapshot.write(state, target, snapshotPool, throttle);
+                } else {
+                    SnapshotFile.write(state, target, throttle);
+                }
+            } catch (IOException | RuntimeException ex) {
+                if (replaced != null) {
+                    Files.deleteIfExists(replaced);
+                }
+                throw ex;
+            }
+            keepGenerations(target, replaced);
+            // The indexes' last commit reaches at least as far as the state written
+            searchEngine.writeIndexes(searchIndexes(target));
+            // Refreshes the snapshot includes need no longer be journalled
+            RevisionJournal current = journal;
+            if (current != null) {
+                current.compact(state.getSerial());
+            }
+
+            lastSnapshotSerial = state.getSerial();
+            lastSnapshotSize = Files.size(target);
+            lastSnapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            LOGGER.info("Wrote snapshot of #{} to {}: {} bytes in {} ms",
+                lastSnapshotSerial, target, lastSnapshotSize, lastSnapshotMillis);
+        } finally {
+            snapshotProgress = null;
+        }
+    }
+
+    /*
+     * Link the snapshot about to be replaced, if earlier generations are
+     * kept, so that it outlives being replaced.  Returns the link, or null.
+     */
+    private Path linkReplaced(Path target) throws IOException
+    {
+        if (snapshotGenerations < 2 || !Files.exists(target)) {
+            return null;
+        }
+        Path replaced = target.resolveSibling(target.getFileName() + ".replaced");
+        Files.deleteIfExists(replaced);
+        try {
+            Files.createLink(replaced, target);
+        } catch (UnsupportedOperationException | IOException ex) {
+            Files.copy(target, replaced);
+        }
+        return replaced;
+    }
+
+    /*
+     * Keep the replaced snapshot as the first generation, shifting the others
+     * along and dropping the oldest.  Each generation's search indexes move
+     * with it, so that the latest's are left to be written afresh.
+     */
+    private void keepGenerations(Path target, Path replaced) throws IOException
+    {
+        if (replaced == null) {
+            return;
+        }
+        Path oldest = generation(target, snapshotGenerations - 1);
+        Files.deleteIfExists(oldest);
+        SearchEngine.deleteIndexes(searchIndexes(oldest));
+        for (int i = snapshotGenerations - 2; i >= 1; i--) {
+            Path older = generation(target, i);
+            if (Files.exists(older)) {
+                Files.move(older, generation(target, i + 1), StandardCopyOption.ATOMIC_MOVE);
+            }
+            SearchEngine.moveIndexes(searchIndexes(older), searchIndexes(generation(target, i + 1)));
+        }
+        Files.move(replaced, generation(target, 1), StandardCopyOption.ATOMIC_MOVE);
+        SearchEngine.moveIndexes(searchIndexes(target), searchIndexes(generation(target, 1)));
+    }
+
+    private static Path generation(Path target, int generation)
+    {
+        return target.resolveSibling(target.getFileName() + "." + generation);
+    }
+
+    /* The search indexes written with a snapshot */
+    private static Path searchIndexes(Path snapshot)
+    {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".search");
+    }
+
+    private void writeFstSnapshot(HistoryState state, Path file, WriteThrottle throttle) throws IOException
     {
-        try (FileOutputStream fileOutput = new FileOutputStream(target);
+        // The History may be reading revisions from the file being replaced,
+        // so it is written beside it and moved over it once complete
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+        try (OutputStream fileOutput = throttle.wrap(Files.newOutputStream(partial));
              DeflaterOutputStream zipOutput = new DeflaterOutputStream(fileOutput);
              FSTObjectOutput objOutput = new FSTObjectOutput(zipOutput))
         {
-            objOutput.writeLong(dbLoader.getLastSerial());
-            objOutput.writeObject(history);
+            objOutput.writeLong(state.getSerial());
+            objOutput.writeObject(new History(state));
         }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 }
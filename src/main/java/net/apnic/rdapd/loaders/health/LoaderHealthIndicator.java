@@ -6,7 +6,7 @@ import org.springframework.boot.actuate.health.HealthIndicator;
 public class LoaderHealthIndicator
     implements HealthIndicator
 {
-    private boolean finishedLoading = false;
+    private volatile boolean finishedLoading = false;
 
     @Override
     public Health health()
@@ -14,6 +14,11 @@ public class LoaderHealthIndicator
         return (finishedLoading ? Health.up() : Health.down()).build();
     }
 
+    public boolean isFinishedLoading()
+    {
+        return finishedLoading;
+    }
+
     public void setFinishedLoading()
     {
         finishedLoading = true;
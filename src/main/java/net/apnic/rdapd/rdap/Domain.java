@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import net.apnic.rdapd.history.ObjectKey;
 
@@ -36,6 +37,19 @@ public class Domain
         {
             return "nameserver";
         }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof NameServer
+                && Objects.equals(ldhName, ((NameServer)o).ldhName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(ldhName);
+        }
     }
 
     private ArrayList<NameServer> nameServers = new ArrayList<NameServer>();
@@ -55,7 +69,17 @@ public class Domain
      */
     public void addNameServer(String ldhName)
     {
-        nameServers.add(new Domain.NameServer(ldhName));
+        addNameServer(new Domain.NameServer(ldhName));
+    }
+
+    /**
+     * Adds a name server to this Domain object.
+     *
+     * @param nameServer The name server
+     */
+    public void addNameServer(NameServer nameServer)
+    {
+        nameServers.add(nameServer);
     }
 
     /**
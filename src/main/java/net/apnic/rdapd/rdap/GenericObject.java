@@ -30,6 +30,8 @@ public abstract class GenericObject
     private String name = null;
     private Collection<RelatedEntity> relatedEntities;
     private ArrayNode remarks = null;
+    /* Computed on conversion, and not kept in snapshots */
+    private transient long fingerprint = 0L;
 
     /**
      * Creates a new GenericObject with the supplied key.
@@ -149,6 +151,16 @@ public abstract class GenericObject
     @JsonIgnore
     public abstract String getPathHandle();
 
+    /**
+     * {@inheritDocs}
+     */
+    @Override
+    @JsonIgnore
+    public long getFingerprint()
+    {
+        return fingerprint;
+    }
+
     @Override
     public Collection<RelatedEntity> getRelatedEntities()
     {
@@ -202,6 +214,16 @@ public abstract class GenericObject
         this.deleted = deleted;
     }
 
+    /**
+     * Sets the fingerprint of this object's content.
+     *
+     * @param fingerprint Fingerprint to set
+     */
+    public void setFingerprint(long fingerprint)
+    {
+        this.fingerprint = fingerprint;
+    }
+
     public void setEvents(List<Event> events)
     {
         this.events = events;
@@ -50,6 +50,21 @@ public interface RdapObject
         return false;
     }
 
+    /**
+     * A fingerprint of this object's own content.
+     *
+     * Objects with the same RDAP content, referencing the same entities in
+     * the same roles, have the same fingerprint.  Related entities' content
+     * is not part of it.
+     *
+     * @return the fingerprint, or zero if none is known
+     */
+    @JsonIgnore
+    default long getFingerprint()
+    {
+        return 0L;
+    }
+
     /**
      * Create a new RdapObject with the given related entities incorporated.
      *
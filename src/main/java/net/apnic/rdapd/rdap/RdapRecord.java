@@ -4,9 +4,7 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 
 import net.apnic.rdapd.history.Revision;
 
-import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.util.Optional;
 
 /**
  * One RDAP object's history record
@@ -22,11 +20,9 @@ public class RdapRecord {
         this.content = content;
     }
 
+    /* Revisions render their validity in UTC */
     public RdapRecord(Revision revision) {
-        this(revision.getValidFrom().withZoneSameInstant(ZoneOffset.UTC),
-                Optional.ofNullable(revision.getValidUntil()).map(
-                        d -> d.withZoneSameInstant(ZoneOffset.UTC)
-                ).orElse(null), revision.getContents());
+        this(revision.getValidFrom(), revision.getValidUntil(), revision.getContents());
     }
 
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss'Z'")
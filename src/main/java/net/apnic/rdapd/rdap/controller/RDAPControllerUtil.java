@@ -1,19 +1,27 @@
 package net.apnic.rdapd.rdap.controller;
 
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.servlet.http.HttpServletRequest;
 
+import net.apnic.rdapd.autnum.ASN;
+import net.apnic.rdapd.error.MalformedRequestException;
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectHistory;
 import net.apnic.rdapd.rdap.Error;
 import net.apnic.rdapd.rdap.http.RdapConstants;
+import net.apnic.rdapd.rdap.Notice;
 import net.apnic.rdapd.rdap.RdapHistory;
 import net.apnic.rdapd.rdap.RdapObject;
 import net.apnic.rdapd.rdap.RdapSearch;
 import net.apnic.rdapd.rdap.TopLevelObject;
+import net.apnic.rdapd.types.Parsing;
 
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -67,8 +75,8 @@ public class RDAPControllerUtil
         HttpServletRequest request, ObjectHistory objectHistory)
     {
         return Optional.ofNullable(objectHistory)
-            .map(RdapHistory::new)
-            .map(history -> responseMaker.makeResponse(history, request))
+            .map(history -> responseMaker.makeResponse(new RdapHistory(history), request,
+                retentionNotices(Collections.singletonList(history))))
             .map(response -> new ResponseEntity<TopLevelObject>(
                     response, responseHeaders, HttpStatus.OK))
             .orElse(new ResponseEntity<TopLevelObject>(
@@ -81,8 +89,8 @@ public class RDAPControllerUtil
         HttpServletRequest request, List<ObjectHistory> histories)
     {
         return Optional.ofNullable(histories.size() > 0 ? histories : null)
-            .map(RdapHistory::new)
-            .map(history -> responseMaker.makeResponse(history, request))
+            .map(found -> responseMaker.makeResponse(new RdapHistory(found), request,
+                retentionNotices(found)))
             .map(response -> new ResponseEntity<TopLevelObject>(
                     response, responseHeaders, HttpStatus.OK))
             .orElse(new ResponseEntity<TopLevelObject>(
@@ -91,6 +99,76 @@ public class RDAPControllerUtil
                 HttpStatus.NOT_FOUND));
     }
 
+    /*
+     * A notice naming the objects whose histories have had revisions dropped
+     * under the server's retention policy, if any have
+     */
+    private static List<Notice> retentionNotices(List<ObjectHistory> histories)
+    {
+        List<String> description = histories.stream()
+            .filter(ObjectHistory::isTruncated)
+            .map(history -> "Revisions of " + history.getObjectKey().getObjectName()
+                + " superseded before "
+                + Instant.ofEpochSecond(history.getTruncatedBefore()).atZone(ZoneOffset.UTC)
+                    .format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+                + " are not held by this server.")
+            .collect(Collectors.toList());
+        if(description.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new Notice("History Retention",
+            "object truncated due to unexplainable reasons", description, null));
+    }
+
+    /**
+     * Parse the asOf parameter of a current state request.
+     *
+     * @param asOf the parameter, if given
+     * @return The time of interest in seconds since the epoch, or null for
+     *         the present.
+     * @throws MalformedRequestException if the time cannot be parsed
+     */
+    public static Long parseAsOf(String asOf)
+    {
+        if(asOf == null)
+        {
+            return null;
+        }
+        try
+        {
+            return Parsing.parseInstant(asOf);
+        }
+        catch(Exception ex)
+        {
+            throw new MalformedRequestException(ex);
+        }
+    }
+
+    /**
+     * Parse the handle of an autnum request.
+     *
+     * @param handle the handle, with or without its AS prefix
+     * @return The ASN named
+     * @throws MalformedRequestException if the handle is not a valid ASN
+     */
+    public static long parseAutnum(String handle)
+    {
+        try
+        {
+            long asn = Long.parseLong(Parsing.parseAutnum(handle));
+            if(!ASN.isValid(asn))
+            {
+                throw new IllegalArgumentException("invalid ASN " + asn);
+            }
+            return asn;
+        }
+        catch(Exception ex)
+        {
+            throw new MalformedRequestException(ex);
+        }
+    }
+
     public ResponseEntity<TopLevelObject> singleObjectResponse(
         HttpServletRequest request, RdapObject rdapObject)
     {
@@ -35,6 +35,22 @@ public class RDAPResponseMaker
             defaultNotices, defaultPort43);
     }
 
+    /**
+     * Make a response carrying further notices after the defaults.
+     */
+    public TopLevelObject makeResponse(Object object, HttpServletRequest request,
+        List<Notice> notices)
+    {
+        if(notices.isEmpty())
+        {
+            return makeResponse(object, request);
+        }
+        return TopLevelObject.of(object,
+            Stream.concat(defaultNotices.stream(), notices.stream())
+            .collect(Collectors.toList()),
+            defaultPort43);
+    }
+
     public TopLevelObject makeTruncatedResponse(Object object,
         HttpServletRequest request)
     {
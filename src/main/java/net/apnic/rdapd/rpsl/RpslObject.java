@@ -2,8 +2,10 @@ package net.apnic.rdapd.rpsl;
 
 import net.apnic.rdapd.types.Tuple;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -16,6 +18,25 @@ public class RpslObject {
         attributes = RpslParser.parseObject(rpsl);
     }
 
+    /**
+     * An object holding only its primary attribute and the given attributes.
+     *
+     * @param rpsl the raw RPSL
+     * @param keys the attributes to keep
+     */
+    public RpslObject(byte[] rpsl, Set<String> keys) {
+        attributes = RpslParser.scanObject(rpsl, keys);
+    }
+
+    /**
+     * All attributes of the object, in order.
+     *
+     * @return The attributes, as key and value
+     */
+    public List<Tuple<String, String>> getAttributes() {
+        return Collections.unmodifiableList(attributes);
+    }
+
     /**
      * Retrieve an attribute's values
      *
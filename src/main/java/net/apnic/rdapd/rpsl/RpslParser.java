@@ -8,7 +8,10 @@ import org.codehaus.jparsec.pattern.CharPredicates;
 import org.codehaus.jparsec.pattern.Patterns;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -53,4 +56,78 @@ class RpslParser {
     static List<Tuple<String, String>> parseObject(byte[] input) {
         return RPSL_OBJECT.parse(new String(input, Charset.forName("UTF-8")));
     }
+
+    /**
+     * Scan an object for the primary attribute and the given attributes only.
+     *
+     * A line-by-line scan that reads attributes as the parser does, without
+     * the parser's cost.  Attributes not asked for are skipped over.
+     *
+     * @param input the raw RPSL
+     * @param keys the attributes to keep, besides the primary attribute
+     * @return the kept attributes, in order
+     * @throws IllegalArgumentException if a line is not an attribute
+     */
+    static List<Tuple<String, String>> scanObject(byte[] input, Set<String> keys) {
+        String text = new String(input, StandardCharsets.UTF_8);
+        List<Tuple<String, String>> attributes = new ArrayList<>();
+        String name = null;
+        StringBuilder value = null;
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end);
+            start = end + 1;
+
+            char first = line.isEmpty() ? '\n' : line.charAt(0);
+            if (first == ' ' || first == '\t' || first == '+') {
+                if (name == null) {
+                    throw new IllegalArgumentException("RPSL object starts with a continuation line");
+                }
+                if (value != null) {
+                    int from = 1;
+                    while (first != '+' && from < line.length()
+                            && (line.charAt(from) == ' ' || line.charAt(from) == '\t')) {
+                        from++;
+                    }
+                    value.append(' ').append(line, from, line.length());
+                }
+                continue;
+            }
+
+            if (value != null) {
+                attributes.add(new Tuple<>(name, value.toString()));
+            }
+            int nameEnd = 0;
+            while (nameEnd < line.length() && (CharPredicates.IS_ALPHA_NUMERIC.isChar(line.charAt(nameEnd))
+                    || line.charAt(nameEnd) == '-')) {
+                nameEnd++;
+            }
+            int colon = nameEnd;
+            while (colon < line.length() && (line.charAt(colon) == ' ' || line.charAt(colon) == '\t')) {
+                colon++;
+            }
+            if (nameEnd == 0 || colon == line.length() || line.charAt(colon) != ':') {
+                throw new IllegalArgumentException("Not an RPSL attribute: " + line);
+            }
+            boolean primary = name == null;
+            name = line.substring(0, nameEnd).toLowerCase();
+            if (primary || keys.contains(name)) {
+                int from = colon + 1;
+                while (from < line.length() && (line.charAt(from) == ' ' || line.charAt(from) == '\t')) {
+                    from++;
+                }
+                value = new StringBuilder(line.substring(from));
+            } else {
+                value = null;
+            }
+        }
+        if (value != null) {
+            attributes.add(new Tuple<>(name, value.toString()));
+        }
+        return attributes;
+    }
 }
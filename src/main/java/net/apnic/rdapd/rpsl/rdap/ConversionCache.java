@@ -0,0 +1,130 @@
+package net.apnic.rdapd.rpsl.rdap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Supplier;
+
+import net.apnic.rdapd.rdap.RdapObject;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * A bounded cache of objects converted from RPSL on demand.
+ *
+ * Revisions loaded without conversion are converted when first read, and
+ * the result is kept here so that an object read often is not converted
+ * each time.  The least recently read conversions are dropped once the
+ * cache holds its capacity.
+ *
+ * Entries are keyed by the value of the source they were converted from, so
+ * that a source decoded afresh, as from a snapshot, finds the conversion of
+ * an equal one.  Conversions run outside the cache's lock, so two readers may convert the
+ * same source at once; the later result is kept.
+ */
+public final class ConversionCache implements PublicMetrics {
+    private static final int DEFAULT_CAPACITY = 100000;
+
+    /* The cache that deferred contents convert through, wherever they were loaded */
+    private static final ConversionCache SHARED = new ConversionCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<Object, RdapObject> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int capacity;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity the most conversions the cache will hold; zero disables it
+     */
+    public ConversionCache(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * The cache shared by all deferred contents.
+     */
+    public static ConversionCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Change the number of conversions the cache holds, dropping the least
+     * recently read if it shrinks.
+     *
+     * @param capacity the most conversions the cache will hold; zero disables it
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+        trim();
+    }
+
+    /**
+     * The conversion of a source, converting it if it is not held.
+     *
+     * @param source the source converted from
+     * @param conversion converts the source
+     * @return the converted object
+     */
+    public RdapObject get(Object source, Supplier<RdapObject> conversion) {
+        synchronized (this) {
+            RdapObject converted = entries.get(source);
+            if (converted != null) {
+                hits++;
+                return converted;
+            }
+            misses++;
+        }
+        RdapObject converted = conversion.get();
+        synchronized (this) {
+            if (capacity > 0) {
+                entries.put(source, converted);
+                trim();
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * The number of conversions the cache holds.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The number of reads answered from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of reads that needed a conversion.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("loader.conversion.size", entries.size()));
+        metrics.add(new Metric<>("loader.conversion.hits", hits));
+        metrics.add(new Metric<>("loader.conversion.misses", misses));
+        return metrics;
+    }
+
+    private void trim() {
+        Iterator<Object> eldest = entries.keySet().iterator();
+        while (entries.size() > capacity) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package net.apnic.rdapd.rpsl.rdap;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.rdap.Domain;
+import net.apnic.rdapd.rdap.Role;
+
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * A pool of canonical instances of the small values that recur across
+ * converted objects.
+ *
+ * Converting a row yields fresh strings, keys and role sets even when the
+ * same values have been seen many times before.  Passing them through the
+ * pool replaces each with an equal instance already held, so that the
+ * History retains one copy.
+ *
+ * The pool holds its instances weakly, and they leave it once nothing else
+ * refers to them.  It stops admitting new instances once it holds its
+ * capacity, but keeps serving those it has.  It is meant to live as long as
+ * the loader, across refreshes.
+ *
+ * The bytes of the duplicates dropped are estimated from their shallow sizes,
+ * for a 64 bit JVM with compressed references.  They are a running total of
+ * what the pool has deduplicated, not of what it saves at any one time: a
+ * duplicate dropped may have become garbage soon after in any case.
+ */
+public final class InternPool implements PublicMetrics {
+    private static final long OBJECT_KEY_SIZE = 16;
+    private static final long NAME_SERVER_SIZE = 16;
+    private static final long ROLE_SET_SIZE = 136;
+    private static final long MAP_SIZE = 48;
+    private static final long MAP_ENTRY_SIZE = 32;
+
+    private final int capacity;
+    private final Map<Object, WeakReference<Object>> pool = new WeakHashMap<>();
+    private long hits;
+    private long bytesDeduplicated;
+
+    /**
+     * @param capacity the most instances the pool will hold; zero disables it
+     */
+    public InternPool(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * A pool that holds nothing, for converting outside a loader.
+     */
+    public static InternPool disabled() {
+        return new InternPool(0);
+    }
+
+    /**
+     * The canonical instance equal to a value.
+     *
+     * @param value the value, which must be immutable
+     * @param size the bytes dropped with the value, if a canonical copy is held
+     * @param <T> the type of value
+     * @return the canonical instance, or the value if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T intern(T value, long size) {
+        if (value == null || capacity == 0) {
+            return value;
+        }
+        WeakReference<Object> ref = pool.get(value);
+        Object canonical = ref == null ? null : ref.get();
+        if (canonical != null) {
+            hits++;
+            bytesDeduplicated += size;
+            return (T)canonical;
+        }
+        if (pool.size() < capacity) {
+            pool.put(value, new WeakReference<>(value));
+        }
+        return value;
+    }
+
+    public String string(String value) {
+        return value == null ? null : intern(value, stringSize(value));
+    }
+
+    public ObjectKey objectKey(ObjectKey key) {
+        String name = string(key.getObjectName());
+        return intern(name == key.getObjectName() ? key : new ObjectKey(key.getObjectClass(), name),
+                OBJECT_KEY_SIZE);
+    }
+
+    /**
+     * The canonical, unmodifiable set of the given roles.
+     */
+    public Set<Role> roles(Collection<Role> roles) {
+        Set<Role> copy = Collections.unmodifiableSet(roles.isEmpty()
+                ? EnumSet.noneOf(Role.class) : EnumSet.copyOf(roles));
+        return intern(copy, ROLE_SET_SIZE);
+    }
+
+    /**
+     * The canonical, unmodifiable copy of a parameter map.
+     */
+    public Map<String, String> parameters(Map<String, String> parameters) {
+        if (parameters.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        long size = MAP_SIZE;
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            size += MAP_ENTRY_SIZE + stringSize(entry.getKey()) + stringSize(entry.getValue());
+        }
+        return intern(Collections.unmodifiableMap(parameters), size);
+    }
+
+    public Domain.NameServer nameServer(String ldhName) {
+        return intern(new Domain.NameServer(string(ldhName)), NAME_SERVER_SIZE);
+    }
+
+    /**
+     * The number of instances the pool holds.
+     */
+    public synchronized int size() {
+        return pool.size();
+    }
+
+    /**
+     * The number of values replaced by a canonical instance.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The estimated bytes of all the values replaced by a canonical
+     * instance.
+     */
+    public synchronized long getBytesDeduplicated() {
+        return bytesDeduplicated;
+    }
+
+    @Override
+    public synchronized Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("loader.intern.size", pool.size()));
+        metrics.add(new Metric<>("loader.intern.hits", hits));
+        metrics.add(new Metric<>("loader.intern.bytes-deduplicated", bytesDeduplicated));
+        return metrics;
+    }
+
+    /* A String and its char array, each aligned to eight bytes */
+    private static long stringSize(String value) {
+        return value == null ? 0 : 24 + ((16 + 2L * value.length() + 7) & ~7L);
+    }
+}
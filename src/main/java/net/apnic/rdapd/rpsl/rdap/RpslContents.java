@@ -0,0 +1,108 @@
+package net.apnic.rdapd.rpsl.rdap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.rdap.RdapObject;
+
+/**
+ * An object's RDAP contents, held as compressed RPSL until they are read.
+ *
+ * Reading converts the RPSL through the {@link ConversionCache#shared()
+ * shared cache}, where contents are equal if they hold the same RPSL for the
+ * same key.  Only the compressed RPSL is serialized, so a snapshot keeps
+ * contents unconverted.
+ */
+public final class RpslContents implements Supplier<RdapObject>, Serializable {
+    private static final long serialVersionUID = 3527016411298034167L;
+
+    private final ObjectKey key;
+    private final int length;
+    private final byte[] compressed;
+
+    /* Computed when first asked for, as String does */
+    private transient int hash;
+
+    /**
+     * @param key the key of the object
+     * @param rpsl the raw RPSL of the object
+     */
+    public RpslContents(ObjectKey key, byte[] rpsl) {
+        this.key = key;
+        this.length = rpsl.length;
+        this.compressed = deflate(rpsl);
+    }
+
+    @Override
+    public RdapObject get() {
+        return ConversionCache.shared().get(this, () -> RpslToRdap.rpslToRdap(key, getRpsl()));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RpslContents)) {
+            return false;
+        }
+        RpslContents that = (RpslContents)o;
+        return length == that.length && key.equals(that.key) && Arrays.equals(compressed, that.compressed);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = 31 * key.hashCode() + Arrays.hashCode(compressed);
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * The raw RPSL of the object.
+     */
+    public byte[] getRpsl() {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] rpsl = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int inflated = inflater.inflate(rpsl, read, length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new DataFormatException("RPSL ends early");
+                }
+                read += inflated;
+            }
+            return rpsl;
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Compressed RPSL for " + key + " is corrupt", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] rpsl) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(rpsl);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(rpsl.length / 2 + 16);
+            byte[] buffer = new byte[512];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
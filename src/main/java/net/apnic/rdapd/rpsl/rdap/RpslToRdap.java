@@ -1,18 +1,32 @@
 package net.apnic.rdapd.rpsl.rdap;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -28,6 +42,7 @@ import net.apnic.rdapd.rdap.Event;
 import net.apnic.rdapd.rdap.GenericObject;
 import net.apnic.rdapd.rdap.IpNetwork;
 import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rdap.RdapObjectMapper;
 import net.apnic.rdapd.rdap.RelatedEntity;
 import net.apnic.rdapd.rdap.Role;
 import net.apnic.rdapd.rdap.VCard;
@@ -53,6 +68,20 @@ public class RpslToRdap
         DELETED_REMARKS = new ArrayNode(JsonNodeFactory.instance, Collections.singletonList(notice));
     }
 
+    /*
+     * Writes an object's own content for fingerprinting.  Related entities
+     * are fingerprinted by key and role, and links derive from the key.
+     */
+    private static final ObjectWriter FINGERPRINT_WRITER;
+    static {
+        RdapObjectMapper mapper = new RdapObjectMapper();
+        mapper.configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true);
+        mapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        mapper.setFilterProvider(new SimpleFilterProvider()
+            .addFilter("relatedEntitiesFilter", SimpleBeanPropertyFilter.serializeAllExcept("entities", "links")));
+        FINGERPRINT_WRITER = mapper.writer();
+    }
+
     private static enum EntityKey
     {
         ADMINC("admin-c", Stream.of(Role.ADMINISTRATIVE).collect(Collectors.toSet())),
@@ -80,17 +109,45 @@ public class RpslToRdap
         }
     }
 
+    /* The attributes each class's conversion reads, besides the primary attribute */
+    private static final Map<ObjectClass, Set<String>> CONVERTED_ATTRIBUTES = new EnumMap<>(ObjectClass.class);
+    static {
+        List<String> common = Arrays.asList("admin-c", "tech-c", "zone-c", "mnt-irt",
+            "last-modified", "descr", "remarks");
+        CONVERTED_ATTRIBUTES.put(ObjectClass.AUT_NUM, attributes(common, "aut-num", "as-name", "country"));
+        CONVERTED_ATTRIBUTES.put(ObjectClass.DOMAIN, attributes(common, "nserver"));
+        CONVERTED_ATTRIBUTES.put(ObjectClass.ENTITY, attributes(common, "address", "phone", "fax-no",
+            "e-mail", "abuse-mailbox", "org"));
+        CONVERTED_ATTRIBUTES.put(ObjectClass.IP_NETWORK, attributes(common, "netname", "status", "country"));
+    }
+
+    private static Set<String> attributes(List<String> common, String... specific)
+    {
+        Set<String> attributes = new HashSet<>(common);
+        attributes.addAll(Arrays.asList(specific));
+        return Collections.unmodifiableSet(attributes);
+    }
+
+    private static final List<String> EMPTY_ADDRESS =
+        Collections.unmodifiableList(Arrays.asList("", "", "", "", "", "", ""));
+    private static final TextNode KIND_INDIVIDUAL = new TextNode("individual");
+    private static final TextNode KIND_ORG = new TextNode("org");
+    private static final TextNode KIND_GROUP = new TextNode("group");
+    private static final TextNode DESCRIPTION_TITLE = new TextNode("description");
+    private static final TextNode REMARKS_TITLE = new TextNode("remarks");
+
     private static enum RpslVCardAttribute
     {
-        FORMATTED_NAME(o -> Stream.of(makeNode("fn", Collections.emptyMap(), o.getPrimaryAttribute().second()))),
+        FORMATTED_NAME((o, pool) -> Stream.of(makeNode("fn", Collections.emptyMap(),
+                pool.string(o.getPrimaryAttribute().second())))),
 
-        VCARD_KIND(o -> Stream.of(makeNode("kind", Collections.emptyMap(), getKind(o)))),
+        VCARD_KIND((o, pool) -> Stream.of(makeNode("kind", Collections.emptyMap(), getKind(o)))),
 
-        ADDRESS(o -> Stream.of(o.getAttribute("address"))
+        ADDRESS((o, pool) -> Stream.of(o.getAttribute("address"))
                 .filter(l -> !l.isEmpty())
                 .map(l -> String.join("\n", l))
-                .map(s -> Collections.singletonMap("label", s))
-                .map(p -> makeNode("adr", p, Arrays.asList("", "", "", "", "", "", "")))),
+                .map(s -> pool.parameters(Collections.singletonMap("label", s)))
+                .map(p -> makeNode("adr", p, EMPTY_ADDRESS))),
 
         PHONE_TEL("phone", "tel", Collections.singletonMap("type", "voice")),
 
@@ -102,7 +159,7 @@ public class RpslToRdap
 
         ORG("org", "org");
 
-        private final transient Function<RpslObject, Stream<VCardAttribute>> maker;
+        private final transient BiFunction<RpslObject, InternPool, Stream<VCardAttribute>> maker;
 
         RpslVCardAttribute(String attr, String property) {
             this(attr, property, Collections.emptyMap());
@@ -113,15 +170,16 @@ public class RpslToRdap
         }
 
         RpslVCardAttribute(String attr, String property, Function<String, Map<String, String>> parameters) {
-            this(o -> o.getAttribute(attr).stream().map(v -> makeNode(property, parameters.apply(v), v)));
+            this((o, pool) -> o.getAttribute(attr).stream()
+                    .map(v -> makeNode(property, parameters.apply(v), pool.string(v))));
         }
 
-        RpslVCardAttribute(Function<RpslObject, Stream<VCardAttribute>> maker) {
+        RpslVCardAttribute(BiFunction<RpslObject, InternPool, Stream<VCardAttribute>> maker) {
             this.maker = maker;
         }
 
-        private Stream<VCardAttribute> getProperty(RpslObject rpslObject) {
-            return maker.apply(rpslObject);
+        private Stream<VCardAttribute> getProperty(RpslObject rpslObject, InternPool pool) {
+            return maker.apply(rpslObject, pool);
         }
 
         private static VCardAttribute makeNode(String key, Map<String, String> params, Object value) {
@@ -131,11 +189,11 @@ public class RpslToRdap
         private static TextNode getKind(RpslObject rpslObject) {
             switch (rpslObject.getPrimaryAttribute().first()) {
                 case "person":
-                    return new TextNode("individual");
+                    return KIND_INDIVIDUAL;
                 case "org":
-                    return new TextNode("org");
+                    return KIND_ORG;
                 default:
-                    return new TextNode("group");
+                    return KIND_GROUP;
             }
         }
     }
@@ -156,7 +214,7 @@ public class RpslToRdap
      * @param rpsl Raw RPSL data
      * @return Autnum object
      */
-    private static AutNum autnumFromRpsl(ObjectKey key, byte[] rpsl)
+    private static AutNum autnumFromRpsl(ObjectKey key, byte[] rpsl, InternPool pool)
     {
         AutNum rval = new AutNum(key);
 
@@ -167,15 +225,15 @@ public class RpslToRdap
 
         Tuple<String, String> autnumSE = parseAutnumRange(key);
         RpslObject rpslObject = new RpslObject(rpsl);
-        rval.setRelatedEntities(getRelatedEntities(rpslObject));
+        rval.setRelatedEntities(getRelatedEntities(rpslObject, pool));
         rval.setASNInterval(autnumSE.first(), autnumSE.second());
         rpslObject.getAttributeFirstValue("aut-num")
-            .ifPresent(s -> rval.setHandle(s));
+            .ifPresent(s -> rval.setHandle(pool.string(s)));
         rpslObject.getAttributeFirstValue("as-name")
-            .ifPresent(s -> rval.setName(s));
+            .ifPresent(s -> rval.setName(pool.string(s)));
         rpslObject.getAttributeFirstValue("country")
-            .ifPresent(s -> rval.setCountry(s));
-        rval.setEvents(getEvents(rpslObject));
+            .ifPresent(s -> rval.setCountry(pool.string(s)));
+        rval.setEvents(getEvents(rpslObject, pool));
         rval.setRemarks(getRemarks(rpslObject));
 
         return rval;
@@ -188,7 +246,7 @@ public class RpslToRdap
      * @param rpsl Raw RPSL data
      * @return Domain object
      */
-    private static Domain domainFromRpsl(ObjectKey key, byte[] rpsl)
+    private static Domain domainFromRpsl(ObjectKey key, byte[] rpsl, InternPool pool)
     {
         Domain rval = new Domain(key);
 
@@ -198,10 +256,10 @@ public class RpslToRdap
         }
 
         RpslObject rpslObject = new RpslObject(rpsl);
-        rval.setRelatedEntities(getRelatedEntities(rpslObject));
+        rval.setRelatedEntities(getRelatedEntities(rpslObject, pool));
         rpslObject.getAttribute("nserver").stream()
-            .forEach(fqdn -> rval.addNameServer(fqdn));
-        rval.setEvents(getEvents(rpslObject));
+            .forEach(fqdn -> rval.addNameServer(pool.nameServer(fqdn)));
+        rval.setEvents(getEvents(rpslObject, pool));
         rval.setRemarks(getRemarks(rpslObject));
 
         return rval;
@@ -214,7 +272,7 @@ public class RpslToRdap
      * @param rpsl Raw RPSL data
      * @return Entity object
      */
-    private static Entity entityFromRpsl(ObjectKey key, byte[] rpsl)
+    private static Entity entityFromRpsl(ObjectKey key, byte[] rpsl, InternPool pool)
     {
         Entity rval = new Entity(key);
 
@@ -227,11 +285,11 @@ public class RpslToRdap
         RpslObject rpslObject = new RpslObject(rpsl);
         EnumSet.allOf(RpslVCardAttribute.class)
             .stream()
-            .flatMap(a -> a.getProperty(rpslObject))
+            .flatMap(a -> a.getProperty(rpslObject, pool))
             .forEach(vCard::addAttribute);
-        rval.setRelatedEntities(getRelatedEntities(rpslObject));
+        rval.setRelatedEntities(getRelatedEntities(rpslObject, pool));
         rval.setVCard(vCard);
-        rval.setEvents(getEvents(rpslObject));
+        rval.setEvents(getEvents(rpslObject, pool));
         rval.setRemarks(getRemarks(rpslObject));
 
         return rval;
@@ -244,7 +302,8 @@ public class RpslToRdap
         return rdapObject;
     }
 
-    private static Collection<RelatedEntity> getRelatedEntities(RpslObject rpslObject)
+    private static Collection<RelatedEntity> getRelatedEntities(RpslObject rpslObject,
+                                                                InternPool pool)
     {
         HashMap<ObjectKey, RelatedEntity> entities = new HashMap();
         for(EntityKey val : EntityKey.values())
@@ -252,21 +311,23 @@ public class RpslToRdap
             rpslObject.getAttribute(val.getRpslKey()).stream()
                 .forEach(handle ->
                 {
-                    ObjectKey oKey = new ObjectKey(ObjectClass.ENTITY, handle);
+                    ObjectKey oKey = pool.objectKey(new ObjectKey(ObjectClass.ENTITY, handle));
                     RelatedEntity rEntity =
                         entities.getOrDefault(oKey, new RelatedEntity(oKey));
                     rEntity.addRoles(val.getRoles());
                     entities.put(oKey, rEntity);
                 });
         }
-        return entities.values();
+        return entities.values().stream()
+            .map(e -> new RelatedEntity(e.getObjectKey(), pool.roles(e.getRoles())))
+            .collect(Collectors.toList());
     }
 
-    private static List<Event> getEvents(RpslObject rpslObject)
+    private static List<Event> getEvents(RpslObject rpslObject, InternPool pool)
     {
         return rpslObject.getAttributeFirstValue("last-modified")
             .map(val -> Arrays.asList(
-                new Event(Event.EventAction.LAST_CHANGED, val)))
+                new Event(Event.EventAction.LAST_CHANGED, pool.string(val))))
             .orElse(Collections.emptyList());
     }
 
@@ -282,7 +343,7 @@ public class RpslToRdap
                             .collect(Collectors.toList());
                     if (notes.isEmpty()) return Stream.empty();
                     Map<String, JsonNode> kids = new HashMap<>();
-                    kids.put("title", new TextNode(a));
+                    kids.put("title", a.equals("description") ? DESCRIPTION_TITLE : REMARKS_TITLE);
                     kids.put("description", new ArrayNode(JsonNodeFactory.instance, notes));
                     return Stream.of(new ObjectNode(JsonNodeFactory.instance, kids));
                 }).collect(Collectors.toList());
@@ -296,7 +357,7 @@ public class RpslToRdap
      * @param rpsl Raw RPSL data
      * @return IpNetwork object
      */
-    private static IpNetwork ipNetworkFromRpsl(ObjectKey key, byte[] rpsl)
+    private static IpNetwork ipNetworkFromRpsl(ObjectKey key, byte[] rpsl, InternPool pool)
     {
         IpInterval ipInterval = Parsing.parseInterval(key.getObjectName());
         IpNetwork rval = new IpNetwork(key, ipInterval);
@@ -307,14 +368,14 @@ public class RpslToRdap
         }
 
         RpslObject rpslObject = new RpslObject(rpsl);
-        rval.setRelatedEntities(getRelatedEntities(rpslObject));
+        rval.setRelatedEntities(getRelatedEntities(rpslObject, pool));
         rpslObject.getAttributeFirstValue("netname")
-            .ifPresent(s -> rval.setName(s));
+            .ifPresent(s -> rval.setName(pool.string(s)));
         rpslObject.getAttributeFirstValue("status")
-            .ifPresent(s -> rval.setType(s));
+            .ifPresent(s -> rval.setType(pool.string(s)));
         rpslObject.getAttributeFirstValue("country")
-            .ifPresent(s -> rval.setCountry(s));
-        rval.setEvents(getEvents(rpslObject));
+            .ifPresent(s -> rval.setCountry(pool.string(s)));
+        rval.setEvents(getEvents(rpslObject, pool));
         rval.setRemarks(getRemarks(rpslObject));
 
         return rval;
@@ -357,23 +418,156 @@ public class RpslToRdap
      */
     public static RdapObject rpslToRdap(ObjectKey key, byte[] rpsl)
     {
+        return rpslToRdap(key, rpsl, InternPool.disabled());
+    }
+
+    /**
+     * Translates the supplied rpsl and key to an appropriate RdapObject,
+     * sharing recurring values through a pool.
+     *
+     * @param key ObjectKey describing the rpsl object to be converted
+     * @param rpsl Raw RPSL data
+     * @param pool Pool of canonical instances of recurring values
+     * @return Translated RdapObject
+     */
+    public static RdapObject rpslToRdap(ObjectKey key, byte[] rpsl, InternPool pool)
+    {
+        key = pool.objectKey(key);
+        GenericObject rval;
+        switch(key.getObjectClass())
+        {
+        case AUT_NUM:
+            rval = autnumFromRpsl(key, rpsl, pool);
+            break;
+
+        case DOMAIN:
+            rval = domainFromRpsl(key, rpsl, pool);
+            break;
+
+        case ENTITY:
+            rval = entityFromRpsl(key, rpsl, pool);
+            break;
+
+        case IP_NETWORK:
+            rval = ipNetworkFromRpsl(key, rpsl, pool);
+            break;
+
+        default:
+            throw new RuntimeException("Unsupported object class " +
+                key.getObjectClass());
+        }
+        rval.setFingerprint(fingerprint(rval));
+        return rval;
+    }
+
+    /**
+     * Summarises the supplied rpsl for indexing, without converting it.
+     *
+     * The summary holds the object's key, interval, related entities and
+     * deletion state, and an entity's formatted name.  Only the attributes
+     * the conversion reads are scanned, but the fingerprint is taken over
+     * the whole of the RPSL, so that no change to the object is mistaken
+     * for a repeat of its last revision.  It is not equal to the converted
+     * object's fingerprint.
+     *
+     * @param key ObjectKey describing the rpsl object to be summarised
+     * @param rpsl Raw RPSL data
+     * @param pool Pool of canonical instances of recurring values
+     * @return A partial RdapObject
+     */
+    public static RdapObject summarise(ObjectKey key, byte[] rpsl, InternPool pool)
+    {
+        if(rpsl.length == 0)
+        {
+            return rpslToRdap(key, rpsl, pool);
+        }
+
+        key = pool.objectKey(key);
+        RpslObject rpslObject = new RpslObject(rpsl, CONVERTED_ATTRIBUTES.getOrDefault(
+            key.getObjectClass(), Collections.emptySet()));
+        GenericObject rval;
         switch(key.getObjectClass())
         {
         case AUT_NUM:
-            return autnumFromRpsl(key, rpsl);
+            Tuple<String, String> autnumSE = parseAutnumRange(key);
+            AutNum autnum = new AutNum(key);
+            autnum.setASNInterval(autnumSE.first(), autnumSE.second());
+            rval = autnum;
+            break;
 
         case DOMAIN:
-            return domainFromRpsl(key, rpsl);
+            rval = new Domain(key);
+            break;
 
         case ENTITY:
-            return entityFromRpsl(key, rpsl);
+            VCard vCard = new VCard();
+            RpslVCardAttribute.FORMATTED_NAME.getProperty(rpslObject, pool)
+                .forEach(vCard::addAttribute);
+            Entity entity = new Entity(key);
+            entity.setVCard(vCard);
+            rval = entity;
+            break;
 
         case IP_NETWORK:
-            return ipNetworkFromRpsl(key, rpsl);
+            rval = new IpNetwork(key, Parsing.parseInterval(key.getObjectName()));
+            break;
 
         default:
             throw new RuntimeException("Unsupported object class " +
                 key.getObjectClass());
         }
+        rval.setRelatedEntities(getRelatedEntities(rpslObject, pool));
+        rval.setFingerprint(fingerprint(rpsl));
+        return rval;
+    }
+
+    /* The leading 64 bits of a SHA-256 digest of the RPSL, never zero */
+    private static long fingerprint(byte[] rpsl)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(rpsl);
+            long fingerprint = ByteBuffer.wrap(digest.digest()).getLong();
+            return fingerprint == 0L ? 1L : fingerprint;
+        }
+        catch(NoSuchAlgorithmException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Computes a stable fingerprint of an object's RDAP content.
+     *
+     * @param rdapObject Object to fingerprint
+     * @return The leading 64 bits of a SHA-256 digest of the content, never
+     *         zero
+     */
+    static long fingerprint(GenericObject rdapObject)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(FINGERPRINT_WRITER.writeValueAsBytes(rdapObject));
+            digest.update((byte)(rdapObject.isDeleted() ? 1 : 0));
+            rdapObject.getRelatedEntities().stream()
+                .sorted(Comparator.comparing(e -> e.getObjectKey().toString()))
+                .forEach(e ->
+                {
+                    digest.update(e.getObjectKey().toString().getBytes(StandardCharsets.UTF_8));
+                    e.getRoles().stream()
+                        .map(Role::name)
+                        .sorted()
+                        .forEach(role -> digest.update(role.getBytes(StandardCharsets.UTF_8)));
+                    digest.update((byte)0);
+                });
+            long fingerprint = ByteBuffer.wrap(digest.digest()).getLong();
+            return fingerprint == 0L ? 1L : fingerprint;
+        }
+        catch(NoSuchAlgorithmException | JsonProcessingException ex)
+        {
+            throw new RuntimeException(ex);
+        }
     }
 }
@@ -1,8 +1,15 @@
 package net.apnic.rdapd.search;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectKey;
@@ -46,6 +53,130 @@ public class SearchEngine
         });
     }
 
+    /**
+     * Commit every index, as reflecting a registry serial.
+     */
+    public void commit(long serial)
+    {
+        indexes.forEach((ignore1, value) ->
+        {
+            value.forEach((ignore2, index) -> index.commit(serial));
+        });
+    }
+
+    /**
+     * Write the last commit of every index to a directory, replacing what
+     * it held once all are written.
+     */
+    public void writeIndexes(Path target)
+        throws IOException
+    {
+        Path partial = target.resolveSibling(target.getFileName() + ".partial");
+        deleteTree(partial);
+        try
+        {
+            for(SearchIndex index : allIndexes())
+            {
+                index.writeTo(partial.resolve(directoryName(index)));
+            }
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            deleteTree(partial);
+            throw ex;
+        }
+        deleteTree(target);
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restore every index from a directory written with writeIndexes.
+     *
+     * Indexes committed after the serial are restored too: the mappings
+     * put since are put again as the History catches up, and putting a
+     * mapping twice is harmless.
+     *
+     * @param source the directory written
+     * @param serial the serial of the History the indexes are restored with
+     * @return whether every index was restored to at least the serial; if
+     *         not, the indexes must be rebuilt
+     */
+    public boolean readIndexes(Path source, long serial)
+        throws IOException
+    {
+        for(SearchIndex index : allIndexes())
+        {
+            if(index.readFrom(source.resolve(directoryName(index))) < serial)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move indexes written with writeIndexes, replacing any at the target.
+     * If there are none to move, those at the target are deleted, so that
+     * the target never holds indexes written for another snapshot.
+     */
+    public static void moveIndexes(Path source, Path target)
+        throws IOException
+    {
+        deleteTree(target);
+        if(Files.exists(source))
+        {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Delete indexes written with writeIndexes, if there are any.
+     */
+    public static void deleteIndexes(Path target)
+        throws IOException
+    {
+        deleteTree(target);
+    }
+
+    private Iterable<SearchIndex> allIndexes()
+    {
+        return () -> indexes.values().stream()
+            .flatMap(cIndex -> cIndex.values().stream())
+            .iterator();
+    }
+
+    private static String directoryName(SearchIndex index)
+    {
+        return index.getIndexClass().name() + "-" + index.getIndexAttribute();
+    }
+
+    private static void deleteTree(Path root)
+        throws IOException
+    {
+        if(Files.exists(root) == false)
+        {
+            return;
+        }
+        try(Stream<Path> paths = Files.walk(root))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path ->
+            {
+                try
+                {
+                    Files.delete(path);
+                }
+                catch(IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+        catch(UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+    }
+
     public SearchResponse getObjectsForKey(ObjectSearchKey objectSearchKey)
     {
         return Optional.ofNullable(indexes.get(objectSearchKey.getObjectClass()))
@@ -1,5 +1,8 @@
 package net.apnic.rdapd.search;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectKey;
 import net.apnic.rdapd.history.ObjectSearchKey;
@@ -12,6 +15,14 @@ public interface SearchIndex
 {
     default void commit() {};
 
+    /**
+     * Commit the mappings put so far, as reflecting a registry serial.
+     */
+    default void commit(long serial)
+    {
+        commit();
+    }
+
     String getIndexAttribute();
 
     ObjectClass getIndexClass();
@@ -20,4 +31,28 @@ public interface SearchIndex
                                     int limit);
 
     void putMapping(Revision revision, ObjectKey objectKey);
+
+    /**
+     * Write the last committed mappings to a directory.
+     *
+     * @return the serial the written mappings reflect, or -1 if this index
+     *         is not persisted
+     */
+    default long writeTo(Path directory)
+        throws IOException
+    {
+        return -1L;
+    }
+
+    /**
+     * Replace the mappings held with those written to a directory.
+     *
+     * @return the serial the restored mappings reflect, or -1 if nothing
+     *         was restored
+     */
+    default long readFrom(Path directory)
+        throws IOException
+    {
+        return -1L;
+    }
 }
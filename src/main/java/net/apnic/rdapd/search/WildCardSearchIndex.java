@@ -1,7 +1,11 @@
 package net.apnic.rdapd.search;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectKey;
@@ -14,30 +18,42 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.RAMDirectory;
 
 /**
  * Simple wild card search index that supports the operations outline in the
  * RDAP spec.
+ *
+ * Each commit records the registry serial its mappings reflect.  The last
+ * commit can be copied out beside a snapshot while mappings are still being
+ * put, and read back in place of the mappings held.
  */
 public class WildCardSearchIndex
     implements SearchIndex
 {
     private static final String ID_FIELD_ID = "__id";
     private static final String KEY_FIELD_ID = "__key";
+    private static final String SERIAL_DATA = "serial";
 
     private Directory directory = null;
     private final IndexExtractor<String> extractor;
     private final String indexAttribute;
     private final ObjectClass indexClass;
-    private IndexWriter indexWriter = null;
+    private volatile IndexWriter indexWriter = null;
+    /* Keeps a commit's files from being deleted while they are copied out */
+    private SnapshotDeletionPolicy commits = null;
 
     public WildCardSearchIndex(ObjectClass indexClass, String indexAttribute,
                                IndexExtractor<String> extractor)
@@ -45,7 +61,7 @@ public class WildCardSearchIndex
         this.extractor = extractor;
         this.indexAttribute = indexAttribute;
         this.indexClass = indexClass;
-        setupIndex();
+        setupIndex(new RAMDirectory());
     }
 
     @Override
@@ -61,6 +77,14 @@ public class WildCardSearchIndex
         }
     }
 
+    @Override
+    public void commit(long serial)
+    {
+        indexWriter.setLiveCommitData(Collections.singletonMap(
+            SERIAL_DATA, Long.toString(serial)).entrySet());
+        commit();
+    }
+
     @Override
     public String getIndexAttribute()
     {
@@ -123,15 +147,80 @@ public class WildCardSearchIndex
         }
     }
 
-    private void setupIndex()
+    @Override
+    public long writeTo(Path target)
+        throws IOException
+    {
+        IndexCommit commit = commits.snapshot();
+        try
+        {
+            Files.createDirectories(target);
+            try(Directory out = FSDirectory.open(target))
+            {
+                for(String file : commit.getFileNames())
+                {
+                    out.copyFrom(directory, file, file, IOContext.DEFAULT);
+                }
+                out.sync(commit.getFileNames());
+            }
+            return serialOf(commit);
+        }
+        finally
+        {
+            commits.release(commit);
+            indexWriter.deleteUnusedFiles();
+        }
+    }
+
+    @Override
+    public long readFrom(Path source)
+        throws IOException
+    {
+        if(Files.isDirectory(source) == false)
+        {
+            return -1L;
+        }
+        RAMDirectory restored;
+        try(FSDirectory in = FSDirectory.open(source))
+        {
+            if(DirectoryReader.indexExists(in) == false)
+            {
+                return -1L;
+            }
+            restored = new RAMDirectory(in, IOContext.READONCE);
+        }
+        List<IndexCommit> restoredCommits = DirectoryReader.listCommits(restored);
+        long serial = serialOf(restoredCommits.get(restoredCommits.size() - 1));
+
+        IndexWriter previous = indexWriter;
+        setupIndex(restored);
+        previous.close();
+        return serial;
+    }
+
+    private static long serialOf(IndexCommit commit)
+        throws IOException
+    {
+        String serial = commit.getUserData().get(SERIAL_DATA);
+        return serial == null ? -1L : Long.parseLong(serial);
+    }
+
+    private void setupIndex(Directory indexDirectory)
     {
-        directory = new RAMDirectory();
+        SnapshotDeletionPolicy indexCommits =
+            new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
         IndexWriterConfig iwConfig = new IndexWriterConfig(new KeywordAnalyzer());
         iwConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        iwConfig.setIndexDeletionPolicy(indexCommits);
 
         try
         {
-            indexWriter = new IndexWriter(directory, iwConfig);
+            IndexWriter writer = new IndexWriter(indexDirectory, iwConfig);
+            // There is always a commit to copy out, if an empty one
+            writer.commit();
+            directory = indexDirectory;
+            commits = indexCommits;
+            indexWriter = writer;
         }
         catch(IOException ex)
         {
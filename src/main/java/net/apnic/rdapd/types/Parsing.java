@@ -3,6 +3,9 @@ package net.apnic.rdapd.types;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.UnknownHostException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.OptionalInt;
 
 import org.codehaus.jparsec.Parser;
@@ -143,4 +146,22 @@ public final class Parsing {
             throw new RuntimeException("Could not parse address " + thing, e);
         }
     }
+
+    /**
+     * Parse an instant, given as an ISO-8601 date-time with an offset, or as
+     * a date, which is taken as the start of that day in UTC.
+     *
+     * @param thing the text to parse
+     * @return the instant, in seconds since the epoch
+     */
+    public static long parseInstant(String thing) {
+        try {
+            if (thing.indexOf('T') < 0) {
+                return LocalDate.parse(thing).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+            }
+            return OffsetDateTime.parse(thing).toEpochSecond();
+        } catch (Exception e) {
+            throw new RuntimeException("Could not parse time " + thing, e);
+        }
+    }
 }
@@ -4,7 +4,6 @@ import java.util.Collections;
 import java.util.Optional;
 import java.util.stream.Stream;
 
-import net.apnic.rdapd.autnum.ASN;
 import net.apnic.rdapd.autnum.AutNumSearchService;
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.rdap.controller.RDAPControllerTesting;
@@ -16,7 +15,7 @@ import org.junit.runner.RunWith;
 import org.junit.Test;
 
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -49,7 +48,7 @@ public class AutnumHistoryRouteControllerTest
     public void indexLookupHasResults()
         throws Exception
     {
-        given(autnumSearchService.findHistory(any(ASN.class))).willReturn(
+        given(autnumSearchService.findHistory(anyLong())).willReturn(
             Optional.of(RDAPControllerTesting.testObjectHistory()));
 
         mvc.perform(get("/history/autnum/1234"))
@@ -73,7 +72,7 @@ public class AutnumHistoryRouteControllerTest
     public void indexLookupDoesNotSupportASPrefix()
         throws Exception
     {
-        given(autnumSearchService.findHistory(any(ASN.class))).willReturn(
+        given(autnumSearchService.findHistory(anyLong())).willReturn(
             Optional.of(RDAPControllerTesting.testObjectHistory()));
 
         mvc.perform(get("/history/autnum/AS1234"))
@@ -85,7 +84,7 @@ public class AutnumHistoryRouteControllerTest
     public void malformedRequest()
         throws Exception
     {
-        given(autnumSearchService.findHistory(any(ASN.class))).willReturn(
+        given(autnumSearchService.findHistory(anyLong())).willReturn(
             Optional.empty());
 
         mvc.perform(get("/history/autnum/notanint"))
@@ -110,7 +109,7 @@ public class AutnumHistoryRouteControllerTest
     public void noSearchResultsIsNotFoundRDAPResponse()
         throws Exception
     {
-        given(autnumSearchService.findHistory(any(ASN.class))).willReturn(
+        given(autnumSearchService.findHistory(anyLong())).willReturn(
             Optional.empty());
 
         mvc.perform(get("/history/autnum/1234"))
@@ -122,7 +121,7 @@ public class AutnumHistoryRouteControllerTest
     public void runtimeExceptionIs500()
         throws Exception
     {
-        given(autnumSearchService.findHistory(any(ASN.class))).willThrow(
+        given(autnumSearchService.findHistory(anyLong())).willThrow(
             new RuntimeException("Test exception"));
 
         mvc.perform(get("/history/autnum/1234"))
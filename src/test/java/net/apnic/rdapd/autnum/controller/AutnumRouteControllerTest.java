@@ -4,7 +4,6 @@ import java.util.Collections;
 import java.util.Optional;
 import java.util.stream.Stream;
 
-import net.apnic.rdapd.autnum.ASN;
 import net.apnic.rdapd.autnum.AutNumSearchService;
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.rdap.controller.RDAPControllerTesting;
@@ -16,7 +15,7 @@ import org.junit.runner.RunWith;
 import org.junit.Test;
 
 import static org.mockito.BDDMockito.given;
-import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
@@ -49,7 +48,7 @@ public class AutnumRouteControllerTest
     public void indexLookupHasResults()
         throws Exception
     {
-        given(autnumSearchService.findCurrent(any(ASN.class))).willReturn(
+        given(autnumSearchService.findCurrent(anyLong())).willReturn(
             Optional.of(RDAPControllerTesting.testAutNumObject()));
 
         mvc.perform(get("/autnum/1234"))
@@ -79,7 +78,7 @@ public class AutnumRouteControllerTest
     public void indexLookupDoesNotSupportASPrefix()
         throws Exception
     {
-        given(autnumSearchService.findCurrent(any(ASN.class))).willReturn(
+        given(autnumSearchService.findCurrent(anyLong())).willReturn(
             Optional.of(RDAPControllerTesting.testAutNumObject()));
 
         mvc.perform(get("/autnum/AS1234"))
@@ -95,7 +94,7 @@ public class AutnumRouteControllerTest
     public void indexLookupDoesNotSupportASRanges()
         throws Exception
     {
-        given(autnumSearchService.findCurrent(any(ASN.class))).willReturn(
+        given(autnumSearchService.findCurrent(anyLong())).willReturn(
             Optional.of(RDAPControllerTesting.testAutNumObject()));
 
         mvc.perform(get("/autnum/123-1234"))
@@ -115,7 +114,7 @@ public class AutnumRouteControllerTest
     public void malformedRequest()
         throws Exception
     {
-        given(autnumSearchService.findCurrent(any(ASN.class))).willReturn(
+        given(autnumSearchService.findCurrent(anyLong())).willReturn(
             Optional.empty());
 
         mvc.perform(get("/autnum/notanint"))
@@ -156,7 +155,7 @@ public class AutnumRouteControllerTest
     public void noSearchResultsIsNotFoundRDAPResponse()
         throws Exception
     {
-        given(autnumSearchService.findCurrent(any(ASN.class))).willReturn(
+        given(autnumSearchService.findCurrent(anyLong())).willReturn(
             Optional.empty());
 
         mvc.perform(get("/autnum/1234"))
@@ -172,7 +171,7 @@ public class AutnumRouteControllerTest
     public void runtimeExceptionIs500()
         throws Exception
     {
-        given(autnumSearchService.findCurrent(any(ASN.class))).willThrow(
+        given(autnumSearchService.findCurrent(anyLong())).willThrow(
             new RuntimeException("Test exception"));
 
         mvc.perform(get("/autnum/1234"))
@@ -8,6 +8,7 @@ import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectHistory;
 import net.apnic.rdapd.history.ObjectIndex;
 import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.history.Revision;
 import net.apnic.rdapd.rdap.controller.RDAPControllerTesting;
 import net.apnic.rdapd.rdap.controller.RDAPResponseMaker;
 
@@ -50,8 +51,8 @@ public class DomainRouteControllerTest
     public void indexLookupHasResults()
         throws Exception
     {
-        given(objectIndex.historyForObject(any(ObjectKey.class))).willReturn(
-            Optional.of(RDAPControllerTesting.testObjectHistory()));
+        given(objectIndex.currentObject(any(ObjectKey.class))).willReturn(
+            RDAPControllerTesting.testObjectHistory().mostCurrent().map(Revision::getContents));
 
         mvc.perform(get("/domain/1.2.3.10.in-addr.arpa"))
             .andExpect(status().isOk())
@@ -74,7 +75,7 @@ public class DomainRouteControllerTest
     public void runtimeExceptionIs500()
         throws Exception
     {
-        given(objectIndex.historyForObject(any(ObjectKey.class)))
+        given(objectIndex.currentObject(any(ObjectKey.class)))
             .willThrow(new RuntimeException("Test Exception"));
 
         mvc.perform(get("/domain/1.2.3.10.in-addr.arpa"))
@@ -100,7 +101,7 @@ public class DomainRouteControllerTest
     public void noResultFound()
         throws Exception
     {
-        given(objectIndex.historyForObject(any(ObjectKey.class)))
+        given(objectIndex.currentObject(any(ObjectKey.class)))
             .willReturn(Optional.empty());
 
         mvc.perform(get("/domain/1.2.3.10.in-addr.arpa"))
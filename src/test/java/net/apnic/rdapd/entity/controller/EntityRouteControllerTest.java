@@ -1,12 +1,10 @@
 package net.apnic.rdapd.entity.controller;
 
-import java.time.ZonedDateTime;
 import java.util.Collections;
 import java.util.Optional;
 import java.util.stream.Stream;
 
 import net.apnic.rdapd.history.ObjectClass;
-import net.apnic.rdapd.history.ObjectHistory;
 import net.apnic.rdapd.history.ObjectIndex;
 import net.apnic.rdapd.history.ObjectKey;
 
@@ -58,8 +56,8 @@ public class EntityRouteControllerTest
     public void indexLookupHasResults()
         throws Exception
     {
-        given(objectIndex.historyForObject(any(ObjectKey.class))).willReturn(
-            Optional.of(RDAPControllerTesting.testObjectHistory()));
+        given(objectIndex.currentObject(any(ObjectKey.class))).willReturn(
+            RDAPControllerTesting.testObjectHistory().mostCurrent().map(Revision::getContents));
 
         mvc.perform(get("/entity/ABC123"))
             .andExpect(status().isOk())
@@ -74,7 +72,7 @@ public class EntityRouteControllerTest
     public void runtimeExceptionIs500()
         throws Exception
     {
-        given(objectIndex.historyForObject(any(ObjectKey.class)))
+        given(objectIndex.currentObject(any(ObjectKey.class)))
             .willThrow(new RuntimeException("Test Exception"));
 
         mvc.perform(get("/entity/ABC123"))
@@ -91,7 +89,7 @@ public class EntityRouteControllerTest
     public void noResultFound()
         throws Exception
     {
-        given(objectIndex.historyForObject(any(ObjectKey.class)))
+        given(objectIndex.currentObject(any(ObjectKey.class)))
             .willReturn(Optional.empty());
 
         mvc.perform(get("/entity/ABC123"))
@@ -110,14 +108,8 @@ public class EntityRouteControllerTest
         ObjectKey objectKey = new ObjectKey(ObjectClass.ENTITY, "super-mnt");
         RdapObject rdapObject = new RpslToRdap()
             .apply(objectKey, "mntner:  Super Mnt\nhandle: super-mnt\nauth: CRYPT-PW  secretpass\n".getBytes());
-        Revision revision = new Revision(
-                ZonedDateTime.parse("2017-10-18T14:47:31.023+10:00"),
-                null,
-                rdapObject);
-        ObjectHistory objectHistory = new ObjectHistory(objectKey).appendRevision(revision);
-
-        given(objectIndex.historyForObject(any(ObjectKey.class)))
-            .willReturn(Optional.of(objectHistory));
+        given(objectIndex.currentObject(any(ObjectKey.class)))
+            .willReturn(Optional.of(rdapObject));
 
         MvcResult result = mvc.perform(get("/entity/ABC123"))
             .andExpect(status().isOk())
@@ -1,11 +1,18 @@
 package net.apnic.rdapd.history;
 
 import java.io.*;
+import java.time.Clock;
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import static org.hamcrest.Matchers.*;
 
@@ -13,8 +20,10 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
+import net.apnic.rdapd.rdap.AutNum;
 import net.apnic.rdapd.rdap.RdapObject;
 import net.apnic.rdapd.rdap.RelatedEntity;
+import net.apnic.rdapd.types.Tuple;
 
 public class HistoryTest {
     private static final ObjectKey DNS_KEY = new ObjectKey(ObjectClass.DOMAIN, "1.0.0.127.in-addr.arpa");
@@ -45,12 +54,8 @@ public class HistoryTest {
         assertTrue("History contains DNS key", obj.isPresent());
         assertTrue("The history has a revision",
                 obj.flatMap(ObjectHistory::mostRecent).isPresent());
-        assertThat("The revision's object hasn't been updated",
-                obj.flatMap(ObjectHistory::mostRecent)
-                        .map(Revision::getContents)
-                        .filter((RdapObject o) -> o instanceof StaticObject)
-                        .map(o -> ((StaticObject)o).getUpdatedTimes()),
-                is(equalTo(Optional.of(0))));
+        assertThat("The revision's related entity is unknown",
+                relatedObject(obj), is(equalTo(Optional.empty())));
 
         // And the linkages of related objects should have survived, too
         history.addRevision(WHO_KEY, new Revision(
@@ -63,19 +68,208 @@ public class HistoryTest {
                 is(iterableWithSize(2)));
         assertTrue("The history has a most recent revision",
                 obj.flatMap(ObjectHistory::mostRecent).isPresent());
-        assertThat("The revision's object has been updated",
-                obj.flatMap(ObjectHistory::mostRecent)
-                        .map(Revision::getContents)
-                        .filter((RdapObject o) -> o instanceof StaticObject)
-                        .map(o -> ((StaticObject)o).getUpdatedTimes()),
-                is(equalTo(Optional.of(1))));
+        assertThat("The revision's related entity has been resolved",
+                relatedObject(obj), is(equalTo(Optional.of(WHO_OBJECT))));
+    }
+
+    @Test
+    public void testSerializeKeepsAutNums() throws IOException, ClassNotFoundException {
+        ObjectKey asKey = new ObjectKey(ObjectClass.AUT_NUM, "AS4608");
+        AutNum autNum = new AutNum(asKey);
+        autNum.setASNInterval("4608", "4608");
+        History history = new History();
+        history.addRevision(asKey, new Revision(
+                ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, autNum));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(history);
+        oos.close();
+        History restored = new History();
+        restored.deserialize((History) new ObjectInputStream(
+                new ByteArrayInputStream(baos.toByteArray())).readObject());
+
+        assertThat("The autnum is indexed after a restore",
+                restored.getAutNumIndex().mostSpecific(4608L, k -> true), is(Optional.of(asKey)));
+    }
+
+    @Test
+    public void batchMatchesSequentialRevisions() {
+        ObjectKey asKey = new ObjectKey(ObjectClass.AUT_NUM, "AS4608");
+        AutNum autNum = new AutNum(asKey);
+        autNum.setASNInterval("4608", "4608");
+        List<Tuple<ObjectKey, Revision>> revisions = Arrays.asList(
+                new Tuple<>(DNS_KEY, new Revision(
+                        ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault()),
+                        null, DNS_OBJECT)),
+                new Tuple<>(asKey, new Revision(
+                        ZonedDateTime.of(2016, 12, 7, 10, 10, 10, 0, ZoneId.systemDefault()),
+                        null, autNum)),
+                new Tuple<>(WHO_KEY, new Revision(
+                        ZonedDateTime.of(2016, 12, 10, 10, 10, 10, 0, ZoneId.systemDefault()),
+                        null, WHO_OBJECT)),
+                new Tuple<>(WHO_KEY, new Revision(
+                        ZonedDateTime.of(2016, 12, 11, 10, 10, 10, 0, ZoneId.systemDefault()),
+                        null, WHO_OBJECT)));
+
+        History sequential = new History();
+        revisions.forEach(t -> sequential.addRevision(t.first(), t.second()));
+        History batched = new History();
+        batched.addRevisions(revisions);
+
+        for (ObjectKey key : Arrays.asList(DNS_KEY, WHO_KEY, asKey)) {
+            assertThat("The batch gives " + key + " the same revisions",
+                    revisionCount(batched, key), is(revisionCount(sequential, key)));
+        }
+        assertThat("Revisions of a related entity within the batch update the referencing object",
+                revisionCount(batched, DNS_KEY), is(3L));
+        assertThat("The autnum is indexed after the batch",
+                batched.getAutNumIndex().mostSpecific(4608L, k -> true), is(Optional.of(asKey)));
+    }
+
+    @Test
+    public void statesAreIsolatedFromLaterRevisions() throws IOException, ClassNotFoundException {
+        History history = new History();
+        history.addRevisions(Collections.singletonList(new Tuple<>(DNS_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, DNS_OBJECT))), 10L);
+        HistoryState pinned = history.getState();
+
+        history.addRevisions(Collections.singletonList(new Tuple<>(WHO_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 10, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, WHO_OBJECT))), 11L);
+
+        assertThat("The pinned state keeps its serial", pinned.getSerial(), is(10L));
+        assertThat("The History moves on", history.getState().getSerial(), is(11L));
+        assertThat("The pinned state does not see the later object",
+                pinned.historyForObject(WHO_KEY).isPresent(), is(false));
+        assertThat("The pinned state does not see the later related revision",
+                pinned.historyForObject(DNS_KEY).map(o -> (Iterable<Revision>)o).orElse(Collections.emptyList()),
+                is(iterableWithSize(1)));
+
+        // Writing a History of the pinned state writes that state alone
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(new History(pinned));
+        oos.close();
+        History restored = new History();
+        restored.deserialize((History) new ObjectInputStream(
+                new ByteArrayInputStream(baos.toByteArray())).readObject(), pinned.getSerial());
+        assertThat("The restored History reflects the pinned serial", restored.getState().getSerial(), is(10L));
+        assertThat("The restored History holds only the pinned objects",
+                restored.historyForObject(WHO_KEY).isPresent(), is(false));
+    }
+
+    @Test
+    public void relatedEntitiesResolveAsTheyWereAtEachRevision() {
+        RdapObject laterWho = new StaticObject(WHO_KEY, Collections.emptyList());
+        History history = new History();
+        history.addRevision(WHO_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 1, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, WHO_OBJECT));
+        history.addRevision(DNS_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, DNS_OBJECT));
+        history.addRevision(WHO_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 10, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, laterWho));
+
+        List<Revision> revisions = new ArrayList<>();
+        history.historyForObject(DNS_KEY).ifPresent(h -> h.forEach(revisions::add));
+        assertThat("The entity's change adds a revision", revisions.size(), is(2));
+        assertThat("The first revision shows the entity as it was",
+                relatedObjectOf(Optional.of(revisions.get(0))), is(Optional.of(WHO_OBJECT)));
+        assertThat("The first revision ends with the entity's change",
+                revisions.get(0).getValidUntil(), is(revisions.get(1).getValidFrom()));
+        assertThat("The second revision shows the entity as it became",
+                relatedObjectOf(Optional.of(revisions.get(1))), is(Optional.of(laterWho)));
+    }
+
+    @Test
+    public void currentObjectShowsTheEntityAsItNowIs() {
+        RdapObject laterWho = new StaticObject(WHO_KEY, Collections.emptyList());
+        History history = new History();
+        history.addRevision(WHO_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 1, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, WHO_OBJECT));
+        history.addRevision(DNS_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, DNS_OBJECT));
+        history.addRevision(WHO_KEY, new Revision(
+                ZonedDateTime.of(2016, 12, 10, 10, 10, 10, 0, ZoneId.systemDefault()),
+                null, laterWho));
+
+        Optional<RdapObject> related = history.currentObject(DNS_KEY)
+                .flatMap(o -> o.getRelatedEntities().stream().findFirst())
+                .flatMap(RelatedEntity::getObject);
+        assertThat("The current object matches its resolved history's current revision",
+                related, is(relatedObjectOf(history.historyForObject(DNS_KEY).flatMap(ObjectHistory::mostCurrent))));
+        assertThat(related, is(Optional.of(laterWho)));
+        assertThat("Unknown objects have no current state",
+                history.currentObject(new ObjectKey(ObjectClass.DOMAIN, "unknown")), is(Optional.empty()));
+    }
+
+    @Test
+    public void retentionDropsRevisionsOutsideThePolicy() throws IOException, ClassNotFoundException {
+        ZonedDateTime now = ZonedDateTime.of(2020, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+        RetentionPolicy retention = RetentionPolicy.full()
+                .currentOnly(ObjectClass.DOMAIN)
+                .window(ObjectClass.ENTITY, 2)
+                .withClock(Clock.fixed(now.toInstant(), ZoneOffset.UTC));
+        History retained = new History(null, retention);
+        History full = new History();
+        for (int year = 2015; year <= 2019; year++) {
+            ZonedDateTime when = ZonedDateTime.of(year, 6, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+            for (History history : Arrays.asList(retained, full)) {
+                history.addRevision(WHO_KEY, new Revision(when, null, WHO_OBJECT));
+                history.addRevision(DNS_KEY, new Revision(when, null, DNS_OBJECT));
+            }
+        }
+
+        assertThat("Only the current domain revision is kept", revisionCount(retained, DNS_KEY), is(1L));
+        assertThat("Entity revisions in effect within the window are kept",
+                revisionCount(retained, WHO_KEY), is(3L));
+        assertThat("The truncation is recorded",
+                retained.historyForObject(WHO_KEY).get().getTruncatedBefore(),
+                is(now.minusYears(2).toEpochSecond()));
+        assertThat("A full history is not truncated",
+                full.historyForObject(WHO_KEY).get().isTruncated(), is(false));
+
+        History restored = new History(null, retention);
+        restored.deserialize(full);
+        assertThat("A restored history is truncated too", revisionCount(restored, DNS_KEY), is(1L));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(retained);
+        oos.close();
+        History written = (History) new ObjectInputStream(
+                new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertThat("The truncation survives a snapshot",
+                written.historyForObject(WHO_KEY).get().getTruncatedBefore(),
+                is(now.minusYears(2).toEpochSecond()));
+    }
+
+    private static Optional<RdapObject> relatedObject(Optional<ObjectHistory> history) {
+        return relatedObjectOf(history.flatMap(ObjectHistory::mostRecent));
+    }
+
+    private static Optional<RdapObject> relatedObjectOf(Optional<Revision> revision) {
+        return revision.map(Revision::getContents)
+                .flatMap(o -> o.getRelatedEntities().stream().findFirst())
+                .flatMap(RelatedEntity::getObject);
+    }
+
+    private static long revisionCount(History history, ObjectKey key) {
+        return history.historyForObject(key).map(o -> StreamSupport.stream(o.spliterator(), false).count()).orElse(0L);
     }
 }
 
 class StaticObject implements Serializable, RdapObject {
     private ObjectKey objectKey;
     private Collection<ObjectKey> relatedObjects;
-    private transient int updatedTimes = 0;
+    private transient Collection<RelatedEntity> relatedEntities;
 
     StaticObject(ObjectKey objectKey, Collection<ObjectKey> relatedObjects) {
         this.objectKey = objectKey;
@@ -92,6 +286,14 @@ class StaticObject implements Serializable, RdapObject {
         return relatedObjects;
     }
 
+    @Override
+    public Collection<RelatedEntity> getRelatedEntities() {
+        if (relatedEntities != null) {
+            return relatedEntities;
+        }
+        return relatedObjects.stream().map(RelatedEntity::new).collect(Collectors.toList());
+    }
+
     @Override
     public boolean isDeleted() {
         return false;
@@ -100,11 +302,8 @@ class StaticObject implements Serializable, RdapObject {
     @Override
     public RdapObject withRelatedEntities(
         Collection<RelatedEntity> relatedEntities) {
-        updatedTimes++;
-        return this;
-    }
-
-    int getUpdatedTimes() {
-        return updatedTimes;
+        StaticObject resolved = new StaticObject(objectKey, relatedObjects);
+        resolved.relatedEntities = relatedEntities;
+        return resolved;
     }
 }
@@ -4,12 +4,15 @@ import net.apnic.rdapd.rdap.RdapObject;
 import org.junit.Test;
 
 import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Collection;
 import java.util.Collections;
 
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 public class ObjectHistoryTest {
@@ -45,4 +48,92 @@ public class ObjectHistoryTest {
         assertThat("A revision should be squelched", objectHistory, contains(revisions[1]));
         assertThat("The other revision is gone", objectHistory, not(contains(revisions[0])));
     }
+
+    @Test
+    public void unchangedRevisionsAreDropped() {
+        RdapObject fingerprinted = new RdapObject() {
+            @Override
+            public ObjectKey getObjectKey() {
+                return objectKey;
+            }
+
+            @Override
+            public long getFingerprint() {
+                return 42L;
+            }
+        };
+        ZonedDateTime stamp = ZonedDateTime.of(2016, 12, 7, 11, 28, 33, 761, ZoneId.systemDefault());
+        Revision first = new Revision(stamp, null, fingerprinted);
+        ObjectHistory objectHistory = new ObjectHistory(objectKey).appendChange(first);
+
+        assertThat("A revision with the same fingerprint changes nothing",
+                objectHistory.appendChange(new Revision(stamp.plusDays(1), null, fingerprinted)),
+                is(sameInstance(objectHistory)));
+        assertThat("The first revision remains in effect", objectHistory, contains(first));
+        assertThat("A revision without a fingerprint is always appended",
+                objectHistory.appendChange(new Revision(stamp.plusDays(1), null, dummy)),
+                is(not(sameInstance(objectHistory))));
+    }
+
+    @Test
+    public void revisionsHoldValidityInEpochSeconds() {
+        ZonedDateTime stamp = ZonedDateTime.of(2016, 12, 7, 11, 28, 33, 0, ZoneId.of("Australia/Brisbane"));
+        Revision revision = new Revision(stamp, null, dummy);
+
+        assertThat(revision.getValidFromEpochSecond(), is(stamp.toEpochSecond()));
+        assertThat("An unsuperseded revision is open", revision.isOpen(), is(true));
+        assertThat(revision.getValidUntilEpochSecond(), is(Revision.OPEN));
+        assertThat("Validity is rendered in UTC",
+                revision.getValidFrom(), is(stamp.withZoneSameInstant(ZoneOffset.UTC)));
+        assertThat(revision.supersede(stamp.plusHours(1)).getValidUntilEpochSecond(),
+                is(stamp.toEpochSecond() + 3600));
+
+        ObjectHistory objectHistory = new ObjectHistory(objectKey).appendRevision(revision);
+        assertThat(objectHistory.revisionAt(stamp.toEpochSecond() - 1).isPresent(), is(false));
+        assertThat(objectHistory.revisionAt(stamp.toEpochSecond()).get(), is(sameInstance(revision)));
+    }
+
+    @Test
+    public void currentAtExcludesSupersededAndDeletedRevisions() {
+        RdapObject deleted = new RdapObject() {
+            @Override
+            public ObjectKey getObjectKey() {
+                return objectKey;
+            }
+
+            @Override
+            public boolean isDeleted() {
+                return true;
+            }
+        };
+        long stamp = ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+        Revision created = new Revision(stamp, Revision.OPEN, dummy);
+        ObjectHistory objectHistory = new ObjectHistory(objectKey)
+                .appendRevision(created)
+                .appendRevision(new Revision(stamp + 86400, Revision.OPEN, deleted));
+
+        assertThat("Nothing is current before the object existed",
+                objectHistory.currentAt(stamp - 1).isPresent(), is(false));
+        assertThat("The revision in effect is current",
+                objectHistory.currentAt(stamp + 3600).get().getValidFromEpochSecond(), is(stamp));
+        assertThat("Nothing is current once the object is deleted",
+                objectHistory.currentAt(stamp + 86400).isPresent(), is(false));
+    }
+
+    @Test
+    public void producedContentsAreKeptOnlyWhileOpen() {
+        RdapObject supplied = new RdapObject() {
+            @Override
+            public ObjectKey getObjectKey() {
+                return objectKey;
+            }
+        };
+        long stamp = ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+        Revision open = new DeferredRevision(stamp, Revision.OPEN, dummy, () -> supplied, dummy);
+
+        assertThat("An open revision's produced contents are read", open.getContents(), is(sameInstance(dummy)));
+        assertThat("A superseded revision's contents are supplied",
+                open.supersede(stamp + 86400).getContents(), is(sameInstance(supplied)));
+        assertThat(open.supersede(stamp + 86400).getSummary(), is(sameInstance(dummy)));
+    }
 }
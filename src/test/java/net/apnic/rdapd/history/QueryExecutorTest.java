@@ -0,0 +1,51 @@
+package net.apnic.rdapd.history;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import org.junit.Test;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+
+public class QueryExecutorTest {
+    @Test
+    public void rangeScansRunOnTheirOwnPool() {
+        CounterService counterService = mock(CounterService.class);
+        GaugeService gaugeService = mock(GaugeService.class);
+        QueryExecutor executor = new QueryExecutor(2, counterService, gaugeService);
+        try {
+            List<String> threads = executor.rangeScan(IntStream.range(0, 1000).boxed(),
+                    s -> s.map(i -> Thread.currentThread().getName()).collect(Collectors.toList()));
+
+            assertThat(threads.size(), is(1000));
+            assertThat("no work runs on the caller or the common pool", threads, everyItem(startsWith("range-scan-")));
+            verify(counterService).increment("query.range");
+            verify(gaugeService).submit(eq("timer.query.range"), anyDouble());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void pointQueriesRunOnTheCaller() {
+        CounterService counterService = mock(CounterService.class);
+        QueryExecutor executor = new QueryExecutor(0, counterService, mock(GaugeService.class));
+
+        assertThat(executor.point(() -> Thread.currentThread().getName()), is(Thread.currentThread().getName()));
+        assertThat("without a pool range scans stay on the caller",
+                executor.rangeScan(IntStream.range(0, 10).boxed(), s -> s.isParallel()), is(false));
+        verify(counterService).increment("query.point");
+        verify(counterService).increment("query.range");
+    }
+}
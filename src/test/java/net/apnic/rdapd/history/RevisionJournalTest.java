@@ -0,0 +1,115 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.Domain;
+import net.apnic.rdapd.types.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RevisionJournalTest {
+    private static final ObjectKey DOMAIN_KEY = new ObjectKey(ObjectClass.DOMAIN, "1.0.0.127.in-addr.arpa");
+
+    private static final long STAMP = ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("history", ".journal");
+    }
+
+    @After
+    public void removeFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static List<Tuple<ObjectKey, Revision>> revision(long validFrom) {
+        return Collections.singletonList(new Tuple<>(DOMAIN_KEY,
+                new Revision(validFrom, Revision.OPEN, new Domain(DOMAIN_KEY))));
+    }
+
+    /* The serials reached and the revisions' validFrom, replaying from a serial */
+    private List<Long> replay(long serial) throws IOException {
+        List<Long> replayed = new ArrayList<>();
+        try (RevisionJournal journal = RevisionJournal.open(file)) {
+            replayed.add(journal.replay(serial, (revisions, reached) ->
+                replayed.addAll(revisions.stream()
+                    .map(r -> r.second().getValidFromEpochSecond())
+                    .collect(Collectors.toList()))));
+        }
+        return replayed;
+    }
+
+    @Test
+    public void entriesFollowingTheBaseAreReplayedInOrder() throws IOException {
+        try (RevisionJournal journal = RevisionJournal.open(file)) {
+            journal.append(10, 11, revision(STAMP));
+            journal.append(11, 12, revision(STAMP + 1));
+            journal.append(12, 13, revision(STAMP + 2));
+        }
+
+        assertThat("Entries the base includes are passed over",
+                replay(11), contains(STAMP + 1, STAMP + 2, 13L));
+        assertThat("The journal is kept whole", replay(10), contains(STAMP, STAMP + 1, STAMP + 2, 13L));
+    }
+
+    @Test
+    public void replayStopsAtAGapAndCutsTheJournal() throws IOException {
+        try (RevisionJournal journal = RevisionJournal.open(file)) {
+            journal.append(10, 11, revision(STAMP));
+            journal.append(12, 13, revision(STAMP + 2));
+        }
+
+        assertThat(replay(10), contains(STAMP, 11L));
+        try (RevisionJournal journal = RevisionJournal.open(file)) {
+            journal.append(11, 12, revision(STAMP + 1));
+        }
+        assertThat("Appends follow on from the last entry replayed",
+                replay(10), contains(STAMP, STAMP + 1, 12L));
+    }
+
+    @Test
+    public void tornEntryIsDiscarded() throws IOException {
+        try (RevisionJournal journal = RevisionJournal.open(file)) {
+            journal.append(10, 11, revision(STAMP));
+            journal.append(11, 12, revision(STAMP + 1));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        assertThat(replay(10), contains(STAMP, 11L));
+    }
+
+    @Test
+    public void compactionDropsEntriesTheBaseIncludes() throws IOException {
+        try (RevisionJournal journal = RevisionJournal.open(file)) {
+            journal.append(10, 11, revision(STAMP));
+            journal.append(11, 12, revision(STAMP + 1));
+            long before = journal.size();
+            journal.compact(11);
+
+            assertThat(journal.size() < before, is(true));
+            journal.append(12, 13, revision(STAMP + 2));
+        }
+
+        assertThat(replay(11), contains(STAMP + 1, STAMP + 2, 13L));
+        assertThat("Nothing follows on from an older base", replay(10), contains(10L));
+    }
+}
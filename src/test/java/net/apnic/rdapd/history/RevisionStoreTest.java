@@ -0,0 +1,106 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.Domain;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rpsl.rdap.RpslToRdap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class RevisionStoreTest {
+    private static final ObjectKey DOMAIN_KEY = new ObjectKey(ObjectClass.DOMAIN, "1.0.0.127.in-addr.arpa");
+
+    private Path file;
+    private RevisionStore store;
+
+    @Before
+    public void openStore() throws IOException {
+        file = Files.createTempFile("revisions", ".store");
+        store = RevisionStore.open(file, 4096);
+    }
+
+    @After
+    public void closeStore() throws IOException {
+        store.close();
+    }
+
+    private static RdapObject domain(String description) {
+        return RpslToRdap.rpslToRdap(DOMAIN_KEY, ("domain:  1.0.0.127.in-addr.arpa\n"
+                + "descr:   " + description + "\n"
+                + "admin-c: EC44-AP\n"
+                + "nserver: ns1.example.com\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String description(RdapObject object) {
+        return ((Domain)object).getRemarks().get(0).get("description").get(0).asText();
+    }
+
+    @Test
+    public void contentsAreReadBackAcrossSegments() {
+        long[] offsets = new long[100];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = store.put(domain("Revision " + i));
+        }
+
+        assertThat("Records fill more than one segment", store.size() > 4096, is(true));
+        for (int i = 0; i < offsets.length; i++) {
+            RdapObject contents = store.get(offsets[i]);
+            assertThat(description(contents), is("Revision " + i));
+            assertThat(contents.getEntityKeys(), is(domain("").getEntityKeys()));
+        }
+    }
+
+    @Test
+    public void onlySupersededRevisionsAreStored() {
+        History history = new History(store);
+        ZonedDateTime stamp = ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault());
+        for (int i = 0; i < 3; i++) {
+            history.addRevision(DOMAIN_KEY, new Revision(stamp.plusDays(i), null, domain("Revision " + i)));
+        }
+
+        List<Revision> revisions = StreamSupport.stream(
+                history.getState().getHistories().get(DOMAIN_KEY).spliterator(), false)
+                .collect(Collectors.toList());
+        assertThat(revisions.get(0), is(instanceOf(StoredRevision.class)));
+        assertThat(revisions.get(1), is(instanceOf(StoredRevision.class)));
+        assertThat("The current revision stays on the heap", revisions.get(2), is(not(instanceOf(StoredRevision.class))));
+
+        List<String> descriptions = StreamSupport.stream(
+                history.historyForObject(DOMAIN_KEY).get().spliterator(), false)
+                .map(r -> description(r.getContents()))
+                .collect(Collectors.toList());
+        assertThat("Stored contents read back transparently", descriptions.toString(),
+                is("[Revision 0, Revision 1, Revision 2]"));
+    }
+
+    @Test
+    public void storedRevisionsKeepTheirSummaryOnTheHeap() {
+        RdapObject contents = domain("Revision 0");
+        ZonedDateTime stamp = ZonedDateTime.of(2016, 12, 6, 10, 10, 10, 0, ZoneId.systemDefault());
+        Revision stored = StoredRevision.of(new Revision(stamp, stamp.plusDays(1), contents), store);
+
+        assertThat(stored, is(instanceOf(StoredRevision.class)));
+        RdapObject summary = stored.getSummary();
+        assertThat("The summary is not decoded afresh", stored.getSummary(), is(sameInstance(summary)));
+        assertThat(summary.getObjectKey(), is(DOMAIN_KEY));
+        assertThat(summary.getFingerprint(), is(contents.getFingerprint()));
+        assertThat(summary.getEntityKeys(), is(contents.getEntityKeys()));
+        assertThat(stored.supersede(stamp.plusDays(2).toEpochSecond()).getSummary(), is(sameInstance(summary)));
+    }
+}
@@ -0,0 +1,104 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.AutNum;
+import net.apnic.rdapd.rdap.Domain;
+import net.apnic.rdapd.rdap.IpNetwork;
+import net.apnic.rdapd.types.Parsing;
+import net.apnic.rdapd.types.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SegmentedSnapshotTest {
+    private static final long STAMP = ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+
+    private Path file;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("history", ".snapshot");
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.shutdownNow();
+        Files.deleteIfExists(file);
+    }
+
+    private static History history() {
+        List<Tuple<ObjectKey, Revision>> revisions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ObjectKey domainKey = new ObjectKey(ObjectClass.DOMAIN, i + ".0.0.127.in-addr.arpa");
+            revisions.add(new Tuple<>(domainKey, new Revision(STAMP, Revision.OPEN, new Domain(domainKey))));
+            ObjectKey netKey = new ObjectKey(ObjectClass.IP_NETWORK, "10." + i + ".0.0/16");
+            revisions.add(new Tuple<>(netKey, new Revision(STAMP, Revision.OPEN,
+                    new IpNetwork(netKey, Parsing.parseCIDRInterval("10." + i + ".0.0/16")))));
+        }
+        ObjectKey asKey = new ObjectKey(ObjectClass.AUT_NUM, "AS4608");
+        AutNum autNum = new AutNum(asKey);
+        autNum.setASNInterval(4608, 4608);
+        revisions.add(new Tuple<>(asKey, new Revision(STAMP, Revision.OPEN, autNum)));
+
+        History history = new History();
+        history.addRevisions(revisions, 42L);
+        return history;
+    }
+
+    @Test
+    public void segmentsAreGatheredIntoOneState() throws IOException {
+        SegmentedSnapshot.write(history().getState(), file, pool);
+
+        assertThat(SegmentedSnapshot.isSegmentedSnapshot(file), is(true));
+        assertThat(SnapshotFile.isSnapshotFile(file), is(false));
+        HistoryState restored = SegmentedSnapshot.read(file, pool);
+
+        assertThat(restored.getSerial(), is(42L));
+        assertThat("Every history is restored", restored.getHistories().size(), is(201));
+        assertThat(restored.contains(new ObjectKey(ObjectClass.DOMAIN, "57.0.0.127.in-addr.arpa")), is(true));
+        assertThat("The IP indices are restored",
+                restored.getIPNetworkTree().exact(Parsing.parseCIDRInterval("10.57.0.0/16")).get(),
+                is(new ObjectKey(ObjectClass.IP_NETWORK, "10.57.0.0/16")));
+        assertThat(restored.getIPNetworkTrie().mostSpecificCurrent(Parsing.parseCIDRInterval("10.57.1.0/24"))
+                .get(), is(new ObjectKey(ObjectClass.IP_NETWORK, "10.57.0.0/16")));
+        assertThat("The autnum indices are rebuilt",
+                restored.getAutNumIndex().mostSpecific(4608, k -> true).get(),
+                is(new ObjectKey(ObjectClass.AUT_NUM, "AS4608")));
+    }
+
+    @Test
+    public void segmentsAreWrittenOneAtATimeOnASingleThread() throws IOException {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            SegmentedSnapshot.write(history().getState(), file, single);
+        } finally {
+            single.shutdownNow();
+        }
+
+        assertThat(SegmentedSnapshot.read(file, pool).getHistories().size(), is(201));
+    }
+
+    @Test
+    public void binarySnapshotsReadTheSameOnAPool() throws IOException {
+        SnapshotFile.write(history().getState(), file);
+
+        HistoryState restored = SnapshotFile.read(file, pool);
+
+        assertThat(restored.getHistories().size(), is(201));
+        assertThat(restored.isCurrent(new ObjectKey(ObjectClass.IP_NETWORK, "10.99.0.0/16")), is(true));
+    }
+}
@@ -0,0 +1,173 @@
+package net.apnic.rdapd.history;
+
+import net.apnic.rdapd.rdap.AutNum;
+import net.apnic.rdapd.rdap.Entity;
+import net.apnic.rdapd.rdap.IpNetwork;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rdap.RelatedEntity;
+import net.apnic.rdapd.rdap.Role;
+import net.apnic.rdapd.rdap.VCard;
+import net.apnic.rdapd.rdap.VCardAttribute;
+import net.apnic.rdapd.rpsl.rdap.RpslContents;
+import net.apnic.rdapd.rpsl.rdap.RpslToRdap;
+import net.apnic.rdapd.types.Parsing;
+import net.apnic.rdapd.types.Tuple;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class SnapshotFileTest {
+    private static final ObjectKey NET_KEY = new ObjectKey(ObjectClass.IP_NETWORK, "10.0.0.0/8");
+    private static final ObjectKey AS_KEY = new ObjectKey(ObjectClass.AUT_NUM, "AS4608");
+    private static final ObjectKey WHO_KEY = new ObjectKey(ObjectClass.ENTITY, "A-PERSON");
+
+    private static final long STAMP = ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+    private static final long DAY = 24 * 60 * 60;
+
+    private Path file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = Files.createTempFile("history", ".snapshot");
+    }
+
+    @After
+    public void removeFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static IpNetwork network(String name) {
+        IpNetwork network = new IpNetwork(NET_KEY, Parsing.parseCIDRInterval("10.0.0.0/8"));
+        network.setName(name);
+        network.setRelatedEntities(Collections.singletonList(
+                new RelatedEntity(WHO_KEY, EnumSet.of(Role.ADMINISTRATIVE, Role.TECHNICAL))));
+        return network;
+    }
+
+    private static History history() {
+        AutNum autNum = new AutNum(AS_KEY);
+        autNum.setASNInterval(4608, 4608);
+        Entity who = new Entity(WHO_KEY);
+        VCard vCard = new VCard();
+        vCard.addAttribute(new VCardAttribute("fn", "text", "A Person"));
+        who.setVCard(vCard);
+
+        History history = new History();
+        history.addRevision(NET_KEY, new Revision(STAMP, Revision.OPEN, network("FIRST")));
+        history.addRevision(AS_KEY, new Revision(STAMP, Revision.OPEN, autNum));
+        history.addRevision(WHO_KEY, new Revision(STAMP, Revision.OPEN, who));
+        history.addRevisions(Collections.singletonList(
+                new Tuple<>(NET_KEY, new Revision(STAMP + DAY, Revision.OPEN, network("SECOND")))),
+                42L);
+        return history;
+    }
+
+    private static List<Revision> revisions(HistoryState state, ObjectKey objectKey) {
+        return StreamSupport.stream(state.getHistories().get(objectKey).spliterator(), false)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void restoredStateMatchesTheWrittenOne() throws IOException {
+        SnapshotFile.write(history().getState(), file);
+
+        assertThat("The file is recognised", SnapshotFile.isSnapshotFile(file), is(true));
+        HistoryState restored = SnapshotFile.read(file);
+
+        assertThat(restored.getSerial(), is(42L));
+        List<Revision> network = revisions(restored, NET_KEY);
+        assertThat("Both revisions of the network are restored",
+                network.stream().map(Revision::getValidFromEpochSecond).collect(Collectors.toList()),
+                contains(STAMP, STAMP + DAY));
+        assertThat(network.get(0).getValidUntilEpochSecond(), is(STAMP + DAY));
+        assertThat(network.get(1).isOpen(), is(true));
+        assertThat("Contents are read from the file",
+                ((IpNetwork)network.get(0).getContents()).getName(), is("FIRST"));
+        assertThat(((IpNetwork)network.get(1).getContents()).getName(), is("SECOND"));
+
+        RdapObject summary = network.get(1).getSummary();
+        assertThat(summary, is(instanceOf(IpNetwork.class)));
+        assertThat(summary.getEntityKeys(), contains(WHO_KEY));
+        assertThat(summary.getRelatedEntities().iterator().next().getRoles(),
+                is(EnumSet.of(Role.ADMINISTRATIVE, Role.TECHNICAL)));
+        assertThat("The entity's name is summarised",
+                ((Entity)revisions(restored, WHO_KEY).get(0).getSummary()).getVCard()
+                        .findVCardAttribute("fn").findFirst().get().getValue(),
+                is("A Person"));
+
+        assertThat("The IP indices are rebuilt",
+                restored.getIPNetworkTree().exact(Parsing.parseCIDRInterval("10.0.0.0/8")).get(),
+                is(NET_KEY));
+        assertThat(restored.getIPNetworkTrie().mostSpecificCurrent(Parsing.parseCIDRInterval("10.1.0.0/16"))
+                .get(), is(NET_KEY));
+        assertThat("The autnum indices are rebuilt",
+                restored.getAutNumIndex().mostSpecific(4608, k -> true).get(), is(AS_KEY));
+    }
+
+    @Test
+    public void restoredRevisionsAreNotMovedToAStore() throws IOException {
+        SnapshotFile.write(history().getState(), file);
+        Path storeFile = Files.createTempFile("revisions", ".store");
+        try (RevisionStore store = RevisionStore.open(storeFile, 4096)) {
+            History history = new History(store);
+            history.restore(SnapshotFile.read(file));
+
+            assertThat(store.size(), is(0L));
+            assertThat(history.getState().getSerial(), is(42L));
+            assertThat(revisions(history.getState(), NET_KEY).get(0), is(instanceOf(MappedRevision.class)));
+        }
+    }
+
+    @Test
+    public void deferredContentsAreConvertedOnce() throws IOException {
+        ObjectKey domainKey = new ObjectKey(ObjectClass.DOMAIN, "1.0.0.127.in-addr.arpa");
+        History history = new History();
+        for (int i = 0; i < 2; i++) {
+            byte[] rpsl = ("domain:  1.0.0.127.in-addr.arpa\n"
+                    + "descr:   Revision " + i + "\n").getBytes(StandardCharsets.UTF_8);
+            history.addRevision(domainKey, new DeferredRevision(STAMP + i * DAY, Revision.OPEN,
+                    RpslToRdap.rpslToRdap(domainKey, rpsl), new RpslContents(domainKey, rpsl)));
+        }
+        SnapshotFile.write(history.getState(), file);
+
+        for (Revision revision : revisions(SnapshotFile.read(file), domainKey)) {
+            assertThat("Contents decoded afresh find their conversion",
+                    revision.getContents(), is(sameInstance(revision.getContents())));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptSectionIsRejected() throws IOException {
+        SnapshotFile.write(history().getState(), file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 0x01;
+        Files.write(file, bytes);
+
+        SnapshotFile.read(file);
+    }
+
+    @Test
+    public void otherFilesAreNotRecognised() throws IOException {
+        Files.write(file, "not a snapshot".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(SnapshotFile.isSnapshotFile(file), is(false));
+    }
+}
@@ -0,0 +1,46 @@
+package net.apnic.rdapd.history;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class WriteThrottleTest {
+    @Test
+    public void writesAreCountedAndPassedThrough() throws IOException {
+        WriteThrottle throttle = WriteThrottle.unlimited();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = throttle.wrap(bytes)) {
+            out.write(new byte[100]);
+            out.write(1);
+        }
+
+        assertThat(throttle.getWritten(), is(101L));
+        assertThat(bytes.size(), is(101));
+    }
+
+    @Test
+    public void writesAreHeldToTheRateAllowed() throws IOException {
+        WriteThrottle throttle = new WriteThrottle(10000);
+        long started = System.nanoTime();
+        try (OutputStream out = throttle.wrap(new ByteArrayOutputStream())) {
+            for (int i = 0; i < 10; i++) {
+                out.write(new byte[200]);
+            }
+        }
+
+        assertThat("2000 bytes at 10000 bytes a second take a fifth of a second",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), greaterThanOrEqualTo(190L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRatesAreRejected() {
+        new WriteThrottle(-1);
+    }
+}
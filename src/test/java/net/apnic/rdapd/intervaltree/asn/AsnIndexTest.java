@@ -0,0 +1,78 @@
+package net.apnic.rdapd.intervaltree.asn;
+
+import net.apnic.rdapd.autnum.ASN;
+import net.apnic.rdapd.autnum.ASNInterval;
+import net.apnic.rdapd.intervaltree.avl.AvlTree;
+import net.apnic.rdapd.types.Tuple;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AsnIndexTest {
+    private static final Random RANDOM = new Random(17);
+
+    /* Half the ASNs fall in the direct-mapped 16 bit range, half well beyond it */
+    private static long randomAsn() {
+        return RANDOM.nextBoolean() ? 1 + RANDOM.nextInt(60000) : 4200000000L + RANDOM.nextInt(60000);
+    }
+
+    private static ASNInterval randomInterval() {
+        long low = randomAsn();
+        return new ASNInterval(low, low + (RANDOM.nextInt(4) == 0 ? RANDOM.nextInt(3000) : 0));
+    }
+
+    private static void assertSameAs(AsnIndex<String> index, AvlTree<ASN, String, ASNInterval> tree) {
+        Predicate<String> even = v -> v.hashCode() % 2 == 0;
+        for (int i = 0; i < 2000; i++) {
+            long asn = randomAsn();
+            ASNInterval query = new ASNInterval(asn, asn);
+            assertThat("Most specific for " + asn,
+                    index.mostSpecific(asn, v -> true), is(tree.mostSpecificEncompassing(query, v -> true)));
+            assertThat("Most specific filtered for " + asn,
+                    index.mostSpecific(asn, even), is(tree.mostSpecificEncompassing(query, even)));
+        }
+    }
+
+    @Test
+    public void matchesAvlTreeThroughUpdatesAndCompaction() {
+        AsnIndex<String> index = new AsnIndex<>();
+        AvlTree<ASN, String, ASNInterval> tree = new AvlTree<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3000; i++) {
+                ASNInterval interval = randomInterval();
+                String value = interval.toString() + "#" + round;
+                index = index.update(interval, value);
+                tree = tree.update(interval, value, (a, b) -> a, v -> v);
+            }
+            assertThat("Both hold the same number of intervals", index.size(), is(tree.size()));
+            assertSameAs(index, tree);
+            index = index.compact();
+            assertThat("Compaction empties the overlay", index.overlaySize(), is(0));
+            assertSameAs(index, tree);
+        }
+    }
+
+    @Test
+    public void fromSortedKeepsFirstOfEqualIntervals() {
+        List<Tuple<ASNInterval, String>> entries = new ArrayList<>();
+        entries.add(new Tuple<>(new ASNInterval(64512, 65534), "private"));
+        entries.add(new Tuple<>(new ASNInterval(65000, 65000), "first"));
+        entries.add(new Tuple<>(new ASNInterval(65000, 65000), "second"));
+        entries.add(new Tuple<>(new ASNInterval(4200000000L, 4294967294L), "private32"));
+        AsnIndex<String> index = AsnIndex.fromSorted(entries);
+
+        assertThat(index.size(), is(3));
+        assertThat(index.mostSpecific(65000, v -> true), is(Optional.of("first")));
+        assertThat(index.mostSpecific(65000, v -> !v.equals("first")), is(Optional.of("private")));
+        assertThat(index.mostSpecific(65535, v -> true), is(Optional.empty()));
+        assertThat(index.mostSpecific(4294967294L, v -> true), is(Optional.of("private32")));
+        assertThat(index.mostSpecific(4294967295L, v -> true), is(Optional.empty()));
+    }
+}
@@ -9,15 +9,21 @@ import org.nustaq.serialization.FSTConfiguration;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Spliterator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -36,6 +42,35 @@ public class AvlTreeTest {
         assertThat("Three nodes has a max height of 2", height(tree.getRoot()), is(2));
     }
 
+    private void assertBalanced(AvlNode<?, ?, ?> node) {
+        if (node != null) {
+            assertTrue("sub-tree heights differ by at most one",
+                    Math.abs(height(node.left) - height(node.right)) <= 1);
+            assertThat("recorded height is accurate", node.height, is(height(node)));
+            assertBalanced(node.left);
+            assertBalanced(node.right);
+        }
+    }
+
+    @Test
+    public void updateIsPersistentAndBalanced() throws Exception {
+        AvlTree<Integer, String, IntInterval> tree = new AvlTree<>();
+        for (int i = 0; i < 1000; i++) {
+            tree = tree.insert(new IntInterval(i, i + 10), "frog " + i);
+        }
+        assertBalanced(tree.getRoot());
+
+        AvlTree<Integer, String, IntInterval> updated = tree.update(new IntInterval(500, 510), "toad",
+                (a, b) -> a + " " + b, b -> b);
+        updated = updated.insert(new IntInterval(2000, 2001), "tadpole");
+        assertThat("the original tree keeps its value", tree.exact(new IntInterval(500, 510)),
+                is(Optional.of("frog 500")));
+        assertThat("the original tree keeps its size", tree.size(), is(1000));
+        assertThat(updated.exact(new IntInterval(500, 510)), is(Optional.of("frog 500 toad")));
+        assertThat(updated.size(), is(1001));
+        assertBalanced(updated.getRoot());
+    }
+
     @Test
     public void testExact() throws Exception {
         AvlTree<Integer, String, IntInterval> tree = new AvlTree<>();
@@ -82,6 +117,96 @@ public class AvlTreeTest {
         assertThat("there exists a blue", frogs.contains("blue"), is(true));
     }
 
+    @Test
+    public void testMostSpecificEncompassing() throws Exception {
+        AvlTree<Integer, String, IntInterval> tree = new AvlTree<>();
+        tree = tree.insert(new IntInterval(20, 30), "green tree");
+        tree = tree.insert(new IntInterval(33, 45), "corroboree");
+        tree = tree.insert(new IntInterval(30, 42), "rocket");
+        tree = tree.insert(new IntInterval(39, 39), "bleating tree");
+        tree = tree.insert(new IntInterval(20, 39), "tusked");
+        tree = tree.insert(new IntInterval(40, 50), "blue");
+        assertThat("the deepest encompassing range wins",
+                tree.mostSpecificEncompassing(new IntInterval(38, 40), v -> true), is(Optional.of("corroboree")));
+        assertThat("filtered ranges are skipped",
+                tree.mostSpecificEncompassing(new IntInterval(38, 40), v -> !v.equals("corroboree")),
+                is(Optional.of("rocket")));
+        assertThat("an exact match is most specific",
+                tree.mostSpecificEncompassing(new IntInterval(39, 39), v -> true), is(Optional.of("bleating tree")));
+        assertThat("nothing encompasses a wide range",
+                tree.mostSpecificEncompassing(new IntInterval(0, 100), v -> true), is(Optional.empty()));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            int a = random.nextInt(200), b = a + random.nextInt(50);
+            tree = tree.update(new IntInterval(a, b), a + "-" + b, (p, q) -> p, z -> z);
+        }
+        for (int i = 0; i < 500; i++) {
+            int a = random.nextInt(200);
+            IntInterval query = new IntInterval(a, a + random.nextInt(20));
+            Optional<String> expected = tree.equalToAndLeastSpecific(query)
+                    .filter(t -> t.second().hashCode() % 3 != 0)
+                    .reduce((p, q) -> p.first().compareTo(q.first()) <= 0 ? q : p)
+                    .map(Tuple::second);
+            assertThat("matches the reduced stream for " + query,
+                    tree.mostSpecificEncompassing(query, v -> v.hashCode() % 3 != 0), is(expected));
+        }
+    }
+
+    @Test
+    public void testFromSorted() throws Exception {
+        Random random = new Random(3);
+        AvlTree<Integer, String, IntInterval> incremental = new AvlTree<>();
+        List<Tuple<IntInterval, String>> entries = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int a = random.nextInt(10000), b = a + random.nextInt(500);
+            IntInterval iv = new IntInterval(a, b);
+            entries.add(new Tuple<>(iv, a + "-" + b));
+            incremental = incremental.update(iv, a + "-" + b, (p, q) -> p, z -> z);
+        }
+        entries.sort((p, q) -> p.first().compareTo(q.first()));
+        AvlTree<Integer, String, IntInterval> bulk = AvlTree.fromSorted(entries, (p, q) -> p);
+
+        assertThat("both trees hold the same intervals", bulk.size(), is(incremental.size()));
+        assertThat("the bulk tree is perfectly balanced", height(bulk.getRoot()),
+                is(32 - Integer.numberOfLeadingZeros(bulk.size())));
+        for (int i = 0; i < 500; i++) {
+            int a = random.nextInt(10000);
+            IntInterval query = new IntInterval(a, a + random.nextInt(100));
+            assertThat("intersecting " + query + " matches",
+                    bulk.intersecting(query).map(Tuple::second).collect(Collectors.toSet()),
+                    is(incremental.intersecting(query).map(Tuple::second).collect(Collectors.toSet())));
+        }
+    }
+
+    @Test
+    public void testMergeSorted() throws Exception {
+        AvlTree<Integer, Integer, IntInterval> tree = new AvlTree<>();
+        tree = tree.insert(new IntInterval(10, 20), 1);
+        tree = tree.insert(new IntInterval(30, 40), 2);
+        tree = tree.insert(new IntInterval(50, 60), 3);
+        List<Tuple<IntInterval, Integer>> batch = Arrays.asList(
+                new Tuple<>(new IntInterval(0, 5), 10),
+                new Tuple<>(new IntInterval(30, 40), 20),
+                new Tuple<>(new IntInterval(35, 36), 30),
+                new Tuple<>(new IntInterval(70, 80), 40));
+        AvlTree<Integer, Integer, IntInterval> merged = tree.mergeSorted(batch, (p, q) -> p + q);
+
+        assertThat("the original tree is unchanged", tree.size(), is(3));
+        assertThat(merged.size(), is(6));
+        assertThat("matching intervals are appended", merged.exact(new IntInterval(30, 40)), is(Optional.of(22)));
+        assertThat(merged.exact(new IntInterval(0, 5)), is(Optional.of(10)));
+        assertThat(merged.exact(new IntInterval(70, 80)), is(Optional.of(40)));
+        assertThat("max is maintained", merged.intersecting(new IntInterval(75, 75)).count(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromSortedRejectsUnsortedEntries() {
+        AvlTree.fromSorted(Arrays.asList(
+                new Tuple<>(new IntInterval(30, 40), "b"),
+                new Tuple<>(new IntInterval(10, 20), "a")), (p, q) -> p);
+    }
+
     @Test
     public void rangeTest() throws Exception {
         AvlTree<Integer, String, IntInterval> tree = new AvlTree<>();
@@ -120,9 +245,33 @@ public class AvlTreeTest {
         }
 
         IntInterval nearZero = new IntInterval(-1000, 1000);
-        assertTrue("the intersecting stream is parallel", tree.intersecting(nearZero).isParallel());
+        assertFalse("the intersecting stream is sequential", tree.intersecting(nearZero).isParallel());
         List<Integer> theNumbers = tree.intersecting(nearZero).map(Tuple::second).collect(Collectors.toList());
         assertThat("There's the expected number of, er, numbers", theNumbers.size(), is(expected[0]));
+        theNumbers = tree.intersecting(nearZero).parallel().map(Tuple::second).collect(Collectors.toList());
+        assertThat("A parallel scan finds the same numbers", theNumbers.size(), is(expected[0]));
+    }
+
+    @Test
+    public void parallelQueriesSplitAndMatch() throws Exception {
+        AvlTree<Integer, Integer, IntInterval> tree = new AvlTree<>();
+        for (int i = 0; i < 20000; i++) {
+            tree = tree.insert(new IntInterval(i, i + (i % 100)), i);
+        }
+        IntInterval range = new IntInterval(5000, 5050);
+
+        Spliterator<Tuple<IntInterval, Integer>> spliterator = tree.intersecting(new IntInterval(0, 20000)).spliterator();
+        assertTrue("the estimate is bounded by the tree", spliterator.estimateSize() < 65536);
+        assertNotNull("a wide query over a deep tree can split", spliterator.trySplit());
+
+        assertThat("parallel encompassing results match sequential",
+                tree.equalToAndLeastSpecific(range).parallel().map(Tuple::second).collect(Collectors.toSet()),
+                is(tree.equalToAndLeastSpecific(range).map(Tuple::second).collect(Collectors.toSet())));
+        assertThat("parallel intersecting results match sequential",
+                tree.intersecting(range).parallel().map(Tuple::second).collect(Collectors.toSet()),
+                is(tree.intersecting(range).map(Tuple::second).collect(Collectors.toSet())));
+        assertThat("a full parallel traversal sees every node",
+                StreamSupport.stream(tree.spliterator(), true).count(), is(20000L));
     }
 
     @Test
@@ -176,4 +325,31 @@ public class AvlTreeTest {
             }
         };
     }
+
+    @Test
+    public void pagedIntersectingMatchesSortedScan() {
+        Random random = new Random(3);
+        AvlTree<Integer, String, IntInterval> tree = new AvlTree<>();
+        for (int i = 0; i < 3000; i++) {
+            int low = random.nextInt(10000);
+            tree = tree.update(new IntInterval(low, low + random.nextInt(random.nextBoolean() ? 20 : 2000)),
+                    "toad " + i, (a, b) -> a, v -> v);
+        }
+        assertThat("size is the number of nodes", tree.size(), is((int)tree.spliterator().estimateSize()));
+        assertTrue("full scans know their size", tree.spliterator().hasCharacteristics(Spliterator.SIZED));
+
+        for (int q = 0; q < 100; q++) {
+            int low = random.nextInt(10000);
+            IntInterval range = new IntInterval(low, low + random.nextInt(500));
+            List<Tuple<IntInterval, String>> all = tree.intersecting(range)
+                    .sorted((a, b) -> a.first().compareTo(b.first()))
+                    .collect(Collectors.toList());
+            for (int offset = 0; offset <= all.size() + 1; offset += 7) {
+                List<Tuple<IntInterval, String>> page = tree.intersecting(range, offset, 10)
+                        .collect(Collectors.toList());
+                assertThat("page at " + offset + " of " + range,
+                        page, is(all.subList(Math.min(offset, all.size()), Math.min(offset + 10, all.size()))));
+            }
+        }
+    }
 }
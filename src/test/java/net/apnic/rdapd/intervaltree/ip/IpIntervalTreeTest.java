@@ -0,0 +1,189 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.intervaltree.avl.AvlTree;
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+import net.apnic.rdapd.types.Parsing;
+import net.apnic.rdapd.types.Tuple;
+import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class IpIntervalTreeTest {
+    private static final Random RANDOM = new Random(42);
+
+    private static IpInterval randomNetwork(int bytes) {
+        byte[] addr = new byte[bytes];
+        RANDOM.nextBytes(addr);
+        // Keep the networks bunched together so that they overlap
+        addr[0] = (byte)(bytes == 4 ? 10 : 0x20);
+        int prefix = 8 + RANDOM.nextInt(bytes * 8 - 8);
+        for (int i = prefix; i < bytes * 8; i++) {
+            addr[i / 8] &= ~(0x80 >>> (i % 8));
+        }
+        try {
+            return new IpInterval(new IP(InetAddress.getByAddress(addr)), prefix);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static List<IpInterval> randomNetworks(int count) {
+        List<IpInterval> networks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            networks.add(randomNetwork(RANDOM.nextBoolean() ? 4 : 16));
+        }
+        return networks;
+    }
+
+    private static Set<String> names(Stream<Tuple<IpInterval, String>> stream) {
+        return stream.map(Tuple::second).collect(Collectors.toSet());
+    }
+
+    @Test
+    public void matchesAvlTree() {
+        AvlTree<IP, String, IpInterval> avlTree = new AvlTree<>();
+        IpIntervalTree<String> ipTree = new IpIntervalTree<>();
+        for (IpInterval network : randomNetworks(5000)) {
+            avlTree = avlTree.update(network, network.toString(), (a, b) -> a, v -> v);
+            ipTree = ipTree.update(network, network.toString(), (a, b) -> a, v -> v);
+        }
+
+        assertThat("Both trees hold the same number of networks", ipTree.size(), is(avlTree.size()));
+        for (IpInterval query : randomNetworks(500)) {
+            assertThat("Intersecting " + query + " matches",
+                    names(ipTree.intersecting(query)), is(names(avlTree.intersecting(query))));
+            assertThat("Encompassing " + query + " matches",
+                    names(ipTree.equalToAndLeastSpecific(query)), is(names(avlTree.equalToAndLeastSpecific(query))));
+            assertThat("Most specific " + query + " matches",
+                    ipTree.mostSpecificEncompassing(query, v -> v.length() % 2 == 0),
+                    is(avlTree.mostSpecificEncompassing(query, v -> v.length() % 2 == 0)));
+        }
+    }
+
+    @Test
+    public void updateAllMatchesSequentialUpdates() {
+        IpIntervalTree<String> sequential = new IpIntervalTree<>();
+        IpIntervalTree<String> batched = new IpIntervalTree<>();
+        for (int round = 0; round < 3; round++) {
+            List<Tuple<IpInterval, String>> batch = new ArrayList<>();
+            for (IpInterval network : randomNetworks(round == 1 ? 50 : 2000)) {
+                batch.add(new Tuple<>(network, network.toString()));
+                sequential = sequential.update(network, network.toString(), (a, b) -> a + b, v -> v);
+            }
+            batched = batched.updateAll(batch, (a, b) -> a + b);
+        }
+
+        assertThat("Both trees hold the same number of networks", batched.size(), is(sequential.size()));
+        for (IpInterval query : randomNetworks(500)) {
+            assertThat("Intersecting " + query + " matches",
+                    names(batched.intersecting(query)), is(names(sequential.intersecting(query))));
+            assertThat("Exact " + query + " matches", batched.exact(query), is(sequential.exact(query)));
+        }
+    }
+
+    @Test
+    public void testExact() {
+        IpIntervalTree<String> tree = new IpIntervalTree<>();
+        tree = tree.update(Parsing.parseCIDRInterval("10.0.0.0/8"), "eight", (a, b) -> a, v -> v);
+        tree = tree.update(Parsing.parseCIDRInterval("10.0.0.0/16"), "sixteen", (a, b) -> a, v -> v);
+        tree = tree.update(Parsing.parseCIDRInterval("2001:db8::/32"), "doc", (a, b) -> a, v -> v);
+        tree = tree.update(Parsing.parseInterval("10.0.0.0 - 10.0.0.99"), "odd", (a, b) -> a, v -> v);
+
+        assertThat(tree.exact(Parsing.parseCIDRInterval("10.0.0.0/16")), is(Optional.of("sixteen")));
+        assertThat(tree.exact(Parsing.parseCIDRInterval("2001:db8::/32")), is(Optional.of("doc")));
+        assertThat(tree.exact(Parsing.parseInterval("10.0.0.0 - 10.0.0.99")), is(Optional.of("odd")));
+        assertThat(tree.exact(Parsing.parseCIDRInterval("10.0.0.0/24")), is(Optional.empty()));
+        assertThat("address families do not mix",
+                tree.intersecting(Parsing.parseCIDRInterval("::/0")).count(), is(1L));
+    }
+
+    @Test
+    public void updateAppendsToExistingKeys() {
+        IpIntervalTree<Integer> tree = new IpIntervalTree<>();
+        IpInterval network = Parsing.parseCIDRInterval("192.0.2.0/24");
+        tree = tree.update(network, 1, (a, b) -> a + b, v -> v);
+        tree = tree.update(network, 2, (a, b) -> a + b, v -> v);
+
+        assertThat(tree.size(), is(1));
+        assertThat(tree.exact(network), is(Optional.of(3)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSerialization() {
+        List<IpInterval> networks = randomNetworks(2000);
+        IpIntervalTree<String> tree = new IpIntervalTree<>();
+        for (IpInterval network : networks) {
+            tree = tree.update(network, network.toString(), (a, b) -> a, v -> v);
+        }
+
+        FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+        IpIntervalTree<String> tree2 = (IpIntervalTree<String>)conf.asObject(conf.asByteArray(tree));
+
+        assertThat("Serialise/deserialise keeps every entry",
+                names(StreamSupport.stream(tree2.spliterator(), false)),
+                is(names(StreamSupport.stream(tree.spliterator(), false))));
+        for (IpInterval network : networks) {
+            assertThat(tree2.exact(network), is(tree.exact(network)));
+        }
+    }
+
+    @Test
+    public void pagedIntersectingMatchesSortedScan() {
+        IpIntervalTree<String> tree = new IpIntervalTree<>();
+        for (IpInterval network : randomNetworks(3000)) {
+            tree = tree.update(network, network.toString(), (a, b) -> a, v -> v);
+        }
+        assertThat("size is the number of nodes", tree.size(), is((int)tree.spliterator().estimateSize()));
+
+        for (IpInterval query : randomNetworks(200)) {
+            List<String> all = tree.intersecting(query)
+                    .sorted((a, b) -> a.first().compareTo(b.first()))
+                    .map(Tuple::second)
+                    .collect(Collectors.toList());
+            for (int offset = 0; offset <= all.size() + 1; offset += 3) {
+                List<String> page = tree.intersecting(query, offset, 5).map(Tuple::second)
+                        .collect(Collectors.toList());
+                assertThat("page at " + offset + " of " + query,
+                        page, is(all.subList(Math.min(offset, all.size()), Math.min(offset + 5, all.size()))));
+            }
+        }
+    }
+
+    @Test
+    public void filteredPagesAreTakenAfterFiltering() {
+        IpIntervalTree<String> tree = new IpIntervalTree<>();
+        for (IpInterval network : randomNetworks(3000)) {
+            tree = tree.update(network, network.toString(), (a, b) -> a, v -> v);
+        }
+
+        for (IpInterval query : randomNetworks(200)) {
+            int cap = query.prefixSize() + 8;
+            List<String> all = tree.intersecting(query)
+                    .filter(t -> t.first().prefixSize() <= cap)
+                    .sorted((a, b) -> a.first().compareTo(b.first()))
+                    .map(Tuple::second)
+                    .collect(Collectors.toList());
+            for (int offset = 0; offset <= all.size() + 1; offset += 3) {
+                List<String> page = tree.intersecting(query, network -> network.prefixSize() <= cap, offset, 5)
+                        .map(Tuple::second)
+                        .collect(Collectors.toList());
+                assertThat("page at " + offset + " of " + query,
+                        page, is(all.subList(Math.min(offset, all.size()), Math.min(offset + 5, all.size()))));
+            }
+        }
+    }
+}
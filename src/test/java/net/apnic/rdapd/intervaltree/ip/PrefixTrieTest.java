@@ -0,0 +1,91 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+import net.apnic.rdapd.types.Parsing;
+import net.apnic.rdapd.types.Tuple;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PrefixTrieTest {
+    private static final Random RANDOM = new Random(7);
+
+    private static IpInterval randomNetwork(int bytes) {
+        byte[] addr = new byte[bytes];
+        RANDOM.nextBytes(addr);
+        // Keep the networks bunched together so that they nest
+        addr[0] = (byte)(bytes == 4 ? 10 : 0x20);
+        addr[1] &= 0x03;
+        int prefix = 8 + RANDOM.nextInt(bytes * 8 - 8);
+        for (int i = prefix; i < bytes * 8; i++) {
+            addr[i / 8] &= ~(0x80 >>> (i % 8));
+        }
+        try {
+            return new IpInterval(new IP(InetAddress.getByAddress(addr)), prefix);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Test
+    public void matchesIntervalTree() {
+        IpIntervalTree<String> tree = new IpIntervalTree<>();
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        Map<String, Boolean> current = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            IpInterval network = randomNetwork(RANDOM.nextBoolean() ? 4 : 16);
+            boolean isCurrent = RANDOM.nextInt(4) != 0;
+            tree = tree.update(network, network.toString(), (a, b) -> a, v -> v);
+            trie = trie.put(network, network.toString(), isCurrent);
+            current.put(network.toString(), isCurrent);
+        }
+
+        assertThat("Both hold the same number of networks", trie.size(), is(tree.size()));
+        for (int i = 0; i < 2000; i++) {
+            IpInterval query = randomNetwork(RANDOM.nextBoolean() ? 4 : 16);
+            Optional<String> expected = tree.equalToAndLeastSpecific(query)
+                    .filter(t -> current.get(t.second()))
+                    .reduce((a, b) -> a.first().compareTo(b.first()) <= 0 ? b : a)
+                    .map(Tuple::second);
+            assertThat("Most specific for " + query, trie.mostSpecificCurrent(query), is(expected));
+        }
+    }
+
+    @Test
+    public void nonCidrRanges() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        trie = trie.put(Parsing.parseCIDRInterval("10.0.0.0/8"), "eight", true);
+        trie = trie.put(Parsing.parseInterval("10.0.0.0 - 10.0.0.99"), "odd", true);
+        trie = trie.put(Parsing.parseInterval("10.0.0.50 - 10.0.1.10"), "straddle", true);
+
+        assertThat(trie.mostSpecificCurrent(Parsing.parseCIDRInterval("10.0.0.0/26")), is(Optional.of("odd")));
+        assertThat(trie.mostSpecificCurrent(Parsing.parseCIDRInterval("10.0.0.64/27")), is(Optional.of("straddle")));
+        assertThat(trie.mostSpecificCurrent(Parsing.parseCIDRInterval("10.0.0.96/30")), is(Optional.of("straddle")));
+        assertThat(trie.mostSpecificCurrent(Parsing.parseCIDRInterval("10.0.0.0/24")), is(Optional.of("eight")));
+        assertThat(trie.mostSpecificCurrent(Parsing.parseCIDRInterval("11.0.0.0/24")), is(Optional.empty()));
+    }
+
+    @Test
+    public void putReplacesCurrentState() {
+        IpInterval eight = Parsing.parseCIDRInterval("10.0.0.0/8");
+        IpInterval sixteen = Parsing.parseCIDRInterval("10.1.0.0/16");
+        PrefixTrie<String> trie = new PrefixTrie<String>()
+                .put(eight, "eight", true)
+                .put(sixteen, "sixteen", true);
+        IpInterval query = Parsing.parseCIDRInterval("10.1.2.0/24");
+
+        assertThat(trie.mostSpecificCurrent(query), is(Optional.of("sixteen")));
+        PrefixTrie<String> deleted = trie.put(sixteen, "sixteen", false);
+        assertThat(deleted.size(), is(2));
+        assertThat(deleted.mostSpecificCurrent(query), is(Optional.of("eight")));
+        assertThat("the original trie is unchanged", trie.mostSpecificCurrent(query), is(Optional.of("sixteen")));
+    }
+}
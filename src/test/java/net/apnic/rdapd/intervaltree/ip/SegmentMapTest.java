@@ -0,0 +1,119 @@
+package net.apnic.rdapd.intervaltree.ip;
+
+import net.apnic.rdapd.types.IP;
+import net.apnic.rdapd.types.IpInterval;
+import net.apnic.rdapd.types.Parsing;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SegmentMapTest {
+    private static final Random RANDOM = new Random(13);
+
+    private static IpInterval randomNetwork(int bytes) {
+        byte[] addr = new byte[bytes];
+        RANDOM.nextBytes(addr);
+        // Keep the networks bunched together so that they nest
+        addr[0] = (byte)(bytes == 4 ? 10 : 0x20);
+        addr[1] &= 0x03;
+        int prefix = 8 + RANDOM.nextInt(bytes * 8 - 8);
+        for (int i = prefix; i < bytes * 8; i++) {
+            addr[i / 8] &= ~(0x80 >>> (i % 8));
+        }
+        try {
+            return new IpInterval(new IP(InetAddress.getByAddress(addr)), prefix);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static IpInterval single(IP address) {
+        return new IpInterval(address, address);
+    }
+
+    private static void assertMatchesTrie(SegmentMap<String> segments, PrefixTrie<String> trie,
+                                          List<IpInterval> networks) {
+        for (IpInterval network : networks) {
+            for (IP address : new IP[] { network.low(), network.high() }) {
+                assertThat("Owner of " + address,
+                        segments.mostSpecificCurrent(address), is(trie.mostSpecificCurrent(single(address))));
+            }
+            IP inside = randomNetwork(network.low().getAddress().getAddress().length).low();
+            assertThat("Owner of " + inside,
+                    segments.mostSpecificCurrent(inside), is(trie.mostSpecificCurrent(single(inside))));
+        }
+    }
+
+    @Test
+    public void matchesPrefixTrie() {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        SegmentMap<String> segments = new SegmentMap<>();
+        List<IpInterval> networks = new ArrayList<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 2000; i++) {
+                // Revisit known networks now and then, to delete, restore or rename them
+                IpInterval network = !networks.isEmpty() && RANDOM.nextInt(3) == 0
+                        ? networks.get(RANDOM.nextInt(networks.size()))
+                        : randomNetwork(RANDOM.nextBoolean() ? 4 : 16);
+                networks.add(network);
+                String value = network + "#" + RANDOM.nextInt(3);
+                boolean current = RANDOM.nextInt(4) != 0;
+                trie = trie.put(network, value, current);
+                segments = segments.update(network, value, current, trie);
+            }
+            assertMatchesTrie(segments, trie, networks);
+            segments = segments.compact();
+            assertThat("Compaction empties the overlay", segments.overlaySize(), is(0));
+            assertMatchesTrie(segments, trie, networks);
+        }
+    }
+
+    @Test
+    public void deletionExposesEnclosingNetwork() throws Exception {
+        IpInterval outer = Parsing.parseCIDRInterval("10.0.0.0/8");
+        IpInterval inner = Parsing.parseCIDRInterval("10.1.0.0/16");
+        IP address = Parsing.parseCIDRInterval("10.1.2.3/32").low();
+
+        PrefixTrie<String> trie = new PrefixTrie<String>().put(outer, "outer", true).put(inner, "inner", true);
+        SegmentMap<String> segments = new SegmentMap<String>()
+                .update(inner, "inner", true, trie)
+                .update(outer, "outer", true, trie);
+        assertThat(segments.mostSpecificCurrent(address), is(Optional.of("inner")));
+
+        trie = trie.put(inner, "inner", false);
+        segments = segments.update(inner, "inner", false, trie).compact();
+        assertThat(segments.mostSpecificCurrent(address), is(Optional.of("outer")));
+        assertThat(segments.mostSpecificCurrent(Parsing.parseCIDRInterval("11.0.0.0/32").low()),
+                is(Optional.empty()));
+    }
+
+    @Test
+    public void newRevisionOfAParentLeavesItsSegmentsAlone() throws Exception {
+        IpInterval outer = Parsing.parseCIDRInterval("10.0.0.0/8");
+        PrefixTrie<String> trie = new PrefixTrie<String>().put(outer, "outer", true);
+        SegmentMap<String> segments = new SegmentMap<String>().update(outer, "outer", true, trie);
+        for (int i = 0; i < 16; i++) {
+            IpInterval inner = Parsing.parseCIDRInterval("10." + i + ".0.0/16");
+            trie = trie.put(inner, "inner" + i, true);
+            segments = segments.update(inner, "inner" + i, true, trie);
+        }
+        segments = segments.compact();
+
+        segments = segments.update(outer, "outer", true, trie);
+        assertThat("Nothing is relabelled", segments.overlaySize(), is(0));
+
+        trie = trie.put(outer, "renamed", true);
+        segments = segments.update(outer, "renamed", true, trie);
+        assertThat(segments.mostSpecificCurrent(Parsing.parseCIDRInterval("10.200.0.0/32").low()),
+                is(Optional.of("renamed")));
+        assertThat(segments.mostSpecificCurrent(Parsing.parseCIDRInterval("10.3.0.0/32").low()),
+                is(Optional.of("inner3")));
+    }
+}
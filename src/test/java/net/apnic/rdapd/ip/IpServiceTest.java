@@ -3,20 +3,27 @@ package net.apnic.rdapd.ip;
 import net.apnic.rdapd.history.History;
 import net.apnic.rdapd.history.ObjectClass;
 import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.history.QueryExecutor;
 import net.apnic.rdapd.history.Revision;
 import net.apnic.rdapd.history.config.HistoryConfiguration;
 import net.apnic.rdapd.rdap.IpNetwork;
 import net.apnic.rdapd.types.Parsing;
 import org.junit.Test;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
 
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.Arrays;
 import java.util.Optional;
 
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
 
 public class IpServiceTest {
+    private static final QueryExecutor QUERY_EXECUTOR =
+            new QueryExecutor(0, mock(CounterService.class), mock(GaugeService.class));
 
     ZonedDateTime dummyDateTime = null;
 
@@ -48,7 +55,7 @@ public class IpServiceTest {
             );
         }
 
-        IpService ipService = new HistoryConfiguration().ipService(history);
+        IpService ipService = new HistoryConfiguration().ipService(history, QUERY_EXECUTOR);
 
         //Result is the most specific address range encompassing the search term
         assertThat(
@@ -148,7 +155,7 @@ public class IpServiceTest {
             history.addRevision(objectKey, new Revision(dummyDateTime, dummyDateTime, new DeletedObject(objectKey)));
         }
 
-        IpService ipService = new HistoryConfiguration().ipService(history);
+        IpService ipService = new HistoryConfiguration().ipService(history, QUERY_EXECUTOR);
 
         assertThat(
                 ipService.find(Parsing.parseCIDRInterval("10.0.0.0/20")).get().getObjectKey().getObjectName(),
@@ -161,6 +168,31 @@ public class IpServiceTest {
         );
     }
 
+    @Test
+    public void findAtReturnsTheNetworkAsItWas() {
+        long stamp = ZonedDateTime.of(2015, 3, 1, 0, 0, 0, 0, ZoneOffset.UTC).toEpochSecond();
+        History history = new History();
+        ObjectKey wide = new ObjectKey(ObjectClass.IP_NETWORK, "10.0.0.0/8");
+        history.addRevision(wide, new Revision(stamp, Revision.OPEN, new EmptyObject(wide)));
+        ObjectKey narrow = new ObjectKey(ObjectClass.IP_NETWORK, "10.0.0.0/16");
+        history.addRevision(narrow, new Revision(stamp, Revision.OPEN, new EmptyObject(narrow)));
+        history.addRevision(narrow, new Revision(stamp + 86400, Revision.OPEN, new DeletedObject(narrow)));
+
+        IpService ipService = new HistoryConfiguration().ipService(history, QUERY_EXECUTOR);
+
+        assertThat("A since-deleted network is found while it existed",
+                ipService.findAt(Parsing.parseCIDRInterval("10.0.0.0/20"), stamp + 3600)
+                        .get().getObjectKey().getObjectName(),
+                is("10.0.0.0/16"));
+        assertThat("A deleted network is passed over",
+                ipService.findAt(Parsing.parseCIDRInterval("10.0.0.0/20"), stamp + 86400)
+                        .get().getObjectKey().getObjectName(),
+                is("10.0.0.0/8"));
+        assertThat("Nothing is found before any network existed",
+                ipService.findAt(Parsing.parseCIDRInterval("10.0.0.0/20"), stamp - 1),
+                is(Optional.empty()));
+    }
+
     static class EmptyObject extends IpNetwork {
         public EmptyObject(ObjectKey key) {
             super(key, Parsing.parseCIDRInterval(key.getObjectName()));
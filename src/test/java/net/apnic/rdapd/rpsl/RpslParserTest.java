@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 import static org.hamcrest.Matchers.is;
@@ -88,4 +89,24 @@ public class RpslParserTest {
         assertThat("Three attributes as expected", RpslParser.parseObject(input),
                 is(expected));
     }
+
+    @Test
+    public void scanKeepsPrimaryAndRequestedAttributes() {
+        String input = "person:  Example Citizen\nhandle:EC44-AP\nremarks: a continuation\n     line.\n"
+                + "remarks: a continuation\n+\n+     line.\nsource:\t\tTEST";
+        List<Tuple<String, String>> expected = Arrays.asList(
+                new Tuple<>("person", "Example Citizen"),
+                new Tuple<>("remarks", "a continuation line."),
+                new Tuple<>("remarks", "a continuation       line."));
+
+        assertThat("Scanned attributes are read as the parser reads them",
+                RpslParser.scanObject(input.getBytes(), new HashSet<>(Arrays.asList("remarks"))),
+                is(expected));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scanRejectsNonAttributes() {
+        RpslParser.scanObject("person:  Example Citizen\nnot an attribute\n".getBytes(),
+                Collections.emptySet());
+    }
 }
@@ -0,0 +1,73 @@
+package net.apnic.rdapd.rpsl.rdap;
+
+import net.apnic.rdapd.history.ObjectClass;
+import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.rdap.Domain;
+import net.apnic.rdapd.rdap.RdapObject;
+import net.apnic.rdapd.rdap.RelatedEntity;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class InternPoolTest {
+    private static final String DOMAIN = "domain:  1.0.0.127.in-addr.arpa\n"
+            + "admin-c: EC44-AP\n"
+            + "nserver: ns1.example.com\n"
+            + "last-modified: 2018-01-01T00:00:00Z\n";
+
+    private static Domain convert(String name, InternPool pool) {
+        ObjectKey key = new ObjectKey(ObjectClass.DOMAIN, name);
+        return (Domain)RpslToRdap.rpslToRdap(key, DOMAIN.replace("1.0.0.127", name.substring(0, 9))
+                .getBytes(StandardCharsets.UTF_8), pool);
+    }
+
+    private static RelatedEntity relatedEntity(RdapObject object) {
+        return object.getRelatedEntities().iterator().next();
+    }
+
+    @Test
+    public void conversionsShareRecurringValues() {
+        InternPool pool = new InternPool(100);
+        Domain first = convert("1.0.0.127.in-addr.arpa", pool);
+        Domain second = convert("2.0.0.127.in-addr.arpa", pool);
+
+        assertThat("Related entity keys are shared",
+                relatedEntity(second).getObjectKey(), is(sameInstance(relatedEntity(first).getObjectKey())));
+        assertThat("Role sets are shared",
+                relatedEntity(second).getRoles(), is(sameInstance(relatedEntity(first).getRoles())));
+        assertThat("Name servers are shared",
+                second.getNameServers().get(0), is(sameInstance(first.getNameServers().get(0))));
+        assertThat("Event dates are shared",
+                second.getEvents().get(0).getDateValueStr(), is(sameInstance(first.getEvents().get(0).getDateValueStr())));
+        assertThat("The duplicates dropped are counted", pool.getBytesDeduplicated(), is(greaterThan(0L)));
+        assertThat("The hits are counted", pool.getHits(), is(greaterThan(0L)));
+    }
+
+    @Test
+    public void disabledPoolSharesNothing() {
+        InternPool pool = InternPool.disabled();
+        Domain first = convert("1.0.0.127.in-addr.arpa", pool);
+        Domain second = convert("2.0.0.127.in-addr.arpa", pool);
+
+        assertThat(relatedEntity(second).getObjectKey(), is(not(sameInstance(relatedEntity(first).getObjectKey()))));
+        assertThat(pool.size(), is(0));
+        assertThat(pool.getBytesDeduplicated(), is(0L));
+    }
+
+    @Test
+    public void fullPoolStillServesItsInstances() {
+        InternPool pool = new InternPool(1);
+        String held = pool.string(new String("held"));
+
+        assertThat(pool.string(new String("held")), is(sameInstance(held)));
+        String other = new String("other");
+        assertThat("Nothing more is admitted", pool.string(other), is(sameInstance(other)));
+        assertThat(pool.size(), is(1));
+    }
+}
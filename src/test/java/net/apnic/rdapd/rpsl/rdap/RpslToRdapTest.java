@@ -0,0 +1,90 @@
+package net.apnic.rdapd.rpsl.rdap;
+
+import net.apnic.rdapd.history.ObjectClass;
+import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.rdap.Entity;
+import net.apnic.rdapd.rdap.VCardAttribute;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class RpslToRdapTest {
+    private static final ObjectKey DOMAIN_KEY = new ObjectKey(ObjectClass.DOMAIN, "1.0.0.127.in-addr.arpa");
+
+    private static long fingerprint(String rpsl) {
+        return RpslToRdap.rpslToRdap(DOMAIN_KEY, rpsl.getBytes(StandardCharsets.UTF_8)).getFingerprint();
+    }
+
+    @Test
+    public void fingerprintFollowsRdapContent() {
+        String domain = "domain:  1.0.0.127.in-addr.arpa\n"
+                + "descr:   Example domain\n"
+                + "admin-c: EC44-AP\n"
+                + "nserver: ns1.example.com\n";
+
+        assertThat("A fingerprint is computed", fingerprint(domain), is(not(0L)));
+        assertThat("The fingerprint is stable", fingerprint(domain), is(fingerprint(domain)));
+        assertThat("Attributes absent from RDAP are not fingerprinted",
+                fingerprint(domain + "mnt-by:  MAINT-EXAMPLE\nsource:  TEST\n"), is(fingerprint(domain)));
+        assertThat("Descriptions are fingerprinted",
+                fingerprint(domain.replace("Example domain", "Another domain")), is(not(fingerprint(domain))));
+        assertThat("Related entities are fingerprinted by handle",
+                fingerprint(domain.replace("EC44-AP", "EC45-AP")), is(not(fingerprint(domain))));
+        assertThat("Related entities are fingerprinted by role",
+                fingerprint(domain.replace("admin-c", "tech-c")), is(not(fingerprint(domain))));
+        assertThat("Deletion is fingerprinted", fingerprint(""), is(not(fingerprint(domain))));
+    }
+
+    private static long summaryFingerprint(String rpsl) {
+        return RpslToRdap.summarise(DOMAIN_KEY, rpsl.getBytes(StandardCharsets.UTF_8), InternPool.disabled())
+                .getFingerprint();
+    }
+
+    @Test
+    public void summaryFingerprintFollowsTheWholeObject() {
+        String domain = "domain:  1.0.0.127.in-addr.arpa\n"
+                + "descr:   Example domain\n"
+                + "admin-c: EC44-AP\n"
+                + "nserver: ns1.example.com\n";
+
+        assertThat("The fingerprint is stable", summaryFingerprint(domain), is(summaryFingerprint(domain)));
+        assertThat("Attributes absent from RDAP are fingerprinted",
+                summaryFingerprint(domain + "mnt-by:  MAINT-EXAMPLE\nsource:  TEST\n"),
+                is(not(summaryFingerprint(domain))));
+        assertThat("Name servers are fingerprinted",
+                summaryFingerprint(domain.replace("ns1", "ns2")), is(not(summaryFingerprint(domain))));
+        assertThat("Related entities are fingerprinted by role",
+                summaryFingerprint(domain.replace("admin-c", "tech-c")), is(not(summaryFingerprint(domain))));
+        assertThat("Deletion is fingerprinted", summaryFingerprint(""), is(not(summaryFingerprint(domain))));
+    }
+
+    @Test
+    public void summaryHoldsIndexedFields() {
+        ObjectKey key = new ObjectKey(ObjectClass.ENTITY, "EC44-AP");
+        byte[] rpsl = ("person:  Example Citizen\n"
+                + "nic-hdl: EC44-AP\n"
+                + "address: 1 Example Street\n"
+                + "tech-c:  EC45-AP\n").getBytes(StandardCharsets.UTF_8);
+
+        Entity converted = (Entity)RpslToRdap.rpslToRdap(key, rpsl);
+        Entity summary = (Entity)RpslToRdap.summarise(key, rpsl, InternPool.disabled());
+
+        assertThat("The summary has the converted entity keys",
+                summary.getEntityKeys(), containsInAnyOrder(converted.getEntityKeys().toArray()));
+        assertThat("The summary has the converted formatted name",
+                names(summary), is(names(converted)));
+        assertThat("The summary is not deleted", summary.isDeleted(), is(false));
+    }
+
+    private static Object names(Entity entity) {
+        return entity.getVCard().findVCardAttribute("fn")
+                .map(VCardAttribute::getValue)
+                .collect(Collectors.toList());
+    }
+}
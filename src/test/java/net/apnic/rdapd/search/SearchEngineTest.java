@@ -0,0 +1,144 @@
+package net.apnic.rdapd.search;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.apnic.rdapd.history.ObjectClass;
+import net.apnic.rdapd.history.ObjectKey;
+import net.apnic.rdapd.history.ObjectSearchKey;
+import net.apnic.rdapd.history.Revision;
+import net.apnic.rdapd.search.WildCardSearchIndexTest.EmptyObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SearchEngineTest
+{
+    private static final ObjectSearchKey BATS =
+        new ObjectSearchKey(ObjectClass.ENTITY, "handle", "bat*");
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException
+    {
+        directory = Files.createTempDirectory("search");
+    }
+
+    @After
+    public void removeDirectory() throws IOException
+    {
+        try(Stream<Path> paths = Files.walk(directory))
+        {
+            for(Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+            {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static SearchEngine engine()
+    {
+        return new SearchEngine(Arrays.asList(
+            new WildCardSearchIndex(ObjectClass.ENTITY, "handle",
+                (rev, objectKey) -> Stream.of(objectKey.getObjectName()))),
+            10);
+    }
+
+    private static void put(SearchEngine engine, String... names)
+    {
+        for(String name : names)
+        {
+            ObjectKey objectKey = new ObjectKey(ObjectClass.ENTITY, name);
+            engine.putIndexEntry(new Revision(null, null, new EmptyObject(objectKey)), objectKey);
+        }
+    }
+
+    private static List<String> bats(SearchEngine engine)
+    {
+        return engine.getObjectsForKey(BATS).getKeys()
+            .map(ObjectKey::getObjectName)
+            .collect(Collectors.toList());
+    }
+
+    @Test
+    public void restoredIndexesMatchTheLoadedOnes() throws IOException
+    {
+        SearchEngine loaded = engine();
+        put(loaded, "bat1", "bat12", "wing-bat1");
+        loaded.commit(42L);
+        loaded.writeIndexes(directory.resolve("indexes"));
+
+        SearchEngine restored = engine();
+        assertThat(restored.readIndexes(directory.resolve("indexes"), 42L), is(true));
+
+        assertThat(bats(restored), containsInAnyOrder(bats(loaded).toArray()));
+        put(restored, "bat2");
+        assertThat("Restored indexes are added to", bats(restored),
+            containsInAnyOrder("bat1", "bat12", "bat2"));
+    }
+
+    @Test
+    public void onlyCommittedMappingsAreWritten() throws IOException
+    {
+        SearchEngine loaded = engine();
+        put(loaded, "bat1");
+        loaded.commit(42L);
+        put(loaded, "bat12");
+        loaded.writeIndexes(directory.resolve("indexes"));
+
+        SearchEngine restored = engine();
+        restored.readIndexes(directory.resolve("indexes"), 42L);
+
+        assertThat(bats(restored), containsInAnyOrder("bat1"));
+    }
+
+    @Test
+    public void indexesBehindTheHistoryAreNotRestored() throws IOException
+    {
+        SearchEngine loaded = engine();
+        put(loaded, "bat1");
+        loaded.commit(41L);
+        loaded.writeIndexes(directory.resolve("indexes"));
+
+        assertThat(engine().readIndexes(directory.resolve("indexes"), 42L), is(false));
+        assertThat("Nothing is restored from a missing directory",
+            engine().readIndexes(directory.resolve("missing"), 42L), is(false));
+        assertThat(bats(engine()), is(empty()));
+    }
+
+    @Test
+    public void movedIndexesReplaceThoseAtTheTarget() throws IOException
+    {
+        SearchEngine older = engine();
+        put(older, "bat1");
+        older.commit(41L);
+        older.writeIndexes(directory.resolve("indexes"));
+        SearchEngine newer = engine();
+        put(newer, "bat1", "bat2");
+        newer.commit(42L);
+        newer.writeIndexes(directory.resolve("indexes.1"));
+
+        SearchEngine.moveIndexes(directory.resolve("indexes"), directory.resolve("indexes.1"));
+
+        SearchEngine restored = engine();
+        assertThat(restored.readIndexes(directory.resolve("indexes.1"), 41L), is(true));
+        assertThat(bats(restored), containsInAnyOrder("bat1"));
+        assertThat(Files.exists(directory.resolve("indexes")), is(false));
+
+        SearchEngine.moveIndexes(directory.resolve("missing"), directory.resolve("indexes.1"));
+        assertThat("Nothing is left to be restored with another snapshot",
+            Files.exists(directory.resolve("indexes.1")), is(false));
+    }
+}
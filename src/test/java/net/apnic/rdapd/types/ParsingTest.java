@@ -2,6 +2,7 @@ package net.apnic.rdapd.types;
 
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
@@ -81,4 +82,22 @@ public class ParsingTest
         });
     }
 
+
+    @Test
+    public void testParseInstant()
+    {
+        assertEquals("A date is the start of the day in UTC",
+            1425168000L, Parsing.parseInstant("2015-03-01"));
+        assertEquals(1425168000L, Parsing.parseInstant("2015-03-01T00:00:00Z"));
+        assertEquals(1425168000L, Parsing.parseInstant("2015-03-01T10:00:00+10:00"));
+        try
+        {
+            Parsing.parseInstant("yesterday");
+            assertTrue("Did not thrown exception for yesterday", false);
+        }
+        catch(RuntimeException ex)
+        {
+            assertTrue(true);
+        }
+    }
 }